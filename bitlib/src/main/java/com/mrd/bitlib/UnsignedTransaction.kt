@@ -26,6 +26,9 @@ open class UnsignedTransaction constructor(
     init {
         // Create transaction with valid outputs and empty inputs
         val transaction = BitcoinTransaction(1, inputs, this.outputs, lockTime)
+        // the outpoints, sequence numbers and outputs don't change while signing, so the BIP143 hashes
+        // shared by all inputs are calculated only once
+        val sigHashContext = SigHashContext(transaction)
 
         for (i in fundingOutputs.indices) {
             if (isSegWitOutput(i)) {
@@ -66,13 +69,13 @@ open class UnsignedTransaction constructor(
             }
 
             // Calculate the transaction hash that has to be signed
-            val hash = transaction.getTxDigestHash(i)
+            val hash = sigHashContext.getTxDigestHash(i, SigHashContext.SIGHASH_ALL)
             // Set the input to the empty script again
             if (!isSegWitOutput(i)) {
                 inputs.forEachIndexed { index, it ->
                     it.script = scriptsList[index]
                 }
-                inputs[i] = TransactionInput(fundingOutputs[i].outPoint, ScriptInput.EMPTY, NO_SEQUENCE, fundingOutputs[i].value)
+                inputs[i] = TransactionInput(fundingOutputs[i].outPoint, ScriptInput.EMPTY, defaultSequenceNumber, fundingOutputs[i].value)
             }
 
             signingRequests[i] = SigningRequest(publicKey, hash)
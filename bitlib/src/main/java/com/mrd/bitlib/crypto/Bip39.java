@@ -16,6 +16,7 @@
 
 package com.mrd.bitlib.crypto;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.mrd.bitlib.lambdaworks.crypto.PBKDF;
 import com.mrd.bitlib.util.BitUtils;
@@ -267,13 +268,10 @@ public class Bip39 {
       buf[bitIndex / 8] = (byte) value;
    }
 
-   private static int getWordIndex(String word) {
-      for (int i = 0; i < ENGLISH_WORD_LIST.length; i++) {
-         if (ENGLISH_WORD_LIST[i].equals(word)) {
-            return i;
-         }
-      }
-      return -1;
+   @VisibleForTesting
+   public static int getWordIndex(String word) {
+      int index = Arrays.binarySearch(SORTED_WORDS, word);
+      return index < 0 ? -1 : index;
    }
 
    /**
@@ -600,4 +598,8 @@ public class Bip39 {
          "witness", "wolf", "woman", "wonder", "wood", "wool", "word", "work", "world", "worry", "worth", "wrap",
          "wreck", "wrestle", "wrist", "write", "wrong", "yard", "year", "yellow", "you", "young", "youth", "zebra",
          "zero", "zone", "zoo"};
+
+   // A copy that can't be changed from outside. The word list is in alphabetical order, so the index of a word is
+   // found with a binary search
+   private static final String[] SORTED_WORDS = ENGLISH_WORD_LIST.clone();
 }
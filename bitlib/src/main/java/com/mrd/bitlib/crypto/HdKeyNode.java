@@ -19,11 +19,18 @@ package com.mrd.bitlib.crypto;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.mrd.bitlib.bitcoinj.Base58;
 import com.google.common.base.Preconditions;
+import com.mrd.bitlib.crypto.ec.EcTools;
+import com.mrd.bitlib.crypto.ec.JacobianPoint;
 import com.mrd.bitlib.crypto.ec.Parameters;
 import com.mrd.bitlib.crypto.ec.Point;
 import com.mrd.bitlib.model.hdpath.HdKeyPath;
@@ -53,6 +60,8 @@ public class HdKeyNode implements Serializable {
 
    private static final String BITCOIN_SEED = "Bitcoin seed";
    private static final int CHAIN_CODE_SIZE = 32;
+   // ranges smaller than twice this are not worth splitting across threads
+   private static final int MIN_PARALLEL_CHUNK = 16;
 
    private final InMemoryPrivateKey _privateKey;
    private final PublicKey _publicKey;
@@ -324,6 +333,134 @@ public class HdKeyNode implements Serializable {
       }
    }
 
+   /**
+    * Create the non-hardened child nodes of this node for a range of indexes. This gives the same result as
+    * calling {@link #createChildNode(int)} for every index, but shares the expensive work across the range:
+    * the parent public key is decoded once, every child public key is computed as parent + IL * G using the
+    * precomputed generator table, and all child points are converted to affine coordinates with a single
+    * modular inversion.
+    * <p>
+    * If this is a private key node the children are private key nodes, otherwise they are public key nodes.
+    *
+    * @param fromIndex
+    *           the first index to derive, inclusive
+    * @param toIndex
+    *           the last index to derive, inclusive
+    * @return the child nodes ordered by index
+    * @throws KeyGenerationException
+    *            if the range contains hardened indexes, or if no key can be
+    *            created for an index (extremely unlikely)
+    */
+   public List<HdKeyNode> deriveChildrenRange(int fromIndex, int toIndex) throws KeyGenerationException {
+      return deriveChildrenRange(fromIndex, toIndex, isPrivateHdKeyNode(), null);
+   }
+
+   /**
+    * Like {@link #deriveChildrenRange(int, int)}, but always returns public key nodes. For private key nodes
+    * this skips creating the child private keys.
+    */
+   public List<HdKeyNode> derivePublicChildrenRange(int fromIndex, int toIndex) throws KeyGenerationException {
+      return deriveChildrenRange(fromIndex, toIndex, false, null);
+   }
+
+   /**
+    * Like {@link #deriveChildrenRange(int, int)}, optionally splitting the range into chunks that are
+    * derived in parallel.
+    *
+    * @param withPrivateKeys
+    *           whether to return private key nodes. Requires this to be a private key node
+    * @param executor
+    *           the executor to derive chunks of the range on, or null to derive everything on the calling
+    *           thread
+    */
+   public List<HdKeyNode> deriveChildrenRange(int fromIndex, int toIndex, boolean withPrivateKeys,
+                                              @Nullable ExecutorService executor) throws KeyGenerationException {
+      if (fromIndex < 0 || toIndex < fromIndex || (toIndex & HARDENED_MARKER) != 0) {
+         throw new KeyGenerationException("Invalid range for non-hardened key derivation");
+      }
+      if (withPrivateKeys && !isPrivateHdKeyNode()) {
+         throw new KeyGenerationException("Not a private HD key node");
+      }
+      int count = toIndex - fromIndex + 1;
+      int threads = Runtime.getRuntime().availableProcessors();
+      if (executor == null || threads < 2 || count < 2 * MIN_PARALLEL_CHUNK) {
+         return deriveChunk(fromIndex, toIndex, withPrivateKeys);
+      }
+      int chunkSize = Math.max(MIN_PARALLEL_CHUNK, (count + threads - 1) / threads);
+      List<Future<List<HdKeyNode>>> futures = new ArrayList<>();
+      for (int start = fromIndex; start <= toIndex; start += chunkSize) {
+         final int chunkFrom = start;
+         final int chunkTo = Math.min(toIndex, start + chunkSize - 1);
+         futures.add(executor.submit(new Callable<List<HdKeyNode>>() {
+            @Override
+            public List<HdKeyNode> call() {
+               return deriveChunk(chunkFrom, chunkTo, withPrivateKeys);
+            }
+         }));
+      }
+      List<HdKeyNode> result = new ArrayList<>(count);
+      try {
+         for (Future<List<HdKeyNode>> future : futures) {
+            result.addAll(future.get());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new KeyGenerationException("Interrupted while deriving keys");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof KeyGenerationException) {
+            throw (KeyGenerationException) e.getCause();
+         }
+         throw new RuntimeException(e.getCause());
+      }
+      return result;
+   }
+
+   private List<HdKeyNode> deriveChunk(int fromIndex, int toIndex, boolean withPrivateKeys) {
+      int count = toIndex - fromIndex + 1;
+      byte[] publicKeyBytes = _publicKey.getPublicKeyBytes();
+      Point parentPoint = _publicKey.getQ();
+      BigInteger kpar = withPrivateKeys ? new BigInteger(1, _privateKey.getPrivateKeyBytes()) : null;
+      int fingerprint = getFingerprint();
+
+      BigInteger[] childKeys = new BigInteger[count];
+      byte[][] chainCodes = new byte[count][];
+      JacobianPoint[] points = new JacobianPoint[count];
+      for (int i = 0; i < count; i++) {
+         ByteWriter writer = new ByteWriter(publicKeyBytes.length + 4);
+         writer.putBytes(publicKeyBytes);
+         writer.putIntBE(fromIndex + i);
+         byte[] l = Hmac.hmacSha512(_chainCode, writer.toBytes());
+         BigInteger m = new BigInteger(1, BitUtils.copyOfRange(l, 0, 32));
+         if (m.compareTo(Parameters.n) >= 0) {
+            throw new KeyGenerationException(
+                  "An unlikely thing happened: A key derivation parameter is larger than the N modulus of the curve");
+         }
+         chainCodes[i] = BitUtils.copyOfRange(l, 32, 64);
+         points[i] = EcTools.multiplyGenerator(m).add(parentPoint);
+         if (points[i].isInfinity()) {
+            throw new KeyGenerationException("An unlikely thing happened: Invalid key point at infinity");
+         }
+         if (withPrivateKeys) {
+            childKeys[i] = m.add(kpar).mod(Parameters.n);
+         }
+      }
+
+      Point[] affine = JacobianPoint.normalizeAll(points);
+      List<HdKeyNode> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         Point q = affine[i];
+         byte[] childPublicKeyBytes = new Point(Parameters.curve, q.getX(), q.getY(), true).getEncoded();
+         if (withPrivateKeys) {
+            InMemoryPrivateKey key = new InMemoryPrivateKey(bigIntegerTo32Bytes(childKeys[i]), childPublicKeyBytes);
+            result.add(new HdKeyNode(key, chainCodes[i], _depth + 1, fingerprint, fromIndex + i, derivationType));
+         } else {
+            result.add(new HdKeyNode(new PublicKey(childPublicKeyBytes), chainCodes[i], _depth + 1, fingerprint,
+                  fromIndex + i, derivationType));
+         }
+      }
+      return result;
+   }
+
    private byte[] bigIntegerTo32Bytes(BigInteger b) {
       // Returns an array of bytes which is at most 33 bytes long, and possibly
       // with a leading zero
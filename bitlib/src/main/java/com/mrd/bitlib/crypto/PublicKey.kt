@@ -32,10 +32,11 @@ class PublicKey(val publicKeyBytes: ByteArray) : Serializable {
     val Q: Point by lazy { Parameters.curve.decodePoint(publicKeyBytes) }
 
     /**
-     * Is this a compressed public key?
+     * Is this a compressed public key? This is told by the encoding prefix, so unlike [Q] it does not need
+     * to decompress the point.
      */
     val isCompressed: Boolean
-        get() = Q.isCompressed
+        get() = publicKeyBytes[0] == 0x02.toByte() || publicKeyBytes[0] == 0x03.toByte()
 
     /**
      * @param ignoreCompression allows deriving segwit addresses from uncompressed keys. This should
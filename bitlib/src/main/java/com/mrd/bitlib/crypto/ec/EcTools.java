@@ -52,52 +52,139 @@ public class EcTools {
       return bytes;
    }
 
+   /**
+    * Window width of the non-adjacent form used for variable base multiplication
+    */
+   private static final int WNAF_WIDTH = 5;
+
+   private static class GeneratorTableHolder {
+      // lazily built on first use, about 1000 affine points
+      private static final FixedBaseTable TABLE = new FixedBaseTable(Parameters.G, Parameters.n.bitLength());
+   }
+
+   private static boolean isGenerator(Point p) {
+      return p == Parameters.G || p.equals(Parameters.G);
+   }
+
    /**
     * Multiply a point with a big integer
     */
    public static Point multiply(Point p, BigInteger k) {
-      BigInteger e = k;
-      BigInteger h = e.multiply(BigInteger.valueOf(3));
+      return multiplyJacobian(p, k).toAffine();
+   }
 
-      Point neg = p.negate();
-      Point R = p;
+   /**
+    * Multiply a point with a big integer, leaving the result in Jacobian coordinates. Multiplications of
+    * the generator G are served from a precomputed table, all others use a windowed NAF.
+    */
+   public static JacobianPoint multiplyJacobian(Point p, BigInteger k) {
+      // the point at infinity can't be negated
+      if (p.isInfinity()) {
+         return JacobianPoint.infinity(p.getCurve());
+      }
+      if (isGenerator(p)) {
+         return multiplyGenerator(k);
+      }
+      if (k.signum() < 0) {
+         return multiplyWnaf(p.negate(), k.negate());
+      }
+      return multiplyWnaf(p, k);
+   }
 
-      for (int i = h.bitLength() - 2; i > 0; --i) {
-         R = R.twice();
+   /**
+    * Multiply the generator G with a big integer using the precomputed generator table
+    */
+   public static JacobianPoint multiplyGenerator(BigInteger k) {
+      return GeneratorTableHolder.TABLE.multiply(k.mod(Parameters.n));
+   }
 
-         boolean hBit = h.testBit(i);
-         boolean eBit = e.testBit(i);
+   private static JacobianPoint multiplyWnaf(Point p, BigInteger k) {
+      if (p.isInfinity() || k.signum() == 0) {
+         return JacobianPoint.infinity(p.getCurve());
+      }
+      byte[] naf = windowNaf(k, WNAF_WIDTH);
+      Point[] odd = oddMultiples(p, WNAF_WIDTH);
+      JacobianPoint r = JacobianPoint.infinity(p.getCurve());
+      for (int i = naf.length - 1; i >= 0; i--) {
+         r = r.twice();
+         r = addNafDigit(r, odd, naf[i]);
+      }
+      return r;
+   }
 
-         if (hBit != eBit) {
-            R = R.add(hBit ? p : neg);
-         }
+   private static JacobianPoint addNafDigit(JacobianPoint r, Point[] odd, int digit) {
+      if (digit > 0) {
+         return r.add(odd[digit >> 1]);
+      } else if (digit < 0) {
+         return r.add(odd[-digit >> 1].negate());
       }
+      return r;
+   }
 
-      return R;
+   /**
+    * Compute P, 3P, 5P, ... (2^(w-1) - 1)P in affine coordinates with a single inversion
+    */
+   private static Point[] oddMultiples(Point p, int width) {
+      JacobianPoint[] result = new JacobianPoint[1 << (width - 2)];
+      JacobianPoint p2 = JacobianPoint.fromAffine(p).twice();
+      result[0] = JacobianPoint.fromAffine(p);
+      for (int i = 1; i < result.length; i++) {
+         result[i] = result[i - 1].add(p2);
+      }
+      return JacobianPoint.normalizeAll(result);
    }
 
-   public static Point sumOfTwoMultiplies(Point P, BigInteger k, Point Q, BigInteger l) {
-      int m = Math.max(k.bitLength(), l.bitLength());
-      Point Z = P.add(Q);
-      Point R = P.getCurve().getInfinity();
-
-      for (int i = m - 1; i >= 0; --i) {
-         R = R.twice();
-
-         if (k.testBit(i)) {
-            if (l.testBit(i)) {
-               R = R.add(Z);
-            } else {
-               R = R.add(P);
-            }
-         } else {
-            if (l.testBit(i)) {
-               R = R.add(Q);
+   /**
+    * Get the width-w non-adjacent form of a non-negative integer, least significant digit first. Every
+    * non-zero digit is odd, smaller than 2^(w-1) in absolute value and followed by at least w-1 zeros.
+    */
+   public static byte[] windowNaf(BigInteger k, int width) {
+      byte[] naf = new byte[k.bitLength() + 1];
+      int windowSize = 1 << width;
+      BigInteger mask = BigInteger.valueOf(windowSize - 1);
+      int length = 0;
+      while (k.signum() > 0) {
+         if (k.testBit(0)) {
+            int digit = k.and(mask).intValue();
+            if (digit >= windowSize / 2) {
+               digit -= windowSize;
             }
+            naf[length] = (byte) digit;
+            k = k.subtract(BigInteger.valueOf(digit));
          }
+         length++;
+         k = k.shiftRight(1);
       }
+      byte[] result = new byte[length];
+      System.arraycopy(naf, 0, result, 0, length);
+      return result;
+   }
 
-      return R;
+   /**
+    * Calculate k * P + l * Q, sharing the doublings of both multiplications
+    */
+   public static Point sumOfTwoMultiplies(Point P, BigInteger k, Point Q, BigInteger l) {
+      if (isGenerator(P) && !isGenerator(Q)) {
+         return multiplyGenerator(k).add(multiplyJacobian(Q, l)).toAffine();
+      }
+      if (isGenerator(Q) || k.signum() < 0 || l.signum() < 0 || P.isInfinity() || Q.isInfinity()) {
+         return multiplyJacobian(P, k).add(multiplyJacobian(Q, l)).toAffine();
+      }
+      byte[] nafK = windowNaf(k, WNAF_WIDTH);
+      byte[] nafL = windowNaf(l, WNAF_WIDTH);
+      Point[] oddP = oddMultiples(P, WNAF_WIDTH);
+      Point[] oddQ = oddMultiples(Q, WNAF_WIDTH);
+      JacobianPoint r = JacobianPoint.infinity(P.getCurve());
+      for (int i = Math.max(nafK.length, nafL.length) - 1; i >= 0; i--) {
+         r = r.twice();
+         if (i < nafK.length) {
+            r = addNafDigit(r, oddP, nafK[i]);
+         }
+         if (i < nafL.length) {
+            r = addNafDigit(r, oddQ, nafL[i]);
+         }
+      }
+      return r.toAffine();
    }
 
    //ported from BitcoinJ
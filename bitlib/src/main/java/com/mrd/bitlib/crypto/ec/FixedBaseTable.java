@@ -0,0 +1,65 @@
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Precomputed fixed-window table for multiplying a point that never changes, such as the generator G.
+ * <p>
+ * The scalar is split into {@link #WINDOW_BITS} bit digits d_i, and the table holds the affine points
+ * j * 2^(i * WINDOW_BITS) * B for every window i and digit j. A multiplication then is a sum of one table
+ * entry per non-zero digit: no doublings and no modular inversions until the final conversion to affine.
+ */
+public final class FixedBaseTable {
+   private static final int WINDOW_BITS = 4;
+   private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+
+   private final Curve _curve;
+   private final int _maxBits;
+   // _table[i][j - 1] = j * 2^(i * WINDOW_BITS) * base
+   private final Point[][] _table;
+
+   /**
+    * @param base    the point to precompute multiples of
+    * @param maxBits the maximum bit length of the scalars this table will be used with
+    */
+   public FixedBaseTable(Point base, int maxBits) {
+      _curve = base.getCurve();
+      _maxBits = maxBits;
+      int windows = (maxBits + WINDOW_BITS - 1) / WINDOW_BITS;
+      _table = new Point[windows][];
+      Point rowBase = base;
+      for (int i = 0; i < windows; i++) {
+         JacobianPoint[] row = new JacobianPoint[WINDOW_SIZE];
+         JacobianPoint multiple = JacobianPoint.fromAffine(rowBase);
+         row[0] = multiple;
+         for (int j = 1; j < WINDOW_SIZE; j++) {
+            // the last element is WINDOW_SIZE * rowBase, the base of the next row
+            multiple = multiple.add(rowBase);
+            row[j] = multiple;
+         }
+         Point[] affine = JacobianPoint.normalizeAll(row);
+         _table[i] = new Point[WINDOW_SIZE - 1];
+         System.arraycopy(affine, 0, _table[i], 0, WINDOW_SIZE - 1);
+         rowBase = affine[WINDOW_SIZE - 1];
+      }
+   }
+
+   /**
+    * Multiply the base point with a non-negative scalar of at most maxBits bits.
+    */
+   public JacobianPoint multiply(BigInteger k) {
+      if (k.signum() < 0 || k.bitLength() > _maxBits) {
+         throw new IllegalArgumentException("Scalar out of range for this table");
+      }
+      JacobianPoint result = JacobianPoint.infinity(_curve);
+      // two 4 bit windows per byte, least significant first
+      byte[] bytes = k.toByteArray();
+      for (int i = 0; i < _table.length && i / 2 < bytes.length; i++) {
+         int digit = (bytes[bytes.length - 1 - i / 2] >> ((i & 1) * WINDOW_BITS)) & (WINDOW_SIZE - 1);
+         if (digit != 0) {
+            result = result.add(_table[i][digit - 1]);
+         }
+      }
+      return result;
+   }
+}
@@ -0,0 +1,193 @@
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * An elliptic curve point in Jacobian projective coordinates (X, Y, Z), representing the affine point
+ * (X / Z^2, Y / Z^3).
+ * <p>
+ * Unlike {@link Point}, additions and doublings never compute a modular inverse. The single inversion is
+ * deferred to {@link #toAffine()}, or shared across many points with {@link #normalizeAll(JacobianPoint[])}.
+ * The point at infinity is represented by Z = 0.
+ */
+public final class JacobianPoint {
+   private static final BigInteger THREE = BigInteger.valueOf(3);
+
+   private final Curve _curve;
+   private final BigInteger _x;
+   private final BigInteger _y;
+   private final BigInteger _z;
+
+   private JacobianPoint(Curve curve, BigInteger x, BigInteger y, BigInteger z) {
+      _curve = curve;
+      _x = x;
+      _y = y;
+      _z = z;
+   }
+
+   public static JacobianPoint infinity(Curve curve) {
+      return new JacobianPoint(curve, BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+   }
+
+   public static JacobianPoint fromAffine(Point p) {
+      if (p.isInfinity()) {
+         return infinity(p.getCurve());
+      }
+      return new JacobianPoint(p.getCurve(), p.getX().toBigInteger(), p.getY().toBigInteger(), BigInteger.ONE);
+   }
+
+   public Curve getCurve() {
+      return _curve;
+   }
+
+   public boolean isInfinity() {
+      return _z.signum() == 0;
+   }
+
+   public JacobianPoint negate() {
+      if (isInfinity()) {
+         return this;
+      }
+      return new JacobianPoint(_curve, _x, _curve.getQ().subtract(_y), _z);
+   }
+
+   public JacobianPoint twice() {
+      if (isInfinity() || _y.signum() == 0) {
+         return infinity(_curve);
+      }
+      BigInteger q = _curve.getQ();
+      BigInteger xx = _x.multiply(_x).mod(q);
+      BigInteger yy = _y.multiply(_y).mod(q);
+      BigInteger yyyy = yy.multiply(yy).mod(q);
+      // S = 4 * X * Y^2
+      BigInteger s = _x.multiply(yy).shiftLeft(2).mod(q);
+      // M = 3 * X^2 + a * Z^4
+      BigInteger m = xx.multiply(THREE);
+      BigInteger a = _curve.getA().toBigInteger();
+      if (a.signum() != 0) {
+         BigInteger zz = _z.multiply(_z).mod(q);
+         m = m.add(a.multiply(zz.multiply(zz).mod(q)));
+      }
+      m = m.mod(q);
+      BigInteger x3 = m.multiply(m).subtract(s.shiftLeft(1)).mod(q);
+      BigInteger y3 = m.multiply(s.subtract(x3)).subtract(yyyy.shiftLeft(3)).mod(q);
+      BigInteger z3 = _y.multiply(_z).shiftLeft(1).mod(q);
+      return new JacobianPoint(_curve, x3, y3, z3);
+   }
+
+   /**
+    * Add an affine point. This is cheaper than {@link #add(JacobianPoint)} as the second Z coordinate is
+    * known to be one.
+    */
+   public JacobianPoint add(Point b) {
+      if (b.isInfinity()) {
+         return this;
+      }
+      if (isInfinity()) {
+         return fromAffine(b);
+      }
+      BigInteger q = _curve.getQ();
+      BigInteger z1z1 = _z.multiply(_z).mod(q);
+      BigInteger u2 = b.getX().toBigInteger().multiply(z1z1).mod(q);
+      BigInteger s2 = b.getY().toBigInteger().multiply(_z.multiply(z1z1).mod(q)).mod(q);
+      BigInteger h = u2.subtract(_x).mod(q);
+      BigInteger r = s2.subtract(_y).mod(q);
+      if (h.signum() == 0) {
+         if (r.signum() == 0) {
+            return twice();
+         }
+         return infinity(_curve);
+      }
+      BigInteger hh = h.multiply(h).mod(q);
+      BigInteger hhh = h.multiply(hh).mod(q);
+      BigInteger v = _x.multiply(hh).mod(q);
+      BigInteger x3 = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(q);
+      BigInteger y3 = r.multiply(v.subtract(x3)).subtract(_y.multiply(hhh)).mod(q);
+      BigInteger z3 = _z.multiply(h).mod(q);
+      return new JacobianPoint(_curve, x3, y3, z3);
+   }
+
+   public JacobianPoint add(JacobianPoint b) {
+      if (b.isInfinity()) {
+         return this;
+      }
+      if (isInfinity()) {
+         return b;
+      }
+      BigInteger q = _curve.getQ();
+      BigInteger z1z1 = _z.multiply(_z).mod(q);
+      BigInteger z2z2 = b._z.multiply(b._z).mod(q);
+      BigInteger u1 = _x.multiply(z2z2).mod(q);
+      BigInteger u2 = b._x.multiply(z1z1).mod(q);
+      BigInteger s1 = _y.multiply(b._z.multiply(z2z2).mod(q)).mod(q);
+      BigInteger s2 = b._y.multiply(_z.multiply(z1z1).mod(q)).mod(q);
+      BigInteger h = u2.subtract(u1).mod(q);
+      BigInteger r = s2.subtract(s1).mod(q);
+      if (h.signum() == 0) {
+         if (r.signum() == 0) {
+            return twice();
+         }
+         return infinity(_curve);
+      }
+      BigInteger hh = h.multiply(h).mod(q);
+      BigInteger hhh = h.multiply(hh).mod(q);
+      BigInteger v = u1.multiply(hh).mod(q);
+      BigInteger x3 = r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)).mod(q);
+      BigInteger y3 = r.multiply(v.subtract(x3)).subtract(s1.multiply(hhh)).mod(q);
+      BigInteger z3 = _z.multiply(b._z).mod(q).multiply(h).mod(q);
+      return new JacobianPoint(_curve, x3, y3, z3);
+   }
+
+   /**
+    * Convert to affine coordinates. This costs one modular inversion.
+    */
+   public Point toAffine() {
+      if (isInfinity()) {
+         return _curve.getInfinity();
+      }
+      return toAffine(_z.modInverse(_curve.getQ()));
+   }
+
+   private Point toAffine(BigInteger zInv) {
+      BigInteger q = _curve.getQ();
+      BigInteger zInv2 = zInv.multiply(zInv).mod(q);
+      BigInteger x = _x.multiply(zInv2).mod(q);
+      BigInteger y = _y.multiply(zInv2.multiply(zInv).mod(q)).mod(q);
+      return new Point(_curve, _curve.fromBigInteger(x), _curve.fromBigInteger(y));
+   }
+
+   /**
+    * Convert many points to affine coordinates at the cost of a single modular inversion, using
+    * Montgomery's simultaneous inversion trick.
+    *
+    * @param points the points to convert, all on the same curve
+    * @return the affine points in the same order as the input
+    */
+   public static Point[] normalizeAll(JacobianPoint[] points) {
+      Point[] result = new Point[points.length];
+      if (points.length == 0) {
+         return result;
+      }
+      BigInteger q = points[0]._curve.getQ();
+      // prefix[i] is the product of all non-infinity Z coordinates before index i
+      BigInteger[] prefix = new BigInteger[points.length];
+      BigInteger acc = BigInteger.ONE;
+      for (int i = 0; i < points.length; i++) {
+         prefix[i] = acc;
+         if (!points[i].isInfinity()) {
+            acc = acc.multiply(points[i]._z).mod(q);
+         }
+      }
+      BigInteger inv = acc.modInverse(q);
+      for (int i = points.length - 1; i >= 0; i--) {
+         JacobianPoint p = points[i];
+         if (p.isInfinity()) {
+            result[i] = p._curve.getInfinity();
+            continue;
+         }
+         result[i] = p.toAffine(inv.multiply(prefix[i]).mod(q));
+         inv = inv.multiply(p._z).mod(q);
+      }
+      return result;
+   }
+}
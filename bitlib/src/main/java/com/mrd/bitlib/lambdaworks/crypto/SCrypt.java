@@ -6,6 +6,15 @@ import static java.lang.Integer.MAX_VALUE;
 import static java.lang.System.arraycopy;
 
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -18,8 +27,27 @@ import javax.crypto.spec.SecretKeySpec;
  * @author Will Glozer
  * Note: Removed native JNI calls for native implementation
  *         for use with BCCAPI
+ * Note: The p lanes run in parallel, each worker with its own V, and the
+ *         Salsa20/8 core works on preallocated int words
  */
 public class SCrypt {
+   // the memory the V buffers of parallel lanes may take, as a fraction of the maximum heap
+   private static final int MAX_HEAP_FRACTION_FOR_LANES = 4;
+   // how many iterations of the mixing loops run between checks for interruption
+   private static final int INTERRUPT_CHECK_INTERVAL = 1024;
+
+   private static class LaneExecutorHolder {
+      private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "SCrypt lane");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+   }
+
    /**
     * Pure Java implementation of the <a
     * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt KDF</a>.
@@ -44,6 +72,19 @@ public class SCrypt {
     * @throws InterruptedException
     */
    public static byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen) throws GeneralSecurityException, InterruptedException {
+      return scrypt(passwd, salt, N, r, p, dkLen, true);
+   }
+
+   /**
+    * Like {@link #scrypt(byte[], byte[], int, int, int, int)}, choosing how V is allocated.
+    *
+    * @param segmentedV
+    *           The original SCrypt implementation uses one big V array with N * 128 * r bytes. We have observed that
+    *           this may cause problems on some android devices due to memory fragmentation. If true, N arrays of
+    *           size 128 * r are allocated instead.
+    */
+   public static byte[] scrypt(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen, boolean segmentedV)
+         throws GeneralSecurityException, InterruptedException {
       if (N == 0 || (N & (N - 1)) != 0)
          throw new IllegalArgumentException("N must be > 0 and a power of 2");
 
@@ -58,68 +99,160 @@ public class SCrypt {
       byte[] DK = new byte[dkLen];
 
       byte[] B = new byte[128 * r * p];
-      byte[] XY = new byte[256 * r];
-      // The original SCrypt implementation uses one big V array with N * 128 *
-      // r bytes. We have observed that this may cause problems on some android
-      // devices due to memory fragmentation. Instead we allocate N arrays of
-      // size 128 * r.
-      byte[][] V = new byte[N][];
-      for (int i = 0; i < N; i++) {
-         V[i] = new byte[128 * r];
-      }
-      
-      int i;
-
       PBKDF.pbkdf2(mac, salt, 1, B, p * 128 * r);
 
-      for (i = 0; i < p; i++) {
-         smix(B, i * 128 * r, r, N, V, XY);
+      int[] B32 = new int[32 * r * p];
+      for (int i = 0; i < B32.length; i++) {
+         B32[i] = (B[i * 4] & 0xff)
+               | (B[i * 4 + 1] & 0xff) << 8
+               | (B[i * 4 + 2] & 0xff) << 16
+               | (B[i * 4 + 3] & 0xff) << 24;
+      }
+      runLanes(B32, N, r, p, segmentedV);
+      for (int i = 0; i < B32.length; i++) {
+         B[i * 4] = (byte) B32[i];
+         B[i * 4 + 1] = (byte) (B32[i] >>> 8);
+         B[i * 4 + 2] = (byte) (B32[i] >>> 16);
+         B[i * 4 + 3] = (byte) (B32[i] >>> 24);
       }
+
       PBKDF.pbkdf2(mac, B, 1, DK, dkLen);
 
       return DK;
    }
 
-   private static void smix(byte[] B, int Bi, int r, int N, byte[][] V, byte[] XY)
+   /**
+    * The buffers a worker mixes its lanes with. They are allocated once and reused for every lane the worker takes.
+    */
+   private static class Lane {
+      final int r;
+      final int N;
+      final int[][] V;
+      // log2 of the blocks per segment of V
+      final int vShift;
+      final int[] XY;
+      final int[] X = new int[16];
+      final int[] x = new int[16];
+
+      Lane(int N, int r, boolean segmentedV) {
+         this.N = N;
+         this.r = r;
+         vShift = segmentedV ? 0 : Integer.numberOfTrailingZeros(N);
+         V = new int[N >>> vShift][(32 * r) << vShift];
+         XY = new int[64 * r];
+      }
+   }
+
+   private static void runLanes(final int[] B, int N, int r, int p, boolean segmentedV) throws InterruptedException {
+      long laneMemory = 128L * r * N;
+      int workers = (int) Math.min(Math.min(p, Runtime.getRuntime().availableProcessors()),
+            Math.max(1, Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION_FOR_LANES / laneMemory));
+      // allocate everything here, so running out of memory shows on the calling thread
+      final Lane[] lanes = new Lane[workers];
+      for (int i = 0; i < workers; i++) {
+         lanes[i] = new Lane(N, r, segmentedV);
+      }
+      if (workers == 1) {
+         for (int i = 0; i < p; i++) {
+            smix(B, i * 32 * r, lanes[0]);
+         }
+         return;
+      }
+
+      // the workers take the next lane until all are done, the calling thread being one of them
+      final AtomicInteger nextLane = new AtomicInteger();
+      final int laneCount = p;
+      List<Future<Void>> futures = new ArrayList<Future<Void>>(workers - 1);
+      for (int w = 1; w < workers; w++) {
+         final Lane lane = lanes[w];
+         futures.add(LaneExecutorHolder.EXECUTOR.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+               mixLanes(B, nextLane, laneCount, lane);
+               return null;
+            }
+         }));
+      }
+      try {
+         mixLanes(B, nextLane, laneCount, lanes[0]);
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+         } else if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new RuntimeException(cause);
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private static void mixLanes(int[] B, AtomicInteger nextLane, int laneCount, Lane lane) throws InterruptedException {
+      for (int i = nextLane.getAndIncrement(); i < laneCount; i = nextLane.getAndIncrement()) {
+         smix(B, i * 32 * lane.r, lane);
+      }
+   }
+
+   private static void smix(int[] B, int Bi, Lane lane)
          throws InterruptedException {
+      int r = lane.r;
+      int N = lane.N;
+      int[][] V = lane.V;
+      int vShift = lane.vShift;
+      int vMask = (1 << vShift) - 1;
+      int[] XY = lane.XY;
+      int blockLength = 32 * r;
       int Xi = 0;
-      int Yi = 128 * r;
+      int Yi = blockLength;
       int i;
 
-      arraycopy(B, Bi, XY, Xi, 128 * r);
+      arraycopy(B, Bi, XY, Xi, blockLength);
 
       for (i = 0; i < N; i++) {
-         arraycopy(XY, Xi, V[i], 0, 128 * r);
-         blockmix_salsa8(XY, Xi, Yi, r);
+         checkInterrupted(i);
+         arraycopy(XY, Xi, V[i >>> vShift], (i & vMask) * blockLength, blockLength);
+         blockmix_salsa8(XY, Xi, Yi, r, lane.X, lane.x);
       }
 
       for (i = 0; i < N; i++) {
+         checkInterrupted(i);
          int j = integerify(XY, Xi, r) & (N - 1);
-         blockxor(V[j], 0, XY, Xi, 128 * r);
-         blockmix_salsa8(XY, Xi, Yi, r);
+         blockxor(V[j >>> vShift], (j & vMask) * blockLength, XY, Xi, blockLength);
+         blockmix_salsa8(XY, Xi, Yi, r, lane.X, lane.x);
       }
 
-      arraycopy(XY, Xi, B, Bi, 128 * r);
+      arraycopy(XY, Xi, B, Bi, blockLength);
    }
 
-   private static void blockmix_salsa8(byte[] BY, int Bi, int Yi, int r) {
-      byte[] X = new byte[64];
+   private static void checkInterrupted(int iteration) throws InterruptedException {
+      if (iteration % INTERRUPT_CHECK_INTERVAL == 0 && Thread.interrupted()) {
+         throw new InterruptedException();
+      }
+   }
+
+   private static void blockmix_salsa8(int[] BY, int Bi, int Yi, int r, int[] X, int[] x) {
       int i;
 
-      arraycopy(BY, Bi + (2 * r - 1) * 64, X, 0, 64);
+      arraycopy(BY, Bi + (2 * r - 1) * 16, X, 0, 16);
 
       for (i = 0; i < 2 * r; i++) {
-         blockxor(BY, i * 64, X, 0, 64);
-         salsa20_8(X);
-         arraycopy(X, 0, BY, Yi + (i * 64), 64);
+         blockxor(BY, Bi + i * 16, X, 0, 16);
+         salsa20_8(X, x);
+         arraycopy(X, 0, BY, Yi + (i * 16), 16);
       }
 
       for (i = 0; i < r; i++) {
-         arraycopy(BY, Yi + (i * 2) * 64, BY, Bi + (i * 64), 64);
+         arraycopy(BY, Yi + (i * 2) * 16, BY, Bi + (i * 16), 16);
       }
 
       for (i = 0; i < r; i++) {
-         arraycopy(BY, Yi + (i * 2 + 1) * 64, BY, Bi + (i + r) * 64, 64);
+         arraycopy(BY, Yi + (i * 2 + 1) * 16, BY, Bi + (i + r) * 16, 16);
       }
    }
 
@@ -127,19 +260,11 @@ public class SCrypt {
       return (a << b) | (a >>> (32 - b));
    }
 
-   private static void salsa20_8(byte[] B) {
-      int[] B32 = new int[16];
-      int[] x = new int[16];
+   // B is replaced by its Salsa20/8 core, x is scratch space
+   private static void salsa20_8(int[] B, int[] x) {
       int i;
 
-      for (i = 0; i < 16; i++) {
-         B32[i] = (B[i * 4 + 0] & 0xff) << 0;
-         B32[i] |= (B[i * 4 + 1] & 0xff) << 8;
-         B32[i] |= (B[i * 4 + 2] & 0xff) << 16;
-         B32[i] |= (B[i * 4 + 3] & 0xff) << 24;
-      }
-
-      arraycopy(B32, 0, x, 0, 16);
+      arraycopy(B, 0, x, 0, 16);
 
       for (i = 8; i > 0; i -= 2) {
          x[4] ^= R(x[0] + x[12], 7);
@@ -177,32 +302,16 @@ public class SCrypt {
       }
 
       for (i = 0; i < 16; ++i)
-         B32[i] = x[i] + B32[i];
-
-      for (i = 0; i < 16; i++) {
-         B[i * 4 + 0] = (byte) (B32[i] >> 0 & 0xff);
-         B[i * 4 + 1] = (byte) (B32[i] >> 8 & 0xff);
-         B[i * 4 + 2] = (byte) (B32[i] >> 16 & 0xff);
-         B[i * 4 + 3] = (byte) (B32[i] >> 24 & 0xff);
-      }
+         B[i] += x[i];
    }
 
-   private static void blockxor(byte[] S, int Si, byte[] D, int Di, int len) {
+   private static void blockxor(int[] S, int Si, int[] D, int Di, int len) {
       for (int i = 0; i < len; i++) {
          D[Di + i] ^= S[Si + i];
       }
    }
 
-   private static int integerify(byte[] B, int Bi, int r) {
-      int n;
-
-      Bi += (2 * r - 1) * 64;
-
-      n = (B[Bi + 0] & 0xff) << 0;
-      n |= (B[Bi + 1] & 0xff) << 8;
-      n |= (B[Bi + 2] & 0xff) << 16;
-      n |= (B[Bi + 3] & 0xff) << 24;
-
-      return n;
+   private static int integerify(int[] B, int Bi, int r) {
+      return B[Bi + (2 * r - 1) * 16];
    }
 }
@@ -25,7 +25,6 @@ import com.mrd.bitlib.model.TransactionOutput.TransactionOutputParsingException;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteReader.InsufficientBytesException;
 import com.mrd.bitlib.util.ByteWriter;
-import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 import javax.annotation.Nullable;
 
@@ -288,7 +287,7 @@ public class BitcoinTransaction implements Serializable {
         if (id == null) {
             ByteWriter writer = new ByteWriter(2000);
             toByteWriter(writer, false);
-            id = HashUtils.doubleSha256(writer.toBytes()).reverse();
+            id = writer.doubleSha256().reverse();
         }
         return id;
     }
@@ -297,61 +296,24 @@ public class BitcoinTransaction implements Serializable {
         if (_hash == null) {
             ByteWriter writer = new ByteWriter(2000);
             toByteWriter(writer);
-            _hash = HashUtils.doubleSha256(writer.toBytes()).reverse();
+            _hash = writer.doubleSha256().reverse();
         }
         return _hash;
     }
 
+    /**
+     * Get the SIGHASH_ALL hash to sign for input i. When signing several inputs, use one {@link SigHashContext}
+     * for all of them instead, so the hashes shared by all inputs are only calculated once.
+     */
     public Sha256Hash getTxDigestHash(int i) {
-        ByteWriter writer = new ByteWriter(1024);
-        if (inputs[i].script instanceof ScriptInputP2WSH || inputs[i].script instanceof  ScriptInputP2WPKH) {
-            writer.putIntLE(version);
-            writer.putSha256Hash(getPrevOutsHash());
-            writer.putSha256Hash(getSequenceHash());
-            inputs[i].outPoint.hashPrev(writer);
-            byte[] scriptCode = inputs[i].getScriptCode();
-            writer.put((byte) (scriptCode.length & 0xFF));
-            writer.putBytes(scriptCode);
-            writer.putLongLE(inputs[i].getValue());
-            writer.putIntLE(inputs[i].sequence);
-            writer.putSha256Hash(getOutputsHash());
-            writer.putIntLE(lockTime);
-        } else {
-            toByteWriter(writer, false);
-        }
-        // We also have to write a hash type.
-        int hashType = 1;
-        writer.putIntLE(hashType);
+        return getTxDigestHash(i, SigHashContext.SIGHASH_ALL);
+    }
+
+    public Sha256Hash getTxDigestHash(int i, int hashType) {
         // Note that this is NOT reversed to ensure it will be signed
         // correctly. If it were to be printed out
         // however then we would expect that it is IS reversed.
-        return HashUtils.doubleSha256(writer.toBytes());
-    }
-
-    private Sha256Hash getPrevOutsHash() {
-        ByteWriter writer = new ByteWriter(1024);
-        for (TransactionInput input : inputs) {
-            input.outPoint.hashPrev(writer);
-        }
-        return HashUtils.doubleSha256(writer.toBytes());
-    }
-
-    private Sha256Hash getOutputsHash() {
-        ByteWriter writer = new ByteWriter(1024);
-        for (TransactionOutput output : outputs) {
-            writer.putLongLE(output.value);
-            writer.put((byte) (output.script.getScriptBytes().length & 0xFF));
-            writer.putBytes(output.script.getScriptBytes());
-        }
-        return HashUtils.doubleSha256(writer.toBytes());
-    }
-
-    private Sha256Hash getSequenceHash()  {
-        ByteWriter writer = new ByteWriter(1024);
-        for (TransactionInput input : inputs) {
-            writer.putIntLE(input.sequence);
-        }
-        return HashUtils.doubleSha256(writer.toBytes());
+        return new SigHashContext(this).getTxDigestHash(i, hashType);
     }
 
     /**
@@ -414,7 +376,7 @@ public class BitcoinTransaction implements Serializable {
                 }
                 writer.putBytes(bytes);
             }
-            _unmalleableHash = HashUtils.doubleSha256(writer.toBytes()).reverse();
+            _unmalleableHash = writer.doubleSha256().reverse();
         }
         return _unmalleableHash;
     }
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.model.BitcoinTransaction.TransactionParsingException;
+import com.mrd.bitlib.model.TransactionInput.TransactionInputParsingException;
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.ByteReader.InsufficientBytesException;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * A read only view of a raw transaction that decodes only what is asked for.
+ * <p>
+ * Creating the view walks the raw bytes once and remembers where each input, output and witness starts, without
+ * copying anything. Values, out points and sequence numbers are read straight from the bytes, inputs, outputs and
+ * their scripts are decoded on first use, and the ids are hashed from the raw bytes instead of a re-serialization.
+ * {@link #toTransaction()} gives the full {@link BitcoinTransaction} where one is needed.
+ * <p>
+ * The raw bytes must not change while the view is in use. Instances are not thread safe.
+ */
+public class BitcoinTransactionView {
+   private static final int OUT_POINT_LENGTH = Sha256Hash.HASH_LENGTH + 4;
+   // the smallest input is an out point, an empty script and the sequence number, the smallest output a value and an
+   // empty script
+   private static final int MIN_INPUT_LENGTH = OUT_POINT_LENGTH + 1 + 4;
+   private static final int MIN_OUTPUT_LENGTH = 8 + 1;
+
+   private final byte[] buf;
+   private final int offset;
+   private final int end;
+   private final int version;
+   private final int lockTime;
+   // where the input count starts, after the segwit marker and flag if there are any
+   private final int inputsOffset;
+   // the start of each input or output, followed by the end of the last one
+   private final int[] inputStarts;
+   private final int[] outputStarts;
+   // null if the transaction is not serialized with witnesses
+   private final int[] witnessStarts;
+   private final boolean hasWitness;
+
+   private final TransactionInput[] inputs;
+   private final TransactionOutput[] outputs;
+   private Sha256Hash id;
+   private Sha256Hash hash;
+
+   public static BitcoinTransactionView fromBytes(byte[] transaction) throws TransactionParsingException {
+      return fromBytes(transaction, 0);
+   }
+
+   /**
+    * @param buf    holds the transaction. It is not copied
+    * @param offset where the transaction starts in buf
+    */
+   public static BitcoinTransactionView fromBytes(byte[] buf, int offset) throws TransactionParsingException {
+      try {
+         return new BitcoinTransactionView(buf, offset);
+      } catch (InsufficientBytesException e) {
+         throw new TransactionParsingException("Unable to parse transaction: insufficient bytes");
+      }
+   }
+
+   private BitcoinTransactionView(byte[] buf, int offset) throws InsufficientBytesException, TransactionParsingException {
+      this.buf = buf;
+      this.offset = offset;
+      ByteReader reader = new ByteReader(buf, offset);
+      version = reader.getIntLE();
+      boolean useSegwit = false;
+      if (reader.get() == 0) {
+         if (reader.get() != 1) {
+            throw new TransactionParsingException("Unable to parse segwit transaction. Flag must be 0x01");
+         }
+         useSegwit = true;
+      } else {
+         reader.setPosition(reader.getPosition() - 1);
+      }
+      inputsOffset = reader.getPosition();
+
+      int inputCount = getCount(reader, MIN_INPUT_LENGTH);
+      inputStarts = new int[inputCount + 1];
+      for (int i = 0; i < inputCount; i++) {
+         inputStarts[i] = reader.getPosition();
+         reader.skip(OUT_POINT_LENGTH);
+         skip(reader, reader.getCompactInt());
+         // sequence number
+         reader.skip(4);
+      }
+      inputStarts[inputCount] = reader.getPosition();
+
+      int outputCount = getCount(reader, MIN_OUTPUT_LENGTH);
+      outputStarts = new int[outputCount + 1];
+      for (int i = 0; i < outputCount; i++) {
+         outputStarts[i] = reader.getPosition();
+         // value
+         reader.skip(8);
+         skip(reader, reader.getCompactInt());
+      }
+      outputStarts[outputCount] = reader.getPosition();
+
+      boolean anyWitness = false;
+      if (useSegwit) {
+         witnessStarts = new int[inputCount + 1];
+         for (int i = 0; i < inputCount; i++) {
+            witnessStarts[i] = reader.getPosition();
+            int stackSize = getCount(reader, 1);
+            anyWitness |= stackSize != 0;
+            for (int y = 0; y < stackSize; y++) {
+               skip(reader, reader.getCompactInt());
+            }
+         }
+         witnessStarts[inputCount] = reader.getPosition();
+      } else {
+         witnessStarts = null;
+      }
+      hasWitness = anyWitness;
+
+      lockTime = reader.getIntLE();
+      end = reader.getPosition();
+      inputs = new TransactionInput[inputCount];
+      outputs = new TransactionOutput[outputCount];
+   }
+
+   // a count of items that take at least minLength bytes each, so a broken count can't allocate huge arrays
+   private static int getCount(ByteReader reader, int minLength) throws InsufficientBytesException {
+      long count = reader.getCompactInt();
+      if (count < 0 || count > reader.available() / minLength) {
+         throw new InsufficientBytesException();
+      }
+      return (int) count;
+   }
+
+   private static void skip(ByteReader reader, long length) throws InsufficientBytesException {
+      if (length < 0 || length > reader.available()) {
+         throw new InsufficientBytesException();
+      }
+      reader.skip((int) length);
+   }
+
+   public int getVersion() {
+      return version;
+   }
+
+   public int getLockTime() {
+      return lockTime;
+   }
+
+   /**
+    * @return the length of the raw transaction in bytes
+    */
+   public int getSize() {
+      return end - offset;
+   }
+
+   /**
+    * @return true if any input has a witness, like {@link BitcoinTransaction#isSegwit()}
+    */
+   public boolean isSegwit() {
+      return hasWitness;
+   }
+
+   public int getInputCount() {
+      return inputs.length;
+   }
+
+   public int getOutputCount() {
+      return outputs.length;
+   }
+
+   /**
+    * @return the out point input i spends. Unlike {@link #getInput(int)} this doesn't decode the input
+    */
+   public OutPoint getOutPoint(int i) {
+      int position = inputStarts[i];
+      return new OutPoint(Sha256Hash.copyOf(buf, position).reverse(), readIntLE(position + Sha256Hash.HASH_LENGTH));
+   }
+
+   public int getSequence(int i) {
+      // the sequence number ends the input
+      return readIntLE(inputStarts[i + 1] - 4);
+   }
+
+   public boolean isCoinbase() {
+      for (int i = 0; i < inputs.length; i++) {
+         if (spendsZeroHash(inputStarts[i])) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean spendsZeroHash(int position) {
+      for (int j = 0; j < Sha256Hash.HASH_LENGTH; j++) {
+         if (buf[position + j] != 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return input i with its script and witness, decoded on the first call
+    */
+   public TransactionInput getInput(int i) throws TransactionParsingException {
+      TransactionInput input = inputs[i];
+      if (input == null) {
+         try {
+            input = TransactionInput.fromByteReader(new ByteReader(buf, inputStarts[i]));
+            if (witnessStarts != null) {
+               input.setWitness(readWitness(i));
+            }
+         } catch (TransactionInputParsingException e) {
+            throw new TransactionParsingException("Unable to parse transaction input at index " + i + ": "
+                  + e.getMessage(), e);
+         } catch (IllegalStateException e) {
+            throw new TransactionParsingException("ISE - Unable to parse transaction input at index " + i + ": "
+                  + e.getMessage(), e);
+         }
+         inputs[i] = input;
+      }
+      return input;
+   }
+
+   private InputWitness readWitness(int i) {
+      ByteReader reader = new ByteReader(buf, witnessStarts[i]);
+      try {
+         int stackSize = (int) reader.getCompactInt();
+         InputWitness witness = new InputWitness(stackSize);
+         for (int y = 0; y < stackSize; y++) {
+            witness.setStack(y, reader.getBytes((int) reader.getCompactInt()));
+         }
+         return witness;
+      } catch (InsufficientBytesException e) {
+         // the witnesses were checked when the view was created
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * @return the value of output i. Unlike {@link #getOutput(int)} this doesn't decode the output script
+    */
+   public long getOutputValue(int i) {
+      int position = outputStarts[i];
+      return (readIntLE(position) & 0xFFFFFFFFL) | ((long) readIntLE(position + 4) << 32);
+   }
+
+   public byte[] getOutputScriptBytes(int i) {
+      ByteReader reader = new ByteReader(buf, outputStarts[i] + 8);
+      try {
+         return reader.getBytes((int) reader.getCompactInt());
+      } catch (InsufficientBytesException e) {
+         // the outputs were checked when the view was created
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * @return output i with its script, decoded on the first call
+    */
+   public TransactionOutput getOutput(int i) {
+      TransactionOutput output = outputs[i];
+      if (output == null) {
+         output = new TransactionOutput(getOutputValue(i), ScriptOutput.fromScriptBytes(getOutputScriptBytes(i)));
+         outputs[i] = output;
+      }
+      return output;
+   }
+
+   /**
+    * @return the transaction id, the hash without the witnesses, as {@link BitcoinTransaction#getId()}
+    */
+   public Sha256Hash getId() {
+      if (id == null) {
+         if (witnessStarts == null) {
+            id = HashUtils.doubleSha256(buf, offset, end - offset).reverse();
+         } else {
+            // skip the marker and flag and the witnesses
+            int witnessesOffset = witnessStarts[0];
+            id = HashUtils.doubleSha256Ranges(buf, offset, 4, inputsOffset, witnessesOffset - inputsOffset,
+                  end - 4, 4).reverse();
+         }
+      }
+      return id;
+   }
+
+   /**
+    * @return the hash with the witnesses, as {@link BitcoinTransaction#getHash()}
+    */
+   public Sha256Hash getHash() {
+      if (hash == null) {
+         // BitcoinTransaction serializes without marker and flag if no input has a witness
+         hash = hasWitness ? HashUtils.doubleSha256(buf, offset, end - offset).reverse() : getId();
+      }
+      return hash;
+   }
+
+   /**
+    * Decode all inputs and outputs. The transaction shares the inputs and outputs decoded by this view.
+    */
+   public BitcoinTransaction toTransaction() throws TransactionParsingException {
+      TransactionInput[] allInputs = new TransactionInput[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+         allInputs[i] = getInput(i);
+      }
+      TransactionOutput[] allOutputs = new TransactionOutput[outputs.length];
+      for (int i = 0; i < outputs.length; i++) {
+         allOutputs[i] = getOutput(i);
+      }
+      return new BitcoinTransaction(version, allInputs, allOutputs, lockTime, end - offset, hash);
+   }
+
+   private int readIntLE(int position) {
+      return (buf[position] & 0xFF)
+            | (buf[position + 1] & 0xFF) << 8
+            | (buf[position + 2] & 0xFF) << 16
+            | (buf[position + 3] & 0xFF) << 24;
+   }
+}
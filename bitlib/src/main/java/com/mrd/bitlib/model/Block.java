@@ -19,7 +19,6 @@ package com.mrd.bitlib.model;
 import com.mrd.bitlib.model.BitcoinTransaction.TransactionParsingException;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
-import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 import com.mrd.bitlib.util.ByteReader.InsufficientBytesException;
 
@@ -112,7 +111,7 @@ public class Block {
       if (_hash == null) {
          ByteWriter writer = new ByteWriter(2000);
          headerToByteWriter(writer);
-         _hash = HashUtils.doubleSha256(writer.toBytes()).reverse();
+         _hash = writer.doubleSha256().reverse();
       }
       return _hash;
    }
@@ -0,0 +1,172 @@
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Calculates the hashes to sign for the inputs of a transaction.
+ * <p>
+ * For segwit inputs the digest follows <a href="https://github.com/bitcoin/bips/blob/master/bip-0143.mediawiki">BIP143</a>,
+ * whose hashPrevouts, hashSequence and hashOutputs are the same for every input. They are calculated once on first
+ * use and then reused, which makes signing all inputs of a transaction linear in the number of inputs instead of
+ * quadratic.
+ * <p>
+ * The context takes a snapshot of the outpoints, sequence numbers and outputs of the transaction when they are
+ * first needed. Input scripts may change between calls, as they do while signing legacy inputs, but a transaction
+ * with changed outpoints, sequence numbers or outputs needs a new context.
+ */
+public class SigHashContext {
+   public static final int SIGHASH_ALL = 0x01;
+   public static final int SIGHASH_NONE = 0x02;
+   public static final int SIGHASH_SINGLE = 0x03;
+   public static final int SIGHASH_ANYONECANPAY = 0x80;
+
+   private static final int BASE_TYPE_MASK = 0x1f;
+
+   private final BitcoinTransaction _tx;
+   private Sha256Hash _hashPrevouts;
+   private Sha256Hash _hashSequence;
+   private Sha256Hash _hashOutputs;
+
+   public SigHashContext(BitcoinTransaction tx) {
+      _tx = tx;
+   }
+
+   /**
+    * Get the hash to sign for input i with the given hash type
+    *
+    * @param i        the index of the input to sign
+    * @param hashType one of the SIGHASH_ALL, SIGHASH_NONE, SIGHASH_SINGLE types, optionally combined with
+    *                 SIGHASH_ANYONECANPAY
+    */
+   public Sha256Hash getTxDigestHash(int i, int hashType) {
+      TransactionInput input = _tx.inputs[i];
+      if (input.script instanceof ScriptInputP2WSH || input.script instanceof ScriptInputP2WPKH) {
+         return getSegwitDigestHash(i, hashType);
+      }
+      return getLegacyDigestHash(i, hashType);
+   }
+
+   private Sha256Hash getSegwitDigestHash(int i, int hashType) {
+      boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+      int baseType = hashType & BASE_TYPE_MASK;
+      TransactionInput input = _tx.inputs[i];
+      byte[] scriptCode = input.getScriptCode();
+
+      ByteWriter writer = new ByteWriter(4 + 32 + 32 + 36 + 9 + scriptCode.length + 8 + 4 + 32 + 4 + 4);
+      writer.putIntLE(_tx.version);
+      writer.putSha256Hash(anyoneCanPay ? Sha256Hash.ZERO_HASH : getHashPrevouts());
+      writer.putSha256Hash(anyoneCanPay || baseType == SIGHASH_SINGLE || baseType == SIGHASH_NONE
+            ? Sha256Hash.ZERO_HASH : getHashSequence());
+      input.outPoint.hashPrev(writer);
+      writer.putCompactInt(scriptCode.length);
+      writer.putBytes(scriptCode);
+      writer.putLongLE(input.getValue());
+      writer.putIntLE(input.sequence);
+      if (baseType != SIGHASH_SINGLE && baseType != SIGHASH_NONE) {
+         writer.putSha256Hash(getHashOutputs());
+      } else if (baseType == SIGHASH_SINGLE && i < _tx.outputs.length) {
+         ByteWriter outputWriter = new ByteWriter(1024);
+         _tx.outputs[i].toByteWriter(outputWriter);
+         writer.putSha256Hash(outputWriter.doubleSha256());
+      } else {
+         writer.putSha256Hash(Sha256Hash.ZERO_HASH);
+      }
+      writer.putIntLE(_tx.lockTime);
+      writer.putIntLE(hashType);
+      return writer.doubleSha256();
+   }
+
+   /**
+    * The original signature hash algorithm. The caller is responsible for the input scripts: the input to sign
+    * has to carry the script code and all other inputs an empty script.
+    */
+   private Sha256Hash getLegacyDigestHash(int i, int hashType) {
+      ByteWriter writer = new ByteWriter(1024);
+      if (hashType == SIGHASH_ALL) {
+         _tx.toByteWriter(writer, false);
+         writer.putIntLE(hashType);
+         return writer.doubleSha256();
+      }
+      boolean anyoneCanPay = (hashType & SIGHASH_ANYONECANPAY) != 0;
+      int baseType = hashType & BASE_TYPE_MASK;
+      if (baseType == SIGHASH_SINGLE && i >= _tx.outputs.length) {
+         // a quirk of the reference client: sign the number one instead of failing
+         byte[] one = new byte[Sha256Hash.HASH_LENGTH];
+         one[0] = 1;
+         return Sha256Hash.of(one);
+      }
+      writer.putIntLE(_tx.version);
+      if (anyoneCanPay) {
+         writer.putCompactInt(1);
+         writeLegacyInput(writer, _tx.inputs[i], _tx.inputs[i].sequence);
+      } else {
+         writer.putCompactInt(_tx.inputs.length);
+         boolean zeroOtherSequences = baseType == SIGHASH_NONE || baseType == SIGHASH_SINGLE;
+         for (int j = 0; j < _tx.inputs.length; j++) {
+            TransactionInput input = _tx.inputs[j];
+            writeLegacyInput(writer, input, zeroOtherSequences && j != i ? 0 : input.sequence);
+         }
+      }
+      if (baseType == SIGHASH_NONE) {
+         writer.putCompactInt(0);
+      } else if (baseType == SIGHASH_SINGLE) {
+         writer.putCompactInt(i + 1);
+         for (int j = 0; j < i; j++) {
+            // blanked outputs have the value -1 and an empty script
+            writer.putLongLE(-1);
+            writer.putCompactInt(0);
+         }
+         _tx.outputs[i].toByteWriter(writer);
+      } else {
+         writer.putCompactInt(_tx.outputs.length);
+         for (TransactionOutput output : _tx.outputs) {
+            output.toByteWriter(writer);
+         }
+      }
+      writer.putIntLE(_tx.lockTime);
+      writer.putIntLE(hashType);
+      return writer.doubleSha256();
+   }
+
+   private static void writeLegacyInput(ByteWriter writer, TransactionInput input, int sequence) {
+      input.outPoint.hashPrev(writer);
+      byte[] script = input.getScript().getScriptBytes();
+      writer.putCompactInt(script.length);
+      writer.putBytes(script);
+      writer.putIntLE(sequence);
+   }
+
+   private Sha256Hash getHashPrevouts() {
+      if (_hashPrevouts == null) {
+         ByteWriter writer = new ByteWriter(36 * _tx.inputs.length);
+         for (TransactionInput input : _tx.inputs) {
+            input.outPoint.hashPrev(writer);
+         }
+         _hashPrevouts = writer.doubleSha256();
+      }
+      return _hashPrevouts;
+   }
+
+   private Sha256Hash getHashSequence() {
+      if (_hashSequence == null) {
+         ByteWriter writer = new ByteWriter(4 * _tx.inputs.length);
+         for (TransactionInput input : _tx.inputs) {
+            writer.putIntLE(input.sequence);
+         }
+         _hashSequence = writer.doubleSha256();
+      }
+      return _hashSequence;
+   }
+
+   private Sha256Hash getHashOutputs() {
+      if (_hashOutputs == null) {
+         ByteWriter writer = new ByteWriter(1024);
+         for (TransactionOutput output : _tx.outputs) {
+            output.toByteWriter(writer);
+         }
+         _hashOutputs = writer.doubleSha256();
+      }
+      return _hashOutputs;
+   }
+}
@@ -147,6 +147,13 @@ final public class ByteWriter {
       return bytes;
    }
 
+   /**
+    * @return the double SHA-256 of the bytes written so far, hashed in place
+    */
+   public Sha256Hash doubleSha256() {
+      return HashUtils.doubleSha256(_buf, 0, _index);
+   }
+
    public int length() {
       return _index;
    }
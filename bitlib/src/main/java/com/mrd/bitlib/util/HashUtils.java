@@ -18,16 +18,51 @@ package com.mrd.bitlib.util;
 
 import com.mrd.bitlib.crypto.digest.RIPEMD160Digest;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
  * Various hashing utilities used in the Bitcoin system.
+ * <p>
+ * Every thread keeps its own digests, as looking an algorithm up with {@link MessageDigest#getInstance(String)} costs
+ * more than hashing the few bytes of a key or a transaction. The methods ending in "Into" write the hash into a
+ * buffer of the caller instead of allocating one.
  */
 public class HashUtils {
 
    private static final String SHA256 = "SHA-256";
    private static final String SHA512 = "SHA-512";
+   private static final int SHA256_LENGTH = 32;
+
+   private static final ThreadLocal<MessageDigest> SHA256_DIGEST = new ThreadLocal<MessageDigest>() {
+      @Override
+      protected MessageDigest initialValue() {
+         return newDigest(SHA256);
+      }
+   };
+
+   private static final ThreadLocal<MessageDigest> SHA512_DIGEST = new ThreadLocal<MessageDigest>() {
+      @Override
+      protected MessageDigest initialValue() {
+         return newDigest(SHA512);
+      }
+   };
+
+   private static final ThreadLocal<RIPEMD160Digest> RIPEMD160_DIGEST = new ThreadLocal<RIPEMD160Digest>() {
+      @Override
+      protected RIPEMD160Digest initialValue() {
+         return new RIPEMD160Digest();
+      }
+   };
+
+   // the SHA-256 in the middle of a hash160
+   private static final ThreadLocal<byte[]> SHA256_BUFFER = new ThreadLocal<byte[]>() {
+      @Override
+      protected byte[] initialValue() {
+         return new byte[SHA256_LENGTH];
+      }
+   };
 
    public static Sha256Hash sha256(byte[] data) {
       MessageDigest digest;
@@ -46,8 +81,15 @@ public class HashUtils {
    }
 
    private static MessageDigest getSha256Digest() {
+      MessageDigest digest = SHA256_DIGEST.get();
+      // in case an earlier hash failed half way
+      digest.reset();
+      return digest;
+   }
+
+   private static MessageDigest newDigest(String algorithm) {
       try {
-         return MessageDigest.getInstance(SHA256);
+         return MessageDigest.getInstance(algorithm);
       } catch (NoSuchAlgorithmException e) {
          throw new RuntimeException(e); //cannot happen
       }
@@ -73,6 +115,59 @@ public class HashUtils {
       return new Sha256Hash(digest.digest(digest.digest()));
    }
 
+   /**
+    * Double SHA-256 of parts of an array, as if they were copied together first.
+    *
+    * @param ranges the offset and the length of each part
+    */
+   public static Sha256Hash doubleSha256Ranges(byte[] data, int... ranges) {
+      MessageDigest digest = getSha256Digest();
+      for (int i = 0; i < ranges.length; i += 2) {
+         digest.update(data, ranges[i], ranges[i + 1]);
+      }
+      return new Sha256Hash(digest.digest(digest.digest()));
+   }
+
+   /**
+    * Write the 32 bytes of the SHA-256 of a part of an array to out, starting at outOffset.
+    */
+   public static void sha256Into(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      MessageDigest digest = getSha256Digest();
+      digest.update(data, offset, length);
+      finish(digest, out, outOffset);
+   }
+
+   /**
+    * Write the 32 bytes of the double SHA-256 of a part of an array to out, starting at outOffset.
+    */
+   public static void doubleSha256Into(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      MessageDigest digest = getSha256Digest();
+      digest.update(data, offset, length);
+      finish(digest, out, outOffset);
+      digest.update(out, outOffset, SHA256_LENGTH);
+      finish(digest, out, outOffset);
+   }
+
+   /**
+    * Write the 20 bytes of the RipeMd160 of the SHA-256 of a part of an array to out, starting at outOffset.
+    */
+   public static void hash160Into(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      byte[] sha256 = SHA256_BUFFER.get();
+      sha256Into(data, offset, length, sha256, 0);
+      RIPEMD160Digest ripeMD160 = RIPEMD160_DIGEST.get();
+      ripeMD160.update(sha256, 0, sha256.length);
+      ripeMD160.doFinal(out, outOffset);
+   }
+
+   private static void finish(MessageDigest digest, byte[] out, int outOffset) {
+      try {
+         digest.digest(out, outOffset, SHA256_LENGTH);
+      } catch (DigestException e) {
+         // out is too short
+         throw new IllegalArgumentException(e);
+      }
+   }
+
    public static Sha512Hash sha512(byte[] data) {
       MessageDigest digest;
       digest = getSha512Digest();
@@ -97,11 +192,9 @@ public class HashUtils {
    }
 
    private static MessageDigest getSha512Digest() {
-      try {
-         return MessageDigest.getInstance(SHA512);
-      } catch (NoSuchAlgorithmException e) {
-         throw new RuntimeException(e); //cannot happen
-      }
+      MessageDigest digest = SHA512_DIGEST.get();
+      digest.reset();
+      return digest;
    }
 
    /**
@@ -112,11 +205,8 @@ public class HashUtils {
     * @return The Bitcoin address as an array of bytes.
     */
    public static byte[] addressHash(byte[] pubkeyBytes) {
-      byte[] sha256 = getSha256Digest().digest(pubkeyBytes);
       byte[] out = new byte[20];
-      RIPEMD160Digest ripeMD160 = new RIPEMD160Digest();
-      ripeMD160.update(sha256, 0, sha256.length);
-      ripeMD160.doFinal(out, 0);
+      hash160Into(pubkeyBytes, 0, pubkeyBytes.length, out, 0);
       return out;
    }
 }
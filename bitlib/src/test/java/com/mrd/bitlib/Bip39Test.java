@@ -37,9 +37,12 @@ package com.mrd.bitlib;
 import com.mrd.bitlib.crypto.Bip39;
 import com.mrd.bitlib.util.HexUtils;
 
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -182,6 +185,58 @@ public class Bip39Test {
         }
     }
 
+    @Test
+    public void testEnglishWordListIsSorted() {
+        // the word index is found with a binary search
+        for (int i = 1; i < Bip39.ENGLISH_WORD_LIST.length; i++) {
+            assertTrue(Bip39.ENGLISH_WORD_LIST[i - 1].compareTo(Bip39.ENGLISH_WORD_LIST[i]) < 0);
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testSpeed() {
+        String[] words = Bip39.ENGLISH_WORD_LIST;
+        List<String> unsorted = Arrays.asList(words);
+        int rounds = 100;
+        // warm up
+        for (int i = 0; i < rounds; i++) {
+            for (String word : words) {
+                unsorted.indexOf(word);
+                Bip39.getWordIndex(word);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String word : words) {
+                unsorted.indexOf(word);
+            }
+        }
+        report("linear word index", start, rounds * words.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String word : words) {
+                Bip39.getWordIndex(word);
+            }
+        }
+        report("binary search word index", start, rounds * words.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (TestVector tv : TEST_VECTORS) {
+                Bip39.isValidWordList(tv.wordList);
+            }
+        }
+        report("word list validation", start, rounds * TEST_VECTORS.length);
+    }
+
+    private static void report(String name, long startNanos, int tries) {
+        double micros = (System.nanoTime() - startNanos) / 1000.0 / tries;
+        System.out.println(name + ": " + micros + " us/op");
+    }
+
     private static class TestVector {
         String raw;
         String[] wordList;
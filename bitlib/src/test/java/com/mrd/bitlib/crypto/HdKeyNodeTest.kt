@@ -7,6 +7,7 @@ import com.mrd.bitlib.util.HexUtils
 import org.junit.Assert.assertEquals
 import org.junit.Assert.fail
 import org.junit.Test
+import java.util.concurrent.Executors
 
 class HdKeyNodeTest {
     @Test
@@ -55,6 +56,43 @@ class HdKeyNodeTest {
         assertEquals(tv.xpriv, node.serialize(productionNetwork, BipDerivationType.BIP44))
     }
 
+    @Test
+    fun deriveChildrenRangeTest() {
+        val root = HdKeyNode.fromSeed(TEST_VECTORS[0].seed, null)
+        val publicRoot = root.publicNode
+        val privateChildren = root.deriveChildrenRange(5, 40)
+        val publicChildren = publicRoot.deriveChildrenRange(5, 40)
+        val publicFromPrivate = root.derivePublicChildrenRange(5, 40)
+        assertEquals(36, privateChildren.size)
+        for (i in 5..40) {
+            val expected = root.createChildNode(i)
+            assertEquals(expected, privateChildren[i - 5])
+            assertEquals(expected.privateKey.privateKeyBytes.toList(), privateChildren[i - 5].privateKey.privateKeyBytes.toList())
+            assertEquals(expected.publicNode, publicChildren[i - 5])
+            assertEquals(expected.publicNode, publicFromPrivate[i - 5])
+        }
+    }
+
+    @Test
+    fun deriveChildrenRangeParallelTest() {
+        val publicRoot = HdKeyNode.fromSeed(TEST_VECTORS[1].seed, null).publicNode
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val children = publicRoot.deriveChildrenRange(0, 99, false, executor)
+            assertEquals(100, children.size)
+            children.forEachIndexed { i, child ->
+                assertEquals(publicRoot.createChildNode(i), child)
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test(expected = KeyGenerationException::class)
+    fun failOnHardenedRangeTest() {
+        HdKeyNode.fromSeed(TEST_VECTORS[0].seed, null).deriveChildrenRange(0, HdKeyNode.HARDENED_MARKER)
+    }
+
     private class TestVector(val seed: ByteArray, derivationString: String, val xpub: String, val xpriv: String) {
         val derivation: HdKeyPath = HdKeyPath.valueOf(derivationString.replace("H", "'"))
     }
@@ -0,0 +1,208 @@
+package com.mrd.bitlib.crypto.ec;
+
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.InMemoryPrivateKey;
+import com.mrd.bitlib.util.HashUtils;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EcToolsTest {
+   private static final Random RANDOM = new Random(42);
+
+   /**
+    * The affine double-and-add multiplication this library used before the Jacobian engine
+    */
+   private static Point referenceMultiply(Point p, BigInteger k) {
+      Point r = p.getCurve().getInfinity();
+      for (int i = k.bitLength() - 1; i >= 0; i--) {
+         r = r.twice();
+         if (k.testBit(i)) {
+            r = r.add(p);
+         }
+      }
+      return r;
+   }
+
+   private static BigInteger randomScalar() {
+      BigInteger k;
+      do {
+         k = new BigInteger(256, RANDOM);
+      } while (k.signum() == 0 || k.compareTo(Parameters.n) >= 0);
+      return k;
+   }
+
+   private static void assertSamePoint(Point expected, Point actual) {
+      assertEquals(expected.isInfinity(), actual.isInfinity());
+      if (!expected.isInfinity()) {
+         assertEquals(expected.getX(), actual.getX());
+         assertEquals(expected.getY(), actual.getY());
+      }
+   }
+
+   @Test
+   public void testGeneratorMultiply() {
+      BigInteger[] scalars = {BigInteger.ONE, BigInteger.valueOf(2), BigInteger.valueOf(15), BigInteger.valueOf(16),
+            Parameters.n.subtract(BigInteger.ONE), Parameters.n.shiftRight(1)};
+      for (BigInteger k : scalars) {
+         assertSamePoint(referenceMultiply(Parameters.G, k), Parameters.G.multiply(k));
+      }
+      for (int i = 0; i < 20; i++) {
+         BigInteger k = randomScalar();
+         assertSamePoint(referenceMultiply(Parameters.G, k), Parameters.G.multiply(k));
+      }
+   }
+
+   @Test
+   public void testVariableBaseMultiply() {
+      for (int i = 0; i < 10; i++) {
+         Point p = referenceMultiply(Parameters.G, randomScalar());
+         BigInteger k = randomScalar();
+         assertSamePoint(referenceMultiply(p, k), p.multiply(k));
+      }
+   }
+
+   @Test
+   public void testMultiplyByOrderIsInfinity() {
+      Point p = referenceMultiply(Parameters.G, randomScalar());
+      assertTrue(p.multiply(Parameters.n).isInfinity());
+      assertTrue(Parameters.G.multiply(Parameters.n).isInfinity());
+      assertTrue(p.multiply(BigInteger.ZERO).isInfinity());
+   }
+
+   @Test
+   public void testMultiplyInfinity() {
+      Point infinity = Parameters.curve.getInfinity();
+      assertTrue(infinity.multiply(randomScalar()).isInfinity());
+      assertTrue(infinity.multiply(randomScalar().negate()).isInfinity());
+   }
+
+   @Test
+   public void testNegativeScalar() {
+      Point p = referenceMultiply(Parameters.G, randomScalar());
+      BigInteger k = randomScalar();
+      assertSamePoint(referenceMultiply(p, k).negate(), p.multiply(k.negate()));
+   }
+
+   @Test
+   public void testSumOfTwoMultiplies() {
+      for (int i = 0; i < 10; i++) {
+         Point p = referenceMultiply(Parameters.G, randomScalar());
+         Point q = referenceMultiply(Parameters.G, randomScalar());
+         BigInteger k = randomScalar();
+         BigInteger l = randomScalar();
+         Point expected = referenceMultiply(p, k).add(referenceMultiply(q, l));
+         assertSamePoint(expected, EcTools.sumOfTwoMultiplies(p, k, q, l));
+         Point expectedG = referenceMultiply(Parameters.G, k).add(referenceMultiply(q, l));
+         assertSamePoint(expectedG, EcTools.sumOfTwoMultiplies(Parameters.G, k, q, l));
+      }
+   }
+
+   @Test
+   public void testSumOfTwoMultipliesCancelling() {
+      // k * P + (n - k) * P is the point at infinity
+      Point p = referenceMultiply(Parameters.G, randomScalar());
+      BigInteger k = randomScalar();
+      assertTrue(EcTools.sumOfTwoMultiplies(p, k, p, Parameters.n.subtract(k)).isInfinity());
+   }
+
+   @Test
+   public void testNormalizeAll() {
+      JacobianPoint[] points = new JacobianPoint[5];
+      Point[] expected = new Point[points.length];
+      for (int i = 0; i < points.length; i++) {
+         BigInteger k = randomScalar();
+         points[i] = i == 2 ? JacobianPoint.infinity(Parameters.curve) : EcTools.multiplyJacobian(Parameters.G, k);
+         expected[i] = points[i].toAffine();
+      }
+      Point[] actual = JacobianPoint.normalizeAll(points);
+      for (int i = 0; i < points.length; i++) {
+         assertSamePoint(expected[i], actual[i]);
+      }
+   }
+
+   @Test
+   public void testWindowNaf() {
+      for (int i = 0; i < 20; i++) {
+         BigInteger k = randomScalar();
+         byte[] naf = EcTools.windowNaf(k, 5);
+         BigInteger sum = BigInteger.ZERO;
+         for (int j = naf.length - 1; j >= 0; j--) {
+            sum = sum.shiftLeft(1).add(BigInteger.valueOf(naf[j]));
+         }
+         assertEquals(k, sum);
+      }
+   }
+
+   @Test
+   @Ignore
+   public void testSpeed() {
+      int tries = 200;
+      BigInteger[] scalars = new BigInteger[tries];
+      for (int i = 0; i < tries; i++) {
+         scalars[i] = randomScalar();
+      }
+      Point p = referenceMultiply(Parameters.G, randomScalar());
+      // warm up
+      for (int i = 0; i < tries; i++) {
+         referenceMultiply(p, scalars[i]);
+         p.multiply(scalars[i]);
+         Parameters.G.multiply(scalars[i]);
+      }
+
+      long start = System.nanoTime();
+      for (BigInteger k : scalars) {
+         referenceMultiply(Parameters.G, k);
+      }
+      report("reference G multiply", start, tries);
+
+      start = System.nanoTime();
+      for (BigInteger k : scalars) {
+         Parameters.G.multiply(k);
+      }
+      report("table G multiply", start, tries);
+
+      start = System.nanoTime();
+      for (BigInteger k : scalars) {
+         referenceMultiply(p, k);
+      }
+      report("reference P multiply", start, tries);
+
+      start = System.nanoTime();
+      for (BigInteger k : scalars) {
+         p.multiply(k);
+      }
+      report("wNAF P multiply", start, tries);
+
+      HdKeyNode root = HdKeyNode.fromSeed(HashUtils.sha256(new byte[]{1}).getBytes(), null);
+      HdKeyNode publicRoot = root.getPublicNode();
+      start = System.nanoTime();
+      for (int i = 0; i < tries; i++) {
+         root.createChildNode(i);
+      }
+      report("private HD derivation", start, tries);
+
+      start = System.nanoTime();
+      for (int i = 0; i < tries; i++) {
+         publicRoot.createChildNode(i);
+      }
+      report("public HD derivation", start, tries);
+
+      InMemoryPrivateKey key = root.getPrivateKey();
+      start = System.nanoTime();
+      for (int i = 0; i < tries; i++) {
+         key.makeStandardBitcoinSignature(HashUtils.sha256(scalars[i].toByteArray()));
+      }
+      report("signing", start, tries);
+   }
+
+   private static void report(String name, long startNanos, int tries) {
+      double micros = (System.nanoTime() - startNanos) / 1000.0 / tries;
+      System.out.println(name + ": " + micros + " us/op");
+   }
+}
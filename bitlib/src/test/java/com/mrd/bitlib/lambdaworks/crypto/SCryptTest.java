@@ -0,0 +1,76 @@
+package com.mrd.bitlib.lambdaworks.crypto;
+
+import com.mrd.bitlib.util.HexUtils;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SCryptTest {
+   /**
+    * Test vectors from RFC 7914, section 12, but the one with the empty password that the JCE does not take as key
+    */
+   @Test
+   public void testVectorsFromTheRfc() throws GeneralSecurityException, InterruptedException {
+      assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                  + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+            scrypt("password", "NaCl", 1024, 8, 16, 64));
+      assertEquals("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+                  + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887",
+            scrypt("pleaseletmein", "SodiumChloride", 16384, 8, 1, 64));
+   }
+
+   @Test
+   public void contiguousVGivesTheSameKey() throws GeneralSecurityException, InterruptedException {
+      byte[] passwd = "password".getBytes(StandardCharsets.US_ASCII);
+      byte[] salt = "NaCl".getBytes(StandardCharsets.US_ASCII);
+      assertArrayEquals(SCrypt.scrypt(passwd, salt, 1024, 8, 16, 64, true),
+            SCrypt.scrypt(passwd, salt, 1024, 8, 16, 64, false));
+   }
+
+   @Test(expected = InterruptedException.class)
+   public void interruptedDerivationStops() throws GeneralSecurityException, InterruptedException {
+      Thread.currentThread().interrupt();
+      try {
+         scrypt("password", "NaCl", 1024, 8, 16, 64);
+      } finally {
+         Thread.interrupted();
+      }
+   }
+
+   @Test
+   @Ignore
+   public void testSpeed_bip38() throws GeneralSecurityException, InterruptedException {
+      // the parameters of Bip38.bip38Stretch1
+      _testSpeed(16384, 8, 8, 10);
+   }
+
+   @Test
+   @Ignore
+   public void testSpeed_mrdExport() throws GeneralSecurityException, InterruptedException {
+      // MrdExport.V1.ScryptParameters.DEFAULT_PARAMS
+      _testSpeed(1 << 14, 8, 1, 20);
+   }
+
+   private void _testSpeed(int N, int r, int p, int tries) throws GeneralSecurityException, InterruptedException {
+      for (boolean segmentedV : new boolean[]{true, false}) {
+         long start = System.currentTimeMillis();
+         for (int i = 0; i < tries; i++) {
+            SCrypt.scrypt(("123" + i).getBytes(StandardCharsets.US_ASCII), new byte[8], N, r, p, 64, segmentedV);
+         }
+         long duration = System.currentTimeMillis() - start;
+         System.out.println((segmentedV ? "segmented V: " : "contiguous V: ") + (duration / tries) + " ms per key");
+      }
+   }
+
+   private static String scrypt(String passwd, String salt, int N, int r, int p, int dkLen)
+         throws GeneralSecurityException, InterruptedException {
+      return HexUtils.toHex(SCrypt.scrypt(passwd.getBytes(StandardCharsets.US_ASCII),
+            salt.getBytes(StandardCharsets.US_ASCII), N, r, p, dkLen));
+   }
+}
@@ -0,0 +1,91 @@
+package com.mrd.bitlib.model
+
+import com.mrd.bitlib.util.HexUtils.toBytes
+import com.mrd.bitlib.util.HexUtils.toHex
+import com.mrd.bitlib.util.Sha256Hash
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Ignore
+import org.junit.Test
+
+class SigHashContextTest {
+    /**
+     * Native P2WPKH example of BIP143
+     */
+    private fun bip143NativeP2wpkhTransaction(): BitcoinTransaction {
+        val tx = BitcoinTransaction.fromBytes(toBytes(BIP143_UNSIGNED))
+        val input = tx.inputs[1]
+        tx.inputs[1] = TransactionInput(input.outPoint, ScriptInput.fromScriptBytes(toBytes(BIP143_P2WPKH_INPUT_SCRIPT)),
+                input.sequence, 600000000)
+        return tx
+    }
+
+    @Test
+    fun bip143NativeP2wpkhVector() {
+        val tx = bip143NativeP2wpkhTransaction()
+        assertEquals(BIP143_SIGHASH, toHex(SigHashContext(tx).getTxDigestHash(1, SigHashContext.SIGHASH_ALL).bytes))
+        assertEquals(BIP143_SIGHASH, toHex(tx.getTxDigestHash(1).bytes))
+    }
+
+    @Test
+    fun sigHashTypesDiffer() {
+        val context = SigHashContext(bip143NativeP2wpkhTransaction())
+        val hashes = listOf(SigHashContext.SIGHASH_ALL, SigHashContext.SIGHASH_NONE, SigHashContext.SIGHASH_SINGLE)
+                .flatMap { listOf(it, it or SigHashContext.SIGHASH_ANYONECANPAY) }
+                .map { context.getTxDigestHash(1, it) }
+        assertEquals(hashes.size, hashes.toSet().size)
+    }
+
+    @Test
+    fun reusedContextMatchesFreshContext() {
+        val tx = createSegwitTransaction(50)
+        val context = SigHashContext(tx)
+        for (i in tx.inputs.indices) {
+            assertEquals(SigHashContext(tx).getTxDigestHash(i, SigHashContext.SIGHASH_ALL),
+                    context.getTxDigestHash(i, SigHashContext.SIGHASH_ALL))
+            assertEquals(SigHashContext(tx).getTxDigestHash(i, SigHashContext.SIGHASH_SINGLE),
+                    context.getTxDigestHash(i, SigHashContext.SIGHASH_SINGLE))
+        }
+        assertNotEquals(context.getTxDigestHash(0, SigHashContext.SIGHASH_ALL),
+                context.getTxDigestHash(1, SigHashContext.SIGHASH_ALL))
+    }
+
+    @Test
+    @Ignore
+    fun testSpeed() {
+        for (inputCount in listOf(1, 10, 100, 500, 1000, 2000)) {
+            val tx = createSegwitTransaction(inputCount)
+            var start = System.nanoTime()
+            for (i in tx.inputs.indices) {
+                tx.getTxDigestHash(i)
+            }
+            val perCall = (System.nanoTime() - start) / 1000000.0
+            start = System.nanoTime()
+            val context = SigHashContext(tx)
+            for (i in tx.inputs.indices) {
+                context.getTxDigestHash(i, SigHashContext.SIGHASH_ALL)
+            }
+            val shared = (System.nanoTime() - start) / 1000000.0
+            println("$inputCount inputs: fresh context per input $perCall ms, shared context $shared ms")
+        }
+    }
+
+    private fun createSegwitTransaction(inputCount: Int): BitcoinTransaction {
+        val inputs = Array(inputCount) {
+            val txid = Sha256Hash.of(ByteArray(32) { index -> (index + it).toByte() })
+            TransactionInput(OutPoint(txid, it % 3), ScriptInput.fromScriptBytes(toBytes(BIP143_P2WPKH_INPUT_SCRIPT)),
+                    -1, 100000L + it)
+        }
+        val outputs = Array(2) {
+            TransactionOutput(50000L * inputCount, ScriptOutput.fromScriptBytes(toBytes(
+                    "76a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac")))
+        }
+        return BitcoinTransaction(1, inputs, outputs, 0)
+    }
+
+    companion object {
+        private const val BIP143_UNSIGNED = "0100000002fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f0000000000eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac11000000"
+        private const val BIP143_P2WPKH_INPUT_SCRIPT = "1600141d0f172a0ecb48aee1be1f2687d2963ae33f71a1"
+        private const val BIP143_SIGHASH = "c37af31116d1b27caf68aae9e3ac82f1477929014d5b917657d0eb49478cb670"
+    }
+}
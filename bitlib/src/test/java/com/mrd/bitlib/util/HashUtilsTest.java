@@ -0,0 +1,56 @@
+package com.mrd.bitlib.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HashUtilsTest {
+   private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] HELLO = "hello".getBytes(StandardCharsets.US_ASCII);
+   // the compressed public key of the private key 1
+   private static final byte[] PUBLIC_KEY = HexUtils.toBytes("0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798");
+
+   @Test
+   public void sha256Into() {
+      byte[] out = new byte[40];
+      HashUtils.sha256Into(withMargin(ABC), 3, ABC.length, out, 4);
+      assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+            HexUtils.toHex(Arrays.copyOfRange(out, 4, 36)));
+      assertArrayEquals(HashUtils.sha256(ABC).getBytes(), Arrays.copyOfRange(out, 4, 36));
+   }
+
+   @Test
+   public void doubleSha256Into() {
+      byte[] out = new byte[32];
+      HashUtils.doubleSha256Into(withMargin(HELLO), 3, HELLO.length, out, 0);
+      assertEquals("9595c9df90075148eb06860365df33584b75bff782a510c6cd4883a419833d50", HexUtils.toHex(out));
+      assertArrayEquals(HashUtils.doubleSha256(HELLO).getBytes(), out);
+   }
+
+   @Test
+   public void hash160Into() {
+      byte[] out = new byte[22];
+      HashUtils.hash160Into(withMargin(PUBLIC_KEY), 3, PUBLIC_KEY.length, out, 2);
+      assertEquals("751e76e8199196d454941c45d1b3a323f1433bd6", HexUtils.toHex(Arrays.copyOfRange(out, 2, 22)));
+      assertArrayEquals(HashUtils.addressHash(PUBLIC_KEY), Arrays.copyOfRange(out, 2, 22));
+   }
+
+   @Test
+   public void byteWriterDoubleSha256() {
+      // more than the initial capacity, so the buffer holds more than what was written
+      ByteWriter writer = new ByteWriter(3);
+      writer.putBytes(HELLO);
+      assertEquals(HashUtils.doubleSha256(writer.toBytes()), writer.doubleSha256());
+   }
+
+   private static byte[] withMargin(byte[] data) {
+      byte[] buffer = new byte[data.length + 6];
+      Arrays.fill(buffer, (byte) 0x55);
+      System.arraycopy(data, 0, buffer, 3, data.length);
+      return buffer;
+   }
+}
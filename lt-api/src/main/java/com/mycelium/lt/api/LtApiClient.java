@@ -19,10 +19,12 @@ package com.mycelium.lt.api;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -33,7 +35,6 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.base.Stopwatch;
 import com.mrd.bitlib.model.BitcoinAddress;
 import com.mrd.bitlib.util.BitlibJsonModule;
 import com.mycelium.lt.api.LtConst.Function;
@@ -51,7 +52,7 @@ import com.mycelium.lt.api.params.SetTradeReceivingAddressParameters;
 import com.mycelium.lt.api.params.TradeChangeParameters;
 import com.mycelium.lt.api.params.TraderParameters;
 import com.mycelium.net.HttpEndpoint;
-import com.mycelium.net.FeedbackEndpoint;
+import com.mycelium.net.HedgedRequestExecutor;
 import com.mycelium.net.ServerEndpoints;
 import com.squareup.okhttp.*;
 
@@ -71,12 +72,22 @@ public class LtApiClient implements LtApi {
       return ba.toByteArray();
    }
 
+   // Plain queries, which may reach several servers at once. The other functions change state on the server, the
+   // captcha too as asking for one creates it, and the long polls take long by design.
+   private static final Set<String> IDEMPOTENT_FUNCTIONS = new HashSet<>(Arrays.asList(
+         Function.GET_SUPPORTED_PRICE_FORMULAS, Function.GET_ACTIVE_TRADE_SESSIONS, Function.GET_FINAL_TRADE_SESSIONS,
+         Function.GET_TRADE_SESSIONS, Function.GET_TRADE_SESSION, Function.GET_TRADER_INFO,
+         Function.GET_PUBLIC_TRADER_INFO, Function.GET_LAST_TRADE_SESSION_CHANGE, Function.ASSESS_BTC_PRICE,
+         Function.AD_SEARCH, Function.LIST_ADS, Function.GET_AD, Function.GET_ACTIVE_ADS));
+
    private ServerEndpoints _serverEndpoints;
    private ObjectMapper _objectMapper;
    private Logger _logger = Logger.getLogger(LtApiClient.class.getSimpleName());
+   private final HedgedRequestExecutor _requestExecutor;
 
    public LtApiClient(ServerEndpoints serverEndpoints) {
       _serverEndpoints = serverEndpoints;
+      _requestExecutor = new HedgedRequestExecutor(serverEndpoints, _logger);
 
       _objectMapper = new ObjectMapper();
       // We ignore properties that do not map onto the version of the class we
@@ -117,62 +128,21 @@ public class LtApiClient implements LtApi {
       _logger.log(Level.SEVERE,message,e);
    }
 
-   private Response getConnectionAndSendRequest(LtRequest request, long timeout) {
-      int originalConnectionIndex = _serverEndpoints.getCurrentEndpointIndex();
-
-      while (true) {
-         HttpEndpoint serverEndpoint = _serverEndpoints.getCurrentEndpoint();
-         try {
-            OkHttpClient client = serverEndpoint.getClient();
-            _logger.log(Level.INFO, "LT connecting to " + serverEndpoint.getBaseUrl() + " (" + _serverEndpoints.getCurrentEndpointIndex() + ")");
-
-            // configure TimeOuts
-            client.setConnectTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setReadTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setWriteTimeout(timeout, TimeUnit.MILLISECONDS);
-
-            Stopwatch callDuration = Stopwatch.createStarted();
-            // build request
-            final String toSend = getPostBody(request);
-            Request rq = new Request.Builder()
-                  .post(RequestBody.create(MediaType.parse("application/json"), toSend))
-                  .url(serverEndpoint.getUri(request.toString()).toString())
+   /**
+    * Send the request to the healthiest server, and to the next ones if it is slow or fails.
+    */
+   private Response getConnectionAndSendRequest(final LtRequest request, long timeout) {
+      HedgedRequestExecutor.RequestFactory factory = new HedgedRequestExecutor.RequestFactory() {
+         @Override
+         public Request createRequest(HttpEndpoint endpoint) {
+            return new Request.Builder()
+                  .post(RequestBody.create(MediaType.parse("application/json"), getPostBody(request)))
+                  .url(endpoint.getUri(request.toString()).toString())
                   .build();
-
-            // execute request
-            Response response = client.newCall(rq).execute();
-            callDuration.stop();
-            _logger.log(Level.INFO, String.format(Locale.US, "LtApi %s finished (%dms)", request.toString(), callDuration.elapsed(TimeUnit.MILLISECONDS)));
-
-
-            // Check for status code 2XX
-            if (response.isSuccessful()) {
-               if (serverEndpoint instanceof FeedbackEndpoint){
-                  ((FeedbackEndpoint) serverEndpoint).onSuccess();
-               }
-               return response;
-            }else{
-               // If the status code is not 200 we cycle to the next server
-               logError(String.format(Locale.US, "Local Trader server request for class %s returned HTTP status code %d", request.getClass().toString(), response.code()));
-            }
-
-         } catch (IOException e) {
-            logError("getConnectionAndSendRequest failed IO exception.");
-            if (serverEndpoint instanceof FeedbackEndpoint){
-               _logger.log(Level.INFO, "Resetting tor");
-               ((FeedbackEndpoint) serverEndpoint).onError();
-            }
-         }
-
-         // We had an IO exception or a bad status, fail over and try again
-         _serverEndpoints.switchToNextEndpoint();
-         // Check if we are back at the initial endpoint, in which case we have
-         // to give up
-         if (_serverEndpoints.getCurrentEndpointIndex() == originalConnectionIndex) {
-            // We have tried all URLs
-            return null;
          }
-      }
+      };
+      boolean isIdempotent = IDEMPOTENT_FUNCTIONS.contains(request.getFunction());
+      return _requestExecutor.execute("LtApi " + request.getFunction(), factory, timeout, isIdempotent);
    }
 
    private String getPostBody(LtRequest request) {
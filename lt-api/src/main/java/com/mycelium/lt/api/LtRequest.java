@@ -25,11 +25,13 @@ import java.net.URL;
 import java.net.URLEncoder;
 
 public class LtRequest {
+   private final String _function;
    private StringBuilder _sb;
    private boolean _firstParameter;
    private String _postString;
 
    public LtRequest(String function) {
+      _function = function;
       _sb = new StringBuilder();
       _firstParameter = true;
       _sb.append(function);
@@ -40,6 +42,10 @@ public class LtRequest {
       return new URL(baseUrl+toString());
    }
 
+   public String getFunction() {
+      return _function;
+   }
+
    public String getPostString() {
       return _postString;
    }
@@ -3,32 +3,163 @@ package com.mycelium.wallet;
 import com.mycelium.generated.wallet.database.LogsQueries;
 import com.mycelium.generated.wallet.database.WalletDB;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+import kotlin.Unit;
+
+/**
+ * Writes log records to the database on a background thread, so logging never waits for the database. Records
+ * are queued without locking and written in batches, each batch in one transaction.
+ * <p>
+ * If the writer can't keep up and the queue is full, new records below {@link Level#WARNING} are dropped and
+ * warnings push out the oldest queued record. The number of dropped records is logged with the next batch.
+ */
 public class DbLogHandler extends Handler {
 
     private static final Integer MAX_LOG_RECORDS = 50000;
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 500;
+    // how long a record may wait in the queue before it is written
+    private static final long WRITE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000;
+    // the old records are removed after this many records were written
+    private static final int CLEAN_UP_INTERVAL = 5000;
+
     private final LogsQueries logsQueries;
+    private final ConcurrentLinkedQueue<LogRecord> queue = new ConcurrentLinkedQueue<>();
+    // the records in the queue plus the ones being written
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final Object writtenMonitor = new Object();
+    private final Thread writer;
+    private volatile boolean isCleanUpRequested;
+    private volatile boolean isClosed;
+    private int writtenSinceCleanUp;
 
     public DbLogHandler(WalletDB db) {
         logsQueries = db.getLogsQueries();
+        writer = new Thread(this::writeLoop, "DbLogHandler");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
     }
 
     @Override
     public void publish(LogRecord record) {
-        logsQueries.insert(record.getMillis(), record.getLevel().getName(), record.getMessage());
+        if (isClosed || !isLoggable(record)) {
+            return;
+        }
+        if (pending.get() >= QUEUE_CAPACITY) {
+            if (record.getLevel().intValue() < Level.WARNING.intValue() || queue.poll() == null) {
+                dropped.incrementAndGet();
+                return;
+            }
+            // the oldest record made room for this one
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+        queue.offer(record);
+        if (pending.incrementAndGet() == BATCH_SIZE) {
+            LockSupport.unpark(writer);
+        }
     }
 
+    /**
+     * Removes the oldest records, keeping the last {@link #MAX_LOG_RECORDS}. Runs on the writer thread.
+     */
     public void cleanUp() {
-        logsQueries.cleanUp(MAX_LOG_RECORDS);
+        isCleanUpRequested = true;
+        LockSupport.unpark(writer);
     }
 
+    /**
+     * Waits until the records published so far are written, so they can be read from the database.
+     */
     @Override
     public void flush() {
+        if (Thread.currentThread() == writer) {
+            return;
+        }
+        LockSupport.unpark(writer);
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        synchronized (writtenMonitor) {
+            long remaining;
+            while (pending.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    writtenMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 
     @Override
     public void close() throws SecurityException {
+        flush();
+        isClosed = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop() {
+        while (!isClosed) {
+            if (pending.get() < BATCH_SIZE && !isCleanUpRequested) {
+                LockSupport.parkNanos(this, WRITE_DELAY_NANOS);
+            }
+            List<LogRecord> batch;
+            while (!(batch = takeBatch()).isEmpty()) {
+                write(batch);
+            }
+            if (isCleanUpRequested || writtenSinceCleanUp >= CLEAN_UP_INTERVAL) {
+                isCleanUpRequested = false;
+                writtenSinceCleanUp = 0;
+                try {
+                    logsQueries.cleanUp(MAX_LOG_RECORDS);
+                } catch (RuntimeException ignored) {
+                    // nothing to log it to, the next clean up will catch up
+                }
+            }
+        }
+    }
+
+    private List<LogRecord> takeBatch() {
+        List<LogRecord> batch = new ArrayList<>();
+        LogRecord record;
+        while (batch.size() < BATCH_SIZE && (record = queue.poll()) != null) {
+            batch.add(record);
+        }
+        return batch;
+    }
+
+    private void write(final List<LogRecord> batch) {
+        final int lost = dropped.getAndSet(0);
+        try {
+            logsQueries.transaction(false, transaction -> {
+                if (lost > 0) {
+                    logsQueries.insert(System.currentTimeMillis(), Level.WARNING.getName(),
+                            "Dropped " + lost + " log records, the log writer could not keep up");
+                }
+                for (LogRecord record : batch) {
+                    logsQueries.insert(record.getMillis(), record.getLevel().getName(), record.getMessage());
+                }
+                return Unit.INSTANCE;
+            });
+            writtenSinceCleanUp += batch.size();
+        } catch (RuntimeException e) {
+            dropped.addAndGet(lost + batch.size());
+        }
+        synchronized (writtenMonitor) {
+            pending.addAndGet(-batch.size());
+            writtenMonitor.notifyAll();
+        }
     }
 }
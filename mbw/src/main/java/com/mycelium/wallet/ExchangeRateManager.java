@@ -48,13 +48,14 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.mycelium.wallet.activity.modern.Toaster;
+import com.mycelium.wallet.exchange.ExchangeRateMatrix;
 import com.mycelium.wallet.exchange.GetExchangeRate;
 import com.mycelium.wallet.external.changelly.ChangellyAPIService;
 import com.mycelium.wallet.external.changelly.ChangellyAPIService.ChangellyAnswerDouble;
 import com.mycelium.wallet.persistence.MetadataStorage;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
-import com.mycelium.wapi.api.request.GetExchangeRatesRequest;
+import com.mycelium.wapi.api.request.GetExchangeRatesBatchRequest;
 import com.mycelium.wapi.api.response.GetExchangeRatesResponse;
 import com.mycelium.wapi.model.ExchangeRate;
 import com.mycelium.wapi.wallet.Util;
@@ -65,7 +66,6 @@ import com.mycelium.wapi.wallet.currency.ExchangeRateProvider;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -108,7 +108,7 @@ public class ExchangeRateManager implements ExchangeRateProvider {
     private final Wapi _api;
 
     private volatile List<String> _fiatCurrencies;
-    private Map<String, Map<String, GetExchangeRatesResponse>> _latestRates;
+    private volatile ExchangeRateMatrix _latestRates;
     private long _latestRatesTime;
     private volatile Fetcher _fetcher;
     private final Object _requestLock = new Object();
@@ -134,7 +134,7 @@ public class ExchangeRateManager implements ExchangeRateProvider {
             _currentExchangeSourceName = gson.fromJson(preferenceValue, new TypeToken<Map<String, String>>(){}.getType());
         }
         _subscribers = new LinkedList<>();
-        _latestRates = new HashMap<>();
+        _latestRates = new ExchangeRateMatrix.Builder().build();
         this.storage = storage;
         ChangellyAPIService.retrofit.create(ChangellyAPIService.class)
                 .getExchangeAmount(BCH, BTC, 1)
@@ -158,14 +158,13 @@ public class ExchangeRateManager implements ExchangeRateProvider {
                 selectedCurrencies = new ArrayList<>(_fiatCurrencies);
             }
 
+            List<String> fromCurrencies = new ArrayList<>(cryptocurrencies.size());
+            for (String cryptocurrency : cryptocurrencies) {
+                fromCurrencies.add(Util.trimTestnetSymbolDecoration(cryptocurrency));
+            }
             try {
-                List<GetExchangeRatesResponse> responses = new ArrayList<>(cryptocurrencies.size() * selectedCurrencies.size());
-                for (String cryptocurrency : cryptocurrencies) {
-                    for (String currency : selectedCurrencies) {
-                        responses.add(_api.getExchangeRates(new GetExchangeRatesRequest(Wapi.VERSION,
-                                Util.trimTestnetSymbolDecoration(cryptocurrency), currency)).getResult());
-                    }
-                }
+                List<GetExchangeRatesResponse> responses = _api.getExchangeRatesBatch(new GetExchangeRatesBatchRequest(
+                        Wapi.VERSION, fromCurrencies, selectedCurrencies)).getResult().getResponses();
                 synchronized (_requestLock) {
                     setLatestRates(responses);
                     _fetcher = null;
@@ -173,10 +172,10 @@ public class ExchangeRateManager implements ExchangeRateProvider {
                 }
             } catch (WapiException e) {
                 // we failed to get the exchange rate, try to restore saved values from the local database
-                Map<String, String> savedExchangeRates = storage.getAllExchangeRates();
-                if (savedExchangeRates.entrySet().size() > 0) {
+                ExchangeRateMatrix savedRates = savedRates(cryptocurrencies, selectedCurrencies);
+                if (savedRates != null) {
                     synchronized (_requestLock) {
-                        setLatestRates(localValues(cryptocurrencies, selectedCurrencies, savedExchangeRates));
+                        setLatestRates(savedRates);
                         _fetcher = null;
                         notifyRefreshingExchangeRatesSucceeded();
                     }
@@ -195,40 +194,68 @@ public class ExchangeRateManager implements ExchangeRateProvider {
     }
 
 
-    private List<GetExchangeRatesResponse> localValues(List<String> cryptocurrencies, List<String> selectedCurrencies,
-                                                       Map<String, String> savedExchangeRates) {
-        List<GetExchangeRatesResponse> responses = new ArrayList<>(selectedCurrencies.size());
+    /**
+     * @return the rates of the last refresh, null if there are none
+     */
+    private ExchangeRateMatrix savedRates(List<String> cryptocurrencies, List<String> selectedCurrencies) {
+        Optional<String> savedMatrix = storage.getExchangeRateMatrix();
+        if (savedMatrix.isPresent()) {
+            ExchangeRateMatrix matrix = ExchangeRateMatrix.fromJson(savedMatrix.get());
+            if (matrix != null && !matrix.isEmpty()) {
+                return matrix;
+            }
+        }
+        // the rates were stored one by one before the matrix
+        Map<String, String> savedExchangeRates = storage.getAllExchangeRates();
+        if (savedExchangeRates.isEmpty()) {
+            return null;
+        }
+        ExchangeRateMatrix matrix = localValues(cryptocurrencies, selectedCurrencies, savedExchangeRates);
+        storage.storeExchangeRateMatrix(matrix.toJson());
+        return matrix;
+    }
 
-        for (String currency : selectedCurrencies) {
-            for (String cryptocurrency : cryptocurrencies) {
-                List<ExchangeRate> exchangeRates = new ArrayList<>();
-                for (Map.Entry<String, String> entry : savedExchangeRates.entrySet()) {
-                    String key = entry.getKey();
-                    Matcher matcher = EXCHANGE_RATE_PATTERN.matcher(key);
-
-                    if (matcher.find()) {
-                        String market = matcher.group(1);
-                        String relatedCurrency = matcher.group(2); //BTC
-                        String baseCurrency = matcher.group(3); //fiat
-
-                        if (relatedCurrency.equals(cryptocurrency) && baseCurrency.equals(currency)) {
-                            double price;
-                            try {
-                                price = Double.parseDouble(entry.getValue());
-                            } catch (NumberFormatException nfe) {
-                                price = 0.0;
-                            }
-                            ExchangeRate exchangeRate = new ExchangeRate(market, new Date().getTime(), price, currency);
-                            exchangeRates.add(exchangeRate);
-                        }
-                    }
+    private ExchangeRateMatrix localValues(List<String> cryptocurrencies, List<String> selectedCurrencies,
+                                           Map<String, String> savedExchangeRates) {
+        // each key is matched once, into the rates by cryptocurrency and fiat
+        Map<String, Map<String, List<ExchangeRate>>> savedRates = new HashMap<>();
+        long now = new Date().getTime();
+        for (Map.Entry<String, String> entry : savedExchangeRates.entrySet()) {
+            Matcher matcher = EXCHANGE_RATE_PATTERN.matcher(entry.getKey());
+            if (matcher.find()) {
+                String market = matcher.group(1);
+                String relatedCurrency = matcher.group(2); //BTC
+                String baseCurrency = matcher.group(3); //fiat
+
+                double price;
+                try {
+                    price = Double.parseDouble(entry.getValue());
+                } catch (NumberFormatException nfe) {
+                    price = 0.0;
                 }
-
-                responses.add(new GetExchangeRatesResponse(cryptocurrency, currency, exchangeRates.toArray(new ExchangeRate[0])));
+                Map<String, List<ExchangeRate>> ratesByFiat = savedRates.get(relatedCurrency);
+                if (ratesByFiat == null) {
+                    ratesByFiat = new HashMap<>();
+                    savedRates.put(relatedCurrency, ratesByFiat);
+                }
+                List<ExchangeRate> rates = ratesByFiat.get(baseCurrency);
+                if (rates == null) {
+                    rates = new ArrayList<>();
+                    ratesByFiat.put(baseCurrency, rates);
+                }
+                rates.add(new ExchangeRate(market, now, price, baseCurrency));
             }
         }
 
-        return responses;
+        ExchangeRateMatrix.Builder builder = new ExchangeRateMatrix.Builder();
+        for (String cryptocurrency : cryptocurrencies) {
+            Map<String, List<ExchangeRate>> ratesByFiat = savedRates.get(cryptocurrency);
+            for (String currency : selectedCurrencies) {
+                List<ExchangeRate> rates = ratesByFiat == null ? null : ratesByFiat.get(currency);
+                builder.add(cryptocurrency, currency, rates == null ? new ExchangeRate[0] : rates.toArray(new ExchangeRate[0]));
+            }
+        }
+        return builder.build();
     }
 
     private void notifyRefreshingExchangeRatesSucceeded() {
@@ -268,22 +295,26 @@ public class ExchangeRateManager implements ExchangeRateProvider {
         }
     }
 
-    private synchronized void setLatestRates(List<GetExchangeRatesResponse> latestRates) {
-        if (latestRates.isEmpty()) {
-            return;
-        }
-        _latestRates = new HashMap<>();
+    private void setLatestRates(List<GetExchangeRatesResponse> latestRates) {
+        ExchangeRateMatrix.Builder builder = new ExchangeRateMatrix.Builder();
         for (GetExchangeRatesResponse response : latestRates) {
             String fromCurrency = Util.addTestnetSymbolDecoration(response.getFromCurrency(), BuildConfig.FLAVOR.equals("btctestnet"));
             String toCurrency = Util.addTestnetSymbolDecoration(response.getToCurrency(), BuildConfig.FLAVOR.equals("btctestnet"));
-            if (_latestRates.get(fromCurrency) != null) {
-                _latestRates.get(fromCurrency).put(toCurrency, response);
-            } else {
-                _latestRates.put(fromCurrency, new HashMap<>(Collections.singletonMap(toCurrency, response)));
-            }
-            for (ExchangeRate rate : response.getExchangeRates()) {
-                storage.storeExchangeRate(fromCurrency, rate.currency, rate.name, String.valueOf(rate.price));
-            }
+            builder.add(fromCurrency, toCurrency, response.getExchangeRates());
+        }
+        ExchangeRateMatrix matrix = builder.build();
+        if (!matrix.isEmpty()) {
+            storage.storeExchangeRateMatrix(matrix.toJson());
+        }
+        setLatestRates(matrix);
+    }
+
+    private synchronized void setLatestRates(ExchangeRateMatrix latestRates) {
+        if (latestRates.isEmpty()) {
+            return;
+        }
+        _latestRates = latestRates;
+        for (String fromCurrency : latestRates.getAssets()) {
             if (_currentExchangeSourceName.get(fromCurrency) == null) {
                 // This only happens the first time the wallet picks up exchange rates.
                 List<String> exchangeSourceNames = getExchangeSourceNames(fromCurrency);
@@ -311,19 +342,7 @@ public class ExchangeRateManager implements ExchangeRateProvider {
      * first time the app is running
      */
     public synchronized List<String> getExchangeSourceNames(String cryptocurrency) {
-        List<String> result = new LinkedList<>();
-        //check whether we have any rates
-        Map<String, GetExchangeRatesResponse> latestRatesForCryptocurrency = _latestRates.get(cryptocurrency);
-        if (latestRatesForCryptocurrency == null || latestRatesForCryptocurrency.isEmpty()) {
-            return result;
-        }
-        GetExchangeRatesResponse latestRates = latestRatesForCryptocurrency.values().iterator().next();
-        if (latestRates != null) {
-            for (ExchangeRate r : latestRates.getExchangeRates()) {
-                result.add(r.name);
-            }
-        }
-        return result;
+        return new LinkedList<>(_latestRates.getMarkets(cryptocurrency));
     }
 
     public void setCurrentExchangeSourceName(String coinSymbol, String name) {
@@ -342,7 +361,7 @@ public class ExchangeRateManager implements ExchangeRateProvider {
      * the currently chosen exchange source is not available.
      */
     public ExchangeRate getExchangeRate(String source, String destination, String exchangeSource) {
-        Map<String, GetExchangeRatesResponse> latestRatesForSourceCurrency = _latestRates.get(source);
+        ExchangeRateMatrix latestRates = _latestRates;
 
         // TODO need some refactoring for this
         String injectCurrency = null;
@@ -350,30 +369,18 @@ public class ExchangeRateManager implements ExchangeRateProvider {
             injectCurrency = destination;
             destination = "USD";
         }
-        if (latestRatesForSourceCurrency == null || latestRatesForSourceCurrency.isEmpty() || !latestRatesForSourceCurrency.containsKey(destination)) {
+        if (!latestRates.hasPair(source, destination)) {
             return null;
         }
-        GetExchangeRatesResponse latestRatesForTargetCurrency = latestRatesForSourceCurrency.get(destination);
-        if (latestRatesForTargetCurrency == null) {
-            //rate is too old or does not exists, exchange source seems to not be available
-            //we return a rate with null price to indicate there is something wrong with the exchange rate source
-            return ExchangeRate.missingRate(exchangeSource, System.currentTimeMillis(), destination);
-        }
-
-        ExchangeRate[] exchangeRates = latestRatesForTargetCurrency.getExchangeRates();
-        if (exchangeRates == null) {
-            return ExchangeRate.missingRate(exchangeSource, System.currentTimeMillis(), destination);
-        }
-        for (ExchangeRate r : exchangeRates) {
-            if (r.name.equals(exchangeSource)) {
-                //if the price is 0, obviously something went wrong
-                if (r.price.equals(0d)) {
-                    //we return an exchange rate with null price -> indicating missing rate
-                    return ExchangeRate.missingRate(exchangeSource, System.currentTimeMillis(), destination);
-                }
-                //everything is fine, return the rate
-                return getOtherExchangeRate(source, injectCurrency, r);
+        ExchangeRate r = latestRates.getRate(source, destination, exchangeSource);
+        if (r != null) {
+            //if the price is 0, obviously something went wrong
+            if (r.price.equals(0d)) {
+                //we return an exchange rate with null price -> indicating missing rate
+                return ExchangeRate.missingRate(exchangeSource, System.currentTimeMillis(), destination);
             }
+            //everything is fine, return the rate
+            return getOtherExchangeRate(source, injectCurrency, r);
         }
         if (exchangeSource != null) {
             // We end up here if the exchange is no longer on the list
@@ -252,6 +252,7 @@ public class MbwManager {
     private boolean randomizePinPad;
     private Timer _addressWatchTimer;
     private final WalletDB db;
+    private DbLogHandler dbLogHandler;
     private Logger logger = Logger.getLogger(MbwManager.class.getSimpleName());
 
     @Nonnull
@@ -383,7 +384,8 @@ public class MbwManager {
 
         SqlDriver driver = new AndroidSqliteDriver(WalletDB.Companion.getSchema(), _applicationContext, "wallet.db");
         db = WalletDB.Companion.invoke(driver, AdaptersKt.getAccountBackingAdapter(), AdaptersKt.getAccountContextAdapter(),
-                AdaptersKt.getBTCVAccountBackingAdapter(), AdaptersKt.getBTCVContextAdapter(),
+                AdaptersKt.getBTCVAccountBackingAdapter(), AdaptersKt.getBTCVAddressStatusAdapter(),
+                AdaptersKt.getBTCVContextAdapter(),
                 AdaptersKt.getBTCVOutgoingTxAdapter(), AdaptersKt.getBTCVPtxoAdapter(),
                 AdaptersKt.getBTCVRefersPtxoAdapter(), AdaptersKt.getBTCVTransactionAdapter(), AdaptersKt.getBTCVUtxoAdapter(),
                 AdaptersKt.getErc20ContextAdapter(), AdaptersKt.getEthAccountBackingAdapter(), AdaptersKt.getEthContextAdapter(),
@@ -407,6 +409,9 @@ public class MbwManager {
         _keepkeyManager = new KeepKeyManager(_applicationContext, getNetwork(), getEventBus());
         _ledgerManager = new LedgerManager(_applicationContext, getNetwork(), getEventBus());
         _walletManager = createWalletManager(_applicationContext, _environment, db);
+        // ElectrumX notifies about every transaction of our addresses, sync the accounts owning them right away
+        _wapi.setAddressStatusListener(address -> _walletManager.addressStatusChanged(address));
+        btcvWapi.setAddressStatusListener(address -> _walletManager.addressStatusChanged(address));
         contentResolver = createContentResolver(getNetwork());
 
         migrate();
@@ -437,10 +442,10 @@ public class MbwManager {
     private void startLogger() {
         LogManager.getLogManager().reset();
         Logger rootLogger = LogManager.getLogManager().getLogger("");
-        DbLogHandler handler = new DbLogHandler(db);
-        rootLogger.addHandler(handler);
+        dbLogHandler = new DbLogHandler(db);
+        rootLogger.addHandler(dbLogHandler);
         rootLogger.addHandler(new AndroidLogHandler());
-        handler.cleanUp();
+        dbLogHandler.cleanUp();
         logger.log(Level.INFO, "Logging started...");
     }
 
@@ -861,6 +866,7 @@ public class MbwManager {
         walletManager.setWalletListener(new SyncEventsListener());
 
         // notify the walletManager about the current selected account
+        walletManager.setActiveAccountId(getLastSelectedAccountId());
         walletManager.startSynchronization(getLastSelectedAccountId());
 
         NetworkParameters networkParameters = environment.getNetwork();
@@ -928,10 +934,12 @@ public class MbwManager {
     }
 
     public List<Logs> getLastLogsDesc(long limit) {
+        dbLogHandler.flush();
         return db.getLogsQueries().selectWithLimit(limit).executeAsList();
     }
 
     public List<Logs> getLogsAsc() {
+        dbLogHandler.flush();
         return db.getLogsQueries().select().executeAsList();
     }
 
@@ -1530,16 +1538,12 @@ public class MbwManager {
     }
 
     public Optional<UUID> getAccountId(Address address, AssetInfo coinType) {
-        Optional<UUID> result = Optional.absent();
-        for (UUID uuid : _walletManager.getAccountIds()) {
-            WalletAccount account = checkNotNull(_walletManager.getAccount(uuid));
-            if ((coinType == null || account.getCoinType().equals(coinType))
-                    && account.isMineAddress(address)) {
-                result = Optional.of(uuid);
-                break;
+        for (WalletAccount<?> account : _walletManager.getAccountsBy(address)) {
+            if (coinType == null || account.getCoinType().equals(coinType)) {
+                return Optional.of(account.getId());
             }
         }
-        return result;
+        return Optional.absent();
     }
 
     @Nullable
@@ -1561,6 +1565,7 @@ public class MbwManager {
         WalletAccount account = _walletManager.getAccount(uuid);
         Preconditions.checkState(account.isActive());
         getEditor().putString(SELECTED_ACCOUNT, uuid.toString()).apply();
+        _walletManager.setActiveAccountId(uuid);
         getEventBus().post(new SelectedAccountChanged(uuid));
         Address receivingAddress = account.getReceiveAddress();
         getEventBus().post(new ReceivingAddressChanged(receivingAddress));
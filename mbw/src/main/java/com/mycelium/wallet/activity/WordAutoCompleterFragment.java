@@ -110,23 +110,23 @@ public class WordAutoCompleterFragment extends Fragment implements UsKeyboardFra
    }
 
    private boolean exactMatch(String entered){
+      if (_completions == null) {
+         return false;
+      }
       // check if the word matches one entry in the wordlist exactly
-      if (Arrays.asList(_completions).contains(entered)){
-         // check if there is no other word starting with the same letters (eg. "sea" / "seat")
-         for (String w : _completions){
-            if (!w.equals(entered) && w.startsWith(entered)){
-               return false;
-            }
-         }
-         return true;
-      }else{
+      int index = Arrays.binarySearch(_completions, entered);
+      if (index < 0) {
          return false;
       }
-
+      // check if there is no other word starting with the same letters (eg. "sea" / "seat"). Such a word would
+      // follow right after it
+      return index + 1 == _completions.length || !_completions[index + 1].startsWith(entered);
    }
 
    public void setCompletions(String[] completions) {
       _completions = completions.clone();
+      // sorted, so the words with a prefix are found with a binary search
+      Arrays.sort(_completions);
       showCompletionButtons();
    }
 
@@ -181,13 +181,16 @@ public class WordAutoCompleterFragment extends Fragment implements UsKeyboardFra
       if (_completions == null || partialWord.length() < _minimumCharacters) {
          return completions;
       }
-      for (String s : _completions) {
-         if (s.startsWith(partialWord)) {
-            completions.add(s);
-            if (completions.size() == maxCompletions) {
-               break;
-            }
+      // the words starting with partialWord follow each other, beginning where partialWord would be
+      int index = Arrays.binarySearch(_completions, partialWord);
+      if (index < 0) {
+         index = -index - 1;
+      }
+      for (; index < _completions.length && completions.size() < maxCompletions; index++) {
+         if (!_completions[index].startsWith(partialWord)) {
+            break;
          }
+         completions.add(_completions[index]);
       }
       return completions;
    }
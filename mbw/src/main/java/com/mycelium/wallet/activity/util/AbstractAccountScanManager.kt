@@ -48,11 +48,16 @@ import com.mycelium.wallet.BuildConfig
 import com.mycelium.wallet.Utils
 import com.mycelium.wapi.wallet.AccountScanManager
 import com.mycelium.wapi.wallet.WalletManager
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountDiscovery
 import com.mycelium.wapi.wallet.coins.CryptoCurrency
 import com.satoshilabs.trezor.lib.protobuf.TrezorType
 import com.squareup.otto.Bus
 import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.LinkedBlockingQueue
+import java.util.logging.Level
+import java.util.logging.Logger
 
 abstract class AbstractAccountScanManager @JvmOverloads constructor(protected val context: Context,
                                                                     protected val network: NetworkParameters,
@@ -96,53 +101,81 @@ abstract class AbstractAccountScanManager @JvmOverloads constructor(protected va
                         return null
                     }
 
-                    // scan through the accounts, to find the first unused one
-                    var lastScannedPath: HdKeyPath? = null
-                    val lastAccountPubKeyNodes = mutableListOf<HdKeyNode>()
-                    var wasUsedOrAccountsLookahead = false
-                    var lastUsedAccountIndex = 0
-                    do {
-                        val rootNodes: List<HdKeyNode>
-                        val accountPathsToScan = getAccountPathsToScan(lastScannedPath, wasUsedOrAccountsLookahead, coinType)
-
-                        // we have scanned all accounts - get out of here...
-                        if (accountPathsToScan.isEmpty()) {
-                            // remember the last xPub key as the next-unused one
-                            nextUnusedAccounts = lastAccountPubKeyNodes
-                            break
-                        }
-
-                        val accountPubKeyNodes = accountPathsToScan.map { getAccountPubKeyNode(it.value, it.key) }
-                                .filter { it.isPresent }
-                                .map { it.get() }
-                        lastAccountPubKeyNodes.clear()
-                        lastAccountPubKeyNodes.addAll(accountPubKeyNodes)
-
-
-                        // unable to retrieve the account (eg. device unplugged) - cancel scan
-                        if (accountPubKeyNodes.isEmpty()) {
-                            publishProgress(ScanStatus(AccountScanManager.Status.initializing, AccountScanManager.AccountStatus.unknown))
-                            break
-                        }
-
-                        rootNodes = accountPubKeyNodes
-
-                        // leave accountID empty for now - set it later if it is an already used account
-                        val acc = AccountScanManager.HdKeyNodeWrapper(accountPathsToScan.values, rootNodes, null)
-                        val newAccount = scanningCallback.checkForTransactions(acc)
-                        lastScannedPath = accountPathsToScan.values.first()
-
-                        wasUsedOrAccountsLookahead = if (newAccount != null) {
-                            lastUsedAccountIndex++
-                            val foundAccount = AccountScanManager.HdKeyNodeWrapper(accountPathsToScan.values, rootNodes, newAccount)
-
-                            publishProgress(FoundAccountStatus(foundAccount))
-                            true
-                        } else {
-                            // for FIO accounts we want to perform accounts lookahead
-                            coinType == Utils.getFIOCoinType() && accountPathsToScan.values.iterator().next().lastIndex < lastUsedAccountIndex + ACCOUNT_LOOKAHEAD
-                        }
-                    } while (!isCancelled)
+                    var executor: ExecutorService? = null
+                    val discovery = createAccountDiscovery {
+                        Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()))
+                                .also { executor = it }
+                    }
+                    try {
+                        // the activity and roots of the accounts screened ahead, by their first path
+                        val screened = mutableMapOf<HdKeyPath, ScreenedAccount>()
+
+                        // scan through the accounts, to find the first unused one
+                        var lastScannedPath: HdKeyPath? = null
+                        val lastAccountPubKeyNodes = mutableListOf<HdKeyNode>()
+                        var wasUsedOrAccountsLookahead = false
+                        var lastUsedAccountIndex = 0
+                        do {
+                            val rootNodes: List<HdKeyNode>
+                            val accountPathsToScan = getAccountPathsToScan(lastScannedPath, wasUsedOrAccountsLookahead, coinType)
+
+                            // we have scanned all accounts - get out of here...
+                            if (accountPathsToScan.isEmpty()) {
+                                // remember the last xPub key as the next-unused one
+                                nextUnusedAccounts = lastAccountPubKeyNodes
+                                break
+                            }
+
+                            if (discovery != null && accountPathsToScan.values.first() !in screened) {
+                                screened.putAll(screen(discovery, accountPathsToScan))
+                                val stats = discovery.stats
+                                mainThreadHandler.post {
+                                    eventBus.post(AccountScanManager.OnScanProgress(stats.branches, stats.addresses, stats.elapsedMs))
+                                }
+                            }
+                            val screenedAccount = screened[accountPathsToScan.values.first()]
+
+                            val accountPubKeyNodes = screenedAccount?.accountRoots
+                                    ?: accountPathsToScan.map { getAccountPubKeyNode(it.value, it.key) }
+                                            .filter { it.isPresent }
+                                            .map { it.get() }
+                            lastAccountPubKeyNodes.clear()
+                            lastAccountPubKeyNodes.addAll(accountPubKeyNodes)
+
+
+                            // unable to retrieve the account (eg. device unplugged) - cancel scan
+                            if (accountPubKeyNodes.isEmpty()) {
+                                publishProgress(ScanStatus(AccountScanManager.Status.initializing, AccountScanManager.AccountStatus.unknown))
+                                break
+                            }
+
+                            rootNodes = accountPubKeyNodes
+
+                            // leave accountID empty for now - set it later if it is an already used account
+                            val acc = AccountScanManager.HdKeyNodeWrapper(accountPathsToScan.values, rootNodes, null)
+                            // an account the server knows to be unused needs no temporary account to be synced
+                            val newAccount = if (screenedAccount?.activity == HDAccountDiscovery.Activity.UNUSED) {
+                                null
+                            } else {
+                                scanningCallback.checkForTransactions(acc)
+                            }
+                            lastScannedPath = accountPathsToScan.values.first()
+
+                            wasUsedOrAccountsLookahead = if (newAccount != null) {
+                                lastUsedAccountIndex++
+                                val foundAccount = AccountScanManager.HdKeyNodeWrapper(accountPathsToScan.values, rootNodes, newAccount)
+
+                                publishProgress(FoundAccountStatus(foundAccount))
+                                true
+                            } else {
+                                // for FIO accounts we want to perform accounts lookahead
+                                coinType == Utils.getFIOCoinType() && accountPathsToScan.values.iterator().next().lastIndex < lastUsedAccountIndex + ACCOUNT_LOOKAHEAD
+                            }
+                        } while (!isCancelled)
+                    } finally {
+                        executor?.shutdownNow()
+                    }
+                    discovery?.let { logger.log(Level.INFO, "Account discovery: ${it.stats}") }
                     publishProgress(ScanStatus(AccountScanManager.Status.readyToScan, AccountScanManager.AccountStatus.done))
                     return null
                 }
@@ -224,6 +257,42 @@ abstract class AbstractAccountScanManager @JvmOverloads constructor(protected va
         return true
     }
 
+    /**
+     * @param newExecutor creates the executor for the discovery, which is shut down when the scan ends
+     * @return the discovery that screens several accounts ahead at once, null to check every account through the
+     * scanning callback only
+     */
+    protected open fun createAccountDiscovery(newExecutor: () -> ExecutorService): HDAccountDiscovery? = null
+
+    private class ScreenedAccount(val activity: HDAccountDiscovery.Activity, val accountRoots: List<HdKeyNode>)
+
+    // screens the accounts from the given one on, SCREENING_WINDOW accounts in one go
+    private fun screen(discovery: HDAccountDiscovery, firstPaths: Map<BipDerivationType, HdKeyPath>): Map<HdKeyPath, ScreenedAccount> {
+        val accounts = mutableListOf(firstPaths)
+        while (accounts.size < SCREENING_WINDOW) {
+            val next = getAccountPathsToScan(accounts.last().values.first(), true, coinType)
+            if (next.isEmpty()) {
+                break
+            }
+            accounts.add(next)
+        }
+        val branches = accounts.flatMap { paths ->
+            paths.map { (type, path) ->
+                HDAccountDiscovery.Branch(path.lastIndex, type) { getAccountPubKeyNode(path, type)?.orNull() }
+            }
+        }
+        val results = discovery.findActivity(branches).iterator()
+        return accounts.associate { paths ->
+            val accountResults = paths.map { results.next() }
+            val activity = when {
+                accountResults.any { it.activity == HDAccountDiscovery.Activity.USED } -> HDAccountDiscovery.Activity.USED
+                accountResults.any { it.activity == HDAccountDiscovery.Activity.UNKNOWN } -> HDAccountDiscovery.Activity.UNKNOWN
+                else -> HDAccountDiscovery.Activity.UNUSED
+            }
+            paths.values.first() to ScreenedAccount(activity, accountResults.mapNotNull { it.accountRoot })
+        }
+    }
+
     override fun setPassphrase(passphrase: String?) {
         passphraseSyncQueue.add(Optional.fromNullable(passphrase))
     }
@@ -263,6 +332,9 @@ abstract class AbstractAccountScanManager @JvmOverloads constructor(protected va
 
     companion object {
         const val ACCOUNT_LOOKAHEAD = 20
+        // how many accounts are screened together. Only the accounts up to the first unused one are needed
+        private const val SCREENING_WINDOW = 4
+        private val logger = Logger.getLogger(AbstractAccountScanManager::class.java.simpleName)
         val BIP44FIOCOIN_TYPE = HdKeyPath.BIP44.getHardenedChild(235)
         val BIP44COIN_TYPE = HdKeyPath.BIP44.getCoinTypeBitcoin(BuildConfig.FLAVOR == "btctestnet")
         val BIP49COIN_TYPE = HdKeyPath.BIP49.getCoinTypeBitcoin(BuildConfig.FLAVOR == "btctestnet")
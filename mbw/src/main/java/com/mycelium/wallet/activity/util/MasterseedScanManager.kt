@@ -41,13 +41,16 @@ import com.mrd.bitlib.crypto.BipDerivationType
 import com.mrd.bitlib.crypto.HdKeyNode
 import com.mrd.bitlib.model.*
 import com.mrd.bitlib.model.hdpath.HdKeyPath
+import com.mycelium.wallet.MbwManager
 import com.mycelium.wallet.Utils
 import com.mycelium.wapi.wallet.WalletManager
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountDiscovery
 import com.mycelium.wapi.wallet.btc.bip44.UnrelatedHDAccountConfig
 import com.mycelium.wapi.wallet.coins.CryptoCurrency
 import com.mycelium.wapi.wallet.fio.FIOUnrelatedHDConfig
 import com.squareup.otto.Bus
 import java.util.UUID
+import java.util.concurrent.ExecutorService
 
 class MasterseedScanManager : AbstractAccountScanManager {
     private var masterSeed: Bip39.MasterSeed? = null
@@ -94,6 +97,14 @@ class MasterseedScanManager : AbstractAccountScanManager {
         return Optional.of(root.createChildNode(keyPath))
     }
 
+    // the seed is at hand, so the accounts can be derived in parallel and screened many at once
+    override fun createAccountDiscovery(newExecutor: () -> ExecutorService): HDAccountDiscovery? =
+            if (coinType == Utils.getBtcCoinType()) {
+                HDAccountDiscovery(MbwManager.getInstance(context).wapi, network, newExecutor())
+            } else {
+                null
+            }
+
     override fun upgradeAccount(accountRoots: List<HdKeyNode>, walletManager: WalletManager, uuid: UUID): Boolean {
         // This is not needed for in-wallet accounts
         return false
@@ -0,0 +1,129 @@
+package com.mycelium.wallet.exchange
+
+import com.google.gson.GsonBuilder
+import com.mycelium.wapi.model.ExchangeRate
+
+/**
+ * The exchange rates of one refresh, in arrays indexed by asset, fiat currency and market, so a conversion is a map
+ * lookup of the three indexes and an array read. The matrix doesn't change, a refresh replaces it as a whole.
+ */
+class ExchangeRateMatrix private constructor(val assets: List<String>,
+                                             private val fiats: List<String>,
+                                             private val markets: List<String>,
+                                             // whether the rates of a pair were fetched, at asset * fiats + fiat
+                                             private val pairs: BooleanArray,
+                                             // at (asset * fiats + fiat) * markets + market, NaN without a rate
+                                             private val prices: DoubleArray,
+                                             private val times: LongArray) {
+    private val assetIndexes = indexesOf(assets)
+    private val fiatIndexes = indexesOf(fiats)
+    private val marketIndexes = indexesOf(markets)
+
+    val isEmpty: Boolean
+        get() = assets.isEmpty()
+
+    /**
+     * @return whether the rates of the asset in the fiat currency were fetched, even if no market had one
+     */
+    fun hasPair(asset: String, fiat: String): Boolean = pairIndex(asset, fiat) >= 0
+
+    /**
+     * @return the rate of the market, null if the pair was not fetched or the market has no rate for it
+     */
+    fun getRate(asset: String, fiat: String, market: String?): ExchangeRate? {
+        val pair = pairIndex(asset, fiat)
+        val marketIndex = marketIndexes[market ?: return null] ?: return null
+        if (pair < 0) {
+            return null
+        }
+        val cell = pair * markets.size + marketIndex
+        return if (prices[cell].isNaN()) null else ExchangeRate(market, times[cell], prices[cell], fiat)
+    }
+
+    /**
+     * @return the markets with a rate for the asset in any fiat currency, in the order they came first
+     */
+    fun getMarkets(asset: String): List<String> {
+        val assetIndex = assetIndexes[asset] ?: return emptyList()
+        return markets.filterIndexed { marketIndex, _ ->
+            fiats.indices.any { fiat ->
+                val pair = assetIndex * fiats.size + fiat
+                pairs[pair] && !prices[pair * markets.size + marketIndex].isNaN()
+            }
+        }
+    }
+
+    /**
+     * All rates in one string, to be read again by [fromJson]
+     */
+    fun toJson(): String = GSON.toJson(Snapshot(assets, fiats, markets, pairs, prices, times))
+
+    private fun pairIndex(asset: String, fiat: String): Int {
+        val assetIndex = assetIndexes[asset] ?: return -1
+        val fiatIndex = fiatIndexes[fiat] ?: return -1
+        val pair = assetIndex * fiats.size + fiatIndex
+        return if (pairs[pair]) pair else -1
+    }
+
+    // what is stored, the index maps are built again from the lists
+    private class Snapshot(val assets: List<String>, val fiats: List<String>, val markets: List<String>,
+                           val pairs: BooleanArray, val prices: DoubleArray, val times: LongArray)
+
+    class Builder {
+        private val rates = LinkedHashMap<Pair<String, String>, List<ExchangeRate>>()
+
+        /**
+         * Adds the rates of all markets for a pair. Rates without price are left out
+         */
+        fun add(asset: String, fiat: String, exchangeRates: Array<ExchangeRate>?) = apply {
+            rates[asset to fiat] = exchangeRates?.filter { it.price != null } ?: emptyList()
+        }
+
+        fun build(): ExchangeRateMatrix {
+            val assets = rates.keys.map { it.first }.distinct()
+            val fiats = rates.keys.map { it.second }.distinct()
+            val markets = rates.values.flatMap { rates -> rates.map { it.name } }.distinct()
+            val assetIndexes = indexesOf(assets)
+            val fiatIndexes = indexesOf(fiats)
+            val marketIndexes = indexesOf(markets)
+            val pairs = BooleanArray(assets.size * fiats.size)
+            val prices = DoubleArray(pairs.size * markets.size) { Double.NaN }
+            val times = LongArray(prices.size)
+            rates.forEach { (key, exchangeRates) ->
+                val pair = assetIndexes.getValue(key.first) * fiats.size + fiatIndexes.getValue(key.second)
+                pairs[pair] = true
+                exchangeRates.forEach { rate ->
+                    val cell = pair * markets.size + marketIndexes.getValue(rate.name)
+                    prices[cell] = rate.price
+                    times[cell] = rate.time
+                }
+            }
+            return ExchangeRateMatrix(assets, fiats, markets, pairs, prices, times)
+        }
+    }
+
+    companion object {
+        private val GSON = GsonBuilder().serializeSpecialFloatingPointValues().create()
+
+        /**
+         * @return the matrix stored by [toJson], null if it can't be read
+         */
+        @JvmStatic
+        fun fromJson(json: String): ExchangeRateMatrix? = try {
+            GSON.fromJson(json, Snapshot::class.java)?.run {
+                val cells = assets.size * fiats.size
+                if (pairs.size == cells && prices.size == cells * markets.size && times.size == prices.size) {
+                    ExchangeRateMatrix(assets, fiats, markets, pairs, prices, times)
+                } else {
+                    null
+                }
+            }
+        } catch (e: RuntimeException) {
+            // not json or not a snapshot, a null list or array fails only once used
+            null
+        }
+
+        private fun indexesOf(keys: List<String>): Map<String, Int> =
+                keys.withIndex().associate { (index, key) -> key to index }
+    }
+}
@@ -375,6 +375,15 @@ object MetadataStorage : GenericMetadataStorage(WalletApplication.getInstance())
         return getKeyCategoryValueEntry(EXCHANGE_RATES_CATEGORY.of(market + "_" + currency + "_" + baseCurrency))
     }
 
+    // the rates of the last refresh, see ExchangeRateMatrix.toJson
+    fun storeExchangeRateMatrix(matrix: String) {
+        storeKeyCategoryValueEntry(EXCHANGE_RATE_MATRIX, matrix)
+    }
+
+    fun getExchangeRateMatrix(): Optional<String> {
+        return getKeyCategoryValueEntry(EXCHANGE_RATE_MATRIX)
+    }
+
     fun addColuAssetUUIDs(assetId: String, uuid: UUID) {
         var value: String
 
@@ -457,6 +466,8 @@ object MetadataStorage : GenericMetadataStorage(WalletApplication.getInstance())
     private val PAIRED_SERVICES_CATEGORY = MetadataCategory("paired_services")
 
     private val EXCHANGE_RATES_CATEGORY = MetadataCategory("exchange_rates")
+    // not in EXCHANGE_RATES_CATEGORY, which holds the rates stored one by one
+    private val EXCHANGE_RATE_MATRIX = MetadataKeyCategory("matrix", "exchange_rate_matrix")
 
     // various key value fields info for colu
     private val COLU = MetadataCategory("colu_data")
@@ -43,6 +43,7 @@ import android.util.ArrayMap;
 import android.util.Log;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
@@ -62,6 +63,7 @@ import com.mycelium.wapi.wallet.btc.BtcAccountBacking;
 import com.mycelium.wapi.wallet.SingleAddressBtcAccountBacking;
 import com.mycelium.wapi.wallet.btc.Bip44BtcAccountBacking;
 import com.mycelium.wapi.wallet.btc.BtcWalletManagerBacking;
+import com.mycelium.wapi.wallet.btc.TransactionSummaryRecord;
 import com.mycelium.wapi.wallet.btc.bip44.HDAccountContext;
 import com.mycelium.wapi.wallet.btc.single.SingleAddressAccount;
 import com.mycelium.wapi.wallet.btc.single.SingleAddressAccountContext;
@@ -75,6 +77,8 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
    private static final String LOG_TAG = "SqliteBtcAccountBacking";
    private static final String TABLE_KV = "kv";
    private static final int DEFAULT_SUB_ID = 0;
+   // stays below SQLite's default limit of 999 variables per statement
+   private static final int MAX_KEYS_PER_QUERY = 500;
    private SQLiteDatabase _database;
    private final Gson gson = new GsonBuilder().create();
    private Map<UUID, SqliteBtcAccountBacking> _backings;
@@ -497,6 +501,15 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
             + " (id BLOB PRIMARY KEY, raw BLOB);");
       db.execSQL("CREATE TABLE IF NOT EXISTS " + getTxRefersPtxoTableName(tableSuffix)
             + " (txid BLOB, input BLOB, PRIMARY KEY (txid, input) );");
+      db.execSQL("CREATE TABLE IF NOT EXISTS " + getAddressStatusTableName(tableSuffix)
+            + " (address TEXT PRIMARY KEY, status TEXT);");
+      db.execSQL("CREATE TABLE IF NOT EXISTS " + getTxSummaryTableName(tableSuffix)
+            + " (id BLOB PRIMARY KEY, summary BLOB);");
+      // the order of the history, and the transactions spending a parent output when it changes
+      db.execSQL("CREATE INDEX IF NOT EXISTS historyIndex_" + tableSuffix + " ON " + getTxTableName(tableSuffix)
+            + " (height, time);");
+      db.execSQL("CREATE INDEX IF NOT EXISTS inputIndex_" + tableSuffix + " ON " + getTxRefersPtxoTableName(tableSuffix)
+            + " (input);");
    }
 
    private static String uuidToTableSuffix(UUID uuid) {
@@ -523,6 +536,14 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
       return "outtx_" + tableSuffix;
    }
 
+   private static String getAddressStatusTableName(String tableSuffix) {
+      return "addrstatus_" + tableSuffix;
+   }
+
+   private static String getTxSummaryTableName(String tableSuffix) {
+      return "txsummary_" + tableSuffix;
+   }
+
    private class SqliteBtcAccountBacking implements Bip44BtcAccountBacking, SingleAddressBtcAccountBacking {
       private UUID _id;
       private final String utxoTableName;
@@ -530,6 +551,8 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
       private final String txTableName;
       private final String outTxTableName;
       private final String txRefersParentTxTableName;
+      private final String addressStatusTableName;
+      private final String txSummaryTableName;
       private final SQLiteStatement _insertOrReplaceUtxo;
       private final SQLiteStatement _deleteUtxo;
       private final SQLiteStatement _insertOrReplacePtxo;
@@ -539,6 +562,13 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
       private final SQLiteStatement _deleteOutTx;
       private final SQLiteStatement _insertTxRefersParentTx;
       private final SQLiteStatement _deleteTxRefersParentTx;
+      private final SQLiteStatement _insertOrReplaceAddressStatus;
+      private final SQLiteStatement _insertOrReplaceTxSummary;
+      private final SQLiteStatement _deleteTxSummary;
+      private final SQLiteStatement _deleteTxSummariesSpending;
+      // guards _txSummariesVersion. It is taken inside database transactions, so never wait for the database holding it
+      private final Object _txSummariesLock = new Object();
+      private long _txSummariesVersion;
       private final SQLiteDatabase _db;
 
       private SqliteBtcAccountBacking(UUID id, SQLiteDatabase db) {
@@ -550,6 +580,8 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          txTableName = getTxTableName(tableSuffix);
          outTxTableName = getOutgoingTxTableName(tableSuffix);
          txRefersParentTxTableName = getTxRefersPtxoTableName(tableSuffix);
+         addressStatusTableName = getAddressStatusTableName(tableSuffix);
+         txSummaryTableName = getTxSummaryTableName(tableSuffix);
          _insertOrReplaceUtxo = db.compileStatement("INSERT OR REPLACE INTO " + utxoTableName + " VALUES (?,?,?,?,?)");
          _deleteUtxo = db.compileStatement("DELETE FROM " + utxoTableName + " WHERE outpoint = ?");
          _insertOrReplacePtxo = db.compileStatement("INSERT OR REPLACE INTO " + ptxoTableName + " VALUES (?,?,?,?,?)");
@@ -559,6 +591,11 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _deleteOutTx = db.compileStatement("DELETE FROM " + outTxTableName + " WHERE id = ?");
          _insertTxRefersParentTx = db.compileStatement("INSERT OR REPLACE INTO " + txRefersParentTxTableName + " VALUES (?,?)");
          _deleteTxRefersParentTx = db.compileStatement("DELETE FROM " + txRefersParentTxTableName + " WHERE txid = ?");
+         _insertOrReplaceAddressStatus = db.compileStatement("INSERT OR REPLACE INTO " + addressStatusTableName + " VALUES (?,?)");
+         _insertOrReplaceTxSummary = db.compileStatement("INSERT OR REPLACE INTO " + txSummaryTableName + " VALUES (?,?)");
+         _deleteTxSummary = db.compileStatement("DELETE FROM " + txSummaryTableName + " WHERE id = ?");
+         _deleteTxSummariesSpending = db.compileStatement("DELETE FROM " + txSummaryTableName + " WHERE id IN (SELECT txid FROM "
+                 + txRefersParentTxTableName + " WHERE input = ?)");
       }
 
       private void dropTables() {
@@ -568,6 +605,8 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _db.execSQL("DROP TABLE IF EXISTS " + getTxTableName(tableSuffix));
          _db.execSQL("DROP TABLE IF EXISTS " + getOutgoingTxTableName(tableSuffix));
          _db.execSQL("DROP TABLE IF EXISTS " + getTxRefersPtxoTableName(tableSuffix));
+         _db.execSQL("DROP TABLE IF EXISTS " + getAddressStatusTableName(tableSuffix));
+         _db.execSQL("DROP TABLE IF EXISTS " + getTxSummaryTableName(tableSuffix));
       }
 
       @Override
@@ -592,6 +631,9 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _db.execSQL("DELETE FROM " + txTableName);
          _db.execSQL("DELETE FROM " + outTxTableName);
          _db.execSQL("DELETE FROM " + txRefersParentTxTableName);
+         _db.execSQL("DELETE FROM " + addressStatusTableName);
+         bumpTxSummariesVersion();
+         _db.execSQL("DELETE FROM " + txSummaryTableName);
       }
 
       @Override
@@ -646,17 +688,10 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
 
       public void putParentTransactionOuputs(List<TransactionOutputEx> outputsList) {
          if (!outputsList.isEmpty()) {
-            String updateQuery = "INSERT OR REPLACE INTO " + ptxoTableName + " VALUES (?,?,?,?,?)";
-            SQLiteStatement updateStatement = _database.compileStatement(updateQuery);
             _database.beginTransaction();
             try {
                for (TransactionOutputEx outputEx : outputsList) {
-                  updateStatement.bindBlob(1, SQLiteQueryWithBlobs.outPointToBytes(outputEx.outPoint));
-                  updateStatement.bindLong(2, outputEx.height);
-                  updateStatement.bindLong(3, outputEx.value);
-                  updateStatement.bindLong(4, outputEx.isCoinBase ? 1 : 0);
-                  updateStatement.bindBlob(5, outputEx.script);
-                  updateStatement.executeInsert();
+                  putParentTransactionOutput(outputEx);
                }
                _database.setTransactionSuccessful();
             } finally {
@@ -673,6 +708,10 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _insertOrReplacePtxo.bindLong(4, output.isCoinBase ? 1 : 0);
          _insertOrReplacePtxo.bindBlob(5, output.script);
          _insertOrReplacePtxo.executeInsert();
+
+         bumpTxSummariesVersion();
+         _deleteTxSummariesSpending.bindBlob(1, SQLiteQueryWithBlobs.outPointToBytes(output.outPoint));
+         _deleteTxSummariesSpending.execute();
       }
 
       @Override
@@ -730,39 +769,60 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
       }
 
       @Override
-      public boolean hasParentTransactionOutput(OutPoint outPoint) {
-         Cursor cursor = null;
-         try {
-            SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_db);
-            blobQuery.bindBlob(1, SQLiteQueryWithBlobs.outPointToBytes(outPoint));
-            cursor = blobQuery.query(false, ptxoTableName, new String[]{"height"}, "outpoint = ?", null, null, null,
-                  null, null);
-            return cursor.moveToNext();
-         } finally {
-            if (cursor != null) {
-               cursor.close();
+      public Map<OutPoint, TransactionOutputEx> getParentTransactionOutputs(Collection<OutPoint> outPoints) {
+         Map<OutPoint, TransactionOutputEx> outputs = new HashMap<>();
+         List<byte[]> keys = new ArrayList<>(outPoints.size());
+         for (OutPoint outPoint : outPoints) {
+            keys.add(SQLiteQueryWithBlobs.outPointToBytes(outPoint));
+         }
+         for (List<byte[]> chunk : Lists.partition(keys, MAX_KEYS_PER_QUERY)) {
+            try (Cursor cursor = queryByKeys(ptxoTableName, new String[]{"outpoint", "height", "value", "isCoinbase", "script"},
+                    "outpoint", chunk)) {
+               while (cursor.moveToNext()) {
+                  OutPoint outPoint = SQLiteQueryWithBlobs.outPointFromBytes(cursor.getBlob(0));
+                  outputs.put(outPoint, new TransactionOutputEx(outPoint, cursor.getInt(1), cursor.getLong(2),
+                          cursor.getBlob(4), cursor.getInt(3) != 0));
+               }
             }
          }
+         return outputs;
+      }
+
+      // Selects the rows whose key column is one of the keys, with a single query
+      private Cursor queryByKeys(String table, String[] columns, String keyColumn, List<byte[]> keys) {
+         SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_db);
+         StringBuilder selection = new StringBuilder(keyColumn).append(" IN (");
+         for (int i = 0; i < keys.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            blobQuery.bindBlob(i + 1, keys.get(i));
+         }
+         selection.append(')');
+         return blobQuery.query(false, table, columns, selection.toString(), null, null, null, null, null);
+      }
+
+      // A query of its own rather than a shared compiled statement, so it needs no lock and can't wait for one
+      // while a sync holds the database
+      private boolean exists(String table, String keyColumn, byte[] key) {
+         SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_db);
+         blobQuery.bindBlob(1, key);
+         try (Cursor cursor = blobQuery.query(false, table, new String[]{keyColumn}, keyColumn + " = ?", null, null,
+                 null, null, "1")) {
+            return cursor.moveToNext();
+         }
+      }
+
+      @Override
+      public boolean hasParentTransactionOutput(OutPoint outPoint) {
+         return exists(ptxoTableName, "outpoint", SQLiteQueryWithBlobs.outPointToBytes(outPoint));
       }
 
       @Override
       public void putTransactions(Collection<? extends TransactionEx> transactions) {
          if (!transactions.isEmpty()) {
-            String updateQuery = "INSERT OR REPLACE INTO " + txTableName + " VALUES (?,?,?,?,?)";
-            SQLiteStatement updateStatement = _database.compileStatement(updateQuery);
             _database.beginTransaction();
             try {
-               for (TransactionEx transactionEx: transactions) {
-                  updateStatement.bindBlob(1, transactionEx.txid.getBytes());
-                  updateStatement.bindBlob(2, transactionEx.hash.getBytes());
-                  updateStatement.bindLong(3, transactionEx.height == -1 ? Integer.MAX_VALUE : transactionEx.height);
-                  updateStatement.bindLong(4, transactionEx.time);
-                  updateStatement.bindBlob(5, transactionEx.binary);
-                  updateStatement.executeInsert();
-               }
-
                for (TransactionEx transaction : transactions) {
-                  putReferencedOutputs(transaction.binary);
+                  putTransaction(transaction);
                }
                _database.setTransactionSuccessful();
             } finally {
@@ -779,10 +839,25 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _insertOrReplaceTx.bindLong(4, tx.time);
          _insertOrReplaceTx.bindBlob(5, tx.binary);
          _insertOrReplaceTx.executeInsert();
+         deleteTransactionSummary(tx.txid);
 
          putReferencedOutputs(tx.binary);
       }
 
+      private void deleteTransactionSummary(Sha256Hash txid) {
+         bumpTxSummariesVersion();
+         _deleteTxSummary.bindBlob(1, txid.getBytes());
+         _deleteTxSummary.execute();
+      }
+
+      // after the data the summaries are built from was written and before the summaries are deleted, so a summary
+      // stored in between is either refused or deleted
+      private void bumpTxSummariesVersion() {
+         synchronized (_txSummariesLock) {
+            _txSummariesVersion++;
+         }
+      }
+
       private void putReferencedOutputs(byte[] rawTx) {
          try {
             final BitcoinTransaction transaction = BitcoinTransaction.fromBytes(rawTx);
@@ -820,28 +895,41 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          }
       }
 
+      @Override
+      public Map<Sha256Hash, TransactionEx> getTransactions(Collection<Sha256Hash> txids) {
+         Map<Sha256Hash, TransactionEx> transactions = new HashMap<>();
+         List<byte[]> keys = new ArrayList<>(txids.size());
+         for (Sha256Hash txid : txids) {
+            keys.add(txid.getBytes());
+         }
+         for (List<byte[]> chunk : Lists.partition(keys, MAX_KEYS_PER_QUERY)) {
+            try (Cursor cursor = queryByKeys(txTableName, new String[]{"id", "hash", "height", "time", "binary"}, "id", chunk)) {
+               while (cursor.moveToNext()) {
+                  int height = cursor.getInt(2);
+                  if (height == Integer.MAX_VALUE) {
+                     height = -1;
+                  }
+                  Sha256Hash txid = new Sha256Hash(cursor.getBlob(0));
+                  Sha256Hash hash = new Sha256Hash(cursor.getBlob(1));
+                  transactions.put(txid, new TransactionEx(txid, hash, height, cursor.getInt(3), cursor.getBlob(4)));
+               }
+            }
+         }
+         return transactions;
+      }
+
       @Override
       public void deleteTransaction(Sha256Hash txid) {
          _deleteTx.bindBlob(1, txid.getBytes());
          _deleteTx.execute();
+         deleteTransactionSummary(txid);
          // also delete all output references for this tx
          deleteTxRefersParentTransaction(txid);
       }
 
       @Override
       public boolean hasTransaction(Sha256Hash txid) {
-         Cursor cursor = null;
-         try {
-            SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_db);
-            blobQuery.bindBlob(1, txid.getBytes());
-            cursor = blobQuery.query(false, txTableName, new String[]{"height"}, "id = ?", null, null, null, null,
-                  null);
-            return cursor.moveToNext();
-         } finally {
-            if (cursor != null) {
-               cursor.close();
-            }
-         }
+         return exists(txTableName, "id", txid.getBytes());
       }
 
       @Override
@@ -888,6 +976,7 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          _insertOrReplaceOutTx.bindBlob(1, txid.getBytes());
          _insertOrReplaceOutTx.bindBlob(2, rawTransaction);
          _insertOrReplaceOutTx.executeInsert();
+         deleteTransactionSummary(txid);
 
          putReferencedOutputs(rawTransaction);
       }
@@ -907,22 +996,12 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
       public void removeOutgoingTransaction(Sha256Hash txid) {
          _deleteOutTx.bindBlob(1, txid.getBytes());
          _deleteOutTx.execute();
+         deleteTransactionSummary(txid);
       }
 
       @Override
       public boolean isOutgoingTransaction(Sha256Hash txid) {
-         Cursor cursor = null;
-         try {
-            SQLiteQueryWithBlobs blobQuery = new SQLiteQueryWithBlobs(_db);
-            blobQuery.bindBlob(1, txid.getBytes());
-            cursor = blobQuery.query(false, outTxTableName, new String[]{}, "id = ?", null, null, null, null,
-                  null);
-            return cursor.moveToNext();
-         } finally {
-            if (cursor != null) {
-               cursor.close();
-            }
-         }
+         return exists(outTxTableName, "id", txid.getBytes());
       }
 
       @Override
@@ -942,6 +1021,52 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          }
       }
 
+      @Override
+      public Map<Sha256Hash, TransactionSummaryRecord> getTransactionSummaries(int offset, int limit) {
+         Map<Sha256Hash, TransactionSummaryRecord> summaries = new LinkedHashMap<>();
+         try (Cursor cursor = _db.rawQuery("SELECT t.id, s.summary FROM " + txTableName + " AS t"
+                         + " LEFT JOIN " + txSummaryTableName + " AS s ON s.id = t.id"
+                         + " ORDER BY t.height desc, t.time desc limit ? offset ?",
+                 new String[]{Integer.toString(limit), Integer.toString(offset)})) {
+            while (cursor.moveToNext()) {
+               byte[] summary = cursor.getBlob(1);
+               summaries.put(new Sha256Hash(cursor.getBlob(0)),
+                       summary == null ? null : TransactionSummaryRecord.fromBytes(summary));
+            }
+            return summaries;
+         }
+      }
+
+      @Override
+      public long getTransactionSummariesVersion() {
+         synchronized (_txSummariesLock) {
+            return _txSummariesVersion;
+         }
+      }
+
+      @Override
+      public void putTransactionSummaries(Collection<TransactionSummaryRecord> summaries, long version) {
+         if (summaries.isEmpty()) {
+            return;
+         }
+         _database.beginTransaction();
+         try {
+            synchronized (_txSummariesLock) {
+               if (version != _txSummariesVersion) {
+                  return;
+               }
+               for (TransactionSummaryRecord summary : summaries) {
+                  _insertOrReplaceTxSummary.bindBlob(1, summary.txid.getBytes());
+                  _insertOrReplaceTxSummary.bindBlob(2, summary.toBytes());
+                  _insertOrReplaceTxSummary.executeInsert();
+               }
+            }
+            _database.setTransactionSuccessful();
+         } finally {
+            _database.endTransaction();
+         }
+      }
+
       @Override
       public List<TransactionEx> getTransactionsSince(long since) {
          List<TransactionEx> list = new LinkedList<>();
@@ -960,6 +1085,36 @@ public class SqliteBtcWalletManagerBacking implements BtcWalletManagerBacking<Si
          }
       }
 
+      @Override
+      public Map<BitcoinAddress, String> getAddressStatuses() {
+         Map<BitcoinAddress, String> statuses = new HashMap<>();
+         try (Cursor cursor = _db.query(false, addressStatusTableName, new String[]{"address", "status"},
+                 null, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+               statuses.put(BitcoinAddress.fromString(cursor.getString(0)), cursor.getString(1));
+            }
+         }
+         return statuses;
+      }
+
+      @Override
+      public void putAddressStatuses(Map<BitcoinAddress, String> statuses) {
+         if (statuses.isEmpty()) {
+            return;
+         }
+         _database.beginTransaction();
+         try {
+            for (Map.Entry<BitcoinAddress, String> entry : statuses.entrySet()) {
+               _insertOrReplaceAddressStatus.bindString(1, entry.getKey().toString());
+               _insertOrReplaceAddressStatus.bindString(2, entry.getValue());
+               _insertOrReplaceAddressStatus.executeInsert();
+            }
+            _database.setTransactionSuccessful();
+         } finally {
+            _database.endTransaction();
+         }
+      }
+
       @Override
       public void updateAccountContext(HDAccountContext context) {
          updateBip44AccountContext(context);
@@ -0,0 +1,84 @@
+package com.mycelium.wallet.activity;
+
+import android.widget.Button;
+
+import com.mrd.bitlib.crypto.Bip39;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+public class WordAutoCompleterFragmentTest {
+   @Test
+   @Ignore
+   public void testSpeed() throws ReflectiveOperationException {
+      String[] words = Bip39.ENGLISH_WORD_LIST;
+      WordAutoCompleterFragment fragment = createFragment();
+      int rounds = 100;
+      // warm up
+      for (int i = 0; i < rounds; i++) {
+         fragment.setCompletions(words);
+         typeAll(fragment, words);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < rounds; i++) {
+         fragment.setCompletions(words);
+      }
+      report("setCompletions", start, rounds);
+
+      int keys = 0;
+      for (String word : words) {
+         keys += word.length();
+      }
+      start = System.nanoTime();
+      for (int i = 0; i < rounds; i++) {
+         typeAll(fragment, words);
+      }
+      // each letter is typed and deleted again
+      report("key stroke", start, rounds * keys * 2);
+   }
+
+   // the fragment as after onCreateView, with the views of the mockable android.jar
+   private static WordAutoCompleterFragment createFragment() throws ReflectiveOperationException {
+      WordAutoCompleterFragment fragment = new WordAutoCompleterFragment();
+      fragment.setMinimumCompletionCharacters(2);
+      fragment.setListener(new WordAutoCompleterFragment.WordAutoCompleterListener() {
+         @Override
+         public void onWordSelected(String word) {
+         }
+
+         @Override
+         public void onCurrentWordChanged(String currentWord) {
+         }
+      });
+      setField(fragment, "_currentWord", "");
+      setField(fragment, "_completionButtons", Arrays.asList(new Button(null), new Button(null), new Button(null)));
+      return fragment;
+   }
+
+   private static void typeAll(WordAutoCompleterFragment fragment, String[] words) {
+      for (String word : words) {
+         for (char character : word.toCharArray()) {
+            fragment.onCharacterKeyClicked(character);
+         }
+         // the fragment isn't added, so exact matches are not accepted
+         for (int i = 0; i < word.length(); i++) {
+            fragment.onDelClicked();
+         }
+      }
+   }
+
+   private static void setField(Object object, String name, Object value) throws ReflectiveOperationException {
+      Field field = object.getClass().getDeclaredField(name);
+      field.setAccessible(true);
+      field.set(object, value);
+   }
+
+   private static void report(String name, long startNanos, int tries) {
+      double micros = (System.nanoTime() - startNanos) / 1000.0 / tries;
+      System.out.println(name + ": " + micros + " us/op");
+   }
+}
@@ -0,0 +1,46 @@
+package com.mycelium.wallet.exchange
+
+import com.mycelium.wapi.model.ExchangeRate
+import org.junit.Assert.*
+import org.junit.Test
+
+class ExchangeRateMatrixTest {
+    private val matrix = ExchangeRateMatrix.Builder()
+            .add("BTC", "USD", arrayOf(rate("Bitstamp", 9000.0, "USD"), rate("Coinmarketcap", 9001.0, "USD")))
+            .add("BTC", "EUR", arrayOf(rate("Coinmarketcap", 8000.0, "EUR")))
+            .add("ETH", "USD", arrayOf(ExchangeRate.missingRate("Bitstamp", 1, "USD")))
+            .build()
+
+    @Test
+    fun ratesAreFoundByAssetFiatAndMarket() {
+        assertEquals(9001.0, matrix.getRate("BTC", "USD", "Coinmarketcap")!!.price, 0.0)
+        assertEquals(8000.0, matrix.getRate("BTC", "EUR", "Coinmarketcap")!!.price, 0.0)
+        assertNull(matrix.getRate("BTC", "EUR", "Bitstamp"))
+        assertNull(matrix.getRate("BTC", "USD", null))
+        assertNull(matrix.getRate("ETH", "EUR", "Bitstamp"))
+    }
+
+    @Test
+    fun pairWithoutPricesIsStillFetched() {
+        assertTrue(matrix.hasPair("ETH", "USD"))
+        assertFalse(matrix.hasPair("ETH", "EUR"))
+        assertNull(matrix.getRate("ETH", "USD", "Bitstamp"))
+        assertEquals(emptyList<String>(), matrix.getMarkets("ETH"))
+        assertEquals(listOf("Bitstamp", "Coinmarketcap"), matrix.getMarkets("BTC"))
+    }
+
+    @Test
+    fun matrixIsReadBackFromJson() {
+        val restored = ExchangeRateMatrix.fromJson(matrix.toJson())!!
+
+        assertEquals(matrix.assets, restored.assets)
+        assertEquals(9000.0, restored.getRate("BTC", "USD", "Bitstamp")!!.price, 0.0)
+        assertEquals(5L, restored.getRate("BTC", "USD", "Bitstamp")!!.time)
+        assertNull(restored.getRate("BTC", "EUR", "Bitstamp"))
+        assertTrue(restored.hasPair("ETH", "USD"))
+        assertNull(ExchangeRateMatrix.fromJson("{\"assets\":[\"BTC\"]}"))
+        assertNull(ExchangeRateMatrix.fromJson("not json"))
+    }
+
+    private fun rate(market: String, price: Double, fiat: String) = ExchangeRate(market, 5, price, fiat)
+}
@@ -4,7 +4,6 @@ import com.mrd.bitlib.crypto.PrivateKey;
 import com.mrd.bitlib.crypto.SignedMessage;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
-import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 
 import java.util.Arrays;
@@ -84,7 +83,7 @@ public class BackupPayload {
       writer.putIntLE(timestamp);
       writer.putBytes(iv);
       writer.putBytes(merkleTree.getRoot().getBytes());
-      return HashUtils.doubleSha256(writer.toBytes());
+      return writer.doubleSha256();
    }
 
    public boolean verifySignature(final byte[] apub) {
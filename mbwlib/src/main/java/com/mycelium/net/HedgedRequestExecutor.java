@@ -0,0 +1,254 @@
+package com.mycelium.net;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends a request to the endpoints of a {@link ServerEndpoints}, the healthiest first.
+ * <p>
+ * If the endpoint did not answer within its usual time (the 95th percentile of its latency), the request is also
+ * sent to the next endpoint, and so on. If an endpoint fails, the next one is asked right away. The first
+ * successful response wins and the other calls are cancelled. Every outcome is reported to the endpoints, so
+ * their order adapts to how they perform.
+ * <p>
+ * Requests that are not idempotent go to one endpoint at a time, and each endpoint gets the whole timeout. An
+ * endpoint that takes longer counts as failed and the next one is asked.
+ */
+public class HedgedRequestExecutor {
+   // how long to wait for an endpoint we know nothing about before asking another one
+   private static final long DEFAULT_HEDGE_DELAY_MS = 2000;
+   private static final long MIN_HEDGE_DELAY_MS = 200;
+
+   private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "Hedged HTTP request");
+         thread.setDaemon(true);
+         return thread;
+      }
+   });
+
+   public interface RequestFactory {
+      Request createRequest(HttpEndpoint endpoint);
+   }
+
+   private final ServerEndpoints serverEndpoints;
+   private final Logger logger;
+
+   public HedgedRequestExecutor(ServerEndpoints serverEndpoints, Logger logger) {
+      this.serverEndpoints = serverEndpoints;
+      this.logger = logger;
+   }
+
+   /**
+    * @param name          the name of the request for the log
+    * @param timeoutMillis the timeout of the whole request over all endpoints, or of each endpoint if the request is
+    *                      not idempotent
+    * @param isIdempotent  whether the request may be sent to several endpoints at once. If not, the next endpoint
+    *                      is only asked after the previous one failed or timed out.
+    * @return the first successful response, or null if all endpoints failed or the timeout passed
+    */
+   public Response execute(String name, RequestFactory factory, long timeoutMillis, boolean isIdempotent) {
+      List<HttpEndpoint> candidates = serverEndpoints.getEndpointsByHealth();
+      CompletionService<Response> completionService = new ExecutorCompletionService<>(EXECUTOR);
+      List<Attempt> attempts = new ArrayList<>();
+      List<Future<Response>> futures = new ArrayList<>();
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      int running = 0;
+      int winner = -1;
+      try {
+         while (attempts.size() < candidates.size() || running > 0) {
+            if (running == 0) {
+               startAttempt(name, factory, candidates.get(attempts.size()), timeoutMillis, completionService,
+                     attempts, futures);
+               running++;
+               if (!isIdempotent) {
+                  deadline = System.currentTimeMillis() + timeoutMillis;
+               }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+               if (isIdempotent) {
+                  logger.log(Level.WARNING, String.format(Locale.ENGLISH, "%s timed out after %dms", name,
+                        timeoutMillis));
+                  return null;
+               }
+               int last = attempts.size() - 1;
+               // if the call finished just now, its result is taken below
+               if (futures.get(last).cancel(false)) {
+                  Attempt attempt = attempts.get(last);
+                  attempt.cancel();
+                  logger.log(Level.WARNING, String.format(Locale.ENGLISH, "%s timed out at %s after %dms", name,
+                        attempt.endpoint.getBaseUrl(), timeoutMillis));
+                  serverEndpoints.reportFailure(attempt.endpoint);
+                  running--;
+                  continue;
+               }
+               remaining = 0;
+            }
+            boolean canHedge = isIdempotent && attempts.size() < candidates.size();
+            long wait = canHedge ? Math.min(remaining, getHedgeDelay(attempts.get(attempts.size() - 1).endpoint))
+                  : remaining;
+            Future<Response> done = completionService.poll(wait, TimeUnit.MILLISECONDS);
+            if (done == null) {
+               if (canHedge) {
+                  startAttempt(name, factory, candidates.get(attempts.size()), timeoutMillis, completionService,
+                        attempts, futures);
+                  running++;
+               }
+               continue;
+            }
+            if (done.isCancelled()) {
+               // an endpoint that timed out and was counted already
+               continue;
+            }
+            running--;
+            Response response = getResult(done);
+            if (response != null) {
+               winner = futures.indexOf(done);
+               return response;
+            }
+         }
+         return null;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return null;
+      } finally {
+         for (int i = 0; i < attempts.size(); i++) {
+            if (i == winner) {
+               continue;
+            }
+            attempts.get(i).cancel();
+            futures.get(i).cancel(false);
+         }
+      }
+   }
+
+   private void startAttempt(String name, RequestFactory factory, HttpEndpoint endpoint, long timeoutMillis,
+                             CompletionService<Response> completionService, List<Attempt> attempts,
+                             List<Future<Response>> futures) {
+      Attempt attempt = new Attempt(name, factory, endpoint, timeoutMillis);
+      attempts.add(attempt);
+      futures.add(completionService.submit(attempt));
+   }
+
+   private long getHedgeDelay(HttpEndpoint endpoint) {
+      return Math.max(MIN_HEDGE_DELAY_MS, serverEndpoints.getHedgeDelay(endpoint, DEFAULT_HEDGE_DELAY_MS));
+   }
+
+   private Response getResult(Future<Response> future) {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return null;
+      } catch (ExecutionException e) {
+         logger.log(Level.SEVERE, "Send request fail", e.getCause());
+         return null;
+      }
+   }
+
+   /*
+      One call to one endpoint. Returns the response if it was successful, null otherwise. A response that arrives
+      after the attempt was cancelled, because another endpoint won, is closed.
+    */
+   private class Attempt implements Callable<Response> {
+      private final String name;
+      private final RequestFactory factory;
+      private final HttpEndpoint endpoint;
+      private final long timeoutMillis;
+      private Call call;
+      private boolean isCancelled;
+
+      Attempt(String name, RequestFactory factory, HttpEndpoint endpoint, long timeoutMillis) {
+         this.name = name;
+         this.factory = factory;
+         this.endpoint = endpoint;
+         this.timeoutMillis = timeoutMillis;
+      }
+
+      @Override
+      public Response call() {
+         Call call;
+         synchronized (this) {
+            if (isCancelled) {
+               return null;
+            }
+            logger.log(Level.INFO, "Connecting to " + endpoint.getBaseUrl());
+            // every endpoint creates a new client, so setting its timeouts does not affect other calls
+            OkHttpClient client = endpoint.getClient();
+            client.setConnectTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            client.setReadTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            client.setWriteTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            call = client.newCall(factory.createRequest(endpoint));
+            this.call = call;
+         }
+         long callStart = System.currentTimeMillis();
+         try {
+            Response response = call.execute();
+            long duration = System.currentTimeMillis() - callStart;
+            if (!response.isSuccessful()) {
+               logger.log(Level.SEVERE, String.format(Locale.ENGLISH, "Http call to %s at %s failed with %d %s",
+                     name, endpoint.getBaseUrl(), response.code(), response.message()));
+               response.body().close();
+               serverEndpoints.reportFailure(endpoint);
+               return null;
+            }
+            logger.log(Level.INFO, String.format(Locale.ENGLISH, "%s finished at %s (%dms)", name,
+                  endpoint.getBaseUrl(), duration));
+            serverEndpoints.reportSuccess(endpoint, duration);
+            if (endpoint instanceof FeedbackEndpoint) {
+               ((FeedbackEndpoint) endpoint).onSuccess();
+            }
+            synchronized (this) {
+               if (isCancelled) {
+                  response.body().close();
+                  return null;
+               }
+            }
+            return response;
+         } catch (IOException e) {
+            if (isCancelled()) {
+               // another endpoint was faster, that says nothing about this one
+               return null;
+            }
+            logger.log(Level.SEVERE, "IOException when sending request " + name + " to " + endpoint.getBaseUrl(), e);
+            serverEndpoints.reportFailure(endpoint);
+            if (endpoint instanceof FeedbackEndpoint) {
+               logger.log(Level.INFO, "Resetting tor");
+               ((FeedbackEndpoint) endpoint).onError();
+            }
+            return null;
+         }
+      }
+
+      synchronized void cancel() {
+         isCancelled = true;
+         if (call != null) {
+            call.cancel();
+         }
+      }
+
+      private synchronized boolean isCancelled() {
+         return isCancelled;
+      }
+   }
+}
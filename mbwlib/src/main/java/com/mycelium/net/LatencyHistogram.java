@@ -0,0 +1,72 @@
+package com.mycelium.net;
+
+/**
+ * Counts latencies in buckets that grow by half their size, from 10ms to about an hour, so percentiles can be
+ * estimated without keeping the samples. Old samples fade out: once the histogram holds {@link #MAX_SAMPLES},
+ * all counts are halved.
+ */
+class LatencyHistogram {
+   private static final long FIRST_BOUND_MS = 10;
+   private static final double GROWTH = 1.5;
+   private static final int MAX_SAMPLES = 200;
+   private static final long[] UPPER_BOUNDS_MS;
+
+   static {
+      int count = 0;
+      for (double bound = FIRST_BOUND_MS; bound < 3600 * 1000; bound *= GROWTH) {
+         count++;
+      }
+      UPPER_BOUNDS_MS = new long[count];
+      double bound = FIRST_BOUND_MS;
+      for (int i = 0; i < count; i++) {
+         UPPER_BOUNDS_MS[i] = (long) bound;
+         bound *= GROWTH;
+      }
+   }
+
+   private final int[] counts = new int[UPPER_BOUNDS_MS.length + 1];
+   private int total;
+
+   synchronized void add(long latencyMillis) {
+      counts[bucketOf(latencyMillis)]++;
+      if (++total >= MAX_SAMPLES) {
+         total = 0;
+         for (int i = 0; i < counts.length; i++) {
+            counts[i] /= 2;
+            total += counts[i];
+         }
+      }
+   }
+
+   synchronized int size() {
+      return total;
+   }
+
+   /**
+    * @param percentile between 0 and 1
+    * @return the upper bound of the bucket the percentile falls into, or -1 if there are no samples
+    */
+   synchronized long getPercentile(double percentile) {
+      if (total == 0) {
+         return -1;
+      }
+      int rank = (int) Math.ceil(percentile * total);
+      int seen = 0;
+      for (int i = 0; i < UPPER_BOUNDS_MS.length; i++) {
+         seen += counts[i];
+         if (seen >= rank) {
+            return UPPER_BOUNDS_MS[i];
+         }
+      }
+      return Long.MAX_VALUE;
+   }
+
+   private static int bucketOf(long latencyMillis) {
+      for (int i = 0; i < UPPER_BOUNDS_MS.length; i++) {
+         if (latencyMillis <= UPPER_BOUNDS_MS[i]) {
+            return i;
+         }
+      }
+      return UPPER_BOUNDS_MS.length;
+   }
+}
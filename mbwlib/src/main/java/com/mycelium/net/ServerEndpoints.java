@@ -38,17 +38,29 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class ServerEndpoints {
+   // how much an endpoint that always fails scores worse than one that never fails
+   private static final int ERROR_PENALTY = 10;
+   private static final double ERROR_RATE_ALPHA = 0.2;
+   // endpoints failing more often than this are tried after all others, until they had a rest
+   private static final double MAX_HEALTHY_ERROR_RATE = 0.5;
+   private static final long UNHEALTHY_REST_MS = TimeUnit.MINUTES.toMillis(5);
 
    final private ArrayList<HttpEndpoint> endpoints;
+   final private List<EndpointHealth> health;
    private int currentEndpoint;
    private ServerEndpointType allowedEndpointTypes = ServerEndpointType.ONLY_HTTPS;
 
 
    public ServerEndpoints(HttpEndpoint endpoints[]) {
       this.endpoints = Lists.newArrayList(endpoints);
+      health = createHealth(endpoints.length);
       currentEndpoint = new Random().nextInt(this.endpoints.size());
       // ensure correct kind of endpoint
       switchToNextEndpoint();
@@ -56,6 +68,7 @@ public class ServerEndpoints {
 
    public ServerEndpoints(HttpEndpoint endpoints[], int initialEndpoint) {
       this.endpoints = Lists.newArrayList(endpoints);
+      health = createHealth(endpoints.length);
 
       Preconditions.checkElementIndex(initialEndpoint, endpoints.length);
       currentEndpoint = initialEndpoint;
@@ -100,4 +113,103 @@ public class ServerEndpoints {
          }
       }
    }
+
+   /**
+    * @return the endpoints of the allowed types, healthy ones first and by their 95th percentile latency. Endpoints
+    * without measurements come first, starting at the current endpoint, so every endpoint gets measured.
+    */
+   public synchronized List<HttpEndpoint> getEndpointsByHealth() {
+      List<Integer> indexes = new ArrayList<>();
+      for (int i = 0; i < endpoints.size(); i++) {
+         int index = (currentEndpoint + i) % endpoints.size();
+         if (allowedEndpointTypes.isValid(endpoints.get(index).getClass())) {
+            indexes.add(index);
+         }
+      }
+      // stable, so endpoints with equal scores stay in the order starting at the current endpoint
+      Collections.sort(indexes, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer a, Integer b) {
+            EndpointHealth healthA = health.get(a);
+            EndpointHealth healthB = health.get(b);
+            int byHealth = Boolean.compare(!healthA.isHealthy(), !healthB.isHealthy());
+            return byHealth != 0 ? byHealth : Double.compare(healthA.getScore(), healthB.getScore());
+         }
+      });
+      List<HttpEndpoint> result = new ArrayList<>(indexes.size());
+      for (int index : indexes) {
+         result.add(endpoints.get(index));
+      }
+      return result;
+   }
+
+   /**
+    * Records a successful request. The endpoint becomes the current endpoint.
+    */
+   public synchronized void reportSuccess(HttpEndpoint endpoint, long latencyMillis) {
+      int index = endpoints.indexOf(endpoint);
+      if (index != -1) {
+         health.get(index).success(latencyMillis);
+         currentEndpoint = index;
+      }
+   }
+
+   public synchronized void reportFailure(HttpEndpoint endpoint) {
+      int index = endpoints.indexOf(endpoint);
+      if (index != -1) {
+         health.get(index).failure();
+      }
+   }
+
+   /**
+    * @return how long to wait for the endpoint before asking another one as well: its 95th percentile latency, or
+    * the default if it has too few measurements.
+    */
+   public synchronized long getHedgeDelay(HttpEndpoint endpoint, long defaultDelayMillis) {
+      int index = endpoints.indexOf(endpoint);
+      if (index == -1) {
+         return defaultDelayMillis;
+      }
+      LatencyHistogram latencies = health.get(index).latencies;
+      return latencies.size() < EndpointHealth.MIN_SAMPLES ? defaultDelayMillis : latencies.getPercentile(0.95);
+   }
+
+   private static List<EndpointHealth> createHealth(int count) {
+      List<EndpointHealth> health = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         health.add(new EndpointHealth());
+      }
+      return health;
+   }
+
+   private static class EndpointHealth {
+      private static final int MIN_SAMPLES = 5;
+      private final LatencyHistogram latencies = new LatencyHistogram();
+      private double errorRate;
+      private long lastFailureMillis;
+
+      void success(long latencyMillis) {
+         latencies.add(latencyMillis);
+         errorRate += ERROR_RATE_ALPHA * (0 - errorRate);
+      }
+
+      void failure() {
+         errorRate += ERROR_RATE_ALPHA * (1 - errorRate);
+         lastFailureMillis = System.currentTimeMillis();
+      }
+
+      boolean isHealthy() {
+         return errorRate <= MAX_HEALTHY_ERROR_RATE
+               || System.currentTimeMillis() - lastFailureMillis > UNHEALTHY_REST_MS;
+      }
+
+      // Lower is better. Endpoints that never answered but failed score worst
+      double getScore() {
+         long p95 = latencies.getPercentile(0.95);
+         if (p95 == -1) {
+            return errorRate == 0 ? 0 : Double.MAX_VALUE;
+         }
+         return p95 * (1 + ERROR_PENALTY * errorRate);
+      }
+   }
 }
@@ -0,0 +1,56 @@
+package com.mycelium.net;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerEndpointsTest {
+   private final HttpEndpoint a = new HttpsEndpoint("https://a.example");
+   private final HttpEndpoint b = new HttpsEndpoint("https://b.example");
+   private final HttpEndpoint c = new HttpsEndpoint("https://c.example");
+
+   @Test
+   public void unmeasuredEndpointsStartAtTheCurrentOne() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{a, b, c}, 1);
+      assertEquals(Arrays.asList(b, c, a), endpoints.getEndpointsByHealth());
+   }
+
+   @Test
+   public void fasterEndpointsComeFirst() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{a, b, c}, 0);
+      for (int i = 0; i < 10; i++) {
+         endpoints.reportSuccess(a, 900);
+         endpoints.reportSuccess(b, 100);
+         endpoints.reportSuccess(c, 400);
+      }
+      assertEquals(Arrays.asList(b, c, a), endpoints.getEndpointsByHealth());
+   }
+
+   @Test
+   public void failingEndpointsComeLast() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{a, b, c}, 0);
+      for (int i = 0; i < 10; i++) {
+         endpoints.reportSuccess(a, 100);
+         endpoints.reportSuccess(b, 200);
+         endpoints.reportFailure(a);
+      }
+      endpoints.reportFailure(c);
+      assertEquals(Arrays.asList(b, c, a), endpoints.getEndpointsByHealth());
+   }
+
+   @Test
+   public void hedgeDelayIsThe95thPercentile() {
+      ServerEndpoints endpoints = new ServerEndpoints(new HttpEndpoint[]{a, b}, 0);
+      assertEquals(2000, endpoints.getHedgeDelay(a, 2000));
+      for (int i = 0; i < 95; i++) {
+         endpoints.reportSuccess(a, 100);
+      }
+      for (int i = 0; i < 5; i++) {
+         endpoints.reportSuccess(a, 5000);
+      }
+      long delay = endpoints.getHedgeDelay(a, 2000);
+      assertEquals(true, delay >= 100 && delay < 200);
+   }
+}
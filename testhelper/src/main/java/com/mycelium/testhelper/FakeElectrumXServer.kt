@@ -0,0 +1,82 @@
+package com.mycelium.testhelper
+
+import com.google.gson.JsonElement
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.PrintWriter
+import java.net.ServerSocket
+import java.net.SocketException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * A minimal ElectrumX server on localhost for tests. It answers single and batched requests line by line,
+ * "test.echo" with its first parameter and everything else with the result of [handler]. [notify] pushes
+ * notifications, like the ones of subscriptions, to the open connections.
+ */
+class FakeElectrumXServer(
+        @Volatile var responseDelay: Long = 0,
+        private val handler: (method: String, params: JsonElement?) -> String = { _, _ -> "null" }) {
+    private val serverSocket = ServerSocket(0)
+    // the number of requests with a method other than ping and version, batch entries count one each
+    val requestCount = AtomicInteger()
+
+    private val connections = CopyOnWriteArrayList<PrintWriter>()
+
+    val port = serverSocket.localPort
+
+    init {
+        thread(isDaemon = true) {
+            try {
+                while (true) {
+                    val socket = serverSocket.accept()
+                    thread(isDaemon = true) {
+                        val out = PrintWriter(socket.getOutputStream(), true)
+                        connections.add(out)
+                        try {
+                            socket.getInputStream().bufferedReader().forEachLine { line ->
+                                val request = JsonParser().parse(line)
+                                val response = if (request.isJsonArray) {
+                                    request.asJsonArray.joinToString(",", "[", "]") { respond(it.asJsonObject) }
+                                } else {
+                                    respond(request.asJsonObject)
+                                }
+                                if (responseDelay > 0) {
+                                    Thread.sleep(responseDelay)
+                                }
+                                out.println(response)
+                            }
+                        } catch (ignore: SocketException) {
+                        } finally {
+                            connections.remove(out)
+                        }
+                    }
+                }
+            } catch (ignore: SocketException) {
+                // closed
+            }
+        }
+    }
+
+    private fun respond(request: JsonObject): String {
+        val method = request["method"].asString
+        val params = request["params"]
+        if (method != "server.ping" && method != "server.version") {
+            requestCount.incrementAndGet()
+        }
+        val result = if (method == "test.echo") params.asJsonArray[0].toString() else handler(method, params)
+        return """{"jsonrpc": "2.0", "id": "${request["id"].asString}", "result": $result}"""
+    }
+
+    /**
+     * Sends the notification to all open connections.
+     *
+     * @param params the JSON array of the parameters
+     */
+    fun notify(method: String, params: String) {
+        connections.forEach { it.println("""{"jsonrpc": "2.0", "method": "$method", "params": $params}""") }
+    }
+
+    fun close() = serverSocket.close()
+}
@@ -114,7 +114,8 @@ class WalletConsole {
         SqlDriver driver = new JdbcSqliteDriver( "jdbc:sqlite::memory:", new Properties());
         WalletDB.Companion.getSchema().create(driver);
         WalletDB db = WalletDB.Companion.invoke(driver, AdaptersKt.getAccountBackingAdapter(), AdaptersKt.getAccountContextAdapter(),
-                AdaptersKt.getBTCVAccountBackingAdapter(), AdaptersKt.getBTCVContextAdapter(),
+                AdaptersKt.getBTCVAccountBackingAdapter(), AdaptersKt.getBTCVAddressStatusAdapter(),
+                AdaptersKt.getBTCVContextAdapter(),
                 AdaptersKt.getBTCVOutgoingTxAdapter(), AdaptersKt.getBTCVPtxoAdapter(),
                 AdaptersKt.getBTCVRefersPtxoAdapter(), AdaptersKt.getBTCVTransactionAdapter(),
                 AdaptersKt.getBTCVUtxoAdapter(),
@@ -119,6 +119,18 @@ public interface AccountScanManager {
    class OnPassphraseRequest {
    }
 
+   class OnScanProgress {
+      public final int accountsScanned;
+      public final int addressesChecked;
+      public final long elapsedMs;
+
+      public OnScanProgress(int accountsScanned, int addressesChecked, long elapsedMs) {
+         this.accountsScanned = accountsScanned;
+         this.addressesChecked = addressesChecked;
+         this.elapsedMs = elapsedMs;
+      }
+   }
+
    interface AccountCallback {
       // gets called from a background thread
       UUID checkForTransactions(HdKeyNodeWrapper account);
@@ -0,0 +1,22 @@
+package com.mycelium.wapi.wallet
+
+/**
+ * An account that can list the addresses it owns, so the [WalletManager] can find the owner of an address without
+ * asking every account.
+ */
+interface AddressOwner {
+    /**
+     * @return the addresses the account owns now, including the look ahead addresses that were derived so far
+     */
+    fun getOwnedAddresses(): Collection<Address>
+
+    /**
+     * @param listener gets told about the addresses the account owns from now on, like the ones a moving look ahead
+     * window adds. Accounts whose addresses never change can ignore it.
+     */
+    fun setOwnedAddressesListener(listener: OwnedAddressesListener?)
+}
+
+interface OwnedAddressesListener {
+    fun addressesAdded(account: WalletAccount<*>, addresses: Collection<Address>)
+}
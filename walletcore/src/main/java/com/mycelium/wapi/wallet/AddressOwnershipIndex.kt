@@ -0,0 +1,177 @@
+package com.mycelium.wapi.wallet
+
+import java.util.*
+
+/**
+ * Finds the accounts that might own an address without asking every account.
+ *
+ * The addresses of the accounts that can list them ([AddressOwner]) are hashed to 64 bit fingerprints. A bloom filter
+ * over the fingerprints rejects most foreign addresses with a few bit tests, and an open addressing table of
+ * fingerprints and account slots, kept in primitive arrays, finds the owners of the others. Fingerprints can collide,
+ * so the accounts found are candidates that have to be confirmed with [WalletAccount.isMineAddress]. Accounts that
+ * can't list their addresses are always candidates.
+ */
+internal class AddressOwnershipIndex : OwnedAddressesListener {
+    // slot n is the account at n - 1. Removed accounts leave a null behind
+    private val slotAccounts = ArrayList<WalletAccount<*>?>()
+    private val slots = HashMap<UUID, Int>()
+    private val unindexedAccounts = LinkedHashMap<UUID, WalletAccount<*>>()
+
+    private var fingerprints = LongArray(INITIAL_CAPACITY)
+    // the slot of the owning account, 0 marks a free entry
+    private var owners = IntArray(INITIAL_CAPACITY)
+    private var size = 0
+    private var filter = LongArray(INITIAL_CAPACITY * FILTER_BITS_PER_ENTRY / 64)
+
+    fun add(account: WalletAccount<*>) {
+        if (account !is AddressOwner) {
+            synchronized(this) {
+                removeInt(account.id)
+                unindexedAccounts[account.id] = account
+            }
+            return
+        }
+        synchronized(this) {
+            removeInt(account.id)
+            slotAccounts.add(account)
+            slots[account.id] = slotAccounts.size
+        }
+        // listen before listing, so no address derived in between is missed. The account is asked outside of the lock,
+        // as the listener takes the locks in the order account, index
+        account.setOwnedAddressesListener(this)
+        addressesAdded(account, account.getOwnedAddresses())
+    }
+
+    fun remove(id: UUID) {
+        val account = synchronized(this) { removeInt(id) }
+        (account as? AddressOwner)?.setOwnedAddressesListener(null)
+    }
+
+    override fun addressesAdded(account: WalletAccount<*>, addresses: Collection<Address>) {
+        if (addresses.isEmpty()) {
+            return
+        }
+        val newFingerprints = addresses.map { fingerprint(it.getBytes()) }
+        synchronized(this) {
+            val slot = slots[account.id] ?: return
+            if (slotAccounts[slot - 1] !== account) {
+                return
+            }
+            ensureCapacity(size + newFingerprints.size)
+            newFingerprints.forEach { insert(it, slot) }
+        }
+    }
+
+    /**
+     * @return the accounts that might own the address: the indexed accounts that own an address with the same
+     * fingerprint and all accounts that can't list their addresses
+     */
+    fun getCandidates(address: Address): List<WalletAccount<*>> {
+        val fingerprint = fingerprint(address.getBytes())
+        synchronized(this) {
+            val candidates = ArrayList<WalletAccount<*>>(unindexedAccounts.values)
+            if (!mightContain(fingerprint)) {
+                return candidates
+            }
+            val mask = owners.size - 1
+            var i = indexOf(fingerprint, mask)
+            while (owners[i] != 0) {
+                if (fingerprints[i] == fingerprint) {
+                    slotAccounts[owners[i] - 1]?.let { candidates.add(it) }
+                }
+                i = (i + 1) and mask
+            }
+            return candidates
+        }
+    }
+
+    private fun removeInt(id: UUID): WalletAccount<*>? {
+        unindexedAccounts.remove(id)?.let { return it }
+        val slot = slots.remove(id) ?: return null
+        // the entries of the account stay until the table grows, lookups skip them
+        return slotAccounts.set(slot - 1, null)
+    }
+
+    private fun insert(fingerprint: Long, slot: Int) {
+        val mask = owners.size - 1
+        var i = indexOf(fingerprint, mask)
+        while (owners[i] != 0) {
+            if (fingerprints[i] == fingerprint && owners[i] == slot) {
+                // known already, accounts report their addresses again after a reset
+                return
+            }
+            i = (i + 1) and mask
+        }
+        fingerprints[i] = fingerprint
+        owners[i] = slot
+        size++
+        for (hash in 0 until FILTER_HASHES) {
+            val bit = filterBit(fingerprint, hash)
+            filter[bit ushr 6] = filter[bit ushr 6] or (1L shl bit)
+        }
+    }
+
+    private fun ensureCapacity(entries: Int) {
+        if (entries <= owners.size / 2) {
+            return
+        }
+        val oldFingerprints = fingerprints
+        val oldOwners = owners
+        var live = 0
+        for (owner in oldOwners) {
+            if (owner != 0 && slotAccounts[owner - 1] != null) {
+                live++
+            }
+        }
+        var capacity = INITIAL_CAPACITY
+        while (capacity / 2 < live + entries - size) {
+            capacity *= 2
+        }
+        fingerprints = LongArray(capacity)
+        owners = IntArray(capacity)
+        filter = LongArray(capacity * FILTER_BITS_PER_ENTRY / 64)
+        size = 0
+        for (i in oldOwners.indices) {
+            // entries of removed accounts are dropped here
+            if (oldOwners[i] != 0 && slotAccounts[oldOwners[i] - 1] != null) {
+                insert(oldFingerprints[i], oldOwners[i])
+            }
+        }
+    }
+
+    private fun mightContain(fingerprint: Long): Boolean {
+        for (hash in 0 until FILTER_HASHES) {
+            val bit = filterBit(fingerprint, hash)
+            if (filter[bit ushr 6] and (1L shl bit) == 0L) {
+                return false
+            }
+        }
+        return true
+    }
+
+    // double hashing, the step is odd to reach all bits
+    private fun filterBit(fingerprint: Long, hash: Int): Int =
+            ((fingerprint + hash * (java.lang.Long.rotateLeft(fingerprint, 21) or 1)) and (filter.size * 64L - 1)).toInt()
+
+    companion object {
+        private const val INITIAL_CAPACITY = 1024
+        // at most half of the table is used, so this gives at least 16 bits per address and about 0.25% false positives
+        private const val FILTER_BITS_PER_ENTRY = 8
+        private const val FILTER_HASHES = 4
+
+        // the table uses the high bits, the filter the low bits
+        private fun indexOf(fingerprint: Long, mask: Int) = (fingerprint ushr 32).toInt() and mask
+
+        private fun fingerprint(bytes: ByteArray): Long {
+            // FNV-1a
+            var hash = -0x340d631b7bdddcdbL
+            for (b in bytes) {
+                hash = (hash xor (b.toLong() and 0xFF)) * 0x100000001b3L
+            }
+            // the finalizer of MurmurHash3, FNV spreads short input badly
+            hash = (hash xor (hash ushr 33)) * -0xae502812aa7333L
+            hash = (hash xor (hash ushr 33)) * -0x3b314601e57a13adL
+            return hash xor (hash ushr 33)
+        }
+    }
+}
@@ -20,6 +20,9 @@ import com.google.common.base.Preconditions;
 import com.mrd.bitlib.crypto.RandomSource;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Secure encrypted storage and plaintext storage for arbitrary binary values using a user defined encryption key.
  * <p/>
@@ -151,6 +154,28 @@ public class SecureKeyValueStore {
       return kekCipher.decrypt(encryptedValue);
    }
 
+   /**
+    * Get the decrypted ciphertext values associated with several IDs. The key encryption key is only decrypted once
+    * for all of them.
+    *
+    * @param ids        The IDs of the values to get
+    * @param userCipher The user defined encryption key
+    * @return The values in the order of the IDs, with null for IDs that have no value
+    * @throws InvalidKeyCipher if the specified encryption key is invalid
+    */
+   public synchronized List<byte[]> getDecryptedValues(List<byte[]> ids, KeyCipher userCipher) throws InvalidKeyCipher {
+      AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+      List<byte[]> values = new ArrayList<>(ids.size());
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+         byte[] encryptedValue = getValue(getRealId(id, true));
+         values.add(encryptedValue == null ? null : kekCipher.decrypt(encryptedValue));
+      }
+      return values;
+   }
+
    /**
     * Encrypt a value and store it as the ciphertext value under the given ID
     *
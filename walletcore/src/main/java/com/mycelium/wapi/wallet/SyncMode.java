@@ -18,6 +18,9 @@ public class SyncMode {
    public static final SyncMode NORMAL_ALL_ACCOUNTS_FORCED = new SyncMode(Mode.NORMAL_SYNC, false, false, false, true);
    // ignoreTransactionHistory, onlyActiveAccount
    public static final SyncMode NORMAL_WITHOUT_TX_LOOKUP = new SyncMode(Mode.NORMAL_SYNC, true, true, false, false);
+   // sync the given accounts, only the addresses whose status changed since the last sync, ignoreSyncInterval
+   // as the wallet manager already gathers the notifications that trigger it
+   public static final SyncMode STATUS_SYNC = new SyncMode(Mode.STATUS_SYNC, false, false, true, true);
    // fast sync, check for incoming tx
    public static final SyncMode FAST_SYNC_CURRENT_ACCOUNT = new SyncMode(Mode.FAST_SYNC, true, true, true, false);
 
@@ -77,6 +80,10 @@ public class SyncMode {
       // Synchronizes only the current address (external) - only short lookahead
       FAST_SYNC(0, 3),
 
+      // Checks the status of all addresses like FULL_SYNC, but only synchronizes those whose status changed
+      // since the last sync. Statuses are pushed by the server, so this is cheap enough to run on every change
+      STATUS_SYNC(Integer.MAX_VALUE, 20),
+
       // Synchronizes only the current address (external) - only short lookahead
       ONE_ADDRESS(0, 0);
 
@@ -1,5 +1,6 @@
 package com.mycelium.wapi.wallet
 
+import com.mrd.bitlib.model.BitcoinAddress
 import com.mrd.bitlib.model.NetworkParameters
 import com.mycelium.generated.wallet.database.WalletDB
 import com.mycelium.wapi.api.Wapi
@@ -25,9 +26,13 @@ constructor(val network: NetworkParameters,
             var accountScanManager: AccountScanManager? = null,
             private val walletDB: WalletDB) {
     private val accounts = ConcurrentHashMap<UUID, WalletAccount<*>>()
+    private val ownershipIndex = AddressOwnershipIndex()
     private val walletModules = mutableMapOf<String, WalletModule>()
     private val _observers = LinkedList<Observer>()
     private val _logger  = Logger.getLogger(WalletManager::class.java.getSimpleName())
+    // the accounts that had an address status change since the last status sync. Guards isStatusSyncRunning
+    private val accountsToStatusSync = LinkedHashSet<UUID>()
+    private var isStatusSyncRunning = false
 
     val feeEstimations = FeeEstimations()
 
@@ -43,6 +48,11 @@ constructor(val network: NetworkParameters,
     var isNetworkConnected: Boolean = false
     var walletListener: WalletListener? = null
 
+    /**
+     * The account the user is looking at. It gets synchronized before all others.
+     */
+    var activeAccountId: UUID? = null
+
     var state: State = State.OFF
 
     fun add(walletModule: WalletModule) = walletModules.put(walletModule.id, walletModule)
@@ -63,6 +73,7 @@ constructor(val network: NetworkParameters,
         for (walletModule in walletModules.values) {
             walletModule.getAccounts().forEach {
                 accounts[it.id] = it
+                ownershipIndex.add(it)
             }
         }
 
@@ -79,14 +90,14 @@ constructor(val network: NetworkParameters,
     fun getModuleById(id: String) : WalletModule? = walletModules[id]
 
     fun getAccountsBy(address: Address): List<WalletAccount<*>> =
-            accounts.values.filter { it.isMineAddress(address) }
+            ownershipIndex.getCandidates(address).filter { it.isMineAddress(address) }
 
     fun setIsNetworkConnected(connected: Boolean) {
         isNetworkConnected = connected
     }
 
     fun hasPrivateKey(address: Address): Boolean =
-            accounts.values.any { it.canSpend() && it.isMineAddress(address) }
+            ownershipIndex.getCandidates(address).any { it.canSpend() && it.isMineAddress(address) }
 
     fun createAccounts(config: Config): List<UUID> {
         val result = mutableMapOf<UUID, WalletAccount<*>>()
@@ -105,12 +116,14 @@ constructor(val network: NetworkParameters,
             }
         }
         accounts.putAll(result)
+        result.values.forEach { ownershipIndex.add(it) }
         return result.keys.toList()
     }
 
     @JvmOverloads
     fun deleteAccount(id: UUID, keyCipher: KeyCipher = AesKeyCipher.defaultKeyCipher()) {
         accounts.remove(id)?.also { account ->
+            ownershipIndex.remove(id)
             walletModules.values.forEach {
                 it.deleteAccount(account, keyCipher)
             }
@@ -143,8 +156,48 @@ constructor(val network: NetworkParameters,
         return startSynchronization(SyncMode.NORMAL, listOf(activeAccount))
     }
 
+    /**
+     * Called when the server notified about a transaction of the address. The notifications are gathered for
+     * [STATUS_SYNC_DELAY_MS], then each account that got one syncs once with [SyncMode.STATUS_SYNC], which
+     * only looks at the addresses whose status changed. Accounts that are syncing already wait for the next round.
+     */
+    fun addressStatusChanged(address: BitcoinAddress) {
+        val accountId = getAccountByAddress(address as? Address ?: AddressUtils.fromAddress(address)) ?: return
+        synchronized(accountsToStatusSync) {
+            accountsToStatusSync.add(accountId)
+            if (isStatusSyncRunning) {
+                return
+            }
+            isStatusSyncRunning = true
+        }
+        Thread(Runnable { runStatusSyncs() }, "Status sync").start()
+    }
+
+    private fun runStatusSyncs() {
+        while (true) {
+            Thread.sleep(STATUS_SYNC_DELAY_MS)
+            val toSync = synchronized(accountsToStatusSync) {
+                // accounts deleted in the meantime are dropped
+                val pending = accountsToStatusSync.mapNotNull { accounts[it] }
+                val ready = pending.filter { !it.isSyncing }
+                accountsToStatusSync.clear()
+                pending.filter { it.isSyncing }.forEach { accountsToStatusSync.add(it.id) }
+                if (ready.isEmpty() && accountsToStatusSync.isEmpty()) {
+                    isStatusSyncRunning = false
+                    return
+                }
+                ready
+            }
+            if (toSync.isNotEmpty() && isNetworkConnected) {
+                Synchronizer(this, SyncMode.STATUS_SYNC, toSync).run()
+            }
+        }
+    }
+
     fun getAccounts(): List<WalletAccount<*>> = accounts.values.toList()
 
+    internal fun syncStarted() = walletModules.values.forEach { it.syncStarted() }
+
     /**
      * Determine whether this address is managed by an account of the wallet
      *
@@ -159,8 +212,7 @@ constructor(val network: NetworkParameters,
      * @param address the address to query for
      * @return the first account UUID if found.
      */
-    @Synchronized
-    fun getAccountByAddress(address: Address): UUID? = accounts.values.firstOrNull {
+    fun getAccountByAddress(address: Address): UUID? = ownershipIndex.getCandidates(address).firstOrNull {
             it.isMineAddress(address)
         }?.id
 
@@ -287,4 +339,9 @@ constructor(val network: NetworkParameters,
          */
         TOO_MANY_TRANSACTIONS
     }
+
+    companion object {
+        // a transaction usually touches several addresses of an account, notified one after the other
+        private const val STATUS_SYNC_DELAY_MS = 1000L
+    }
 }
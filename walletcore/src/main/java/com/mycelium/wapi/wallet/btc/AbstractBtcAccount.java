@@ -16,10 +16,12 @@
 
 package com.mycelium.wapi.wallet.btc;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.mrd.bitlib.FeeEstimator;
 import com.mrd.bitlib.FeeEstimatorBuilder;
 import com.mrd.bitlib.PopBuilder;
+import com.mrd.bitlib.SigningRequest;
 import com.mrd.bitlib.StandardTransactionBuilder;
 import com.mrd.bitlib.StandardTransactionBuilder.InsufficientBtcException;
 import com.mrd.bitlib.StandardTransactionBuilder.BtcOutputTooSmallException;
@@ -37,13 +39,11 @@ import com.mrd.bitlib.model.TransactionOutput;
 import com.mrd.bitlib.model.UnspentTransactionOutput;
 import com.mrd.bitlib.util.BitUtils;
 import com.mrd.bitlib.util.ByteReader;
-import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.HexUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
 import com.mycelium.wapi.api.WapiResponse;
-import com.mycelium.wapi.api.lib.TransactionExApi;
 import com.mycelium.wapi.api.request.BroadcastTransactionRequest;
 import com.mycelium.wapi.api.request.CheckTransactionsRequest;
 import com.mycelium.wapi.api.request.GetTransactionsRequest;
@@ -92,6 +92,7 @@ import com.mycelium.wapi.wallet.exceptions.OutputTooSmallException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -99,7 +100,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -133,6 +133,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
 
    private EventHandler _eventHandler;
    private final BtcAccountBacking _backing;
+   private final UtxoIndex _utxoIndex;
    protected int syncTotalRetrievedTransactions = 0;
 
    protected AbstractBtcAccount(BtcAccountBacking backing, NetworkParameters network, Wapi wapi) {
@@ -141,6 +142,61 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       _wapi = wapi;
       _backing = backing;
       coluTransferInstructionsParser = new ColuTransferInstructionsParser();
+      _utxoIndex = new UtxoIndex(backing, network, new UtxoIndex.ColuDustClassifier() {
+         @Override
+         public boolean isColuDustOutput(TransactionOutputEx output) {
+            return AbstractBtcAccount.this.isColuDustOutput(output);
+         }
+      });
+   }
+
+   /**
+    * Drops the in-memory unspent outputs. Has to be called whenever the backing was changed without this class
+    * knowing about it, like after clearing it.
+    */
+   protected void invalidateUtxoIndex() {
+      _utxoIndex.invalidate();
+   }
+
+   /**
+    * @return the address of every unspent output, the same address once per output
+    */
+   protected List<BitcoinAddress> getUnspentOutputAddresses() {
+      List<BitcoinAddress> addresses = new ArrayList<>();
+      for (UtxoIndex.Entry entry : _utxoIndex.getAll()) {
+         if (entry.address != null) {
+            addresses.add(entry.address);
+         }
+      }
+      return addresses;
+   }
+
+   // Unspent outputs are written through these, so the backing and the index stay the same
+   @VisibleForTesting
+   void putUnspentOutput(TransactionOutputEx output) {
+      _backing.putUnspentOutput(output);
+      _utxoIndex.put(output);
+   }
+
+   @VisibleForTesting
+   void deleteUnspentOutput(OutPoint outPoint) {
+      _backing.deleteUnspentOutput(outPoint);
+      _utxoIndex.delete(outPoint);
+   }
+
+   private void beginTransaction() {
+      _backing.beginTransaction();
+      _utxoIndex.beginTransaction();
+   }
+
+   private void setTransactionSuccessful() {
+      _backing.setTransactionSuccessful();
+      _utxoIndex.setTransactionSuccessful();
+   }
+
+   private void endTransaction() {
+      _backing.endTransaction();
+      _utxoIndex.endTransaction();
    }
 
    @Override
@@ -228,8 +284,17 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
     * addresses
     */
    protected boolean isFromMe(Sha256Hash txid) {
-      BitcoinTransaction t = TransactionEx.toTransaction(_backing.getTransaction(txid));
-      return t != null && isFromMe(t);
+      // only the out points are needed, the inputs are not decoded
+      BitcoinTransactionView t = TransactionEx.toTransactionView(_backing.getTransaction(txid));
+      if (t == null) {
+         return false;
+      }
+      for (int i = 0; i < t.getInputCount(); i++) {
+         if (isFundedByMe(t.getOutPoint(i))) {
+            return true;
+         }
+      }
+      return false;
    }
 
    /**
@@ -244,19 +309,23 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
     */
    protected boolean isFromMe(BitcoinTransaction t) {
       for (TransactionInput input : t.inputs) {
-         TransactionOutputEx funding = _backing.getParentTransactionOutput(input.outPoint);
-         if (funding == null || funding.isCoinBase) {
-            continue;
-         }
-         ScriptOutput fundingScript = ScriptOutput.fromScriptBytes(funding.script);
-         BitcoinAddress fundingAddress = fundingScript.getAddress(_network);
-         if (isMine(fundingAddress)) {
+         if (isFundedByMe(input.outPoint)) {
             return true;
          }
       }
       return false;
    }
 
+   private boolean isFundedByMe(OutPoint outPoint) {
+      TransactionOutputEx funding = _backing.getParentTransactionOutput(outPoint);
+      if (funding == null || funding.isCoinBase) {
+         return false;
+      }
+      ScriptOutput fundingScript = ScriptOutput.fromScriptBytes(funding.script);
+      BitcoinAddress fundingAddress = fundingScript.getAddress(_network);
+      return isMine(fundingAddress);
+   }
+
    /**
     * Determine whether a transaction output was sent from one of our own
     * addresses
@@ -329,41 +398,40 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       Map<OutPoint, TransactionOutputEx> remoteMap = toMap(remoteUnspent);
 
       // Get the current unspent outputs as it is believed to be locally
-      Collection<TransactionOutputEx> localUnspent = _backing.getAllUnspentOutputs();
-      // Make a map for fast lookup
-      Map<OutPoint, TransactionOutputEx> localMap = toMap(localUnspent);
+      List<UtxoIndex.Entry> localUnspent = _utxoIndex.getAll();
 
       Set<Sha256Hash> transactionsToAddOrUpdate = new HashSet<>();
       Set<BitcoinAddress> addressesToDiscover = new HashSet<>();
 
       // Find remotely removed unspent outputs
-      for (TransactionOutputEx l : localUnspent) {
+      for (UtxoIndex.Entry localEntry : localUnspent) {
+         TransactionOutputEx l = localEntry.output;
          TransactionOutputEx r = remoteMap.get(l.outPoint);
          if (r == null) {
             // An output has gone. Maybe it was spent in another wallet, or
             // never confirmed due to missing fees, double spend, or mutated.
 
             // we need to fetch associated transactions, to see the outgoing tx in the history
-            ScriptOutput scriptOutput = ScriptOutput.fromScriptBytes(l.script);
             boolean removeLocally = true;
 
             // Start of the hack to prevent actual local data removal if server still didn't process just sent tx
             youngTransactions:
             for (TransactionEx transactionEx : _backing.getTransactionsSince(System.currentTimeMillis() -
                     TimeUnit.SECONDS.toMillis(15))) {
-               TransactionOutputEx output;
-               int i = 0;
-               while ((output = TransactionEx.getTransactionOutput(transactionEx, i++)) != null) {
-                  if (output.equals(l) && !_backing.hasParentTransactionOutput(l.outPoint)) {
-                     removeLocally = false;
-                     break youngTransactions;
-                  }
+               if (!transactionEx.txid.equals(l.outPoint.txid)) {
+                  continue;
+               }
+               BitcoinTransactionView view = TransactionEx.toTransactionView(transactionEx);
+               if (view != null && l.outPoint.index >= 0 && l.outPoint.index < view.getOutputCount()
+                       && !_backing.hasParentTransactionOutput(l.outPoint)) {
+                  removeLocally = false;
+                  break youngTransactions;
                }
             }
             // End of hack
 
-            if (scriptOutput != null && removeLocally) {
-               BitcoinAddress address = scriptOutput.getAddress(_network);
+            if (localEntry.address != null && removeLocally) {
+               BitcoinAddress address = localEntry.address;
                if (addresses.contains(address)) {
                   // the output was associated with an address we were scanning for
                   // we should have got back that output from the servers
@@ -379,7 +447,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
 
             if (removeLocally) {
                // delete the UTXO locally
-               _backing.deleteUnspentOutput(l.outPoint);
+               deleteUnspentOutput(l.outPoint);
             }
          }
       }
@@ -389,7 +457,8 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       // Find remotely added unspent outputs
       List<TransactionOutputEx> unspentOutputsToAddOrUpdate = new LinkedList<>();
       for (TransactionOutputEx r : remoteUnspent) {
-         TransactionOutputEx l = localMap.get(r.outPoint);
+         UtxoIndex.Entry localEntry = _utxoIndex.get(r.outPoint);
+         TransactionOutputEx l = localEntry == null ? null : localEntry.output;
          if (l == null) {
             // We might have already spent transaction, but if getUnspent used connection to different server
             // it would not know that output is already spent.
@@ -425,21 +494,21 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
             return -1;
          }
          try {
-            _backing.beginTransaction();
+            beginTransaction();
             // Finally update out list of unspent outputs with added or updated
             // outputs
             for (TransactionOutputEx output : unspentOutputsToAddOrUpdate) {
                // check if the output really belongs to one of our addresses
                // prevent getting out local cache into a undefined state, if the server screws up
                if (isMine(output)) {
-                  _backing.putUnspentOutput(output);
+                  putUnspentOutput(output);
                } else {
                   _logger.log(Level.SEVERE, "We got an UTXO that does not belong to us: " + output.toString());
                }
             }
-            _backing.setTransactionSuccessful();
+            setTransactionSuccessful();
          } finally {
-            _backing.endTransaction();
+            endTransaction();
          }
       }
 
@@ -512,162 +581,76 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
    }
 
    public void fetchStoreAndValidateParentOutputs(List<BitcoinTransaction> transactions, boolean doRemoteFetching) throws WapiException {
-      Map<Sha256Hash, TransactionEx> parentTransactions = new HashMap<>();
-      Map<OutPoint, TransactionOutputEx> parentOutputs = new HashMap<>();
-
-      // Find list of parent outputs to fetch
-      Collection<Sha256Hash> toFetch = new HashSet<>();
-      for (BitcoinTransaction t : transactions) {
-
-         for (TransactionInput in : t.inputs) {
-            if (in.outPoint.txid.equals(OutPoint.COINBASE_OUTPOINT.txid)) {
-               // Coinbase input, so no parent
-               continue;
-            }
-            TransactionOutputEx parentOutput = _backing.getParentTransactionOutput(in.outPoint);
-            if (parentOutput != null) {
-               // We already have the parent output, no need to fetch the entire
-               // parent transaction
-               parentOutputs.put(parentOutput.outPoint, parentOutput);
-               continue;
-            }
-            TransactionEx parentTransaction = _backing.getTransaction(in.outPoint.txid);
-            if (parentTransaction == null) {
-               // Check current transactions list for parents
-               for (BitcoinTransaction transaction : transactions) {
-                  if (transaction.getId().equals(in.outPoint.txid)) {
-                     parentTransaction = TransactionEx.fromUnconfirmedTransaction(transaction);
-                     break;
-                  }
-               }
-            }
-
-            if (parentTransaction != null) {
-               // We had the parent transaction in our own transactions, no need to
-               // fetch it remotely
-               parentTransactions.put(parentTransaction.txid, parentTransaction);
-            } else if (doRemoteFetching) {
-               // Need to fetch it
-               toFetch.add(in.outPoint.txid);
-            }
-         }
-      }
-
-      // Fetch missing parent transactions
-      if (toFetch.size() > 0) {
-         GetTransactionsResponse result = getTransactionsBatched(toFetch).getResult();
-         for (TransactionExApi tx : result.transactions) {
-            // Verify transaction hash. This is important as we don't want to
-            // have a transaction output associated with an outpoint that
-            // doesn't match.
-            // This is the end users protection against a rogue server that lies
-            // about the value of an output and makes you pay a large fee.
-            Sha256Hash hash = HashUtils.doubleSha256(tx.binary).reverse();
-            if (hash.equals(tx.hash)) {
-               parentTransactions.put(tx.txid, tx);
-            } else {
-               //TODO: Document what's happening here.
-               //Question: Crash and burn? Really? How about user feedback? Here, wapi returned a transaction that doesn't hash to the txid it is supposed to txhash to, right?
-               throw new RuntimeException("Failed to validate transaction hash from server. Expected: " + tx.txid
-                       + " Calculated: " + hash);
-            }
-         }
-      }
-
-      // We should now have all parent transactions or parent outputs. There is
-      // a slight probability that one of them was not found due to double
-      // spends and/or malleability and network latency etc.
+      new ParentOutputsFetcher(_backing, _wapi).fetchStoreAndValidate(transactions, doRemoteFetching);
+   }
 
-      // Now figure out which parent outputs we need to persist
-      List<TransactionOutputEx> toPersist = new LinkedList<>();
+   /**
+    * Looks up the known parent outputs of all inputs of the transactions at once, instead of one input at a time.
+    */
+   private Map<OutPoint, TransactionOutputEx> getParentTransactionOutputs(Collection<BitcoinTransaction> transactions) {
+      List<OutPoint> outPoints = new ArrayList<>();
       for (BitcoinTransaction t : transactions) {
          for (TransactionInput in : t.inputs) {
-            if (in.outPoint.txid.equals(OutPoint.COINBASE_OUTPOINT.txid)) {
-               // coinbase input, so no parent
-               continue;
-            }
-            TransactionOutputEx parentOutput = parentOutputs.get(in.outPoint);
-            if (parentOutput != null) {
-               // We had it all along
-               continue;
-            }
-            TransactionEx parentTex = parentTransactions.get(in.outPoint.txid);
-            if (parentTex != null) {
-               // Parent output not found, maybe we already have it
-               parentOutput = TransactionEx.getTransactionOutput(parentTex, in.outPoint.index);
-               toPersist.add(parentOutput);
+            if (!in.outPoint.txid.equals(OutPoint.COINBASE_OUTPOINT.txid)) {
+               outPoints.add(in.outPoint);
             }
          }
       }
-
-      // Persist
-      if (toPersist.size() <= MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
-         _backing.putParentTransactionOuputs(toPersist);
-      } else {
-         // We have quite a list of transactions to handle, do it in batches
-         ArrayList<TransactionOutputEx> all = new ArrayList<>(toPersist);
-         for (int i = 0; i < all.size(); i += MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
-            int endIndex = Math.min(all.size(), i + MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY);
-            List<TransactionOutputEx> sub = all.subList(i, endIndex);
-            _backing.putParentTransactionOuputs(sub);
-         }
+      if (outPoints.isEmpty()) {
+         return new HashMap<>();
       }
+      return _backing.getParentTransactionOutputs(outPoints);
    }
 
    protected BalanceSatoshis calculateLocalBalance() {
-      Collection<TransactionOutputEx> unspentOutputs = new HashSet<>(_backing.getAllUnspentOutputs());
-      long confirmed = 0;
+      long confirmed = _utxoIndex.getConfirmedValue();
       long pendingChange = 0;
       long pendingSending = 0;
       long pendingReceiving = 0;
 
       //
-      // Determine the value we are receiving and create a set of outpoints for fast lookup
+      // Determine the value we are receiving
       //
-      Set<OutPoint> unspentOutPoints = new HashSet<>();
-      for (TransactionOutputEx output : unspentOutputs) {
-         if (isColuDustOutput(output)) {
+      for (UtxoIndex.Entry entry : _utxoIndex.getUnconfirmed()) {
+         TransactionOutputEx output = entry.output;
+         if (entry.isColuDust) {
             continue;
          }
-         if (output.height == -1) {
-            if (isFromMe(output.outPoint.txid)) {
-               pendingChange += output.value;
-            } else {
-               pendingReceiving += output.value;
-            }
+         if (isFromMe(output.outPoint.txid)) {
+            pendingChange += output.value;
          } else {
-            confirmed += output.value;
+            pendingReceiving += output.value;
          }
-         unspentOutPoints.add(output.outPoint);
       }
 
       //
       // Determine the value we are sending
       //
 
-      // Get the current set of unconfirmed transactions
-      List<BitcoinTransaction> unconfirmed = new ArrayList<>();
+      // Get the current set of unconfirmed transactions. Only the out points and the output scripts are needed, so
+      // views are enough
+      List<BitcoinTransactionView> unconfirmed = new ArrayList<>();
       for (TransactionEx tex : _backing.getUnconfirmedTransactions()) {
-         try {
-            BitcoinTransaction t = BitcoinTransaction.fromByteReader(new ByteReader(tex.binary));
+         BitcoinTransactionView t = TransactionEx.toTransactionView(tex);
+         // null never happens, we have parsed it before
+         if (t != null) {
             unconfirmed.add(t);
-         } catch (TransactionParsingException e) {
-            // never happens, we have parsed it before
          }
       }
 
-      for (BitcoinTransaction t : unconfirmed) {
+      for (BitcoinTransactionView t : unconfirmed) {
          // For each input figure out if WE are sending it by fetching the
          // parent transaction and looking at the address
          boolean weSend = false;
-         for (TransactionInput input : t.inputs) {
+         for (int j = 0; j < t.getInputCount(); j++) {
+            OutPoint inputOutPoint = t.getOutPoint(j);
             // Find the parent transaction
-            if (input.outPoint.txid.equals(Sha256Hash.ZERO_HASH)) {
+            if (inputOutPoint.txid.equals(Sha256Hash.ZERO_HASH)) {
                continue;
             }
-            TransactionOutputEx parent = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx parent = _backing.getParentTransactionOutput(inputOutPoint);
             if (parent == null) {
-               _logger.log(Level.SEVERE, "Unable to find parent transaction output: " + input.outPoint);
+               _logger.log(Level.SEVERE, "Unable to find parent transaction output: " + inputOutPoint);
                continue;
             }
             TransactionOutput parentOutput = transform(parent);
@@ -681,13 +664,14 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
 
          // Now look at the outputs and if it contains change for us, then subtract that from the sending amount
          // if it is already spent in another transaction
-         for (int i = 0; i < t.outputs.length; i++) {
-            TransactionOutput output = t.outputs[i];
+         for (int i = 0; i < t.getOutputCount(); i++) {
+            TransactionOutput output = t.getOutput(i);
             BitcoinAddress destination = output.script.getAddress(_network);
             if (weSend && isMine(destination)) {
                // The funds are sent from us to us
                OutPoint outPoint = new OutPoint(t.getId(), i);
-               if (!unspentOutPoints.contains(outPoint)) {
+               UtxoIndex.Entry unspent = _utxoIndex.get(outPoint);
+               if (unspent == null || unspent.isColuDust) {
                   // This output has been spent, subtract it from the amount sent
                   pendingSending -= output.value;
                }
@@ -829,8 +813,14 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       List<com.mycelium.wapi.model.TransactionSummary> history = new ArrayList<>();
       checkNotArchived();
       List<TransactionEx> list = _backing.getTransactionHistory(offset, limit);
+      Map<Sha256Hash, BitcoinTransaction> transactions = parseTransactions(list);
+      Map<OutPoint, TransactionOutputEx> parentOutputs = getParentTransactionOutputs(transactions.values());
       for (TransactionEx tex : list) {
-         com.mycelium.wapi.model.TransactionSummary item = transform(tex, getBlockChainHeight());
+         BitcoinTransaction tx = transactions.get(tex.txid);
+         if (tx == null) {
+            continue;
+         }
+         com.mycelium.wapi.model.TransactionSummary item = transform(tex, tx, getBlockChainHeight(), parentOutputs);
          if (item != null) {
             history.add(item);
          }
@@ -851,10 +841,18 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          throw new InvalidKeyCipher();
       }
       // Make all signatures, this is the CPU intensive part
-      List<byte[]> signatures = StandardTransactionBuilder.generateSignatures(
-              unsigned.getSigningRequests(),
-              new PrivateKeyRing(cipher)
-      );
+      List<byte[]> signatures;
+      PrivateKeyRing keyRing = createPrivateKeyRing(cipher);
+      try {
+         List<PublicKey> publicKeys = new ArrayList<>();
+         for (SigningRequest request : unsigned.getSigningRequests()) {
+            publicKeys.add(request.getPublicKey());
+         }
+         keyRing.prepare(publicKeys);
+         signatures = StandardTransactionBuilder.generateSignatures(unsigned.getSigningRequests(), keyRing);
+      } finally {
+         keyRing.close();
+      }
 
       // Apply signatures and finalize transaction
       return StandardTransactionBuilder.finalizeTransaction(unsigned, signatures);
@@ -875,21 +873,20 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          return false;
       }
       BitcoinTransaction tx = TransactionEx.toTransaction(tex);
-      _backing.beginTransaction();
+      beginTransaction();
       try {
          // See if any of the outputs are stored locally and remove them
          for (int i = 0; i < tx.outputs.length; i++) {
             OutPoint outPoint = new OutPoint(tx.getId(), i);
-            TransactionOutputEx utxo = _backing.getUnspentOutput(outPoint);
-            if (utxo != null) {
-               _backing.deleteUnspentOutput(outPoint);
+            if (_utxoIndex.contains(outPoint)) {
+               deleteUnspentOutput(outPoint);
             }
          }
          // remove it from the accountBacking
          _backing.deleteTransaction(transactionId);
-         _backing.setTransactionSuccessful();
+         setTransactionSuccessful();
       } finally {
-         _backing.endTransaction();
+         endTransaction();
       }
       updateLocalBalance(); //will still need a new sync besides re-calculating
       return true;
@@ -919,15 +916,14 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          return false;
       }
 
-      _backing.beginTransaction();
+      beginTransaction();
       try {
 
          // See if any of the outputs are stored locally and remove them
          for (int i = 0; i < tx.outputs.length; i++) {
             OutPoint outPoint = new OutPoint(tx.getId(), i);
-            TransactionOutputEx utxo = _backing.getUnspentOutput(outPoint);
-            if (utxo != null) {
-               _backing.deleteUnspentOutput(outPoint);
+            if (_utxoIndex.contains(outPoint)) {
+               deleteUnspentOutput(outPoint);
             }
          }
 
@@ -936,9 +932,9 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
 
          // remove it from the accountBacking
          _backing.deleteTransaction(transaction);
-         _backing.setTransactionSuccessful();
+         setTransactionSuccessful();
       } finally {
-         _backing.endTransaction();
+         endTransaction();
       }
 
       // calc the new balance to remove the outgoing amount
@@ -964,7 +960,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
    }
 
    private void markTransactionAsSpent(TransactionEx transaction) {
-      _backing.beginTransaction();
+      beginTransaction();
       final BitcoinTransaction parsedTransaction;
       try {
          parsedTransaction = BitcoinTransaction.fromBytes(transaction.binary);
@@ -975,29 +971,30 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       try {
          // Remove inputs from unspent, marking them as spent
          for (TransactionInput input : parsedTransaction.inputs) {
-            TransactionOutputEx parentOutput = _backing.getUnspentOutput(input.outPoint);
-            if (parentOutput != null) {
-               _backing.deleteUnspentOutput(input.outPoint);
-               _backing.putParentTransactionOutput(parentOutput);
+            UtxoIndex.Entry parent = _utxoIndex.get(input.outPoint);
+            if (parent != null) {
+               deleteUnspentOutput(input.outPoint);
+               _backing.putParentTransactionOutput(parent.output);
             }
          }
 
+         // Store transaction locally, so we have it in our history and don't
+         // need to fetch it in a minute. This comes before the outputs, as the
+         // UTXO index looks at the transaction to tell colored coin dust
+         _backing.putTransaction(transaction);
+
          // See if any of the outputs are for ourselves and store them as
          // unspent
          for (int i = 0; i < parsedTransaction.outputs.length; i++) {
             TransactionOutput output = parsedTransaction.outputs[i];
             if (isMine(output.script)) {
-               _backing.putUnspentOutput(new TransactionOutputEx(new OutPoint(parsedTransaction.getId(), i), -1,
+               putUnspentOutput(new TransactionOutputEx(new OutPoint(parsedTransaction.getId(), i), -1,
                        output.value, output.script.getScriptBytes(), false));
             }
          }
-
-         // Store transaction locally, so we have it in our history and don't
-         // need to fetch it in a minute
-         _backing.putTransaction(transaction);
-         _backing.setTransactionSuccessful();
+         setTransactionSuccessful();
       } finally {
-         _backing.endTransaction();
+         endTransaction();
       }
 
       // Tell account that we have a new transaction
@@ -1075,36 +1072,37 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
    }
 
    protected Collection<TransactionOutputEx> getSpendableOutputs(long minerFeePerKbToUse) {
-      return getSpendableOutputs(minerFeePerKbToUse, false);
+      List<TransactionOutputEx> outputs = new ArrayList<>();
+      for (UtxoIndex.Entry entry : getSpendableEntries(minerFeePerKbToUse, false)) {
+         outputs.add(entry.output);
+      }
+      return outputs;
    }
 
    /**
     * @param minerFeePerKbToUse Determines the dust level, at which including a UTXO costs more than it is worth.
     * @return all UTXOs that are spendable now, as they are neither locked coinbase outputs nor unconfirmed received coins if _allowZeroConfSpending is not set nor dust.
     */
-   private Collection<TransactionOutputEx> getSpendableOutputs(long minerFeePerKbToUse, boolean skipDustCheck) {
+   private List<UtxoIndex.Entry> getSpendableEntries(long minerFeePerKbToUse, boolean skipDustCheck) {
       long satDustOutput = StandardTransactionBuilder.MAX_INPUT_SIZE * minerFeePerKbToUse / 1000;
-      Collection<TransactionOutputEx> allUnspentOutputs = _backing.getAllUnspentOutputs();
+      List<UtxoIndex.Entry> spendable = new ArrayList<>();
 
       // Prune confirmed outputs for coinbase outputs that are not old enough
       // for spending. Also prune unconfirmed receiving coins except for change
-      Iterator<TransactionOutputEx> it = allUnspentOutputs.iterator();
-      while (it.hasNext()) {
-         TransactionOutputEx output = it.next();
+      for (UtxoIndex.Entry entry : _utxoIndex.getAll()) {
+         TransactionOutputEx output = entry.output;
          // we remove all outputs that don't cover their costs (dust)
          // coinbase outputs are not spendable and this should not be overridden
          // Unless we allow zero confirmation spending we prune all unconfirmed outputs sent from foreign addresses
          if (!skipDustCheck && output.value < satDustOutput ||
                  output.isCoinBase && getBlockChainHeight() - output.height < COINBASE_MIN_CONFIRMATIONS ||
-                 !_allowZeroConfSpending && output.height == -1 && !isFromMe(output.outPoint.txid)) {
-            it.remove();
-         } else {
-            if (isColuDustOutput(output)) {
-               it.remove();
-            }
+                 !_allowZeroConfSpending && output.height == -1 && !isFromMe(output.outPoint.txid) ||
+                 entry.isColuDust) {
+            continue;
          }
+         spendable.add(entry);
       }
-      return allUnspentOutputs;
+      return spendable;
    }
 
    protected abstract BitcoinAddress getChangeAddress(BitcoinAddress destinationAddress);
@@ -1113,11 +1111,11 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
 
    protected abstract BitcoinAddress getChangeAddress(List<BitcoinAddress> destinationAddresses);
 
-   private static Collection<UnspentTransactionOutput> transform(Collection<TransactionOutputEx> source) {
+   // the index parsed the scripts already
+   private static Collection<UnspentTransactionOutput> transform(Collection<UtxoIndex.Entry> source) {
       List<UnspentTransactionOutput> outputs = new ArrayList<>();
-      for (TransactionOutputEx s : source) {
-         ScriptOutput script = ScriptOutput.fromScriptBytes(s.script);
-         outputs.add(new UnspentTransactionOutput(s.outPoint, s.height, s.value, script));
+      for (UtxoIndex.Entry s : source) {
+         outputs.add(new UnspentTransactionOutput(s.output.outPoint, s.output.height, s.output.value, s.script));
       }
       return outputs;
    }
@@ -1128,7 +1126,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       BitcoinAddress destAddress = destinationAddress != null ? destinationAddress.getAddress() : null;
 
       checkNotArchived();
-      Collection<UnspentTransactionOutput> spendableOutputs = transform(getSpendableOutputs(minerFeePerKbToUse.getValueAsLong()));
+      Collection<UnspentTransactionOutput> spendableOutputs = transform(getSpendableEntries(minerFeePerKbToUse.getValueAsLong(), false));
       long satoshis = 0;
 
       // sum up the maximal available number of satoshis (i.e. sum of all spendable outputs)
@@ -1200,7 +1198,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       checkNotArchived();
 
       // Determine the list of spendable outputs
-      Collection<UnspentTransactionOutput> spendable = transform(getSpendableOutputs(minerFeeToUse));
+      Collection<UnspentTransactionOutput> spendable = transform(getSpendableEntries(minerFeeToUse, false));
 
       // Create the unsigned transaction
       StandardTransactionBuilder stb = new StandardTransactionBuilder(_network);
@@ -1219,7 +1217,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       checkNotArchived();
 
       // Determine the list of spendable outputs
-      Collection<UnspentTransactionOutput> spendable = transform(getSpendableOutputs(minerFeeToUse));
+      Collection<UnspentTransactionOutput> spendable = transform(getSpendableEntries(minerFeeToUse, false));
 
       // Create the unsigned transaction
       StandardTransactionBuilder stb = new StandardTransactionBuilder(_network);
@@ -1239,7 +1237,7 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
     */
    public UnsignedTransaction createUnsignedCPFPTransaction(Sha256Hash txid, long minerFeeToUse, long satoshisPaid) throws InsufficientBtcException, StandardTransactionBuilder.UnableToBuildTransactionException {
       checkNotArchived();
-      List<UnspentTransactionOutput> utxos = new ArrayList<>(transform(getSpendableOutputs(minerFeeToUse, true)));
+      List<UnspentTransactionOutput> utxos = new ArrayList<>(transform(getSpendableEntries(minerFeeToUse, true)));
       TransactionDetails parent = getTransactionDetails(txid);
       long totalSpendableSatoshis = 0;
       boolean haveOutputToBump = false;
@@ -1335,6 +1333,18 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       return false;
    }
 
+   // the transactions that could be parsed, by id
+   private Map<Sha256Hash, BitcoinTransaction> parseTransactions(Collection<TransactionEx> texs) {
+      Map<Sha256Hash, BitcoinTransaction> transactions = new HashMap<>();
+      for (TransactionEx tex : texs) {
+         BitcoinTransaction tx = TransactionEx.toTransaction(tex);
+         if (tx != null) {
+            transactions.put(tex.txid, tx);
+         }
+      }
+      return transactions;
+   }
+
    private com.mycelium.wapi.model.TransactionSummary transform(TransactionEx tex, int blockChainHeight) {
       BitcoinTransaction tx;
       try {
@@ -1344,7 +1354,11 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          _logger.log(Level.SEVERE, "Unable to parse ");
          return null;
       }
+      return transform(tex, tx, blockChainHeight, getParentTransactionOutputs(Collections.singletonList(tx)));
+   }
 
+   private com.mycelium.wapi.model.TransactionSummary transform(TransactionEx tex, BitcoinTransaction tx, int blockChainHeight,
+                                                                Map<OutPoint, TransactionOutputEx> parentOutputs) {
       boolean isColuTransaction = isColuTransaction(tx);
 
       if (isColuTransaction) {
@@ -1371,9 +1385,10 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       if (!tx.isCoinbase()) {
          for (TransactionInput input : tx.inputs) {
             // find parent output
-            TransactionOutputEx funding = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx funding = parentOutputs.get(input.outPoint);
             if (funding == null) {
-               funding = _backing.getUnspentOutput(input.outPoint);
+               UtxoIndex.Entry unspent = _utxoIndex.get(input.outPoint);
+               funding = unspent == null ? null : unspent.output;
             }
             if (funding == null) {
                continue;
@@ -1423,19 +1438,18 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       // accounts. That should be ok as we write to the DB in a sane order.
 
       // Get all unspent outputs for this account
-      Collection<TransactionOutputEx> outputs = _backing.getAllUnspentOutputs();
+      List<UtxoIndex.Entry> entries = _utxoIndex.getAll();
 
       // Transform it to a list of summaries
       List<TransactionOutputSummary> list = new ArrayList<>();
-      for (TransactionOutputEx output : outputs) {
-
-         ScriptOutput script = ScriptOutput.fromScriptBytes(output.script);
+      for (UtxoIndex.Entry entry : entries) {
+         TransactionOutputEx output = entry.output;
          BitcoinAddress address;
-         if (script == null) {
+         if (entry.script == null) {
             address = BitcoinAddress.getNullAddress(_network);
             // This never happens as we have parsed this script before
          } else {
-            address = script.getAddress(_network);
+            address = entry.address;
          }
          int confirmations;
          if (output.height == -1) {
@@ -1559,7 +1573,14 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       }
    }
 
-   public class PrivateKeyRing extends PublicKeyRing implements IPublicKeyRing, IPrivateKeyRing {
+   /**
+    * @return the key ring for signing one transaction. It is closed when signing is done.
+    */
+   protected PrivateKeyRing createPrivateKeyRing(KeyCipher cipher) {
+      return new PrivateKeyRing(cipher);
+   }
+
+   public class PrivateKeyRing extends PublicKeyRing implements IPublicKeyRing, IPrivateKeyRing, Closeable {
 
       KeyCipher _cipher;
 
@@ -1567,6 +1588,20 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          _cipher = cipher;
       }
 
+      /**
+       * Called with the public keys of all inputs before any of them is looked up, so the private keys can be
+       * prepared at once.
+       */
+      public void prepare(Collection<PublicKey> publicKeys) throws InvalidKeyCipher {
+      }
+
+      /**
+       * Drops any key material the ring kept for signing.
+       */
+      @Override
+      public void close() {
+      }
+
       @Override
       public BitcoinSigner findSignerByPublicKey(PublicKey publicKey) {
          InMemoryPrivateKey privateKey;
@@ -1677,26 +1712,59 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       List<TransactionSummary> history = new ArrayList<>();
       checkNotArchived();
       List<TransactionEx> list = _backing.getTransactionsSince(receivingSince);
-      for (TransactionEx tex : list) {
-         TransactionSummary tx = getTxSummary(tex.txid.getBytes());
-         if(tx != null) {
-            history.add(tx);
-         }
-      }
+      history.addAll(getTxSummaries(list));
       return history;
    }
 
    public List<TransactionSummary> getTransactionSummaries(int offset, int limit) {
       // Note that this method is not synchronized, and we might fetch the transaction history while synchronizing
-      // accounts. That should be ok as we write to the DB in a sane order.
+      // accounts. The summaries built here are only stored if the backing dropped none since the version was read,
+      // so a summary built from data a sync changes in the meantime is not kept.
 
       checkNotArchived();
-      List<TransactionEx> list = _backing.getTransactionHistory(offset, limit);
+      long summariesVersion = _backing.getTransactionSummariesVersion();
+      Map<Sha256Hash, TransactionSummaryRecord> page = _backing.getTransactionSummaries(offset, limit);
+
+      // Build and store the summaries of the page that are not stored yet
+      List<Sha256Hash> missing = new ArrayList<>();
+      for (Map.Entry<Sha256Hash, TransactionSummaryRecord> entry : page.entrySet()) {
+         if (entry.getValue() == null) {
+            missing.add(entry.getKey());
+         }
+      }
+      Map<Sha256Hash, TransactionSummaryRecord> built = new HashMap<>();
+      if (!missing.isEmpty()) {
+         Collection<TransactionEx> texs = _backing.getTransactions(missing).values();
+         Map<Sha256Hash, BitcoinTransaction> transactions = parseTransactions(texs);
+         Map<OutPoint, TransactionOutputEx> parentOutputs = getParentTransactionOutputs(transactions.values());
+         for (TransactionEx tex : texs) {
+            BitcoinTransaction tx = transactions.get(tex.txid);
+            if (tx != null) {
+               built.put(tex.txid, createSummaryRecord(tex, tx, parentOutputs));
+            }
+         }
+         _backing.putTransactionSummaries(built.values(), summariesVersion);
+      }
+
       List<TransactionSummary> history = new ArrayList<>();
-      for (TransactionEx tex: list) {
-         TransactionSummary tx = getTxSummary(tex.txid.getBytes());
-         if(tx != null) {
-            history.add(tx);
+      for (Map.Entry<Sha256Hash, TransactionSummaryRecord> entry : page.entrySet()) {
+         TransactionSummaryRecord record = entry.getValue() != null ? entry.getValue() : built.get(entry.getKey());
+         if (record != null) {
+            history.add(toTransactionSummary(record));
+         }
+      }
+      return history;
+   }
+
+   // Summaries of the transactions that could be parsed, with the parent outputs of all of them looked up at once
+   private List<TransactionSummary> getTxSummaries(List<TransactionEx> texs) {
+      Map<Sha256Hash, BitcoinTransaction> transactions = parseTransactions(texs);
+      Map<OutPoint, TransactionOutputEx> parentOutputs = getParentTransactionOutputs(transactions.values());
+      List<TransactionSummary> history = new ArrayList<>();
+      for (TransactionEx tex : texs) {
+         BitcoinTransaction tx = transactions.get(tex.txid);
+         if (tx != null) {
+            history.add(toTransactionSummary(createSummaryRecord(tex, tx, parentOutputs)));
          }
       }
       return history;
@@ -1710,28 +1778,21 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
       if (tx == null) {
          return null;
       }
+      return toTransactionSummary(createSummaryRecord(tex, tx, getParentTransactionOutputs(Collections.singletonList(tx))));
+   }
 
+   private TransactionSummaryRecord createSummaryRecord(TransactionEx tex, BitcoinTransaction tx,
+                                                        Map<OutPoint, TransactionOutputEx> parentOutputs) {
       long satoshisReceived = 0;
       long satoshisSent = 0;
-      long satoshisTransferred = 0;
 
-      List<Address> destinationAddresses = new ArrayList<>();
-
-      ArrayList<OutputViewModel> outputs = new ArrayList<>();
+      List<TransactionSummaryRecord.Item> outputs = new ArrayList<>();
       for (TransactionOutput output : tx.outputs) {
-         BitcoinAddress address = output.script.getAddress(_network);
-         if (isMine(output.script)) {
-            satoshisTransferred += output.value;
-         } else {
-            destinationAddresses.add(AddressUtils.fromAddress(address));
-         }
          satoshisReceived += output.value;
-
-         if (address != null && !address.equals(BitcoinAddress.getNullAddress(_network))) {
-            outputs.add(new OutputViewModel(AddressUtils.fromAddress(address), Value.valueOf(getCoinType(), output.value), false));
-         }
+         BitcoinAddress address = output.script.getAddress(_network);
+         outputs.add(new TransactionSummaryRecord.Item(address.toString(), output.value));
       }
-      ArrayList<InputViewModel> inputs = new ArrayList<>(); //need to create list of outputs
+      List<TransactionSummaryRecord.Item> inputs = new ArrayList<>();
 
       // Inputs
       if (tx.isCoinbase()) {
@@ -1741,34 +1802,76 @@ public abstract class AbstractBtcAccount extends SynchronizeAbleWalletBtcAccount
          for (TransactionOutput out : tx.outputs) {
             value += out.value;
          }
-         inputs.add(new InputViewModel(getDummyAddress(), Value.valueOf(getCoinType(), value), true));
+         inputs.add(new TransactionSummaryRecord.Item(null, value));
       } else {
          for (TransactionInput input : tx.inputs) {
             // find parent output
-            TransactionOutputEx funding = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx funding = parentOutputs.get(input.outPoint);
             if (funding == null) {
                continue;
             }
-            if (isMine(funding)) {
-               satoshisTransferred -= funding.value;
-            }
             satoshisSent += funding.value;
 
             BitcoinAddress address = ScriptOutput.fromScriptBytes(funding.script).getAddress(_network);
-            inputs.add(new InputViewModel(AddressUtils.fromAddress(address), Value.valueOf(getCoinType(), funding.value), false));
+            inputs.add(new TransactionSummaryRecord.Item(address.toString(), funding.value));
+         }
+      }
+
+      boolean isQueuedOutgoing = _backing.isOutgoingTransaction(tx.getId());
+      return new TransactionSummaryRecord(tx.getId(), tx.getHash(), tex.height, tex.time, tx.vsize(),
+              Math.abs(satoshisReceived - satoshisSent), isQueuedOutgoing, inputs, outputs);
+   }
+
+   // Which inputs and outputs are ours is looked up here, so a stored record stays right when the account learns
+   // more of its addresses
+   private TransactionSummary toTransactionSummary(TransactionSummaryRecord record) {
+      long satoshisTransferred = 0;
+      List<InputViewModel> inputs = new ArrayList<>();
+      for (TransactionSummaryRecord.Item input : record.inputs) {
+         if (input.address == null) {
+            inputs.add(new InputViewModel(getDummyAddress(), Value.valueOf(getCoinType(), input.value), true));
+         } else {
+            BtcAddress address = toAddress(input.address);
+            if (isMine(address.getAddress())) {
+               satoshisTransferred -= input.value;
+            }
+            inputs.add(new InputViewModel(address, Value.valueOf(getCoinType(), input.value), false));
+         }
+      }
+      BitcoinAddress nullAddress = BitcoinAddress.getNullAddress(_network);
+      List<OutputViewModel> outputs = new ArrayList<>();
+      List<Address> destinationAddresses = new ArrayList<>();
+      for (TransactionSummaryRecord.Item output : record.outputs) {
+         BtcAddress address = toAddress(output.address);
+         if (isMine(address.getAddress())) {
+            satoshisTransferred += output.value;
+         } else {
+            destinationAddresses.add(address);
+         }
+         if (!address.getAddress().equals(nullAddress)) {
+            outputs.add(new OutputViewModel(address, Value.valueOf(getCoinType(), output.value), false));
          }
       }
 
       int confirmations;
-      if (tex.height == -1) {
+      if (record.height == -1) {
          confirmations = 0;
       } else {
-         confirmations = Math.max(0, getBlockChainHeight() - tex.height + 1);
+         confirmations = Math.max(0, getBlockChainHeight() - record.height + 1);
       }
-      boolean isQueuedOutgoing = _backing.isOutgoingTransaction(tx.getId());
-      return new TransactionSummary(getCoinType(), tx.getId().getBytes(), tx.getHash().getBytes(), Value.valueOf(getCoinType(), satoshisTransferred), tex.time, tex.height,
-              confirmations, isQueuedOutgoing, inputs, outputs, destinationAddresses, riskAssessmentForUnconfirmedTx.get(tx.getId()),
-              tx.vsize(), Value.valueOf(getCoinType(), Math.abs(satoshisReceived - satoshisSent)));
+      return new TransactionSummary(getCoinType(), record.txid.getBytes(), record.hash.getBytes(),
+              Value.valueOf(getCoinType(), satoshisTransferred), record.time, record.height, confirmations,
+              record.isQueuedOutgoing, inputs, outputs, destinationAddresses,
+              riskAssessmentForUnconfirmedTx.get(record.txid), record.rawSize, Value.valueOf(getCoinType(), record.fee));
+   }
+
+   private BtcAddress toAddress(String address) {
+      BitcoinAddress bitcoinAddress = BitcoinAddress.fromString(address);
+      if (bitcoinAddress == null) {
+         // never happens, the address was written by toString()
+         bitcoinAddress = BitcoinAddress.getNullAddress(_network);
+      }
+      return AddressUtils.fromAddress(bitcoinAddress);
    }
 
    private TransactionOutput createPopOutput(Sha256Hash txidToProve, byte[] nonce) {
@@ -16,8 +16,18 @@
 
 package com.mycelium.wapi.wallet.btc;
 
+import com.mrd.bitlib.model.BitcoinAddress;
 import com.mycelium.wapi.wallet.btc.bip44.HDAccountContext;
 
+import java.util.Map;
+
 public interface Bip44BtcAccountBacking extends BtcAccountBacking {
    void updateAccountContext(HDAccountContext context);
+
+   /**
+    * The status hashes of the addresses as they were at the last sync of the account
+    */
+   Map<BitcoinAddress, String> getAddressStatuses();
+
+   void putAddressStatuses(Map<BitcoinAddress, String> statuses);
 }
\ No newline at end of file
@@ -42,6 +42,13 @@ public interface BtcAccountBacking extends CommonAccountBacking {
 
    TransactionOutputEx getParentTransactionOutput(OutPoint outPoint);
 
+   /**
+    * Looks up many parent outputs at once.
+    *
+    * @return the known outputs by out point. Out points that are not known are missing from the map.
+    */
+   Map<OutPoint, TransactionOutputEx> getParentTransactionOutputs(Collection<OutPoint> outPoints);
+
    boolean hasParentTransactionOutput(OutPoint outPoint);
 
    void putTransaction(TransactionEx transaction);
@@ -50,10 +57,41 @@ public interface BtcAccountBacking extends CommonAccountBacking {
 
    TransactionEx getTransaction(Sha256Hash hash);
 
+   /**
+    * Looks up many transactions at once.
+    *
+    * @return the known transactions by id. Ids that are not known are missing from the map.
+    */
+   Map<Sha256Hash, TransactionEx> getTransactions(Collection<Sha256Hash> txids);
+
    void deleteTransaction(Sha256Hash hash);
 
    List<TransactionEx> getTransactionHistory(int offset, int limit);
 
+   /**
+    * Looks up the stored summaries of a page of the transaction history. Stored summaries are dropped by the
+    * backing whenever their transaction, one of its parent outputs or its outgoing state changes.
+    * <p>
+    * Storing summaries is optional. A backing that keeps none maps every txid to null and ignores
+    * {@link #putTransactionSummaries(Collection, long)}, the account then builds the summaries from the transactions.
+    *
+    * @return the txids of the page in the order of {@link #getTransactionHistory(int, int)}, each mapped to its
+    * stored summary, or to null if none is stored
+    */
+   Map<Sha256Hash, TransactionSummaryRecord> getTransactionSummaries(int offset, int limit);
+
+   /**
+    * @return a version that changes whenever stored summaries are dropped. Read it before what the summaries are
+    * built from, and hand it to {@link #putTransactionSummaries(Collection, long)}
+    */
+   long getTransactionSummariesVersion();
+
+   /**
+    * Stores summaries built from what was read at the given version. Nothing is stored if summaries were dropped
+    * since, as what they were built from may have changed in the meantime.
+    */
+   void putTransactionSummaries(Collection<TransactionSummaryRecord> summaries, long version);
+
    List<TransactionEx> getTransactionsSince(long since);
 
    Collection<TransactionEx> getUnconfirmedTransactions();
@@ -18,6 +18,7 @@ package com.mycelium.wapi.wallet.btc;
 
 
 import com.google.common.base.Preconditions;
+import com.mrd.bitlib.model.BitcoinAddress;
 import com.mrd.bitlib.model.OutPoint;
 import com.mrd.bitlib.util.HexUtils;
 import com.mrd.bitlib.util.Sha256Hash;
@@ -195,6 +196,9 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
       private final Map<OutPoint, TransactionOutputEx> _parentOutputs = new HashMap<>();
       private final Map<Sha256Hash, byte[]> _outgoingTransactions = new HashMap<>();
       private final HashMap<Sha256Hash, OutPoint> _txRefersParentTxOpus = new HashMap<>();
+      private final Map<BitcoinAddress, String> _addressStatuses = new HashMap<>();
+      private final Map<Sha256Hash, TransactionSummaryRecord> _transactionSummaries = new HashMap<>();
+      private long _transactionSummariesVersion;
 
       @Override
       public void updateAccountContext(HDAccountContext context) {
@@ -229,6 +233,18 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
          _transactions.clear();
          _parentOutputs.clear();
          _outgoingTransactions.clear();
+         _addressStatuses.clear();
+         dropTransactionSummaries();
+      }
+
+      @Override
+      public Map<BitcoinAddress, String> getAddressStatuses() {
+         return new HashMap<>(_addressStatuses);
+      }
+
+      @Override
+      public void putAddressStatuses(Map<BitcoinAddress, String> statuses) {
+         _addressStatuses.putAll(statuses);
       }
 
       @Override
@@ -261,6 +277,8 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
       @Override
       public void putParentTransactionOutput(TransactionOutputEx output) {
          _parentOutputs.put(output.outPoint, output);
+         // we don't track which transactions spend it
+         dropTransactionSummaries();
       }
 
       @Override
@@ -268,6 +286,18 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
          return _parentOutputs.get(outPoint);
       }
 
+      @Override
+      public Map<OutPoint, TransactionOutputEx> getParentTransactionOutputs(Collection<OutPoint> outPoints) {
+         Map<OutPoint, TransactionOutputEx> outputs = new HashMap<>();
+         for (OutPoint outPoint : outPoints) {
+            TransactionOutputEx output = _parentOutputs.get(outPoint);
+            if (output != null) {
+               outputs.put(outPoint, output);
+            }
+         }
+         return outputs;
+      }
+
       @Override
       public boolean hasParentTransactionOutput(OutPoint outPoint) {
          return _parentOutputs.containsKey(outPoint);
@@ -283,6 +313,7 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
       @Override
       public void putTransaction(TransactionEx transaction) {
          _transactions.put(transaction.txid, transaction);
+         dropTransactionSummary(transaction.txid);
       }
 
       @Override
@@ -290,9 +321,22 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
          return _transactions.get(hash);
       }
 
+      @Override
+      public Map<Sha256Hash, TransactionEx> getTransactions(Collection<Sha256Hash> txids) {
+         Map<Sha256Hash, TransactionEx> transactions = new HashMap<>();
+         for (Sha256Hash txid : txids) {
+            TransactionEx transaction = _transactions.get(txid);
+            if (transaction != null) {
+               transactions.put(txid, transaction);
+            }
+         }
+         return transactions;
+      }
+
       @Override
       public void deleteTransaction(Sha256Hash hash) {
          _transactions.remove(hash);
+         dropTransactionSummary(hash);
       }
 
       @Override
@@ -306,6 +350,40 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
          return Collections.unmodifiableList(list.subList(offset, endIndex));
       }
 
+      @Override
+      public Map<Sha256Hash, TransactionSummaryRecord> getTransactionSummaries(int offset, int limit) {
+         Map<Sha256Hash, TransactionSummaryRecord> summaries = new LinkedHashMap<>();
+         for (TransactionEx tex : getTransactionHistory(offset, limit)) {
+            summaries.put(tex.txid, _transactionSummaries.get(tex.txid));
+         }
+         return summaries;
+      }
+
+      @Override
+      public long getTransactionSummariesVersion() {
+         return _transactionSummariesVersion;
+      }
+
+      @Override
+      public void putTransactionSummaries(Collection<TransactionSummaryRecord> summaries, long version) {
+         if (version != _transactionSummariesVersion) {
+            return;
+         }
+         for (TransactionSummaryRecord summary : summaries) {
+            _transactionSummaries.put(summary.txid, summary);
+         }
+      }
+
+      private void dropTransactionSummary(Sha256Hash txid) {
+         _transactionSummariesVersion++;
+         _transactionSummaries.remove(txid);
+      }
+
+      private void dropTransactionSummaries() {
+         _transactionSummariesVersion++;
+         _transactionSummaries.clear();
+      }
+
       @Override
       public List<TransactionEx> getTransactionsSince(long since) {
          List<TransactionEx> list = new ArrayList<>(_transactions.values());
@@ -351,6 +429,7 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
       @Override
       public void putOutgoingTransaction(Sha256Hash txid, byte[] rawTransaction) {
          _outgoingTransactions.put(txid, rawTransaction);
+         dropTransactionSummary(txid);
       }
 
       @Override
@@ -366,6 +445,7 @@ public class InMemoryBtcWalletManagerBacking implements BtcWalletManagerBacking<
       @Override
       public void removeOutgoingTransaction(Sha256Hash txid) {
          _outgoingTransactions.remove(txid);
+         dropTransactionSummary(txid);
       }
 
       @Override
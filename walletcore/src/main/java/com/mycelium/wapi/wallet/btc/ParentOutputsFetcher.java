@@ -0,0 +1,139 @@
+package com.mycelium.wapi.wallet.btc;
+
+import com.mrd.bitlib.model.BitcoinTransaction;
+import com.mrd.bitlib.model.BitcoinTransactionView;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.TransactionInput;
+import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiException;
+import com.mycelium.wapi.api.lib.TransactionExApi;
+import com.mycelium.wapi.api.request.GetTransactionsRequest;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds and stores the outputs that the inputs of a batch of new transactions spend, so the accounts know the value and
+ * the address of every input.
+ * <p>
+ * The whole batch is planned at once: the parent outputs already stored are looked up in one query, the parent
+ * transactions stored are looked up in one query, parents within the batch that are not stored yet are found through an
+ * index by txid, and the rest is fetched from the server in one request without duplicates.
+ */
+public class ParentOutputsFetcher {
+   private static final int MAX_OUTPUTS_PER_PUT = 199;
+
+   private final BtcAccountBacking backing;
+   private final Wapi wapi;
+
+   public ParentOutputsFetcher(BtcAccountBacking backing, Wapi wapi) {
+      this.backing = backing;
+      this.wapi = wapi;
+   }
+
+   /**
+    * @param doRemoteFetching whether to fetch the parent transactions that are neither stored nor in the batch from
+    *                         the server. Their inputs stay without parent output otherwise
+    */
+   public void fetchStoreAndValidate(List<BitcoinTransaction> transactions, boolean doRemoteFetching)
+           throws WapiException {
+      Set<OutPoint> outPoints = new LinkedHashSet<>();
+      for (BitcoinTransaction t : transactions) {
+         for (TransactionInput in : t.inputs) {
+            if (!in.outPoint.txid.equals(OutPoint.COINBASE_OUTPOINT.txid)) {
+               outPoints.add(in.outPoint);
+            }
+         }
+      }
+      if (outPoints.isEmpty()) {
+         return;
+      }
+      // the outputs we had all along
+      outPoints.removeAll(backing.getParentTransactionOutputs(outPoints).keySet());
+      if (outPoints.isEmpty()) {
+         return;
+      }
+
+      Set<Sha256Hash> parentIds = new LinkedHashSet<>();
+      for (OutPoint outPoint : outPoints) {
+         parentIds.add(outPoint.txid);
+      }
+      // a stored parent knows its height, which a parent in the batch doesn't
+      Map<Sha256Hash, TransactionEx> parents = new HashMap<>(backing.getTransactions(parentIds));
+
+      Map<OutPoint, TransactionOutputEx> toPersist = new LinkedHashMap<>();
+      Map<Sha256Hash, BitcoinTransaction> batch = new HashMap<>();
+      for (BitcoinTransaction t : transactions) {
+         batch.put(t.getId(), t);
+      }
+      Set<Sha256Hash> missingParents = new LinkedHashSet<>();
+      for (OutPoint outPoint : outPoints) {
+         if (parents.containsKey(outPoint.txid)) {
+            continue;
+         }
+         BitcoinTransaction parent = batch.get(outPoint.txid);
+         if (parent == null) {
+            missingParents.add(outPoint.txid);
+         } else if (outPoint.index >= 0 && outPoint.index < parent.outputs.length) {
+            // the parent is in the batch, which is not confirmed as far as we know
+            TransactionOutput output = parent.outputs[outPoint.index];
+            toPersist.put(outPoint, new TransactionOutputEx(outPoint, -1, output.value,
+                    output.script.getScriptBytes(), parent.isCoinbase()));
+         }
+      }
+
+      if (doRemoteFetching && !missingParents.isEmpty()) {
+         GetTransactionsRequest request = new GetTransactionsRequest(Wapi.VERSION, missingParents);
+         for (TransactionExApi tx : wapi.getTransactions(request).getResult().transactions) {
+            // Verify transaction hash. This is important as we don't want to
+            // have a transaction output associated with an outpoint that
+            // doesn't match.
+            // This is the end users protection against a rogue server that lies
+            // about the value of an output and makes you pay a large fee.
+            Sha256Hash hash = HashUtils.doubleSha256(tx.binary).reverse();
+            if (!hash.equals(tx.hash)) {
+               throw new RuntimeException("Failed to validate transaction hash from server. Expected: " + tx.txid
+                       + " Calculated: " + hash);
+            }
+            parents.put(tx.txid, tx);
+         }
+      }
+
+      // There is a slight probability that a parent was not found due to double spends and/or malleability and network
+      // latency etc. Each parent found is decoded once, however many of its outputs are spent
+      Map<Sha256Hash, BitcoinTransactionView> views = new HashMap<>();
+      for (OutPoint outPoint : outPoints) {
+         TransactionEx parent = parents.get(outPoint.txid);
+         if (parent == null) {
+            continue;
+         }
+         BitcoinTransactionView view = views.get(outPoint.txid);
+         if (view == null) {
+            view = TransactionEx.toTransactionView(parent);
+            if (view == null) {
+               continue;
+            }
+            views.put(outPoint.txid, view);
+         }
+         if (outPoint.index >= 0 && outPoint.index < view.getOutputCount()) {
+            toPersist.put(outPoint, new TransactionOutputEx(outPoint, parent.height, view.getOutputValue(outPoint.index),
+                    view.getOutputScriptBytes(outPoint.index), view.isCoinbase()));
+         }
+      }
+
+      List<TransactionOutputEx> all = new ArrayList<>(toPersist.values());
+      for (int i = 0; i < all.size(); i += MAX_OUTPUTS_PER_PUT) {
+         backing.putParentTransactionOuputs(all.subList(i, Math.min(all.size(), i + MAX_OUTPUTS_PER_PUT)));
+      }
+   }
+}
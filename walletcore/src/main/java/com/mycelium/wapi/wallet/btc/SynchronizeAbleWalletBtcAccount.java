@@ -24,6 +24,7 @@ public abstract class SynchronizeAbleWalletBtcAccount implements WalletBtcAccoun
    private static final ImmutableMap<SyncMode.Mode, Integer> MIN_SYNC_INTERVAL = ImmutableMap.of(
          SyncMode.Mode.FAST_SYNC, 1000,
          SyncMode.Mode.ONE_ADDRESS, 1000,
+         SyncMode.Mode.STATUS_SYNC, 1000,
          SyncMode.Mode.NORMAL_SYNC, 30 * 1000,
          SyncMode.Mode.FULL_SYNC, 120 * 1000
    );
@@ -0,0 +1,115 @@
+package com.mycelium.wapi.wallet.btc;
+
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.Sha256Hash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a transaction summary that only change with the transaction, its parent outputs or its outgoing
+ * state, so they can be stored and the history paged without parsing transactions. Which inputs and outputs are ours
+ * is not part of it, the account learns addresses of its own over time, so the transferred value and the destination
+ * addresses are worked out when the summary is read, together with confirmations and risk assessment.
+ */
+public class TransactionSummaryRecord {
+   public static class Item {
+      // null for the input of a coinbase transaction, the null address for outputs without one
+      public final String address;
+      public final long value;
+
+      public Item(String address, long value) {
+         this.address = address;
+         this.value = value;
+      }
+   }
+
+   public final Sha256Hash txid;
+   public final Sha256Hash hash;
+   public final int height;
+   public final int time;
+   public final int rawSize;
+   public final long fee;
+   public final boolean isQueuedOutgoing;
+   public final List<Item> inputs;
+   // all outputs in the order of the transaction
+   public final List<Item> outputs;
+
+   public TransactionSummaryRecord(Sha256Hash txid, Sha256Hash hash, int height, int time, int rawSize,
+                                   long fee, boolean isQueuedOutgoing, List<Item> inputs, List<Item> outputs) {
+      this.txid = txid;
+      this.hash = hash;
+      this.height = height;
+      this.time = time;
+      this.rawSize = rawSize;
+      this.fee = fee;
+      this.isQueuedOutgoing = isQueuedOutgoing;
+      this.inputs = Collections.unmodifiableList(inputs);
+      this.outputs = Collections.unmodifiableList(outputs);
+   }
+
+   public byte[] toBytes() {
+      ByteWriter writer = new ByteWriter(1024);
+      writer.put(FORMAT_VERSION);
+      writer.putSha256Hash(txid);
+      writer.putSha256Hash(hash);
+      writer.putIntLE(height);
+      writer.putIntLE(time);
+      writer.putIntLE(rawSize);
+      writer.putLongLE(fee);
+      writer.putBoolean(isQueuedOutgoing);
+      putItems(writer, inputs);
+      putItems(writer, outputs);
+      return writer.toBytes();
+   }
+
+   /**
+    * @return the record, or null if the bytes are not a record of the current format
+    */
+   public static TransactionSummaryRecord fromBytes(byte[] bytes) {
+      try {
+         ByteReader reader = new ByteReader(bytes);
+         if (reader.get() != FORMAT_VERSION) {
+            return null;
+         }
+         Sha256Hash txid = reader.getSha256Hash();
+         Sha256Hash hash = reader.getSha256Hash();
+         int height = reader.getIntLE();
+         int time = reader.getIntLE();
+         int rawSize = reader.getIntLE();
+         long fee = reader.getLongLE();
+         boolean isQueuedOutgoing = reader.getBoolean();
+         List<Item> inputs = getItems(reader);
+         List<Item> outputs = getItems(reader);
+         return new TransactionSummaryRecord(txid, hash, height, time, rawSize, fee, isQueuedOutgoing, inputs,
+                 outputs);
+      } catch (ByteReader.InsufficientBytesException e) {
+         return null;
+      }
+   }
+
+   private static void putItems(ByteWriter writer, List<Item> items) {
+      writer.putCompactInt(items.size());
+      for (Item item : items) {
+         writer.putBoolean(item.address != null);
+         if (item.address != null) {
+            writer.putString(item.address);
+         }
+         writer.putLongLE(item.value);
+      }
+   }
+
+   private static List<Item> getItems(ByteReader reader) throws ByteReader.InsufficientBytesException {
+      int count = (int) reader.getCompactInt();
+      List<Item> items = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+         String address = reader.getBoolean() ? reader.getString() : null;
+         items.add(new Item(address, reader.getLongLE()));
+      }
+      return items;
+   }
+
+   private static final byte FORMAT_VERSION = 2;
+}
@@ -0,0 +1,169 @@
+package com.mycelium.wapi.wallet.btc;
+
+import com.mrd.bitlib.model.BitcoinAddress;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptOutput;
+import com.mycelium.wapi.model.TransactionOutputEx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The unspent outputs of an account, kept in memory by out point with their script already parsed, so balance
+ * calculation and coin selection don't have to load and parse all of them from the backing every time.
+ * <p>
+ * The index is loaded from the backing on first use. Every change to the unspent outputs of the backing has to
+ * be applied here as well. If a backing transaction does not succeed, the index drops everything and is loaded
+ * again on next use, as it can't know what the backing rolled back.
+ */
+class UtxoIndex {
+   interface ColuDustClassifier {
+      boolean isColuDustOutput(TransactionOutputEx output);
+   }
+
+   static class Entry {
+      final TransactionOutputEx output;
+      // null if the script could not be parsed, which never happens for outputs we accepted as ours
+      final ScriptOutput script;
+      final BitcoinAddress address;
+      final boolean isColuDust;
+
+      private Entry(TransactionOutputEx output, NetworkParameters network, boolean isColuDust) {
+         this.output = output;
+         this.script = ScriptOutput.fromScriptBytes(output.script);
+         this.address = script == null ? null : script.getAddress(network);
+         this.isColuDust = isColuDust;
+      }
+
+      boolean isConfirmed() {
+         return output.height != -1;
+      }
+   }
+
+   private final BtcAccountBacking backing;
+   private final NetworkParameters network;
+   private final ColuDustClassifier classifier;
+   private final Map<OutPoint, Entry> entries = new HashMap<>();
+   // the unconfirmed entries, a subset of entries. Their balance depends on who sent them, which changes with
+   // the transactions we learn about, so it is determined when needed
+   private final Map<OutPoint, Entry> unconfirmed = new HashMap<>();
+   // the sum of all confirmed outputs that are not colored coin dust
+   private long confirmedValue;
+   private boolean isLoaded;
+   private boolean isInTransaction;
+   private boolean isTransactionSuccessful;
+
+   UtxoIndex(BtcAccountBacking backing, NetworkParameters network, ColuDustClassifier classifier) {
+      this.backing = backing;
+      this.network = network;
+      this.classifier = classifier;
+   }
+
+   synchronized Entry get(OutPoint outPoint) {
+      ensureLoaded();
+      return entries.get(outPoint);
+   }
+
+   synchronized boolean contains(OutPoint outPoint) {
+      ensureLoaded();
+      return entries.containsKey(outPoint);
+   }
+
+   synchronized List<Entry> getAll() {
+      ensureLoaded();
+      return new ArrayList<>(entries.values());
+   }
+
+   synchronized List<Entry> getUnconfirmed() {
+      ensureLoaded();
+      return new ArrayList<>(unconfirmed.values());
+   }
+
+   synchronized long getConfirmedValue() {
+      ensureLoaded();
+      return confirmedValue;
+   }
+
+   /**
+    * Adds or replaces the output. Call after putting it into the backing.
+    */
+   synchronized void put(TransactionOutputEx output) {
+      if (!isLoaded) {
+         // loading picks it up from the backing
+         return;
+      }
+      remove(output.outPoint);
+      add(new Entry(output, network, classifier.isColuDustOutput(output)));
+   }
+
+   /**
+    * Call after deleting the output from the backing.
+    */
+   synchronized void delete(OutPoint outPoint) {
+      if (isLoaded) {
+         remove(outPoint);
+      }
+   }
+
+   synchronized void beginTransaction() {
+      isInTransaction = true;
+      isTransactionSuccessful = false;
+   }
+
+   synchronized void setTransactionSuccessful() {
+      isTransactionSuccessful = true;
+   }
+
+   synchronized void endTransaction() {
+      if (isInTransaction && !isTransactionSuccessful) {
+         invalidate();
+      }
+      isInTransaction = false;
+   }
+
+   /**
+    * Drops the index, for example after the backing was cleared. It is loaded again on next use.
+    */
+   synchronized void invalidate() {
+      entries.clear();
+      unconfirmed.clear();
+      confirmedValue = 0;
+      isLoaded = false;
+   }
+
+   private void ensureLoaded() {
+      if (isLoaded) {
+         return;
+      }
+      Collection<TransactionOutputEx> outputs = backing.getAllUnspentOutputs();
+      for (TransactionOutputEx output : outputs) {
+         add(new Entry(output, network, classifier.isColuDustOutput(output)));
+      }
+      isLoaded = true;
+   }
+
+   private void add(Entry entry) {
+      entries.put(entry.output.outPoint, entry);
+      if (!entry.isConfirmed()) {
+         unconfirmed.put(entry.output.outPoint, entry);
+      } else if (!entry.isColuDust) {
+         confirmedValue += entry.output.value;
+      }
+   }
+
+   private void remove(OutPoint outPoint) {
+      Entry entry = entries.remove(outPoint);
+      if (entry == null) {
+         return;
+      }
+      if (!entry.isConfirmed()) {
+         unconfirmed.remove(outPoint);
+      } else if (!entry.isColuDust) {
+         confirmedValue -= entry.output.value;
+      }
+   }
+}
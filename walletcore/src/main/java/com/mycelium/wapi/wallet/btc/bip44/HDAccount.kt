@@ -8,12 +8,14 @@ import com.google.common.collect.ImmutableList
 import com.google.common.collect.Lists
 import com.mrd.bitlib.crypto.BipDerivationType
 import com.mrd.bitlib.crypto.BipDerivationType.Companion.getDerivationTypeByAddress
+import com.mrd.bitlib.crypto.BitcoinSigner
 import com.mrd.bitlib.crypto.InMemoryPrivateKey
 import com.mrd.bitlib.crypto.PublicKey
 import com.mrd.bitlib.model.*
 import com.mrd.bitlib.util.Sha256Hash
 import com.mycelium.wapi.api.Wapi
 import com.mycelium.wapi.api.WapiException
+import com.mycelium.wapi.api.request.QueryAddressStatusesRequest
 import com.mycelium.wapi.api.request.QueryTransactionInventoryRequest
 import com.mycelium.wapi.model.TransactionEx
 import com.mycelium.wapi.wallet.*
@@ -32,7 +34,8 @@ open class HDAccount(
         protected val backing: Bip44BtcAccountBacking,
         wapi: Wapi,
         protected val changeAddressModeReference: Reference<ChangeAddressMode>
-) : AbstractBtcAccount(backing, network, wapi), ExportableAccount, AddressesListProvider<BitcoinAddress> {
+) : AbstractBtcAccount(backing, network, wapi), ExportableAccount, AddressesListProvider<BitcoinAddress>,
+        AddressOwner {
 
     // Used to determine which bips this account support
     private val derivePaths = context.indexesMap.keys
@@ -42,6 +45,8 @@ open class HDAccount(
     private val safeLastExternalIndex: MutableMap<BipDerivationType, Int> = mutableMapOf()
     private val safeLastInternalIndex: MutableMap<BipDerivationType, Int> = mutableMapOf()
     private var receivingAddressMap: MutableMap<AddressType, BitcoinAddress> = mutableMapOf()
+    @Volatile
+    private var ownedAddressesListener: OwnedAddressesListener? = null
 
     // public method that needs no synchronization
     val accountIndex: Int
@@ -127,6 +132,7 @@ open class HDAccount(
 
     private fun clearInternalStateInt(isArchived: Boolean) {
         backing.clear()
+        invalidateUtxoIndex()
         externalAddresses = initAddressesMap()
         internalAddresses = initAddressesMap()
         receivingAddressMap.clear()
@@ -215,13 +221,20 @@ open class HDAccount(
             }
             addressMap = externalAddresses[derivationType]!!
         }
-        while (index >= 0) {
-            if (addressMap.inverse().containsKey(index)) {
-                return
-            }
-            addressMap[keyManagerMap[derivationType]!!.getAddress(isChangeChain, index)] = index
-            index--
+        // find the gap below the top of the look ahead window and derive it in one batch
+        var fromIndex = index
+        while (fromIndex >= 0 && !addressMap.inverse().containsKey(fromIndex)) {
+            fromIndex--
+        }
+        fromIndex++
+        if (fromIndex > index) {
+            return
         }
+        val newAddresses = keyManagerMap[derivationType]!!.getAddressRange(isChangeChain, fromIndex, index)
+        newAddresses.forEachIndexed { i, address ->
+            addressMap[address] = fromIndex + i
+        }
+        ownedAddressesListener?.addressesAdded(this, newAddresses.map { BtcAddress(coinType, it) })
     }
 
     private fun getAddressesToSync(mode: SyncMode): List<BitcoinAddress> {
@@ -238,7 +251,7 @@ open class HDAccount(
                             currentExternalAddressId + mode.mode.lookAhead, derivationType))
                     ensureAddressIndexes(boostedLookAhead = true)
                 }
-                SyncMode.Mode.FULL_SYNC -> {
+                SyncMode.Mode.FULL_SYNC, SyncMode.Mode.STATUS_SYNC -> {
                     // check the full change-chain and external-chain
                     addresses.addAll(getAddressRange(true, 0,
                             currentInternalAddressId + INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH, derivationType))
@@ -281,11 +294,7 @@ open class HDAccount(
     protected fun getAddressRange(isChangeChain: Boolean, fromIndex: Int, toIndex: Int,
                                   derivationType: BipDerivationType): List<BitcoinAddress> {
         val clippedFromIndex = Math.max(0, fromIndex) // clip at zero
-        val ret = ArrayList<BitcoinAddress>(toIndex - clippedFromIndex + 1)
-        for (i in clippedFromIndex..toIndex) {
-            ret.add(keyManagerMap[derivationType]!!.getAddress(isChangeChain, i))
-        }
-        return ret
+        return keyManagerMap[derivationType]!!.getAddressRange(isChangeChain, clippedFromIndex, toIndex)
     }
 
     @Synchronized
@@ -411,13 +420,26 @@ open class HDAccount(
     private fun updateUnspentOutputs(mode: SyncMode): Boolean {
         var checkAddresses = getAddressesToSync(mode)
 
-        val newUtxos = synchronizeUnspentOutputs(checkAddresses)
+        // A full sync records the statuses of all addresses, which also subscribes to their changes.
+        // A status sync then only has to look at the addresses whose status changed since
+        val statuses = if (mode.mode == SyncMode.Mode.FULL_SYNC || mode.mode == SyncMode.Mode.STATUS_SYNC) {
+            queryAddressStatuses(checkAddresses)
+        } else {
+            null
+        }
+        if (mode.mode == SyncMode.Mode.STATUS_SYNC && statuses != null) {
+            val knownStatuses = backing.addressStatuses
+            checkAddresses = checkAddresses.filter { statuses[it] == null || statuses[it] != knownStatuses[it] }
+        }
+
+        val newUtxos = if (checkAddresses.isEmpty()) 0 else synchronizeUnspentOutputs(checkAddresses)
 
         if (newUtxos == -1) {
             return false
         }
 
-        if (newUtxos > 0 && mode.mode != SyncMode.Mode.FULL_SYNC) {
+        // a status sync has seen all addresses of a full sync, so there is nothing left to check
+        if (newUtxos > 0 && mode.mode != SyncMode.Mode.FULL_SYNC && mode.mode != SyncMode.Mode.STATUS_SYNC) {
             // we got new UTXOs but did not made a full sync. The UTXO might be coming
             // from change outputs spending from addresses we are currently not checking
             // -> rerun the synchronizeUnspentOutputs for a FULL_SYNC
@@ -437,19 +459,30 @@ open class HDAccount(
 
         updateLocalBalance()
 
+        // stored only once the changed addresses are synced, so a failed sync is repeated next time
+        statuses?.let { backing.putAddressStatuses(it) }
         context.persistIfNecessary(backing)
         return true
     }
 
+    /**
+     * @return the statuses of the addresses, or null if the server can't tell them, in which case all addresses
+     * have to be synced
+     */
+    private fun queryAddressStatuses(addresses: List<BitcoinAddress>): Map<BitcoinAddress, String>? = try {
+        val result = _wapi.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, addresses)).result
+        blockChainHeight = result.height
+        result.statuses
+    } catch (e: WapiException) {
+        _logger.log(Level.INFO, "Address statuses not available, error code: ${e.errorCode}")
+        null
+    }
+
     private fun tightenInternalAddressScanRange() {
         // Find the lowest internal index at which we have an unspent output
-        val unspent = backing.allUnspentOutputs
         val minInternalIndexesMap = mutableMapOf<BipDerivationType, Int>()
         derivePaths.associateByTo(minInternalIndexesMap, { it }, { Int.MAX_VALUE })
-        for (output in unspent) {
-            val outputScript = ScriptOutput.fromScriptBytes(output.script)
-                    ?: continue // never happens, we have parsed it before
-            val address = outputScript.getAddress(_network)
+        for (address in unspentOutputAddresses) {
             val derivationType = getDerivationTypeByAddress(address)
             val index = internalAddresses[derivationType]!![address]
                     ?: continue
@@ -607,6 +640,55 @@ open class HDAccount(
         }
     }
 
+    override fun createPrivateKeyRing(cipher: KeyCipher): PrivateKeyRing = SigningSessionKeyRing(cipher)
+
+    /**
+     * Decrypts the private chain roots once per transaction instead of once per input, and derives all keys of the
+     * transaction up front.
+     */
+    private inner class SigningSessionKeyRing(private val cipher: KeyCipher) : PrivateKeyRing(cipher) {
+        private val sessions = mutableMapOf<BipDerivationType, HDAccountKeyManager.SigningSession>()
+
+        @Throws(InvalidKeyCipher::class)
+        override fun prepare(publicKeys: Collection<PublicKey>) {
+            publicKeys.mapNotNull { findKeyIndex(it) }
+                    .groupBy({ Pair(it.first, it.second.isChange) }, { it.second.index!! })
+                    .forEach { (chain, indexes) -> getSession(chain.first).deriveKeys(chain.second, indexes) }
+        }
+
+        override fun findSignerByPublicKey(publicKey: PublicKey): BitcoinSigner {
+            val (derivationType, indexLookUp) = findKeyIndex(publicKey)
+                    ?: throw RuntimeException("Unable to find private key for public key $publicKey")
+            try {
+                return getSession(derivationType).getPrivateKey(indexLookUp.isChange, indexLookUp.index!!)
+            } catch (e: InvalidKeyCipher) {
+                throw RuntimeException("Unable to decrypt private key for public key $publicKey")
+            }
+        }
+
+        override fun close() {
+            sessions.values.forEach { it.close() }
+            sessions.clear()
+        }
+
+        @Throws(InvalidKeyCipher::class)
+        private fun getSession(derivationType: BipDerivationType) = sessions.getOrPut(derivationType) {
+            keyManagerMap[derivationType]!!.openSigningSession(cipher)
+        }
+    }
+
+    // Looks up the key of the public key the same way getPrivateKey(PublicKey, KeyCipher) does
+    private fun findKeyIndex(publicKey: PublicKey): Pair<BipDerivationType, IndexLookUp>? {
+        for (address in publicKey.getAllSupportedAddresses(_network).values) {
+            if (!availableAddressTypes.contains(address.type)) {
+                continue
+            }
+            val derivationType = getDerivationTypeByAddress(address)
+            return Pair(derivationType, getIndexLookup(address, derivationType) ?: continue)
+        }
+        return null
+    }
+
     override fun getPublicKeyForAddress(address: BitcoinAddress): PublicKey? {
         val derivationType = getDerivationTypeByAddress(address)
         if (!availableAddressTypes.contains(address.type)) {
@@ -753,6 +835,15 @@ open class HDAccount(
 
     override fun addressesList(): List<BitcoinAddress> = allAddresses
 
+    @Synchronized
+    override fun getOwnedAddresses(): Collection<Address> = derivePaths.flatMap { derivationType ->
+        (externalAddresses[derivationType]!!.keys + internalAddresses[derivationType]!!.keys).map { BtcAddress(coinType, it) }
+    }
+
+    override fun setOwnedAddressesListener(listener: OwnedAddressesListener?) {
+        ownedAddressesListener = listener
+    }
+
     companion object {
         const val EXTERNAL_BOOSTED_ADDRESS_LOOK_AHEAD_LENGTH = 200
         const val EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH = 20
@@ -0,0 +1,124 @@
+package com.mycelium.wapi.wallet.btc.bip44
+
+import com.mrd.bitlib.crypto.BipDerivationType
+import com.mrd.bitlib.crypto.HdKeyNode
+import com.mrd.bitlib.model.BitcoinAddress
+import com.mrd.bitlib.model.NetworkParameters
+import com.mycelium.wapi.api.Wapi
+import com.mycelium.wapi.api.WapiException
+import com.mycelium.wapi.api.request.QueryAddressStatusesRequest
+import com.mycelium.wapi.api.response.QueryAddressStatusesResponse
+import com.mycelium.wapi.wallet.btc.bip44.HDAccount.Companion.EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH
+import com.mycelium.wapi.wallet.btc.bip44.HDAccount.Companion.INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Finds out which HD accounts were used before they are created, for many account indexes and derivation types at
+ * once.
+ *
+ * Every branch, an account index with a derivation type, is checked on the look ahead window an [HDAccount] would
+ * discover first: the account root and the window addresses of all branches are derived concurrently on the
+ * executor, and the statuses of all their addresses are asked for in one request. A branch stops as soon as its window
+ * shows whether it was used, as an unused window is the gap limit.
+ */
+class HDAccountDiscovery(private val wapi: Wapi,
+                         private val network: NetworkParameters,
+                         private val executor: ExecutorService) {
+    /**
+     * @param accountRoot derives the public account root, null if it can't. Called on the executor
+     */
+    class Branch(val accountIndex: Int, val derivationType: BipDerivationType, val accountRoot: () -> HdKeyNode?)
+
+    enum class Activity {
+        USED, UNUSED,
+        // the root could not be derived or the server could not tell, so the account has to be synced to know
+        UNKNOWN
+    }
+
+    class Result(val activity: Activity, val accountRoot: HdKeyNode?)
+
+    /**
+     * How much was done since the discovery was created. Only updated by the thread calling [findActivity].
+     */
+    class Stats {
+        private val startTime = System.currentTimeMillis()
+        var branches = 0
+            internal set
+        var addresses = 0
+            internal set
+        var requests = 0
+            internal set
+
+        val elapsedMs: Long
+            get() = System.currentTimeMillis() - startTime
+
+        val addressesPerSecond: Double
+            get() = addresses * 1000.0 / Math.max(1, elapsedMs)
+
+        override fun toString() =
+                "$branches branches, $addresses addresses in $requests requests, ${elapsedMs}ms, " +
+                        "${"%.1f".format(addressesPerSecond)} addresses/s"
+    }
+
+    private class Window(val accountRoot: HdKeyNode, val addresses: List<BitcoinAddress>)
+
+    val stats = Stats()
+
+    /**
+     * @return the activity of each branch, in the order of the branches
+     */
+    fun findActivity(branches: List<Branch>): List<Result> {
+        val derivations = branches.map { branch -> executor.submit(Callable { deriveWindow(branch) }) }
+        val windows = derivations.map { derivation ->
+            try {
+                derivation.get()
+            } catch (e: ExecutionException) {
+                logger.log(Level.WARNING, "Unable to derive the look ahead window", e.cause)
+                null
+            }
+        }
+        val addresses = windows.filterNotNull().flatMap { it.addresses }
+        val statuses = if (addresses.isEmpty()) emptyMap() else queryAddressStatuses(addresses)
+        stats.branches += branches.size
+        stats.addresses += addresses.size
+        return windows.map { window ->
+            when {
+                window == null -> Result(Activity.UNKNOWN, null)
+                statuses == null || window.addresses.any { statuses[it] == null } ->
+                    Result(Activity.UNKNOWN, window.accountRoot)
+                window.addresses.any { statuses[it] != QueryAddressStatusesResponse.NO_HISTORY } ->
+                    Result(Activity.USED, window.accountRoot)
+                else -> Result(Activity.UNUSED, window.accountRoot)
+            }
+        }
+    }
+
+    private fun deriveWindow(branch: Branch): Window? {
+        val accountRoot = branch.accountRoot() ?: return null
+        // the same windows an HDAccount discovers first. The chains are derived one after the other on this thread,
+        // the branches are what runs in parallel
+        val addresses = listOf(0 to EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH, 1 to INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH)
+                .flatMap { (chain, lookAhead) ->
+                    accountRoot.createChildNode(chain).derivePublicChildrenRange(0, lookAhead - 1)
+                            .map { it.publicKey.toAddress(network, branch.derivationType.addressType) }
+                }
+        return Window(accountRoot, addresses)
+    }
+
+    private fun queryAddressStatuses(addresses: List<BitcoinAddress>): Map<BitcoinAddress, String>? = try {
+        stats.requests++
+        // most of the scanned addresses belong to no account, so they are looked up without subscribing
+        wapi.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, addresses, false)).result.statuses
+    } catch (e: WapiException) {
+        logger.log(Level.INFO, "Address statuses not available, error code: ${e.errorCode}")
+        null
+    }
+
+    companion object {
+        private val logger = Logger.getLogger(HDAccountDiscovery::class.java.simpleName)
+    }
+}
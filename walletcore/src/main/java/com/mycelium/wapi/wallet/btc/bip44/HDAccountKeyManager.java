@@ -17,6 +17,7 @@
 package com.mycelium.wapi.wallet.btc.bip44;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.mrd.bitlib.crypto.BipDerivationType;
 import com.mrd.bitlib.crypto.HdKeyNode;
 import com.mrd.bitlib.crypto.InMemoryPrivateKey;
@@ -32,7 +33,21 @@ import com.mycelium.wapi.wallet.SecureKeyValueStore;
 import com.mycelium.wapi.wallet.SecureSubKeyValueStore;
 import kotlin.NotImplementedError;
 
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Management functions for keys associated with a BIP44 account.
@@ -50,6 +65,22 @@ import java.util.UUID;
 public class HDAccountKeyManager {
    protected static final int BIP44_PRODNET_COIN_TYPE = 0x80000000;
    protected static final int BIP44_TESTNET_COIN_TYPE = 0x80000001;
+   // derive ranges of at least this many addresses on several threads, as happens with boosted look ahead
+   private static final int PARALLEL_DERIVATION_THRESHOLD = 64;
+   // derive the keys for signing on several threads from this many keys on
+   private static final int PARALLEL_SIGNING_KEYS_THRESHOLD = 16;
+
+   private static class DerivationExecutorHolder {
+      private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "HD key derivation");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+   }
    protected int _accountIndex;
    protected final SecureKeyValueStore _secureKeyValueStore;
 
@@ -152,6 +183,127 @@ public class HDAccountKeyManager {
       return chainNode.createChildPrivateKey(index);
    }
 
+   /**
+    * Open a session for getting many private keys of this account, as needed for signing a transaction with many
+    * inputs. Both private chain roots are decrypted once when the session is opened instead of once per key.
+    * <p/>
+    * The session holds decrypted key material until it is closed, so close it as soon as signing is done.
+    */
+   public SigningSession openSigningSession(KeyCipher cipher) throws KeyCipher.InvalidKeyCipher {
+      List<byte[]> chainNodeBytes = _secureKeyValueStore.getDecryptedValues(Arrays.asList(
+            getChainNodeId(_network, _accountIndex, false, derivationType),
+            getChainNodeId(_network, _accountIndex, true, derivationType)), cipher);
+      try {
+         return new SigningSession(HdKeyNode.fromCustomByteformat(chainNodeBytes.get(0)),
+               HdKeyNode.fromCustomByteformat(chainNodeBytes.get(1)));
+      } catch (ByteReader.InsufficientBytesException e) {
+         throw new RuntimeException(e);
+      } finally {
+         for (byte[] bytes : chainNodeBytes) {
+            // null if the chain root is not stored
+            if (bytes != null) {
+               Arrays.fill(bytes, (byte) 0);
+            }
+         }
+      }
+   }
+
+   /**
+    * Derives private keys from the decrypted chain roots of the account and keeps them until the session is closed.
+    * Not thread safe.
+    */
+   public static class SigningSession implements Closeable {
+      private HdKeyNode externalChainRoot;
+      private HdKeyNode changeChainRoot;
+      private final Map<Integer, InMemoryPrivateKey> externalKeys = new HashMap<>();
+      private final Map<Integer, InMemoryPrivateKey> changeKeys = new HashMap<>();
+
+      private SigningSession(HdKeyNode externalChainRoot, HdKeyNode changeChainRoot) {
+         this.externalChainRoot = externalChainRoot;
+         this.changeChainRoot = changeChainRoot;
+      }
+
+      public InMemoryPrivateKey getPrivateKey(boolean isChangeChain, int index) {
+         Map<Integer, InMemoryPrivateKey> keys = isChangeChain ? changeKeys : externalKeys;
+         InMemoryPrivateKey key = keys.get(index);
+         if (key == null) {
+            key = getChainRoot(isChangeChain).createChildPrivateKey(index);
+            keys.put(index, key);
+         }
+         return key;
+      }
+
+      /**
+       * Derive the private keys for the given indexes of a chain in advance, on several threads if there are many.
+       */
+      public void deriveKeys(boolean isChangeChain, Collection<Integer> indexes) {
+         final HdKeyNode chainRoot = getChainRoot(isChangeChain);
+         Map<Integer, InMemoryPrivateKey> keys = isChangeChain ? changeKeys : externalKeys;
+         List<Integer> missing = new ArrayList<>();
+         for (Integer index : new HashSet<>(indexes)) {
+            if (!keys.containsKey(index)) {
+               missing.add(index);
+            }
+         }
+         if (missing.size() < PARALLEL_SIGNING_KEYS_THRESHOLD) {
+            for (int index : missing) {
+               keys.put(index, chainRoot.createChildPrivateKey(index));
+            }
+            return;
+         }
+         int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+         List<Future<List<InMemoryPrivateKey>>> futures = new ArrayList<>();
+         final List<List<Integer>> chunks = Lists.partition(missing, (missing.size() + threads - 1) / threads);
+         for (final List<Integer> chunk : chunks) {
+            futures.add(DerivationExecutorHolder.EXECUTOR.submit(new Callable<List<InMemoryPrivateKey>>() {
+               @Override
+               public List<InMemoryPrivateKey> call() {
+                  List<InMemoryPrivateKey> chunkKeys = new ArrayList<>(chunk.size());
+                  for (int index : chunk) {
+                     chunkKeys.add(chainRoot.createChildPrivateKey(index));
+                  }
+                  return chunkKeys;
+               }
+            }));
+         }
+         try {
+            for (int i = 0; i < chunks.size(); i++) {
+               List<InMemoryPrivateKey> chunkKeys = futures.get(i).get();
+               for (int j = 0; j < chunkKeys.size(); j++) {
+                  keys.put(chunks.get(i).get(j), chunkKeys.get(j));
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HdKeyNode.KeyGenerationException("Interrupted while deriving keys");
+         } catch (ExecutionException e) {
+            if (e.getCause() instanceof HdKeyNode.KeyGenerationException) {
+               throw (HdKeyNode.KeyGenerationException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+         }
+      }
+
+      /**
+       * Drops the chain roots and all derived keys. The session can't be used afterwards.
+       */
+      @Override
+      public void close() {
+         externalChainRoot = null;
+         changeChainRoot = null;
+         externalKeys.clear();
+         changeKeys.clear();
+      }
+
+      private HdKeyNode getChainRoot(boolean isChangeChain) {
+         HdKeyNode chainRoot = isChangeChain ? changeChainRoot : externalChainRoot;
+         if (chainRoot == null) {
+            throw new IllegalStateException("Signing session is closed");
+         }
+         return chainRoot;
+      }
+   }
+
    public PublicKey getPublicKey(boolean isChangeChain, int index) {
       // See if we have it in the store
       byte[] id = getLeafNodeId(_network, _accountIndex, isChangeChain, index, true, derivationType);
@@ -179,6 +331,80 @@ public class HDAccountKeyManager {
       // See if we have it in the store
       byte[] id = getLeafNodeId(_network, _accountIndex, isChangeChain, index, false, derivationType);
       byte[] addressNodeBytes = _secureKeyValueStore.getPlaintextValue(id);
+      final HdKeyPath path = getAddressPath(isChangeChain, index);
+
+      if (addressNodeBytes != null) {
+         // We have it already, no need to calculate it
+         return bytesToAddress(addressNodeBytes, path);
+      }
+
+      // We don't have it, need to calculate it from the public key
+      PublicKey publicKey = getPublicKey(isChangeChain, index);
+      return createAndStoreAddress(publicKey, id, path);
+   }
+
+   /**
+    * Get the addresses for a range of indexes. Addresses that are not in the store yet are derived from the
+    * public chain root in one batch, which is much cheaper than deriving them one by one.
+    *
+    * @param fromIndex the first index, inclusive
+    * @param toIndex   the last index, inclusive
+    * @return the addresses ordered by index
+    */
+   public List<BitcoinAddress> getAddressRange(boolean isChangeChain, int fromIndex, int toIndex) {
+      int count = toIndex - fromIndex + 1;
+      if (count <= 0) {
+         return new ArrayList<>();
+      }
+      BitcoinAddress[] addresses = new BitcoinAddress[count];
+      int firstMissing = -1;
+      int lastMissing = -1;
+      for (int i = 0; i < count; i++) {
+         int index = fromIndex + i;
+         byte[] id = getLeafNodeId(_network, _accountIndex, isChangeChain, index, false, derivationType);
+         byte[] addressNodeBytes = _secureKeyValueStore.getPlaintextValue(id);
+         if (addressNodeBytes != null) {
+            addresses[i] = bytesToAddress(addressNodeBytes, getAddressPath(isChangeChain, index));
+         } else {
+            if (firstMissing == -1) {
+               firstMissing = index;
+            }
+            lastMissing = index;
+         }
+      }
+
+      if (firstMissing != -1) {
+         HdKeyNode chainNode = isChangeChain ? _publicChangeChainRoot : _publicExternalChainRoot;
+         ExecutorService executor = lastMissing - firstMissing + 1 >= PARALLEL_DERIVATION_THRESHOLD
+               ? DerivationExecutorHolder.EXECUTOR : null;
+         List<HdKeyNode> leafNodes = chainNode.deriveChildrenRange(firstMissing, lastMissing, false, executor);
+         for (HdKeyNode publicLeafNode : leafNodes) {
+            int index = publicLeafNode.getIndex();
+            if (addresses[index - fromIndex] != null) {
+               continue;
+            }
+            byte[] nodeId = getLeafNodeId(_network, _accountIndex, isChangeChain, index, true, derivationType);
+            if (_secureKeyValueStore.getPlaintextValue(nodeId) == null) {
+               _secureKeyValueStore.storePlaintextValue(nodeId, publicLeafNode.toCustomByteFormat());
+            }
+            byte[] id = getLeafNodeId(_network, _accountIndex, isChangeChain, index, false, derivationType);
+            addresses[index - fromIndex] = createAndStoreAddress(publicLeafNode.getPublicKey(), id,
+                  getAddressPath(isChangeChain, index));
+         }
+      }
+      return Arrays.asList(addresses);
+   }
+
+   private BitcoinAddress createAndStoreAddress(PublicKey publicKey, byte[] id, HdKeyPath path) {
+      BitcoinAddress address = publicKey.toAddress(_network, derivationType.getAddressType());
+      address.setBip32Path(path);
+
+      // Store it for next time
+      _secureKeyValueStore.storePlaintextValue(id, addressToBytes(address));
+      return address;
+   }
+
+   private HdKeyPath getAddressPath(boolean isChangeChain, int index) {
       HdKeyPath purpose;
       switch (derivationType) {
          case BIP44:
@@ -194,25 +420,11 @@ public class HDAccountKeyManager {
             throw new NotImplementedError();
       }
 
-      final HdKeyPath path = purpose
+      return purpose
             .getCoinTypeBitcoin(_network.isTestnet())
             .getAccount(_accountIndex)
             .getChain(!isChangeChain)
             .getAddress(index);
-
-      if (addressNodeBytes != null) {
-         // We have it already, no need to calculate it
-         return bytesToAddress(addressNodeBytes, path);
-      }
-
-      // We don't have it, need to calculate it from the public key
-      PublicKey publicKey = getPublicKey(isChangeChain, index);
-      BitcoinAddress address = publicKey.toAddress(_network, derivationType.getAddressType());
-      address.setBip32Path(path);
-
-      // Store it for next time
-      _secureKeyValueStore.storePlaintextValue(id, addressToBytes(address));
-      return address;
    }
 
    public BipDerivationType getDerivationType() {
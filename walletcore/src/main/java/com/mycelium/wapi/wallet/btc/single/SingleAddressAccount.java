@@ -33,16 +33,20 @@ import com.mycelium.wapi.api.response.GetTransactionsResponse;
 import com.mycelium.wapi.api.response.QueryTransactionInventoryResponse;
 import com.mycelium.wapi.model.BalanceSatoshis;
 import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.wallet.Address;
+import com.mycelium.wapi.wallet.AddressOwner;
 import com.mycelium.wapi.wallet.AesKeyCipher;
 import com.mycelium.wapi.wallet.BroadcastResult;
 import com.mycelium.wapi.wallet.ExportableAccount;
 import com.mycelium.wapi.wallet.Transaction;
 import com.mycelium.wapi.wallet.KeyCipher;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
+import com.mycelium.wapi.wallet.OwnedAddressesListener;
 import com.mycelium.wapi.wallet.SingleAddressBtcAccountBacking;
 import com.mycelium.wapi.wallet.SyncMode;
 import com.mycelium.wapi.wallet.WalletManager.Event;
 import com.mycelium.wapi.wallet.btc.AbstractBtcAccount;
+import com.mycelium.wapi.wallet.btc.BtcAddress;
 import com.mycelium.wapi.wallet.btc.BtcTransaction;
 import com.mycelium.wapi.wallet.btc.ChangeAddressMode;
 import com.mycelium.wapi.wallet.btc.Reference;
@@ -60,7 +64,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 
-public class SingleAddressAccount extends AbstractBtcAccount implements ExportableAccount {
+public class SingleAddressAccount extends AbstractBtcAccount implements ExportableAccount, AddressOwner {
    private SingleAddressAccountContext _context;
    private List<BitcoinAddress> _addressList;
    private PublicPrivateKeyStore _keyStore;
@@ -161,6 +165,7 @@ public class SingleAddressAccount extends AbstractBtcAccount implements Exportab
 
    private void clearInternalStateInt(boolean isArchived) {
       _backing.clear();
+      invalidateUtxoIndex();
       _context = new SingleAddressAccountContext(_context.getId(), _context.getAddresses(), isArchived, 0,
               _context.getDefaultAddressType());
       _context.persist(_backing);
@@ -294,6 +299,21 @@ public class SingleAddressAccount extends AbstractBtcAccount implements Exportab
       return _addressList.contains(address);
    }
 
+   @NotNull
+   @Override
+   public Collection<Address> getOwnedAddresses() {
+      List<Address> addresses = new ArrayList<>(_addressList.size());
+      for (BitcoinAddress address : _addressList) {
+         addresses.add(new BtcAddress(getCoinType(), address));
+      }
+      return addresses;
+   }
+
+   @Override
+   public void setOwnedAddressesListener(OwnedAddressesListener listener) {
+      // the addresses never change
+   }
+
    @Override
    public int getBlockChainHeight() {
       checkNotArchived();
@@ -24,7 +24,6 @@ import com.mrd.bitlib.UnsignedTransaction
 import com.mrd.bitlib.crypto.*
 import com.mrd.bitlib.model.*
 import com.mrd.bitlib.util.ByteReader
-import com.mrd.bitlib.util.HashUtils
 import com.mrd.bitlib.util.HexUtils
 import com.mrd.bitlib.util.Sha256Hash
 import com.mycelium.wapi.api.Wapi
@@ -137,8 +136,9 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
      * addresses
      */
     protected fun isFromMe(txid: Sha256Hash?): Boolean {
-        val t = TransactionEx.toTransaction(accountBacking.getTransaction(txid))
-        return t != null && isFromMe(t)
+        // only the out points are needed, the inputs are not decoded
+        val t = TransactionEx.toTransactionView(accountBacking.getTransaction(txid)) ?: return false
+        return (0 until t.inputCount).any { isFundedByMe(t.getOutPoint(it)) }
     }
 
     /**
@@ -152,19 +152,15 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
      * @return true iff one of the funding outputs were sent from one of our own
      * addresses
      */
-    protected fun isFromMe(t: BitcoinTransaction): Boolean {
-        for (input in t.inputs) {
-            val funding = accountBacking.getParentTransactionOutput(input.outPoint)
-            if (funding == null || funding.isCoinBase) {
-                continue
-            }
-            val fundingScript = ScriptOutput.fromScriptBytes(funding.script)
-            val fundingAddress = toBtcvAddress(fundingScript.getAddress(network))
-            if (isMineAddress(fundingAddress)) {
-                return true;
-            }
+    protected fun isFromMe(t: BitcoinTransaction): Boolean = t.inputs.any { isFundedByMe(it.outPoint) }
+
+    private fun isFundedByMe(outPoint: OutPoint): Boolean {
+        val funding = accountBacking.getParentTransactionOutput(outPoint)
+        if (funding == null || funding.isCoinBase) {
+            return false
         }
-        return false
+        val fundingScript = ScriptOutput.fromScriptBytes(funding.script)
+        return isMineAddress(toBtcvAddress(fundingScript.getAddress(network)))
     }
 
     /**
@@ -236,13 +232,14 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
                 // Start of the hack to prevent actual local data removal if server still didn't process just sent tx
                 youngTransactions@ for (transactionEx in accountBacking.getTransactionsSince(System.currentTimeMillis() -
                         TimeUnit.SECONDS.toMillis(15))) {
-                    var output: TransactionOutputEx
-                    var i = 0
-                    while (TransactionEx.getTransactionOutput(transactionEx, i++).also { output = it } != null) {
-                        if (output == l && !accountBacking.hasParentTransactionOutput(l.outPoint)) {
-                            removeLocally = false
-                            break@youngTransactions
-                        }
+                    if (transactionEx.txid != l.outPoint.txid) {
+                        continue
+                    }
+                    val view = TransactionEx.toTransactionView(transactionEx)
+                    if (view != null && l.outPoint.index in 0 until view.outputCount
+                            && !accountBacking.hasParentTransactionOutput(l.outPoint)) {
+                        removeLocally = false
+                        break@youngTransactions
                     }
                 }
                 // End of hack
@@ -385,106 +382,7 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
 
     @Throws(WapiException::class)
     fun fetchStoreAndValidateParentOutputs(transactions: List<BitcoinTransaction>, doRemoteFetching: Boolean) {
-        val parentTransactions = hashMapOf<Sha256Hash, TransactionEx>()
-        val parentOutputs = hashMapOf<OutPoint, TransactionOutputEx>()
-
-        // Find list of parent outputs to fetch
-        val toFetch = hashSetOf<Sha256Hash>()
-        for (t in transactions) {
-            for (`in` in t.inputs) {
-                if (`in`.outPoint.txid == OutPoint.COINBASE_OUTPOINT.txid) {
-                    // Coinbase input, so no parent
-                    continue
-                }
-                val parentOutput = accountBacking.getParentTransactionOutput(`in`.outPoint)
-                if (parentOutput != null) {
-                    // We already have the parent output, no need to fetch the entire
-                    // parent transaction
-                    parentOutputs[parentOutput.outPoint] = parentOutput
-                    continue
-                }
-                var parentTransaction = accountBacking.getTransaction(`in`.outPoint.txid)
-                if (parentTransaction == null) {
-                    // Check current transactions list for parents
-                    for (transaction in transactions) {
-                        if (transaction.id == `in`.outPoint.txid) {
-                            parentTransaction = TransactionEx.fromUnconfirmedTransaction(transaction)
-                            break
-                        }
-                    }
-                }
-                if (parentTransaction != null) {
-                    // We had the parent transaction in our own transactions, no need to
-                    // fetch it remotely
-                    parentTransactions[parentTransaction.txid] = parentTransaction
-                } else if (doRemoteFetching) {
-                    // Need to fetch it
-                    toFetch.add(`in`.outPoint.txid)
-                }
-            }
-        }
-
-        // Fetch missing parent transactions
-        if (toFetch.isNotEmpty()) {
-            val result = getTransactionsBatched(toFetch).result
-            for (tx in result.transactions) {
-                // Verify transaction hash. This is important as we don't want to
-                // have a transaction output associated with an outpoint that
-                // doesn't match.
-                // This is the end users protection against a rogue server that lies
-                // about the value of an output and makes you pay a large fee.
-                val hash = HashUtils.doubleSha256(tx.binary).reverse()
-                if (hash == tx.hash) {
-                    parentTransactions[tx.txid] = tx
-                } else {
-                    //TODO: Document what's happening here.
-                    //Question: Crash and burn? Really? How about user feedback? Here, wapi returned a transaction that doesn't hash to the txid it is supposed to txhash to, right?
-                    throw RuntimeException("Failed to validate transaction hash from server. Expected: " + tx.txid
-                            + " Calculated: " + hash)
-                }
-            }
-        }
-
-        // We should now have all parent transactions or parent outputs. There is
-        // a slight probability that one of them was not found due to double
-        // spends and/or malleability and network latency etc.
-
-        // Now figure out which parent outputs we need to persist
-        val toPersist: MutableList<TransactionOutputEx?> = LinkedList()
-        for (t in transactions) {
-            for (`in` in t.inputs) {
-                if (`in`.outPoint.txid == OutPoint.COINBASE_OUTPOINT.txid) {
-                    // coinbase input, so no parent
-                    continue
-                }
-                var parentOutput = parentOutputs[`in`.outPoint]
-                if (parentOutput != null) {
-                    // We had it all along
-                    continue
-                }
-                val parentTex = parentTransactions[`in`.outPoint.txid]
-                if (parentTex != null) {
-                    // Parent output not found, maybe we already have it
-                    parentOutput = TransactionEx.getTransactionOutput(parentTex, `in`.outPoint.index)
-                    toPersist.add(parentOutput)
-                }
-            }
-        }
-
-        // Persist
-        if (toPersist.size <= MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY) {
-            accountBacking.putParentTransactionOuputs(toPersist)
-        } else {
-            // We have quite a list of transactions to handle, do it in batches
-            val all = ArrayList(toPersist)
-            var i = 0
-            while (i < all.size) {
-                val endIndex = Math.min(all.size, i + MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY)
-                val sub: List<TransactionOutputEx?> = all.subList(i, endIndex)
-                accountBacking.putParentTransactionOuputs(sub)
-                i += MAX_TRANSACTIONS_TO_HANDLE_SIMULTANEOUSLY
-            }
-        }
+        ParentOutputsFetcher(accountBacking, wapi).fetchStoreAndValidate(transactions, doRemoteFetching)
     }
 
     protected fun calculateLocalBalance(): BalanceSatoshis {
@@ -515,28 +413,22 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
         // Determine the value we are sending
         //
 
-        // Get the current set of unconfirmed transactions
-        val unconfirmed: MutableList<BitcoinTransaction> = ArrayList()
-        for (tex in accountBacking.unconfirmedTransactions) {
-            try {
-                val t = BitcoinTransaction.fromByteReader(ByteReader(tex.binary))
-                unconfirmed.add(t)
-            } catch (e: BitcoinTransaction.TransactionParsingException) {
-                // never happens, we have parsed it before
-            }
-        }
+        // Get the current set of unconfirmed transactions. Only the out points and the output scripts are needed, so
+        // views are enough. null never happens, we have parsed them before
+        val unconfirmed = accountBacking.unconfirmedTransactions.mapNotNull { TransactionEx.toTransactionView(it) }
         for (t in unconfirmed) {
             // For each input figure out if WE are sending it by fetching the
             // parent transaction and looking at the address
             var weSend = false
-            for (input in t.inputs) {
+            for (j in 0 until t.inputCount) {
+                val inputOutPoint = t.getOutPoint(j)
                 // Find the parent transaction
-                if (input.outPoint.txid == Sha256Hash.ZERO_HASH) {
+                if (inputOutPoint.txid == Sha256Hash.ZERO_HASH) {
                     continue
                 }
-                val parent = accountBacking.getParentTransactionOutput(input.outPoint)
+                val parent = accountBacking.getParentTransactionOutput(inputOutPoint)
                 if (parent == null) {
-                    logger.log(Level.SEVERE, "Unable to find parent transaction output: " + input.outPoint)
+                    logger.log(Level.SEVERE, "Unable to find parent transaction output: $inputOutPoint")
                     continue
                 }
                 val parentOutput = transform(parent)
@@ -550,8 +442,8 @@ abstract class AbstractBtcvAccount protected constructor(val accountBacking: Btc
 
             // Now look at the outputs and if it contains change for us, then subtract that from the sending amount
             // if it is already spent in another transaction
-            for (i in t.outputs.indices) {
-                val output = t.outputs[i]
+            for (i in 0 until t.outputCount) {
+                val output = t.getOutput(i)
                 val destination = output.script.getAddress(network)
                 if (weSend && isMineAddress(toBtcvAddress(destination))) {
                     // The funds are sent from us to us
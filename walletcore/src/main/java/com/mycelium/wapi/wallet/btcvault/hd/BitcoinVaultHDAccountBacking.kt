@@ -1,11 +1,13 @@
 package com.mycelium.wapi.wallet.btcvault.hd
 
+import com.mrd.bitlib.model.BitcoinAddress
 import com.mrd.bitlib.model.OutPoint
 import com.mrd.bitlib.util.Sha256Hash
 import com.mycelium.generated.wallet.database.WalletDB
 import com.mycelium.wapi.model.TransactionEx
 import com.mycelium.wapi.model.TransactionOutputEx
 import com.mycelium.wapi.wallet.btc.BtcAccountBacking
+import com.mycelium.wapi.wallet.btc.TransactionSummaryRecord
 import java.util.*
 
 
@@ -19,6 +21,7 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
     private val ptxoQueries = walletDB.bTCVPtxoQueries
     private val refersPtxoQueries = walletDB.bTCVRefersPtxoQueries
     private val outTxoQueries = walletDB.bTCVOutgoingTxQueries
+    private val addressStatusQueries = walletDB.bTCVAddressStatusQueries
 
     fun updateAccountContext(context: BitcoinVaultHDAccountContext) {
         walletDB.transaction {
@@ -45,6 +48,7 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
         txQueries.deleteTransactions(uuid)
         outTxoQueries.deleteAll(uuid)
         refersPtxoQueries.deleteAll(uuid)
+        addressStatusQueries.deleteStatuses(uuid)
     }
 
     override fun getAllUnspentOutputs(): Collection<TransactionOutputEx> =
@@ -98,6 +102,18 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
                 TransactionOutputEx(outPoint, height, value, script, isCoinbase)
             }).executeAsOneOrNull()
 
+    override fun getParentTransactionOutputs(outPoints: Collection<OutPoint>): Map<OutPoint, TransactionOutputEx> =
+            outPoints.chunked(MAX_IDS_PER_QUERY).flatMap { chunk ->
+                ptxoQueries.selectPtxosByIds(chunk, uuid, mapper = { outpoint: OutPoint?,
+                                                                     accountId: UUID?,
+                                                                     height: Int,
+                                                                     value: Long,
+                                                                     isCoinbase: Boolean,
+                                                                     script: ByteArray? ->
+                    TransactionOutputEx(outpoint, height, value, script, isCoinbase)
+                }).executeAsList()
+            }.associateBy { it.outPoint }
+
     override fun hasParentTransactionOutput(outPoint: OutPoint?): Boolean =
             ptxoQueries.selectPtxoById(outPoint, uuid).executeAsOneOrNull() != null
 
@@ -117,6 +133,11 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
     override fun getTransaction(hash: Sha256Hash): TransactionEx? =
             txQueries.selectBTCVTransactionById(hash, uuid, mapper = ::TransactionEx).executeAsOneOrNull()
 
+    override fun getTransactions(txids: Collection<Sha256Hash>): Map<Sha256Hash, TransactionEx> =
+            txids.chunked(MAX_IDS_PER_QUERY).flatMap { chunk ->
+                txQueries.selectBTCVTransactionsByIds(chunk, uuid, mapper = ::TransactionEx).executeAsList()
+            }.associateBy { it.txid }
+
     override fun deleteTransaction(hash: Sha256Hash) {
         val tex = getTransaction(hash)
         val tx = TransactionEx.toTransaction(tex)
@@ -136,6 +157,16 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
     override fun getTransactionHistory(offset: Int, limit: Int): List<TransactionEx> =
             txQueries.selectBTCVTransactions(uuid, limit.toLong(), offset.toLong(), mapper = ::TransactionEx).executeAsList()
 
+    // Bitcoin Vault accounts build their summaries from the transactions and don't read them from here, so this
+    // backing stores none, which BtcAccountBacking allows
+    override fun getTransactionSummaries(offset: Int, limit: Int): Map<Sha256Hash, TransactionSummaryRecord?> =
+            getTransactionHistory(offset, limit).associateTo(LinkedHashMap()) { it.txid to null }
+
+    override fun getTransactionSummariesVersion(): Long = 0
+
+    override fun putTransactionSummaries(summaries: Collection<TransactionSummaryRecord>, version: Long) {
+    }
+
     override fun getTransactionsSince(since: Long): List<TransactionEx> =
             txQueries.selectBTCVTransactionsSince(uuid, since.toInt(), mapper = ::TransactionEx).executeAsList()
 
@@ -182,4 +213,25 @@ class BitcoinVaultHDAccountBacking(private val walletDB: WalletDB,
             refersPtxoQueries.insert(txId, uuid, it)
         }
     }
+
+    /**
+     * @return the ElectrumX status of every address recorded at the last sync, by the string of the address
+     */
+    fun getAddressStatuses(): Map<String, String> =
+            addressStatusQueries.selectStatuses(uuid, mapper = { address: String, status: String ->
+                address to status
+            }).executeAsList().toMap()
+
+    fun putAddressStatuses(statuses: Map<out BitcoinAddress, String>) {
+        addressStatusQueries.transaction {
+            statuses.forEach { (address, status) ->
+                addressStatusQueries.insertStatus(address.toString(), uuid, status)
+            }
+        }
+    }
+
+    companion object {
+        // stays below SQLite's default limit of 999 variables per statement
+        private const val MAX_IDS_PER_QUERY = 500
+    }
 }
@@ -11,6 +11,7 @@ import com.mrd.bitlib.model.*
 import com.mrd.bitlib.util.Sha256Hash
 import com.mycelium.wapi.api.Wapi
 import com.mycelium.wapi.api.WapiException
+import com.mycelium.wapi.api.request.QueryAddressStatusesRequest
 import com.mycelium.wapi.api.request.QueryTransactionInventoryRequest
 import com.mycelium.wapi.model.TransactionEx
 import com.mycelium.wapi.wallet.*
@@ -39,7 +40,8 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
                             val backing: BitcoinVaultHDAccountBacking,
                             accountListener: AccountListener?,
                             protected val changeAddressModeReference: Reference<ChangeAddressMode>)
-    : AbstractBtcvAccount(backing, networkParameters, wapi, accountListener), ExportableAccount, AddressesListProvider<BtcvAddress> {
+    : AbstractBtcvAccount(backing, networkParameters, wapi, accountListener), ExportableAccount, AddressesListProvider<BtcvAddress>,
+        AddressOwner {
 
     private val derivePaths = accountContext.indexesMap.keys
     protected var externalAddresses: MutableMap<BipDerivationType, BiMap<BtcvAddress, Int>> = initAddressesMap()
@@ -47,6 +49,8 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
     private val safeLastExternalIndex: MutableMap<BipDerivationType, Int> = mutableMapOf()
     private val safeLastInternalIndex: MutableMap<BipDerivationType, Int> = mutableMapOf()
     private var receivingAddressMap: MutableMap<AddressType, BtcvAddress> = mutableMapOf()
+    @Volatile
+    private var ownedAddressesListener: OwnedAddressesListener? = null
 
     val accountIndex: Int
         get() = accountContext.accountIndex
@@ -220,13 +224,26 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
     private fun updateUnspentOutputs(mode: SyncMode): Boolean {
         var checkAddresses = getAddressesToSync(mode)
 
-        val newUtxos = synchronizeUnspentOutputs(checkAddresses)
+        // A full sync records the statuses of all addresses, which also subscribes to their changes.
+        // A status sync then only has to look at the addresses whose status changed since
+        val statuses = if (mode.mode == SyncMode.Mode.FULL_SYNC || mode.mode == SyncMode.Mode.STATUS_SYNC) {
+            queryAddressStatuses(checkAddresses)
+        } else {
+            null
+        }
+        if (mode.mode == SyncMode.Mode.STATUS_SYNC && statuses != null) {
+            val knownStatuses = backing.getAddressStatuses()
+            checkAddresses = checkAddresses.filter { statuses[it] == null || statuses[it] != knownStatuses[it.toString()] }
+        }
+
+        val newUtxos = if (checkAddresses.isEmpty()) 0 else synchronizeUnspentOutputs(checkAddresses)
 
         if (newUtxos == -1) {
             return false
         }
 
-        if (newUtxos > 0 && mode.mode != SyncMode.Mode.FULL_SYNC) {
+        // a status sync has seen all addresses of a full sync, so there is nothing left to check
+        if (newUtxos > 0 && mode.mode != SyncMode.Mode.FULL_SYNC && mode.mode != SyncMode.Mode.STATUS_SYNC) {
             // we got new UTXOs but did not made a full sync. The UTXO might be coming
             // from change outputs spending from addresses we are currently not checking
             // -> rerun the synchronizeUnspentOutputs for a FULL_SYNC
@@ -246,16 +263,31 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
 
         updateLocalBalance()
 
+        // stored only once the changed addresses are synced, so a failed sync is repeated next time
+        statuses?.let { backing.putAddressStatuses(it) }
         accountContext.persistIfNecessary(backing)
         return true
     }
 
+    /**
+     * @return the statuses of the addresses, or null if the server can't tell them, in which case all addresses
+     * have to be synced
+     */
+    private fun queryAddressStatuses(addresses: List<BtcvAddress>): Map<BitcoinAddress, String>? = try {
+        val result = wapi.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, addresses)).result
+        blockChainHeight = result.height
+        result.statuses
+    } catch (e: WapiException) {
+        logger.log(Level.INFO, "Address statuses not available, error code: ${e.errorCode}")
+        null
+    }
+
     private fun getAddressesToSync(mode: SyncMode): List<BtcvAddress> {
         var addresses = mutableListOf<BtcvAddress>()
         derivePaths.forEach { derivationType ->
             val currentInternalAddressId = accountContext.getLastInternalIndexWithActivity(derivationType) + 1
             val currentExternalAddressId = accountContext.getLastExternalIndexWithActivity(derivationType) + 1
-            if (mode.mode == SyncMode.Mode.FULL_SYNC) {
+            if (mode.mode == SyncMode.Mode.FULL_SYNC || mode.mode == SyncMode.Mode.STATUS_SYNC) {
                 // check the full change-chain and external-chain
                 addresses.addAll(getAddressRange(true, 0,
                         currentInternalAddressId + INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH, derivationType))
@@ -667,13 +699,16 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
             }
             addressMap = externalAddresses[derivationType]!!
         }
-        while (index >= 0) {
-            if (addressMap.inverse().containsKey(index)) {
-                return
-            }
-            addressMap[keyManagerMap[derivationType]!!.getAddress(isChangeChain, index)] = index
+        val newAddresses = mutableListOf<BtcvAddress>()
+        while (index >= 0 && !addressMap.inverse().containsKey(index)) {
+            val address = keyManagerMap[derivationType]!!.getAddress(isChangeChain, index)
+            addressMap[address] = index
+            address?.let { newAddresses.add(it) }
             index--
         }
+        if (newAddresses.isNotEmpty()) {
+            ownedAddressesListener?.addressesAdded(this, newAddresses)
+        }
     }
 
     protected fun initAddressesMap(): MutableMap<BipDerivationType, BiMap<BtcvAddress, Int>> = derivePaths
@@ -708,6 +743,15 @@ class BitcoinVaultHdAccount(protected var accountContext: BitcoinVaultHDAccountC
 
     override fun addressesList(): List<BtcvAddress> = allAddresses
 
+    @Synchronized
+    override fun getOwnedAddresses(): Collection<Address> = derivePaths.flatMap { derivationType ->
+        externalAddresses[derivationType]!!.keys + internalAddresses[derivationType]!!.keys
+    }
+
+    override fun setOwnedAddressesListener(listener: OwnedAddressesListener?) {
+        ownedAddressesListener = listener
+    }
+
     companion object {
         const val EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH = 20
         const val INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH = 20
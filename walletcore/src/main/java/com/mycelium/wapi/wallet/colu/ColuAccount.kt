@@ -36,7 +36,7 @@ class ColuAccount(val context: ColuAccountContext, val privateKey: InMemoryPriva
                   , private val accountBacking: ColuAccountBacking
                   , val backing: WalletBacking<ColuAccountContext>
                   , val listener: AccountListener? = null
-                  , val wapi: Wapi) : WalletAccount<BtcAddress>, ExportableAccount {
+                  , val wapi: Wapi) : WalletAccount<BtcAddress>, ExportableAccount, AddressOwner {
     override fun queueTransaction(transaction: Transaction) {
     }
 
@@ -146,6 +146,12 @@ class ColuAccount(val context: ColuAccountContext, val privateKey: InMemoryPriva
         return false
     }
 
+    override fun getOwnedAddresses(): Collection<Address> = addressList.values
+
+    override fun setOwnedAddressesListener(listener: OwnedAddressesListener?) {
+        // the addresses never change
+    }
+
     override fun getTxSummary(transactionId: ByteArray): TransactionSummary? {
         checkNotArchived()
         val transaction = accountBacking.getTx(Sha256Hash.of(transactionId))
@@ -22,7 +22,6 @@ import org.web3j.utils.Numeric
 import java.io.IOException
 import java.math.BigInteger
 import java.util.*
-import java.util.concurrent.TimeUnit
 import java.util.logging.Level
 
 
@@ -173,9 +172,12 @@ class ERC20Account(private val chainId: Byte,
     }
 
     override fun updateBalanceCache(): Boolean {
-        val pendingReceiving = getPendingReceiving()
-        val pendingSending = getPendingSending()
-        val newBalance = Balance(Value.valueOf(basedOnCoinType, getConfirmed() - pendingSending),
+        // the database sums up the balance, unless some transactions were stored before it could
+        val totals = backing.getBalanceTotals(receivingAddress.addressString)
+        val pendingReceiving = totals?.pendingReceiving ?: getPendingReceiving()
+        val pendingSending = totals?.pendingSending ?: getPendingSending()
+        val confirmed = totals?.confirmed ?: getConfirmed()
+        val newBalance = Balance(Value.valueOf(basedOnCoinType, confirmed - pendingSending),
                 Value.valueOf(basedOnCoinType, pendingReceiving), Value.valueOf(basedOnCoinType, pendingSending), Value.zeroValue(basedOnCoinType))
         if (newBalance != accountContext.balance) {
             accountContext.balance = newBalance
@@ -209,26 +211,16 @@ class ERC20Account(private val chainId: Byte,
     private fun syncTransactions() {
         try {
             val remoteTransactions = blockchainService.getTransactions(receivingAddress.addressString, token.contractAddress)
-            remoteTransactions.forEach { tx ->
-                tx.getTokenTransfer(token.contractAddress)?.also { transfer ->
-                    backing.putTransaction(tx.blockHeight.toInt(), tx.blockTime, tx.txid, "", transfer.from,
+            val records = remoteTransactions.mapNotNull { tx ->
+                tx.getTokenTransfer(token.contractAddress)?.let { transfer ->
+                    EthAccountBacking.TransactionRecord(tx.blockHeight.toInt(), tx.blockTime, tx.txid, "", transfer.from,
                             transfer.to, Value.valueOf(basedOnCoinType, transfer.value),
                             Value.valueOf(basedOnCoinType, tx.gasPrice * (tx.gasUsed
                                     ?: typicalEstimatedTransactionSize.toBigInteger())),
                             tx.confirmations.toInt(), tx.nonce, null, tx.success, tx.gasLimit, tx.gasUsed)
                 }
             }
-            val localTxs = getUnconfirmedTransactions()
-            // remove such transactions that are not on server anymore
-            // this could happen if transaction was replaced by another e.g.
-            val remoteTransactionsIds = remoteTransactions.map { it.txid }
-            val toRemove = localTxs.filter { localTx ->
-                !remoteTransactionsIds.contains("0x" + HexUtils.toHex(localTx.id))
-                        && (System.currentTimeMillis() / 1000 - localTx.timestamp > TimeUnit.SECONDS.toSeconds(150))
-            }
-            toRemove.map { "0x" + HexUtils.toHex(it.id) }.forEach {
-                backing.deleteTransaction(it)
-            }
+            putSyncedTransactions(records, remoteTransactions.mapTo(HashSet()) { it.txid })
         } catch (e: IOException) {
             logger.log(Level.SEVERE, "Error retrieving ETH/ERC-20 transaction history: ${e.javaClass} ${e.localizedMessage}")
         }
@@ -15,7 +15,7 @@ abstract class AbstractEthERC20Account(coinType: CryptoCurrency,
                                        protected val backing: EthAccountBacking,
                                        protected val blockchainService: EthBlockchainService,
                                        className: String?,
-                                       address: EthAddress? = null) : WalletAccount<EthAddress> {
+                                       address: EthAddress? = null) : WalletAccount<EthAddress>, AddressOwner {
     val receivingAddress = credentials?.let { EthAddress(coinType, it.address) } ?: address!!
     protected val logger: Logger = Logger.getLogger(className)
 
@@ -33,6 +33,16 @@ abstract class AbstractEthERC20Account(coinType: CryptoCurrency,
         updateBalanceCache()
     }
 
+    /**
+     * Stores the synced transactions. Unconfirmed transactions the server doesn't know anymore are removed after a
+     * while, this could happen if a transaction was replaced by another e.g.
+     */
+    protected fun putSyncedTransactions(records: List<EthAccountBacking.TransactionRecord>, remoteTxids: Set<String>) {
+        val result = backing.putTransactions(records, remoteTxids,
+                System.currentTimeMillis() / 1000 - PENDING_TRANSACTION_GRACE_SECONDS)
+        logger.log(Level.FINE, "Stored the synced transactions: $result")
+    }
+
     @Throws(IOException::class)
     protected fun getNewNonce(): BigInteger {
         val nonce = blockchainService.getNonce(receivingAddress.addressString)
@@ -78,6 +88,12 @@ abstract class AbstractEthERC20Account(coinType: CryptoCurrency,
 
     override fun isMineAddress(address: Address?) = address == receivingAddress
 
+    override fun getOwnedAddresses(): Collection<Address> = listOf(receivingAddress)
+
+    override fun setOwnedAddressesListener(listener: OwnedAddressesListener?) {
+        // the addresses never change
+    }
+
     override fun isExchangeable() = true
 
     override fun getTx(transactionId: ByteArray?): Transaction {
@@ -114,4 +130,8 @@ abstract class AbstractEthERC20Account(coinType: CryptoCurrency,
     }
 
     override fun canSign(): Boolean = false
+
+    companion object {
+        private const val PENDING_TRANSACTION_GRACE_SECONDS = 150L
+    }
 }
\ No newline at end of file
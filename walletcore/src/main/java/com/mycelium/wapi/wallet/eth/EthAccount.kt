@@ -20,7 +20,6 @@ import org.web3j.utils.Numeric
 import java.io.IOException
 import java.math.BigInteger
 import java.util.*
-import java.util.concurrent.TimeUnit
 import java.util.logging.Level
 
 class EthAccount(private val chainId: Byte,
@@ -134,9 +133,12 @@ class EthAccount(private val chainId: Byte,
     }
 
     override fun updateBalanceCache(): Boolean {
-        val pendingReceiving = getPendingReceiving()
-        val pendingSending = getPendingSending()
-        val newBalance = Balance(valueOf(coinType, getConfirmed() - pendingSending),
+        // the database sums up the balance, unless some transactions were stored before it could
+        val totals = backing.getBalanceTotals(receivingAddress.addressString)
+        val pendingReceiving = totals?.pendingReceiving ?: getPendingReceiving()
+        val pendingSending = totals?.pendingSending ?: getPendingSending()
+        val confirmed = totals?.confirmed ?: getConfirmed()
+        val newBalance = Balance(valueOf(coinType, confirmed - pendingSending),
                 valueOf(coinType, pendingReceiving), valueOf(coinType, pendingSending), Value.zeroValue(coinType))
         if (newBalance != accountContext.balance) {
             accountContext.balance = newBalance
@@ -178,24 +180,14 @@ class EthAccount(private val chainId: Byte,
     private fun syncTransactions() {
         try {
             val remoteTransactions = blockchainService.getTransactions(receivingAddress.addressString)
-            remoteTransactions.forEach { tx ->
-                backing.putTransaction(tx.blockHeight.toInt(), tx.blockTime, tx.txid, "", tx.from, tx.to,
+            val records = remoteTransactions.map { tx ->
+                EthAccountBacking.TransactionRecord(tx.blockHeight.toInt(), tx.blockTime, tx.txid, "", tx.from, tx.to,
                         valueOf(coinType, tx.value), valueOf(coinType, tx.gasPrice * (tx.gasUsed
                         ?: typicalEstimatedTransactionSize.toBigInteger())), tx.confirmations.toInt(),
                         tx.nonce,  valueOf(coinType, tx.internalValue ?: BigInteger.ZERO),
                         tx.success, tx.gasLimit, tx.gasUsed)
             }
-            val localTxs = getUnconfirmedTransactions()
-            // remove such transactions that are not on server anymore
-            // this could happen if transaction was replaced by another e.g.
-            val remoteTransactionsIds = remoteTransactions.map { it.txid }
-            val toRemove = localTxs.filter { localTx ->
-                !remoteTransactionsIds.contains("0x" + HexUtils.toHex(localTx.id))
-                        && (System.currentTimeMillis() / 1000 - localTx.timestamp > TimeUnit.SECONDS.toSeconds(150))
-            }
-            toRemove.map { "0x" + HexUtils.toHex(it.id) }.forEach {
-                backing.deleteTransaction(it)
-            }
+            putSyncedTransactions(records, remoteTransactions.mapTo(HashSet()) { it.txid })
         } catch (e: IOException) {
             logger.log(Level.SEVERE, "Error retrieving ETH/ERC-20 transaction history: ${e.javaClass} ${e.localizedMessage}")
         }
@@ -11,60 +11,158 @@ import okhttp3.RequestBody
 import java.io.IOException
 import java.math.BigInteger
 import java.net.URL
-
-class EthBlockchainService(private var endpoints: List<HttpEndpoint>,
-                           networkParameters: NetworkParameters)
+import java.util.Locale
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+
+class EthBlockchainService @JvmOverloads constructor(
+        private var endpoints: List<HttpEndpoint>,
+        networkParameters: NetworkParameters,
+        private val etherscanApiUrl: String = if (networkParameters.isProdnet) "https://api.etherscan.io" else
+            "https://api-ropsten.etherscan.io")
     : ServerEthListChangedListener {
     private val mapper = ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-    private val etherscanApiUrl = if (networkParameters.isProdnet) "https://api.etherscan.io" else
-        "https://api-ropsten.etherscan.io"
     private val OFFSET = 10000
+    // the history of every address synced, shared by the ETH account and the ERC20 accounts of the address
+    private val histories = ConcurrentHashMap<String, AddressHistory>()
+    // histories fetched in an earlier round are fetched again, see [startSyncRound]
+    private val syncRound = AtomicInteger()
+
+    /**
+     * The transactions of an address as far as they were fetched. Guarded by its own lock. The transactions are
+     * handed out, so they are replaced rather than changed.
+     */
+    private class AddressHistory {
+        val transactions = LinkedHashMap<String, Tx>()
+        // the best block height seen in the history, null before the first fetch
+        var tipHeight: Long? = null
+        // the height up to which the internal transactions were fetched, null before the first fetch
+        var internalSyncedHeight: Long? = null
+        // the sync round of the last fetch, -1 before the first fetch
+        var fetchedInRound = -1
+    }
+
+    /**
+     * Starts a new sync round. The ETH account and the ERC20 accounts of an address share one fetch per round, so
+     * a round must not outlast one synchronization of the accounts.
+     */
+    fun startSyncRound() {
+        syncRound.incrementAndGet()
+    }
 
+    /**
+     * Only fetches what is new since the last fetch for the address, and only once per sync round.
+     */
     @Throws(IOException::class)
     private fun fetchTransactions(address: String): List<Tx> {
-        var urlString = "${endpoints.random()}/api/v2/address/$address?details=txs"
-        val result: MutableList<Tx> = mutableListOf()
-
-        val initialResponse = mapper.readValue(URL(urlString), Response::class.java)
-        result.addAll(initialResponse.transactions)
-        for (i in 2..initialResponse.totalPages) {
-            urlString = "${endpoints.random()}/api/v2/address/$address?details=txs&page=$i"
-            val response = mapper.readValue(URL(urlString), Response::class.java)
-            result.addAll(response.transactions)
+        val key = address.toLowerCase(Locale.US)
+        val history = histories.getOrPut(key) { AddressHistory() }
+        synchronized(history) {
+            val round = syncRound.get()
+            if (history.fetchedInRound != round) {
+                updateHistory(address, history)
+                history.fetchedInRound = round
+            }
+            return history.transactions.values.toList()
         }
-        calcInternalValue(address, result)
-        return result
     }
 
+    @Throws(IOException::class)
+    private fun updateHistory(address: String, history: AddressHistory) {
+        // blocks this deep are fetched again, to see reorgs
+        val cursor = history.tipHeight?.let { it - REORG_DEPTH }
+        val firstPage = fetchPage(address, 1)
+        val pages = mutableListOf(firstPage)
+        if (cursor == null) {
+            // nothing fetched so far - get all pages, in parallel
+            pages += (2..firstPage.totalPages)
+                    .map { page -> pageExecutor.submit(Callable { fetchPage(address, page) }) }
+                    .map { getPage(it) }
+        } else {
+            // the newest transactions come first, so only the pages down to the cursor are new
+            while (pages.last().transactions.none { it.blockHeight.toLong() in 0..cursor }
+                    && pages.size < firstPage.totalPages) {
+                pages += fetchPage(address, pages.size + 1)
+            }
+        }
+        val fetched = pages.flatMap { it.transactions }
+
+        val tip = (fetched.filter { it.blockHeight.signum() > 0 }
+                .map { it.blockHeight.toLong() + it.confirmations.toLong() - 1 } + listOfNotNull(history.tipHeight))
+                .max()
+        if (cursor == null) {
+            history.transactions.clear()
+        } else {
+            // unconfirmed transactions that are gone were replaced
+            val fetchedIds = fetched.map { it.txid }.toSet()
+            history.transactions.values.removeAll { it.blockHeight.signum() < 0 && it.txid !in fetchedIds }
+        }
+        fetched.forEach { tx ->
+            history.transactions[tx.txid] = history.transactions[tx.txid]
+                    ?.let { cached -> tx.copy(internalValue = cached.internalValue) } ?: tx
+        }
+        history.tipHeight = tip
+        if (tip != null) {
+            // the confirmations of the transactions not fetched again still count up
+            history.transactions.replaceAll { _, tx ->
+                val confirmations = BigInteger.valueOf(tip - tx.blockHeight.toLong() + 1)
+                if (tx.blockHeight.signum() > 0 && tx.confirmations != confirmations) {
+                    tx.copy(confirmations = confirmations)
+                } else {
+                    tx
+                }
+            }
+        }
+        calcInternalValue(address, history)
+    }
+
+    @Throws(IOException::class)
+    private fun fetchPage(address: String, page: Int): Response {
+        val urlString = "${endpoints.random()}/api/v2/address/$address?details=txs" +
+                if (page > 1) "&page=$page" else ""
+        return mapper.readValue(URL(urlString), Response::class.java)
+    }
+
+    @Throws(IOException::class)
+    private fun getPage(page: Future<Response>): Response =
+            try {
+                page.get()
+            } catch (e: ExecutionException) {
+                throw e.cause as? IOException ?: IOException(e.cause)
+            }
+
     // internal value is the ether that was sent to the user by a contract
-    private fun calcInternalValue(address: String, result: MutableList<Tx>) {
+    private fun calcInternalValue(address: String, history: AddressHistory) {
         try {
+            val startBlock = history.internalSyncedHeight?.let { Math.max(0, it - REORG_DEPTH) } ?: 0
             val intTxs: MutableList<EtherscanInternalTransactions.InternalTransaction> = mutableListOf()
             var i = 1
-            var urlString = "$etherscanApiUrl/api?module=account&action=txlistinternal&address=$address&startblock=0&endblock=99999999&page=$i&offset=$OFFSET&sort=asc&apikey=KWQPBBFJQYAT5P447MM8322R5BVY8C2MG2"
+            var urlString = "$etherscanApiUrl/api?module=account&action=txlistinternal&address=$address&startblock=$startBlock&endblock=99999999&page=$i&offset=$OFFSET&sort=asc&apikey=KWQPBBFJQYAT5P447MM8322R5BVY8C2MG2"
             var response = mapper.readValue(URL(urlString), EtherscanInternalTransactions::class.java)
             intTxs.addAll(response.result)
             while (response.result.size == OFFSET) {
                 i++
-                urlString = "$etherscanApiUrl/api?module=account&action=txlistinternal&address=$address&startblock=0&endblock=99999999&page=$i&offset=$OFFSET&sort=asc&apikey=KWQPBBFJQYAT5P447MM8322R5BVY8C2MG2"
+                urlString = "$etherscanApiUrl/api?module=account&action=txlistinternal&address=$address&startblock=$startBlock&endblock=99999999&page=$i&offset=$OFFSET&sort=asc&apikey=KWQPBBFJQYAT5P447MM8322R5BVY8C2MG2"
                 response = mapper.readValue(URL(urlString), EtherscanInternalTransactions::class.java)
                 intTxs.addAll(response.result)
             }
 
-            val txsToAdd = intTxs.filterNot { intTx -> result.map { it.txid }.contains(intTx.hash) }
-            result.addAll(txsToAdd.map {
-                getTransaction(it.hash)
-            })
+            intTxs.map { it.hash }.distinct()
+                    .filterNot { history.transactions.containsKey(it) }
+                    .forEach { history.transactions[it] = getTransaction(it) }
 
             // maps hash to [value of transferred eth within tx with the hash]
-            val mapp = intTxs.map { tx ->
-                tx.hash to intTxs.filter {
-                    it.hash == tx.hash && it.to.equals(address, true)
-                }.map { it.value }.fold(BigInteger.ZERO, BigInteger::add)
-            }.toMap()
-            result.forEach { tx ->
-                tx.internalValue = mapp[tx.txid]
+            val mapp = intTxs.groupBy { it.hash }.mapValues { (_, txs) ->
+                txs.filter { it.to.equals(address, true) }.map { it.value }.fold(BigInteger.ZERO, BigInteger::add)
+            }
+            mapp.forEach { (hash, value) ->
+                history.transactions[hash]?.let { history.transactions[hash] = it.copy(internalValue = value) }
             }
+            history.internalSyncedHeight = history.tipHeight
         } catch (ignore: Exception) {
         }
     }
@@ -79,6 +177,10 @@ class EthBlockchainService(private var endpoints: List<HttpEndpoint>,
         val response = client.newCall(request).execute()
 
         val result = mapper.readValue(response.body()!!.string(), SendTxResponse::class.java)
+        if (result.result != null) {
+            // the history of the sender changed, so it is fetched again even in this round
+            startSyncRound()
+        }
         return SendResult(result.result != null, result.error)
     }
 
@@ -118,6 +220,15 @@ class EthBlockchainService(private var endpoints: List<HttpEndpoint>,
         endpoints = newEndpoints.toList()
     }
     class SendResult(val success: Boolean, val message: String?)
+
+    companion object {
+        private const val REORG_DEPTH = 12
+        private const val MAX_PARALLEL_PAGE_REQUESTS = 4
+
+        private val pageExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_PAGE_REQUESTS) { runnable ->
+            Thread(runnable, "ETH history pages").apply { isDaemon = true }
+        }
+    }
 }
 
 private fun isOutgoing(address: String, transfer: TokenTransfer) =
@@ -157,7 +268,7 @@ private class EtherscanInternalTransactions {
         val value: BigInteger = BigInteger.ZERO
     }
 }
-class Tx {
+class Tx : Cloneable {
     val txid: String = ""
 
     @JsonProperty("vin")
@@ -173,12 +284,14 @@ class Tx {
         get() = vout[0].addresses?.get(0)
 
     val blockHeight: BigInteger = BigInteger.ZERO
-    val confirmations: BigInteger = BigInteger.ZERO
+    var confirmations: BigInteger = BigInteger.ZERO
+        private set
     val blockTime: Long = 0
     val value: BigInteger = BigInteger.ZERO
     val fees: BigInteger = BigInteger.ZERO
     // the ether that was sent to the user by a contract
     var internalValue: BigInteger? = BigInteger.ZERO
+        private set
 
     @JsonProperty("ethereumSpecific")
     private val ethereumSpecific: EthereumSpecific? = null
@@ -202,6 +315,12 @@ class Tx {
     fun getTokenTransfer(contractAddress: String): TokenTransfer? =
             tokenTransfers.find { it.token.equals(contractAddress, true) }
 
+    internal fun copy(confirmations: BigInteger = this.confirmations, internalValue: BigInteger? = this.internalValue) =
+            (clone() as Tx).also {
+                it.confirmations = confirmations
+                it.internalValue = internalValue
+            }
+
     override fun toString(): String {
         return """{'txid':$txid,'from':$from,'to':$to,'blockHeight':$blockHeight,'confirmations':$confirmations,
             |'blockTime':$blockTime,'value':$value,'fees':$fees,'nonce':$nonce,'gasLimit':$gasLimit,
@@ -55,6 +55,9 @@ class EthereumModule(
 
     override fun getAccounts(): List<WalletAccount<*>> = accounts.values.toList()
 
+    // the ERC20 module shares the blockchain service, so this covers its accounts too
+    override fun syncStarted() = blockchainService.startSyncRound()
+
     override fun loadAccounts(): Map<UUID, WalletAccount<*>> =
             backing.loadAccountContexts()
                     .associateBy({ it.uuid }, { ethAccountFromUUID(it.uuid) })
@@ -37,7 +37,8 @@ class FioAccount(private val fioBlockchainService: FioBlockchainService,
                  private val privkeyString: String? = null, // null if it's read-only account
                  val walletManager: WalletManager,
                  address: FioAddress? = null,
-                 private val fioServerLogsListWrapper: FioServerLogsListWrapper) : WalletAccount<FioAddress>, ExportableAccount {
+                 private val fioServerLogsListWrapper: FioServerLogsListWrapper) : WalletAccount<FioAddress>, ExportableAccount,
+        AddressOwner {
     private val logger: Logger = Logger.getLogger(FioAccount::class.simpleName)
     private val receivingAddress = privkeyString?.let { FioAddress(coinType, FioAddressData(FIOSDK.derivedPublicKey(it))) }
             ?: address!!
@@ -225,6 +226,12 @@ class FioAccount(private val fioBlockchainService: FioBlockchainService,
 
     override fun isMineAddress(address: Address?): Boolean = address == receiveAddress
 
+    override fun getOwnedAddresses(): Collection<Address> = listOf(receiveAddress)
+
+    override fun setOwnedAddressesListener(listener: OwnedAddressesListener?) {
+        // the addresses never change
+    }
+
     override fun isExchangeable(): Boolean = true
 
     override fun getTx(transactionId: ByteArray?): Transaction {
@@ -455,12 +462,10 @@ class FioAccount(private val fioBlockchainService: FioBlockchainService,
 
     private fun syncTransactions() {
         try {
-            fioBlockchainService.getTransactions(receivingAddress.toString(), accountContext.blockHeight.toBigInteger()).forEach {
-                backing.putTransaction(it.blockNumber.toInt(), it.timestamp, it.txid, "",
-                        it.fromAddress, it.toAddress, it.sum,
-                        kotlin.math.max(accountContext.blockHeight - it.blockNumber.toInt(), 0),
-                        it.fee, it.transferred, it.memo)
-            }
+            val transactions = fioBlockchainService.getTransactions(receivingAddress.toString(),
+                    accountContext.blockHeight.toBigInteger())
+            val result = backing.putTransactions(transactions, accountContext.blockHeight)
+            logger.log(Level.FINE, "Stored the synced transactions: $result")
 
             accountContext.actionSequenceNumber =
                     fioBlockchainService.getAccountActionSeqNumber(Utils.generateActor(receivingAddress.toString()))
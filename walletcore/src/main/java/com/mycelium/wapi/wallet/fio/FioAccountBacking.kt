@@ -7,11 +7,13 @@ import com.mycelium.wapi.wallet.OutputViewModel
 import com.mycelium.wapi.wallet.TransactionSummary
 import com.mycelium.wapi.wallet.coins.CryptoCurrency
 import com.mycelium.wapi.wallet.coins.Value
+import com.mycelium.wapi.wallet.genericdb.PutTransactionsResult
 import fiofoundation.io.fiosdk.models.fionetworkprovider.FIORequestContent
 import fiofoundation.io.fiosdk.models.fionetworkprovider.ObtDataRecord
 import fiofoundation.io.fiosdk.models.fionetworkprovider.SentFIORequestContent
 import org.web3j.tx.Transfer
 import java.util.*
+import kotlin.math.max
 
 class FioAccountBacking(walletDB: WalletDB, private val uuid: UUID, private val currency: CryptoCurrency) {
     private val fioSentRequestQueries = walletDB.fioRequestsSentBackingQueries
@@ -145,6 +147,28 @@ class FioAccountBacking(walletDB: WalletDB, private val uuid: UUID, private val
         fioAccountQueries.insertTransaction(txid, uuid, from, to, transferred, memo)
     }
 
+    /**
+     * Stores the transactions of a sync in one database transaction. Unlike the ETH backing it never removes
+     * transactions, so [PutTransactionsResult.removed] is always 0: the FIO history only grows, and a transaction
+     * broadcast by the account stays even if it never makes it into a block.
+     *
+     * @param blockHeight the current block height, the confirmations are counted from
+     */
+    fun putTransactions(transactions: List<Tx>, blockHeight: Int): PutTransactionsResult {
+        var inserted = 0
+        queries.transaction {
+            val storedTxids = queries.selectTransactionIds(uuid).executeAsList().toHashSet()
+            transactions.forEach {
+                if (storedTxids.add(it.txid)) {
+                    inserted++
+                }
+                putTransaction(it.blockNumber.toInt(), it.timestamp, it.txid, "", it.fromAddress, it.toAddress, it.sum,
+                        max(blockHeight - it.blockNumber.toInt(), 0), it.fee, it.transferred, it.memo)
+            }
+        }
+        return PutTransactionsResult(inserted, transactions.size - inserted, 0)
+    }
+
     private fun createTransactionSummary(txid: String,
                                          currency: CryptoCurrency,
                                          blockNumber: Int,
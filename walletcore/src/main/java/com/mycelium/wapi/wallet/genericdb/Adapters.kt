@@ -218,6 +218,7 @@ val ethContextAdapter = EthContext.Adapter(Adapters.uuidAdapter, Adapters.bigInt
 val erc20ContextAdapter = Erc20Context.Adapter(Adapters.uuidAdapter, Adapters.bigIntAdapter, Adapters.uuidAdapter)
 
 val BTCVAccountBackingAdapter = BTCVAccountBacking.Adapter(Adapters.uuidAdapter)
+val BTCVAddressStatusAdapter = BTCVAddressStatus.Adapter(Adapters.uuidAdapter)
 val BTCVContextAdapter = BTCVContext.Adapter(Adapters.uuidAdapter, Adapters.indexContextsAdapter, Adapters.addressTypeAdapter)
 val BTCVTransactionAdapter = BTCVTransaction.Adapter(Adapters.sha256Adapter, Adapters.uuidAdapter, Adapters.sha256Adapter)
 val BTCVUtxoAdapter = BTCVUtxo.Adapter(Adapters.outPointAdapter, Adapters.uuidAdapter)
@@ -97,16 +97,72 @@ class EthAccountBacking(walletDB: WalletDB, private val uuid: UUID, private val
             }).executeAsList()
 
 
+    /**
+     * @return the balance summed up by the database, null if some transactions can't be summed up there. These were
+     * stored before the amounts were split, or have amounts too large to split
+     */
+    fun getBalanceTotals(ownerAddress: String): BalanceTotals? {
+        val owner = ownerAddress.toLowerCase(Locale.US)
+        return if (token == null) {
+            ethQueries.selectEthBalance(owner = owner, uuid = uuid).executeAsOne().run {
+                if (unsplit != 0L) null else BalanceTotals(join(confirmedHigh, confirmedLow),
+                        join(pendingReceivingHigh, pendingReceivingLow), join(pendingSendingHigh, pendingSendingLow))
+            }
+        } else {
+            ethQueries.selectTokenBalance(owner = owner, uuid = uuid).executeAsOne().run {
+                if (unsplit != 0L) null else BalanceTotals(join(confirmedHigh, confirmedLow),
+                        join(pendingReceivingHigh, pendingReceivingLow), join(pendingSendingHigh, pendingSendingLow))
+            }
+        }
+    }
+
     fun putTransaction(blockNumber: Int, timestamp: Long, txid: String, raw: String, from: String, to: String?, value: Value,
                        gasPrice: Value, confirmations: Int, nonce: BigInteger, internalValue: Value? = null, success: Boolean = true,
                        gasLimit: BigInteger = Transfer.GAS_LIMIT, gasUsed: BigInteger? = null) {
         queries.insertTransaction(txid, uuid, currency, if (blockNumber == -1) Int.MAX_VALUE else blockNumber, timestamp, raw, value, gasPrice, confirmations)
-        ethQueries.insertTransaction(txid, uuid, from, to ?: contractCreationAddress.addressString, nonce, gasLimit, success, internalValue)
+        val toAddress = to ?: contractCreationAddress.addressString
+        val amounts = listOf(value.value, gasPrice.value, internalValue?.value ?: BigInteger.ZERO)
+        val isSplit = amounts.all { it.bitLength() <= MAX_SPLIT_AMOUNT_BITS }
+        val (splitValue, fee, internal) = if (isSplit) amounts else listOf(BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO)
+        ethQueries.insertTransaction(txid, uuid, from, toAddress, nonce, gasLimit, success, internalValue,
+                from.toLowerCase(Locale.US), toAddress.toLowerCase(Locale.US),
+                if (isSplit) high(splitValue) else null, if (isSplit) low(splitValue) else null,
+                high(fee), low(fee), high(internal), low(internal))
         if (gasUsed != null) {
             updateGasUsed(txid, gasUsed, gasPrice)
         }
     }
 
+    /**
+     * Stores the transactions of a sync in one database transaction. The unconfirmed transactions stored before
+     * [keepPendingSince], in seconds, that the server doesn't know anymore are removed. They were replaced by others
+     * e.g.
+     *
+     * @param remoteTxids all txids the server returned, which can be more than those of [transactions]
+     */
+    fun putTransactions(transactions: List<TransactionRecord>, remoteTxids: Set<String>,
+                        keepPendingSince: Long): PutTransactionsResult {
+        var inserted = 0
+        var removed = 0
+        queries.transaction {
+            val storedTxids = queries.selectTransactionIds(uuid).executeAsList().toHashSet()
+            transactions.forEach { tx ->
+                if (storedTxids.add(tx.txid)) {
+                    inserted++
+                }
+                putTransaction(tx.blockNumber, tx.timestamp, tx.txid, tx.raw, tx.from, tx.to, tx.value, tx.gasPrice,
+                        tx.confirmations, tx.nonce, tx.internalValue, tx.success, tx.gasLimit, tx.gasUsed)
+            }
+            ethQueries.selectUnconfirmedTxidsBefore(uuid, keepPendingSince).executeAsList()
+                    .filter { it !in remoteTxids }
+                    .forEach { txid ->
+                        queries.deleteTransaction(uuid, txid)
+                        removed++
+                    }
+        }
+        return PutTransactionsResult(inserted, transactions.size - inserted, removed)
+    }
+
     fun deleteAllAccountTransactions() {
         queries.deleteAllAccountTransactions(uuid)
     }
@@ -153,6 +209,24 @@ class EthAccountBacking(walletDB: WalletDB, private val uuid: UUID, private val
                 destAddresses, null, Transfer.GAS_LIMIT.toInt(), fee)
     }
 
+    /**
+     * The arguments of [putTransaction], to store many transactions at once
+     */
+    class TransactionRecord(val blockNumber: Int, val timestamp: Long, val txid: String, val raw: String,
+                            val from: String, val to: String?, val value: Value, val gasPrice: Value,
+                            val confirmations: Int, val nonce: BigInteger, val internalValue: Value? = null,
+                            val success: Boolean = true, val gasLimit: BigInteger = Transfer.GAS_LIMIT,
+                            val gasUsed: BigInteger? = null)
+
+    class BalanceTotals(val confirmed: BigInteger, val pendingReceiving: BigInteger, val pendingSending: BigInteger)
+
+    private fun high(amount: BigInteger) = amount.shiftRight(AMOUNT_LOW_BITS).toLong()
+
+    private fun low(amount: BigInteger) = amount.and(LOW_MASK).toLong()
+
+    private fun join(high: Long?, low: Long?) =
+            BigInteger.valueOf(high ?: 0).shiftLeft(AMOUNT_LOW_BITS) + BigInteger.valueOf(low ?: 0)
+
     private fun transformValueFromDb(token: ERC20Token, value: Value): Value = Value.valueOf(token, value.value)
 
     private fun getTokenTransferred(ownerAddress: String, from: String, to: String, value: Value): Value {
@@ -188,4 +262,13 @@ class EthAccountBacking(walletDB: WalletDB, private val uuid: UUID, private val
             internalValue ?: Value.zeroValue(currency)
         }
     }
+
+    companion object {
+        // the amounts are stored split into the bits from here on and the bits below, so the database can sum them up.
+        // The sums of the low halves can't overflow for millions of transactions
+        private const val AMOUNT_LOW_BITS = 40
+        // larger amounts are not split, as the sums of their high halves could overflow
+        private const val MAX_SPLIT_AMOUNT_BITS = 86
+        private val LOW_MASK = BigInteger.ONE.shiftLeft(AMOUNT_LOW_BITS) - BigInteger.ONE
+    }
 }
@@ -0,0 +1,6 @@
+package com.mycelium.wapi.wallet.genericdb
+
+/**
+ * What a bulk write of synced transactions changed in an account backing
+ */
+data class PutTransactionsResult(val inserted: Int, val updated: Int, val removed: Int)
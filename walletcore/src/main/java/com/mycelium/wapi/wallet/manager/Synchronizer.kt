@@ -4,8 +4,12 @@ import com.mycelium.wapi.wallet.SyncMode
 import com.mycelium.wapi.wallet.WalletAccount
 import com.mycelium.wapi.wallet.WalletManager
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
 import java.util.logging.Level
 import java.util.logging.Logger
+import kotlin.math.min
 
 class Synchronizer(val walletManager: WalletManager, val syncMode: SyncMode,
                    val accounts: List<WalletAccount<*>?> = listOf()) : Runnable {
@@ -18,6 +22,7 @@ class Synchronizer(val walletManager: WalletManager, val syncMode: SyncMode,
 
         try {
             if (walletManager.isNetworkConnected) {
+                walletManager.syncStarted()
                 // If we have any lingering outgoing transactions broadcast them now
                 // this function goes over all accounts - it is reasonable to
                 // exclude this from SyncMode.onlyActiveAccount behaviour
@@ -42,21 +47,57 @@ class Synchronizer(val walletManager: WalletManager, val syncMode: SyncMode,
     }
 
     private fun runSync(list: List<WalletAccount<*>>) {
-        //split synchronization by coinTypes in own threads
+        val start = System.currentTimeMillis()
+        val results = ConcurrentLinkedQueue<SyncResult>()
+        // WalletAccount.synchronize blocks, so every coin type gets its own queue of accounts, worked off by
+        // a few workers on the bounded sync dispatcher. A slow backend can't take all threads, and accounts
+        // of different coin types sync in parallel.
         runBlocking {
-            list.map {
-                async {
-                    logger.log(Level.INFO, "Synchronizing ${it.coinType.symbol} account ${it.id}")
-                    val isSyncSuccessful = try {
-                        it.synchronize(syncMode)
-                    } catch (ex: Exception) {
-                        logger.log(Level.WARNING,"Sync error", ex)
-                        false
+            prioritize(list).groupBy { it.coinType }.forEach { (_, accountsOfType) ->
+                val queue = Channel<WalletAccount<*>>(Channel.UNLIMITED)
+                accountsOfType.forEach { queue.offer(it) }
+                queue.close()
+                repeat(min(MAX_PARALLEL_SYNCS_PER_COIN_TYPE, accountsOfType.size)) {
+                    launch(syncDispatcher) {
+                        for (account in queue) {
+                            results.add(syncAccount(account))
+                        }
                     }
-                    logger.log(Level.INFO, "Account ${it.id} sync result: $isSyncSuccessful")
                 }
             }
         }
+        val slowest = results.maxBy { it.durationMillis }
+        val failed = results.count { !it.isSuccessful }
+        logger.log(Level.INFO, "Synchronized ${results.size} accounts ($failed failed) in ${System.currentTimeMillis() - start} ms" +
+                (slowest?.let { ", slowest: ${it.account.coinType.symbol} account ${it.account.id} in ${it.durationMillis} ms" } ?: ""))
+    }
+
+    private fun syncAccount(account: WalletAccount<*>): SyncResult {
+        logger.log(Level.INFO, "Synchronizing ${account.coinType.symbol} account ${account.id}")
+        val start = System.currentTimeMillis()
+        val isSyncSuccessful = try {
+            account.synchronize(syncMode)
+        } catch (ex: Exception) {
+            logger.log(Level.WARNING, "Sync error", ex)
+            false
+        }
+        val duration = System.currentTimeMillis() - start
+        logger.log(Level.INFO, "Account ${account.id} sync result: $isSyncSuccessful in $duration ms")
+        return SyncResult(account, isSyncSuccessful, duration)
+    }
+
+    /**
+     * The active account syncs first, then the accounts this sync was requested for, then all others.
+     */
+    private fun prioritize(list: List<WalletAccount<*>>): List<WalletAccount<*>> {
+        val requested = accounts.filterNotNull().map { it.id }.toSet()
+        return list.sortedBy {
+            when (it.id) {
+                walletManager.activeAccountId -> 0
+                in requested -> 1
+                else -> 2
+            }
+        }
     }
 
     private fun broadcastOutgoingTransactions(): Boolean =
@@ -68,4 +109,15 @@ class Synchronizer(val walletManager: WalletManager, val syncMode: SyncMode,
                     .filterNotNull()
                     .filterNot { it.isArchived }
                     .all { it.broadcastOutgoingTransactions() }
+
+    private class SyncResult(val account: WalletAccount<*>, val isSuccessful: Boolean, val durationMillis: Long)
+
+    companion object {
+        private const val MAX_PARALLEL_SYNCS = 8
+        private const val MAX_PARALLEL_SYNCS_PER_COIN_TYPE = 3
+
+        private val syncDispatcher = Executors.newFixedThreadPool(MAX_PARALLEL_SYNCS) { runnable ->
+            Thread(runnable, "Account sync").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+    }
 }
@@ -51,6 +51,9 @@ abstract class WalletModule(private val metaDataStorage: IMetaDataStorage) {
 
     open fun afterAccountsLoaded() {}
 
+    // called by the synchronizer before it synchronizes accounts
+    open fun syncStarted() {}
+
     abstract val id: String
 
     @Throws(IllegalStateException::class)
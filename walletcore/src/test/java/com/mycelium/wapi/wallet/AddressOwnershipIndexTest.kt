@@ -0,0 +1,74 @@
+package com.mycelium.wapi.wallet
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.*
+import java.util.*
+
+class AddressOwnershipIndexTest {
+    private val index = AddressOwnershipIndex()
+
+    @Test
+    fun findsTheOwnerAmongManyAccounts() {
+        val accounts = (0 until 50).map { account -> indexedAccount((0 until 100).map { address(account * 100 + it) }) }
+        accounts.forEach { index.add(it) }
+
+        assertEquals(listOf(accounts[7]), index.getCandidates(address(742)))
+        assertEquals(listOf(accounts[49]), index.getCandidates(address(4999)))
+        assertTrue(index.getCandidates(address(5000)).isEmpty())
+    }
+
+    @Test
+    fun findsAddressesAddedLater() {
+        val account = indexedAccount(listOf(address(1)))
+        index.add(account)
+        verify(account as AddressOwner).setOwnedAddressesListener(index)
+
+        index.addressesAdded(account, listOf(address(2)))
+
+        assertEquals(listOf(account), index.getCandidates(address(2)))
+    }
+
+    @Test
+    fun addingAnAddressAgainKeepsOneCandidate() {
+        val account = indexedAccount(listOf(address(1)))
+        index.add(account)
+        index.addressesAdded(account, listOf(address(1)))
+        index.add(account)
+
+        assertEquals(listOf(account), index.getCandidates(address(1)))
+    }
+
+    @Test
+    fun removedAccountIsNoCandidate() {
+        val account = indexedAccount(listOf(address(1)))
+        index.add(account)
+        index.remove(account.id)
+
+        assertTrue(index.getCandidates(address(1)).isEmpty())
+        verify(account as AddressOwner).setOwnedAddressesListener(null)
+    }
+
+    @Test
+    fun accountsThatCantListTheirAddressesAreAlwaysCandidates() {
+        val account = mock(WalletAccount::class.java)
+        `when`(account.id).thenReturn(UUID.randomUUID())
+        index.add(account)
+
+        assertEquals(listOf(account), index.getCandidates(address(1)))
+    }
+
+    private fun indexedAccount(addresses: Collection<Address>): WalletAccount<*> {
+        val account = mock(WalletAccount::class.java, withSettings().extraInterfaces(AddressOwner::class.java))
+        `when`(account.id).thenReturn(UUID.randomUUID())
+        `when`((account as AddressOwner).getOwnedAddresses()).thenReturn(addresses)
+        return account
+    }
+
+    private fun address(number: Int): Address {
+        val address = mock(Address::class.java)
+        `when`(address.getBytes()).thenReturn(byteArrayOf(0, (number shr 8).toByte(), number.toByte()))
+        return address
+    }
+}
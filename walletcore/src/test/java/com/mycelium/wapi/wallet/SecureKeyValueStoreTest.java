@@ -8,12 +8,19 @@ import com.mycelium.wapi.wallet.btc.InMemoryBtcWalletManagerBacking;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SecureKeyValueStoreTest {
    private static final byte[] ID_1 = HexUtils.toBytes("000102030405060708090a0b0c0d0e0f");
    private static final byte[] VALUE_1 = HexUtils.toBytes("0123456789abcdef");
+   private static final byte[] ID_2 = HexUtils.toBytes("101112131415161718191a1b1c1d1e1f");
+   private static final byte[] VALUE_2 = HexUtils.toBytes("fedcba9876543210");
+   private static final byte[] ID_3 = HexUtils.toBytes("202122232425262728292a2b2c2d2e2f");
 
    private static class MyRandomSource implements RandomSource {
       SecureRandom _rnd;
@@ -44,4 +51,17 @@ public class SecureKeyValueStoreTest {
       byte[] result = store.getPlaintextValue(ID_1);
       assertTrue(BitUtils.areEqual(result, VALUE_1));
    }
+
+   @Test
+   public void retrieveSeveralEncrypted() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryBtcWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      store.encryptAndStoreValue(ID_1, VALUE_1, cipher);
+      store.encryptAndStoreValue(ID_2, VALUE_2, cipher);
+      List<byte[]> result = store.getDecryptedValues(Arrays.asList(ID_2, ID_3, ID_1), cipher);
+      assertEquals(3, result.size());
+      assertTrue(BitUtils.areEqual(result.get(0), VALUE_2));
+      assertNull(result.get(1));
+      assertTrue(BitUtils.areEqual(result.get(2), VALUE_1));
+   }
 }
@@ -0,0 +1,94 @@
+package com.mycelium.wapi.wallet.btc
+
+import com.mrd.bitlib.model.AddressType
+import com.mrd.bitlib.model.OutPoint
+import com.mrd.bitlib.util.Sha256Hash
+import com.mycelium.wapi.model.TransactionEx
+import com.mycelium.wapi.model.TransactionOutputEx
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountContext
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.util.UUID
+
+class InMemoryBtcWalletManagerBackingTest {
+    private val accountId = UUID.randomUUID()
+    private val backing = InMemoryBtcWalletManagerBacking().run {
+        createBip44AccountContext(HDAccountContext(accountId, 0, false, AddressType.P2SH_P2WPKH))
+        getBip44AccountBacking(accountId)
+    }
+
+    private val first = transaction(1, 10)
+    private val second = transaction(2, 11)
+
+    init {
+        backing.putTransactions(listOf(first, second))
+        backing.putTransactionSummaries(listOf(record(first.txid), record(second.txid)),
+                backing.transactionSummariesVersion)
+    }
+
+    @Test
+    fun summariesArePagedInHistoryOrder() {
+        val page = backing.getTransactionSummaries(0, 10)
+
+        assertEquals(listOf(second.txid, first.txid), page.keys.toList())
+        assertEquals(first.txid, page[first.txid]!!.txid)
+    }
+
+    @Test
+    fun putTransactionDropsItsSummary() {
+        backing.putTransaction(TransactionEx(first.txid, first.hash, 12, 1000, byteArrayOf()))
+
+        val page = backing.getTransactionSummaries(0, 10)
+        assertNull(page[first.txid])
+        assertNotNull(page[second.txid])
+    }
+
+    @Test
+    fun outgoingStateDropsTheSummary() {
+        backing.putOutgoingTransaction(first.txid, byteArrayOf())
+        assertNull(backing.getTransactionSummaries(0, 10)[first.txid])
+
+        backing.putTransactionSummaries(listOf(record(first.txid)), backing.transactionSummariesVersion)
+        backing.removeOutgoingTransaction(first.txid)
+        assertNull(backing.getTransactionSummaries(0, 10)[first.txid])
+        assertNotNull(backing.getTransactionSummaries(0, 10)[second.txid])
+    }
+
+    @Test
+    fun parentOutputDropsSummaries() {
+        backing.putParentTransactionOutput(TransactionOutputEx(OutPoint(first.txid, 0), 10, 500, byteArrayOf(), false))
+
+        assertEquals(listOf(null, null), backing.getTransactionSummaries(0, 10).values.toList())
+    }
+
+    @Test
+    fun summariesBuiltBeforeADropAreNotStored() {
+        backing.deleteTransaction(second.txid)
+        val version = backing.transactionSummariesVersion
+        // a sync stores a parent output while the summary is built
+        backing.putParentTransactionOutput(TransactionOutputEx(OutPoint(second.txid, 0), 11, 500, byteArrayOf(), false))
+
+        backing.putTransactionSummaries(listOf(record(first.txid)), version)
+        assertNull(backing.getTransactionSummaries(0, 10)[first.txid])
+
+        backing.putTransactionSummaries(listOf(record(first.txid)), backing.transactionSummariesVersion)
+        assertNotNull(backing.getTransactionSummaries(0, 10)[first.txid])
+    }
+
+    @Test
+    fun deletedTransactionHasNoSummary() {
+        backing.deleteTransaction(first.txid)
+
+        assertEquals(listOf(second.txid), backing.getTransactionSummaries(0, 10).keys.toList())
+    }
+
+    private fun transaction(id: Byte, height: Int): TransactionEx {
+        val txid = Sha256Hash.of(ByteArray(32) { id })
+        return TransactionEx(txid, txid, height, 1000, byteArrayOf())
+    }
+
+    private fun record(txid: Sha256Hash) =
+            TransactionSummaryRecord(txid, txid, 10, 1000, 200, 100, false, emptyList(), emptyList())
+}
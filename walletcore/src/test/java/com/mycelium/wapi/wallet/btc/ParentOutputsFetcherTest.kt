@@ -0,0 +1,127 @@
+package com.mycelium.wapi.wallet.btc
+
+import com.mrd.bitlib.model.*
+import com.mrd.bitlib.util.HexUtils
+import com.mrd.bitlib.util.Sha256Hash
+import com.mycelium.wapi.api.Wapi
+import com.mycelium.wapi.api.WapiResponse
+import com.mycelium.wapi.api.lib.TransactionExApi
+import com.mycelium.wapi.api.request.GetTransactionsRequest
+import com.mycelium.wapi.api.response.GetTransactionsResponse
+import com.mycelium.wapi.model.TransactionEx
+import com.mycelium.wapi.model.TransactionOutputEx
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyCollection
+import org.mockito.Mockito.*
+
+class ParentOutputsFetcherTest {
+    private val backing = mock(BtcAccountBacking::class.java)
+    private val wapi = mock(Wapi::class.java)
+    private val fetcher = ParentOutputsFetcher(backing, wapi)
+
+    private val parent = transaction(OutPoint(Sha256Hash.of(ByteArray(32) { 1 }), 0), 1000, 2000)
+    private val child = transaction(OutPoint(parent.id, 1), 1500)
+
+    init {
+        `when`(backing.getParentTransactionOutputs(anyCollection())).thenReturn(emptyMap())
+        `when`(backing.getTransactions(anyCollection())).thenReturn(emptyMap())
+    }
+
+    @Test
+    fun parentInTheBatchIsUsedDirectly() {
+        // the parent of the parent is not known, so no remote fetching
+        fetcher.fetchStoreAndValidate(listOf(parent, child), false)
+
+        val stored = storedOutputs()
+        assertEquals(listOf(OutPoint(parent.id, 1)), stored.map { it.outPoint })
+        assertEquals(2000, stored[0].value)
+        assertEquals(-1, stored[0].height)
+        verifyZeroInteractions(wapi)
+    }
+
+    @Test
+    fun storedParentIsPreferredToTheBatch() {
+        `when`(backing.getTransactions(anyCollection()))
+                .thenReturn(mapOf(parent.id to TransactionEx(parent.id, parent.hash, 100, 0, parent.toBytes())))
+
+        fetcher.fetchStoreAndValidate(listOf(parent, child), false)
+
+        val stored = storedOutputs()
+        assertEquals(listOf(OutPoint(parent.id, 1)), stored.map { it.outPoint })
+        assertEquals(100, stored[0].height)
+    }
+
+    @Test
+    fun storedParentOutputsAreNotLookedUpAgain() {
+        val known = TransactionOutputEx(OutPoint(parent.id, 1), 5, 2000, byteArrayOf(), false)
+        `when`(backing.getParentTransactionOutputs(anyCollection())).thenReturn(mapOf(known.outPoint to known))
+
+        fetcher.fetchStoreAndValidate(listOf(child), true)
+
+        verify(backing, never()).getTransactions(anyCollection())
+        verify(backing, never()).putParentTransactionOuputs(any())
+        verifyZeroInteractions(wapi)
+    }
+
+    @Test
+    fun storedParentTransactionIsUsed() {
+        val spendsBoth = transaction(listOf(OutPoint(parent.id, 0), OutPoint(parent.id, 1)), 2500)
+        `when`(backing.getTransactions(anyCollection()))
+                .thenReturn(mapOf(parent.id to TransactionEx(parent.id, parent.hash, 100, 0, parent.toBytes())))
+
+        fetcher.fetchStoreAndValidate(listOf(spendsBoth), true)
+
+        val stored = storedOutputs()
+        assertEquals(listOf(1000L, 2000L), stored.map { it.value })
+        assertEquals(listOf(100, 100), stored.map { it.height })
+        verifyZeroInteractions(wapi)
+    }
+
+    @Test
+    fun missingParentsAreFetchedInOneRequest() {
+        val spendsTwice = transaction(listOf(OutPoint(parent.id, 0), OutPoint(parent.id, 1)), 2500)
+        val remoteParent = TransactionExApi(parent.id, parent.hash, 7, 0, parent.toBytes(), 0, false)
+        `when`(wapi.getTransactions(any())).thenReturn(WapiResponse(GetTransactionsResponse(listOf(remoteParent))))
+
+        fetcher.fetchStoreAndValidate(listOf(spendsTwice), true)
+
+        val request = ArgumentCaptor.forClass(GetTransactionsRequest::class.java)
+        verify(wapi, times(1)).getTransactions(request.capture())
+        assertEquals(listOf(parent.id), request.value.txIds.toList())
+        assertEquals(listOf(7, 7), storedOutputs().map { it.height })
+    }
+
+    @Test
+    fun missingParentsAreNotFetchedWithoutRemoteFetching() {
+        fetcher.fetchStoreAndValidate(listOf(child), false)
+
+        verify(backing, never()).putParentTransactionOuputs(any())
+        verifyZeroInteractions(wapi)
+    }
+
+    @Test(expected = RuntimeException::class)
+    fun parentWithWrongHashIsRejected() {
+        val rogueParent = TransactionExApi(parent.id, child.hash, 7, 0, parent.toBytes(), 0, false)
+        `when`(wapi.getTransactions(any())).thenReturn(WapiResponse(GetTransactionsResponse(listOf(rogueParent))))
+
+        fetcher.fetchStoreAndValidate(listOf(child), true)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun storedOutputs(): List<TransactionOutputEx> {
+        val outputs = ArgumentCaptor.forClass(List::class.java) as ArgumentCaptor<List<TransactionOutputEx>>
+        verify(backing).putParentTransactionOuputs(outputs.capture())
+        return outputs.value
+    }
+
+    private fun transaction(spent: OutPoint, vararg values: Long) = transaction(listOf(spent), *values)
+
+    private fun transaction(spent: List<OutPoint>, vararg values: Long): BitcoinTransaction {
+        val script = ScriptOutput.fromScriptBytes(HexUtils.toBytes("76a914" + "11".repeat(20) + "88ac"))
+        return BitcoinTransaction(1, spent.map { TransactionInput(it, ScriptInput.EMPTY) }.toTypedArray(),
+                values.map { TransactionOutput(it, script) }.toTypedArray(), 0)
+    }
+}
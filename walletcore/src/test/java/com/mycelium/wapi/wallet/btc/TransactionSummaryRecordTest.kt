@@ -0,0 +1,48 @@
+package com.mycelium.wapi.wallet.btc
+
+import com.mrd.bitlib.util.Sha256Hash
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class TransactionSummaryRecordTest {
+    private val record = TransactionSummaryRecord(Sha256Hash.of(ByteArray(32) { 1 }), Sha256Hash.of(ByteArray(32) { 2 }),
+            -1, 1600000000, 225, 1500, true,
+            listOf(TransactionSummaryRecord.Item("32LRQQsZt2dAzZq5HADLDEw5Fn8NzLhT35", 5000),
+                    TransactionSummaryRecord.Item(null, 2500)),
+            listOf(TransactionSummaryRecord.Item("38irRg7yBNjrpiAFxK2ac6GX1EHhYyjCLy", 6000)))
+
+    @Test
+    fun recordIsReadAsWritten() {
+        val read = TransactionSummaryRecord.fromBytes(record.toBytes())!!
+
+        assertEquals(record.txid, read.txid)
+        assertEquals(record.hash, read.hash)
+        assertEquals(-1, read.height)
+        assertEquals(1600000000, read.time)
+        assertEquals(225, read.rawSize)
+        assertEquals(1500L, read.fee)
+        assertEquals(true, read.isQueuedOutgoing)
+        assertEquals(listOf("32LRQQsZt2dAzZq5HADLDEw5Fn8NzLhT35", null), read.inputs.map { it.address })
+        assertEquals(listOf(5000L, 2500L), read.inputs.map { it.value })
+        assertEquals(listOf("38irRg7yBNjrpiAFxK2ac6GX1EHhYyjCLy"), read.outputs.map { it.address })
+        assertEquals(listOf(6000L), read.outputs.map { it.value })
+        assertArrayEquals(record.toBytes(), read.toBytes())
+    }
+
+    @Test
+    fun recordOfAnotherFormatIsNotRead() {
+        val bytes = record.toBytes()
+        bytes[0] = 1
+
+        assertNull(TransactionSummaryRecord.fromBytes(bytes))
+    }
+
+    @Test
+    fun truncatedRecordIsNotRead() {
+        val bytes = record.toBytes()
+
+        assertNull(TransactionSummaryRecord.fromBytes(bytes.copyOf(bytes.size - 1)))
+    }
+}
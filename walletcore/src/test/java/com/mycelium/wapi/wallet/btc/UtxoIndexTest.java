@@ -0,0 +1,134 @@
+package com.mycelium.wapi.wallet.btc;
+
+import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.BipDerivationType;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.*;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.HexUtils;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.model.TransactionOutputSummary;
+import com.mycelium.wapi.wallet.AesKeyCipher;
+import com.mycelium.wapi.wallet.KeyCipher;
+import com.mycelium.wapi.wallet.SecureKeyValueStore;
+import com.mycelium.wapi.wallet.btc.bip44.HDAccount;
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountContext;
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountKeyManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class UtxoIndexTest {
+    private static final String MASTER_SEED_WORDS = "degree rain vendor coffee push math onion inside pyramid blush stick treat";
+    private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+    private AbstractBtcAccount account;
+    private Bip44BtcAccountBacking accountBacking;
+    private byte[] ourScript;
+
+    @Before
+    public void setup() throws KeyCipher.InvalidKeyCipher {
+        InMemoryBtcWalletManagerBacking backing = new InMemoryBtcWalletManagerBacking();
+        SecureKeyValueStore store = new SecureKeyValueStore(backing, mock(RandomSource.class));
+        byte[] seed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "").getBip32Seed();
+        Map<BipDerivationType, HDAccountKeyManager> keyManagers = new HashMap<>();
+        for (BipDerivationType derivationType : BipDerivationType.values()) {
+            keyManagers.put(derivationType, HDAccountKeyManager.createNew(HdKeyNode.fromSeed(seed, derivationType),
+                    NETWORK, 0, store, AesKeyCipher.defaultKeyCipher(), derivationType));
+        }
+        UUID accountId = keyManagers.get(BipDerivationType.BIP44).getAccountId();
+        HDAccountContext context = new HDAccountContext(accountId, 0, false,
+                HDAccountContext.ACCOUNT_TYPE_FROM_MASTERSEED, 0, Arrays.asList(BipDerivationType.values()));
+        backing.createBip44AccountContext(context);
+        accountBacking = backing.getBip44AccountBacking(accountId);
+        HDAccount hdAccount = new HDAccount(context, keyManagers, NETWORK, accountBacking, mock(Wapi.class),
+                new Reference<>(ChangeAddressMode.PRIVACY));
+        ourScript = new ScriptOutputP2PKH(hdAccount.getReceivingAddress(AddressType.P2PKH).getTypeSpecificBytes())
+                .getScriptBytes();
+        // the helpers are package private, so they are called through the base class
+        account = hdAccount;
+    }
+
+    @Test
+    public void indexFollowsTheBacking() {
+        OutPoint confirmed = outPoint(1, 0);
+        OutPoint unconfirmed = outPoint(2, 0);
+
+        account.putUnspentOutput(output(confirmed, 5, 1000));
+        account.putUnspentOutput(output(unconfirmed, -1, 2000));
+        assertIndexMatchesBacking(1000);
+
+        // confirmed later
+        account.putUnspentOutput(output(unconfirmed, 7, 2000));
+        assertIndexMatchesBacking(3000);
+
+        account.deleteUnspentOutput(confirmed);
+        assertIndexMatchesBacking(2000);
+
+        // changed behind the account's back, the index only learns about it when it is dropped
+        accountBacking.putUnspentOutput(output(outPoint(3, 0), 8, 4000));
+        assertEquals(2000, account.calculateLocalBalance().confirmed);
+        account.invalidateUtxoIndex();
+        assertIndexMatchesBacking(6000);
+    }
+
+    @Test
+    public void coluDustIsDecidedWhenTheOutputIsPut() {
+        BitcoinTransaction coluTransaction = new BitcoinTransaction(1,
+                new TransactionInput[]{new TransactionInput(outPoint(9, 0), ScriptInput.EMPTY)},
+                new TransactionOutput[]{new TransactionOutput(600, ScriptOutput.fromScriptBytes(ourScript)),
+                        // colored coin transfer of asset output 0
+                        new TransactionOutput(0, ScriptOutput.fromScriptBytes(HexUtils.toBytes("6a06434302150003")))},
+                0);
+        TransactionOutputEx dust = output(new OutPoint(coluTransaction.getId(), 0), 5, 600);
+        // load the index, so the output is classified when it is put
+        assertEquals(0, account.calculateLocalBalance().confirmed);
+
+        // the transaction is not known yet, so the output is not taken for colored coin dust
+        account.putUnspentOutput(dust);
+        assertEquals(600, account.calculateLocalBalance().confirmed);
+
+        accountBacking.putTransaction(new TransactionEx(coluTransaction.getId(), coluTransaction.getHash(), 5, 0,
+                coluTransaction.toBytes()));
+        assertEquals("kept until the output is put again", 600, account.calculateLocalBalance().confirmed);
+
+        account.putUnspentOutput(dust);
+        assertEquals(0, account.calculateLocalBalance().confirmed);
+        account.invalidateUtxoIndex();
+        assertIndexMatchesBacking(0);
+    }
+
+    private void assertIndexMatchesBacking(long confirmedValue) {
+        Set<OutPoint> stored = new HashSet<>();
+        for (TransactionOutputEx output : accountBacking.getAllUnspentOutputs()) {
+            stored.add(output.outPoint);
+        }
+        Set<OutPoint> indexed = new HashSet<>();
+        for (TransactionOutputSummary summary : account.getUnspentTransactionOutputSummary()) {
+            indexed.add(summary.outPoint);
+        }
+        assertEquals(stored, indexed);
+        assertEquals(confirmedValue, account.calculateLocalBalance().confirmed);
+    }
+
+    private TransactionOutputEx output(OutPoint outPoint, int height, long value) {
+        return new TransactionOutputEx(outPoint, height, value, ourScript, false);
+    }
+
+    // not the coinbase out point of an all zero txid
+    private static OutPoint outPoint(int seed, int index) {
+        return new OutPoint(HashUtils.sha256(new byte[]{(byte) seed}), index);
+    }
+}
@@ -0,0 +1,100 @@
+package com.mycelium.wapi.wallet.btc.bip44
+
+import com.mrd.bitlib.crypto.BipDerivationType
+import com.mrd.bitlib.crypto.HdKeyNode
+import com.mrd.bitlib.model.BitcoinAddress
+import com.mrd.bitlib.model.NetworkParameters
+import com.mrd.bitlib.model.hdpath.HdKeyPath
+import com.mycelium.wapi.api.Wapi
+import com.mycelium.wapi.api.WapiResponse
+import com.mycelium.wapi.api.request.QueryAddressStatusesRequest
+import com.mycelium.wapi.api.response.QueryAddressStatusesResponse
+import com.mycelium.wapi.wallet.btc.bip44.HDAccountDiscovery.Activity
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.*
+import java.util.concurrent.Executors
+
+class HDAccountDiscoveryTest {
+    private val network = NetworkParameters.testNetwork
+    private val wapi = mock(Wapi::class.java)
+    private val executor = Executors.newFixedThreadPool(2)
+    private val discovery = HDAccountDiscovery(wapi, network, executor)
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun allBranchesAreCheckedInOneRequest() {
+        val branches = (0..1).flatMap { index -> BipDerivationType.values().map { branch(index, it) } }
+        val used = receivingAddress(branches[4])
+        answerStatuses { address -> if (address == used) "status" else QueryAddressStatusesResponse.NO_HISTORY }
+
+        val results = discovery.findActivity(branches)
+
+        assertEquals(branches.indices.map { if (it == 4) Activity.USED else Activity.UNUSED }, results.map { it.activity })
+        val request = ArgumentCaptor.forClass(QueryAddressStatusesRequest::class.java)
+        verify(wapi, times(1)).queryAddressStatuses(request.capture())
+        val windowSize = HDAccount.EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH + HDAccount.INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH
+        assertEquals(branches.size * windowSize, request.value.addresses.size)
+        assertFalse("the scanned addresses are not subscribed to", request.value.subscribe)
+        assertEquals(branches.size * windowSize, discovery.stats.addresses)
+        assertEquals(1, discovery.stats.requests)
+    }
+
+    @Test
+    fun branchWithUnknownStatusesIsUnknown() {
+        val branches = listOf(branch(0, BipDerivationType.BIP44), branch(0, BipDerivationType.BIP84))
+        val unknown = receivingAddress(branches[1])
+        answerStatuses { address -> if (address == unknown) null else QueryAddressStatusesResponse.NO_HISTORY }
+
+        assertEquals(listOf(Activity.UNUSED, Activity.UNKNOWN), discovery.findActivity(branches).map { it.activity })
+    }
+
+    @Test
+    fun branchWithoutRootIsUnknown() {
+        answerStatuses { QueryAddressStatusesResponse.NO_HISTORY }
+        val branches = listOf(branch(0, BipDerivationType.BIP44), HDAccountDiscovery.Branch(1, BipDerivationType.BIP44) { null })
+
+        val results = discovery.findActivity(branches)
+
+        assertEquals(listOf(Activity.UNUSED, Activity.UNKNOWN), results.map { it.activity })
+        assertEquals(null, results[1].accountRoot)
+    }
+
+    @Test
+    fun failingServerMakesAllBranchesUnknown() {
+        `when`(wapi.queryAddressStatuses(any()))
+                .thenReturn(WapiResponse<QueryAddressStatusesResponse>(Wapi.ERROR_CODE_NO_SERVER_CONNECTION, null))
+
+        val results = discovery.findActivity(listOf(branch(0, BipDerivationType.BIP44), branch(0, BipDerivationType.BIP49)))
+
+        assertEquals(listOf(Activity.UNKNOWN, Activity.UNKNOWN), results.map { it.activity })
+    }
+
+    private fun answerStatuses(status: (BitcoinAddress) -> String?) {
+        `when`(wapi.queryAddressStatuses(any())).thenAnswer { invocation ->
+            val request = invocation.getArgument<QueryAddressStatusesRequest>(0)
+            val statuses = request.addresses.mapNotNull { address -> status(address)?.let { address to it } }.toMap()
+            WapiResponse(QueryAddressStatusesResponse(100, statuses))
+        }
+    }
+
+    private fun receivingAddress(branch: HDAccountDiscovery.Branch) =
+            branch.accountRoot()!!.createChildNode(0).createChildNode(7).publicKey
+                    .toAddress(network, branch.derivationType.addressType)
+
+    private fun branch(index: Int, type: BipDerivationType) = HDAccountDiscovery.Branch(index, type) {
+        HdKeyNode.fromSeed(SEED, type).createChildNode(HdKeyPath.valueOf("m/44'/1'/$index'"))
+    }
+
+    companion object {
+        private val SEED = ByteArray(32) { it.toByte() }
+    }
+}
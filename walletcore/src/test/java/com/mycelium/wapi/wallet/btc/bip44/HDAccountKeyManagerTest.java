@@ -0,0 +1,59 @@
+package com.mycelium.wapi.wallet.btc.bip44;
+
+import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.BipDerivationType;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mycelium.wapi.wallet.AesKeyCipher;
+import com.mycelium.wapi.wallet.KeyCipher;
+import com.mycelium.wapi.wallet.SecureKeyValueStore;
+import com.mycelium.wapi.wallet.btc.InMemoryBtcWalletManagerBacking;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Mockito.mock;
+
+public class HDAccountKeyManagerTest {
+    private static final String MASTER_SEED_WORDS = "degree rain vendor coffee push math onion inside pyramid blush stick treat";
+    private final KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+    private HDAccountKeyManager keyManager;
+
+    @Before
+    public void setup() throws KeyCipher.InvalidKeyCipher {
+        SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryBtcWalletManagerBacking(),
+                mock(RandomSource.class));
+        Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+        keyManager = HDAccountKeyManager.createNew(HdKeyNode.fromSeed(masterSeed.getBip32Seed(), null),
+                NetworkParameters.productionNetwork, 0, store, cipher, BipDerivationType.BIP44);
+    }
+
+    @Test
+    public void signingSessionKeysMatchSingleKeys() throws KeyCipher.InvalidKeyCipher {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            indexes.add(i);
+        }
+        try (HDAccountKeyManager.SigningSession session = keyManager.openSigningSession(cipher)) {
+            for (boolean isChangeChain : new boolean[]{false, true}) {
+                // one key on its own, the rest in advance on several threads
+                assertKeyMatches(session, isChangeChain, 41);
+                session.deriveKeys(isChangeChain, indexes);
+                for (int index : indexes) {
+                    assertKeyMatches(session, isChangeChain, index);
+                }
+            }
+        }
+    }
+
+    private void assertKeyMatches(HDAccountKeyManager.SigningSession session, boolean isChangeChain, int index)
+            throws KeyCipher.InvalidKeyCipher {
+        assertArrayEquals(keyManager.getPrivateKey(isChangeChain, index, cipher).getPrivateKeyBytes(),
+                session.getPrivateKey(isChangeChain, index).getPrivateKeyBytes());
+    }
+}
@@ -0,0 +1,169 @@
+package com.mycelium.wapi.wallet.btc.bip44;
+
+import com.google.common.base.Optional;
+import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.BipDerivationType;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.*;
+import com.mrd.bitlib.model.hdpath.HdKeyPath;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.generated.wallet.database.WalletDB;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.*;
+import com.mycelium.wapi.wallet.btc.BTCSettings;
+import com.mycelium.wapi.wallet.btc.Bip44BtcAccountBacking;
+import com.mycelium.wapi.wallet.btc.BtcWalletManagerBacking;
+import com.mycelium.wapi.wallet.btc.ChangeAddressMode;
+import com.mycelium.wapi.wallet.btc.InMemoryBtcWalletManagerBacking;
+import com.mycelium.wapi.wallet.btc.Reference;
+import com.mycelium.wapi.wallet.masterseed.MasterSeedManager;
+import com.mycelium.wapi.wallet.metadata.IMetaDataStorage;
+import com.mycelium.wapi.wallet.metadata.MetadataKeyCategory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class HDAccountTransactionSummaryTest {
+    private static final String MASTER_SEED_WORDS = "degree rain vendor coffee push math onion inside pyramid blush stick treat";
+    private final Wapi fakeWapi = mock(Wapi.class);
+    private Bip39.MasterSeed masterSeed;
+    private HDAccount account;
+    private Bip44BtcAccountBacking accountBacking;
+
+    @Before
+    public void setup() throws KeyCipher.InvalidKeyCipher {
+        BtcWalletManagerBacking backing = new InMemoryBtcWalletManagerBacking();
+        SecureKeyValueStore store = new SecureKeyValueStore(backing, mock(RandomSource.class));
+        KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+        masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+
+        HashMap<String, CurrencySettings> currenciesSettingsMap = new HashMap<>();
+        BTCSettings settings = new BTCSettings(AddressType.P2SH_P2WPKH, new Reference<>(ChangeAddressMode.PRIVACY));
+        currenciesSettingsMap.put(BitcoinHDModule.ID, settings);
+        WalletManager walletManager = new WalletManager(NetworkParameters.productionNetwork, fakeWapi, fakeWapi,
+                currenciesSettingsMap, mock(WalletDB.class));
+        new MasterSeedManager(store).configureBip32MasterSeed(masterSeed, cipher);
+        walletManager.add(new BitcoinHDModule(backing, store, NetworkParameters.productionNetwork, fakeWapi, settings,
+                new IMetaDataStorage() {
+                    @Override
+                    public void storeKeyCategoryValueEntry(MetadataKeyCategory keyCategory, String value) {
+                    }
+
+                    @Override
+                    public String getKeyCategoryValueEntry(String key, String category, String defaultValue) {
+                        return "";
+                    }
+
+                    @Override
+                    public Optional<String> getFirstKeyForCategoryValue(String category, String value) {
+                        return Optional.absent();
+                    }
+                }, null, mock(LoadingProgressUpdater.class), null));
+
+        UUID accountId = walletManager.createAccounts(new AdditionalHDAccountConfig()).get(0);
+        account = (HDAccount) walletManager.getAccount(accountId);
+        accountBacking = backing.getBip44AccountBacking(accountId);
+    }
+
+    /**
+     * Test that a stored summary shows what is ours by the addresses the account knows when it is read, not by those
+     * it knew when the summary was stored
+     */
+    @Test
+    public void storedSummaryFollowsAddressesLearnedLater() {
+        // index 24 and 25 are beyond the look ahead window of the new account
+        BitcoinAddress funding = externalAddress(0, 24);
+        BitcoinAddress receiving = externalAddress(0, 25);
+        BitcoinAddress foreign = externalAddress(1, 0);
+        OutPoint parent = new OutPoint(HashUtils.sha256(new byte[32]), 0);
+        accountBacking.putParentTransactionOutput(new TransactionOutputEx(parent, 5, 3000,
+                scriptOutput(funding).getScriptBytes(), false));
+        BitcoinTransaction tx = transaction(parent, new TransactionOutput(1000, scriptOutput(receiving)),
+                new TransactionOutput(1500, scriptOutput(foreign)));
+        accountBacking.putTransaction(TransactionEx.fromUnconfirmedTransaction(tx));
+
+        TransactionSummary summary = account.getTransactionSummaries(0, 10).get(0);
+        assertEquals(0, summary.getTransferred().getValueAsLong());
+        assertEquals(2, summary.getDestinationAddresses().size());
+        assertNotNull(accountBacking.getTransactionSummaries(0, 10).get(tx.getId()));
+
+        // activity at index 5 moves the look ahead window up to index 25
+        account.onNewTransaction(transaction(new OutPoint(HashUtils.sha256(new byte[32]), 1),
+                new TransactionOutput(100, scriptOutput(externalAddress(0, 5)))));
+
+        assertNotNull(accountBacking.getTransactionSummaries(0, 10).get(tx.getId()));
+        summary = account.getTransactionSummaries(0, 10).get(0);
+        assertEquals(-2000, summary.getTransferred().getValueAsLong());
+        assertEquals(Collections.<Address>singletonList(AddressUtils.fromAddress(foreign)),
+                summary.getDestinationAddresses());
+    }
+
+    /**
+     * Test that a summary built while a sync stores a parent output of its transaction is not stored, as it was built
+     * without that output, and that it is built again with the output next time
+     */
+    @Test
+    public void summaryBuiltWhileAParentOutputIsStoredIsNotKept() {
+        OutPoint parent = new OutPoint(HashUtils.sha256(new byte[32]), 0);
+        final TransactionOutputEx parentOutput = new TransactionOutputEx(parent, 5, 3000,
+                scriptOutput(externalAddress(1, 0)).getScriptBytes(), false);
+        BitcoinTransaction tx = transaction(parent, new TransactionOutput(1000, scriptOutput(externalAddress(0, 0))));
+        accountBacking.putTransaction(TransactionEx.fromUnconfirmedTransaction(tx));
+
+        Bip44BtcAccountBacking racingBacking = mock(Bip44BtcAccountBacking.class, delegatesTo(accountBacking));
+        doAnswer(new Answer<Map<OutPoint, TransactionOutputEx>>() {
+            @Override
+            public Map<OutPoint, TransactionOutputEx> answer(InvocationOnMock invocation) {
+                Collection<OutPoint> outPoints = invocation.getArgument(0);
+                Map<OutPoint, TransactionOutputEx> outputs = accountBacking.getParentTransactionOutputs(outPoints);
+                // the sync stores the output after the account looked up the parent outputs
+                accountBacking.putParentTransactionOutput(parentOutput);
+                return outputs;
+            }
+        }).when(racingBacking).getParentTransactionOutputs(anyCollection());
+        HDAccount racingAccount = new HDAccount(account.getContext(), account.getKeyManagerMap(),
+                NetworkParameters.productionNetwork, racingBacking, fakeWapi,
+                new Reference<>(ChangeAddressMode.PRIVACY));
+
+        assertEquals(0, racingAccount.getTransactionSummaries(0, 10).get(0).getInputs().size());
+        assertNull(accountBacking.getTransactionSummaries(0, 10).get(tx.getId()));
+
+        assertEquals(1, account.getTransactionSummaries(0, 10).get(0).getInputs().size());
+        assertNotNull(accountBacking.getTransactionSummaries(0, 10).get(tx.getId()));
+    }
+
+    private BitcoinAddress externalAddress(int accountIndex, int index) {
+        HdKeyNode node = HdKeyNode.fromSeed(masterSeed.getBip32Seed(), BipDerivationType.BIP49)
+                .createChildNode(HdKeyPath.valueOf("m/49'/0'/" + accountIndex + "'/0/" + index));
+        return node.getPublicKey().toAddress(NetworkParameters.productionNetwork, AddressType.P2SH_P2WPKH, false);
+    }
+
+    private static ScriptOutput scriptOutput(BitcoinAddress address) {
+        return new ScriptOutputP2SH(address.getTypeSpecificBytes());
+    }
+
+    private static BitcoinTransaction transaction(OutPoint spent, TransactionOutput... outputs) {
+        return new BitcoinTransaction(1, new TransactionInput[]{new TransactionInput(spent, ScriptInput.EMPTY)},
+                outputs, 0);
+    }
+}
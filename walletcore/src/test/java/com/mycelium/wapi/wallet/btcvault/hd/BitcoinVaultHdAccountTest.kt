@@ -0,0 +1,112 @@
+package com.mycelium.wapi.wallet.btcvault.hd
+
+import com.mrd.bitlib.crypto.Bip39
+import com.mrd.bitlib.crypto.BipDerivationType
+import com.mrd.bitlib.crypto.HdKeyNode
+import com.mrd.bitlib.crypto.RandomSource
+import com.mrd.bitlib.model.BitcoinAddress
+import com.mycelium.generated.wallet.database.WalletDB
+import com.mycelium.net.ServerEndpoints
+import com.mycelium.testhelper.FakeElectrumXServer
+import com.mycelium.wapi.api.AddressStatusListener
+import com.mycelium.wapi.api.WapiClientElectrumX
+import com.mycelium.wapi.api.jsonrpc.TcpEndpoint
+import com.mycelium.wapi.wallet.AesKeyCipher
+import com.mycelium.wapi.wallet.SecureKeyValueStore
+import com.mycelium.wapi.wallet.SyncMode
+import com.mycelium.wapi.wallet.btc.ChangeAddressMode
+import com.mycelium.wapi.wallet.btc.InMemoryBtcWalletManagerBacking
+import com.mycelium.wapi.wallet.btc.Reference
+import com.mycelium.wapi.wallet.btcvault.BTCVNetworkParameters
+import com.mycelium.wapi.wallet.btcvault.BtcvAddress
+import com.mycelium.wapi.wallet.btcvault.BtcvAddressFactory
+import com.mycelium.wapi.wallet.btcvault.coins.BitcoinVaultTest
+import com.mycelium.wapi.wallet.coins.Balance
+import com.mycelium.wapi.wallet.genericdb.*
+import com.mycelium.wapi.wallet.manager.HDAccountKeyManager
+import com.squareup.sqldelight.sqlite.driver.JdbcSqliteDriver
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class BitcoinVaultHdAccountTest {
+    private val network = BTCVNetworkParameters.testNetwork
+    // the script hashes asked for unspent outputs
+    private val listedScriptHashes = Collections.synchronizedList(ArrayList<String>())
+    private val server = FakeElectrumXServer { method, params ->
+        when (method) {
+            "blockchain.headers.subscribe" -> """{"height": 100, "hex": ""}"""
+            "blockchain.scripthash.listunspent" -> {
+                listedScriptHashes.add(params!!.asJsonArray[0].asString)
+                "[]"
+            }
+            "blockchain.scripthash.get_history" -> "[]"
+            // null for the subscriptions, all addresses are unused
+            else -> "null"
+        }
+    }
+    private val wapi = WapiClientElectrumX(mock(ServerEndpoints::class.java),
+            arrayOf(TcpEndpoint("localhost", server.port, false)), "testing", 29)
+
+    @After
+    fun tearDown() {
+        wapi.setNetworkConnected(false)
+        server.close()
+    }
+
+    @Test
+    fun statusSyncOnlySyncsTheChangedAddress() {
+        val (account, keyManager) = createAccount()
+        assertTrue(account.synchronize(SyncMode.FULL_SYNC_ALL_ACCOUNTS))
+        assertTrue("a full sync asks for all addresses", listedScriptHashes.size > 1)
+        listedScriptHashes.clear()
+
+        val changed = keyManager.getAddress(false, 1)!!
+        val notified = CountDownLatch(1)
+        wapi.addressStatusListener = object : AddressStatusListener {
+            override fun addressStatusChanged(address: BitcoinAddress) = notified.countDown()
+        }
+        server.notify("blockchain.scripthash.subscribe", """["${changed.scriptHash.toHex()}", "aa"]""")
+        assertTrue(notified.await(10, TimeUnit.SECONDS))
+
+        assertTrue(account.synchronize(SyncMode.STATUS_SYNC))
+        assertEquals(listOf(changed.scriptHash.toHex()), listedScriptHashes.toList())
+        assertEquals("aa", account.backing.getAddressStatuses()[changed.toString()])
+
+        listedScriptHashes.clear()
+        assertTrue(account.synchronize(SyncMode.STATUS_SYNC))
+        assertTrue("nothing changed since", listedScriptHashes.isEmpty())
+    }
+
+    private fun createAccount(): Pair<BitcoinVaultHdAccount, HDAccountKeyManager<BtcvAddress>> {
+        val driver = JdbcSqliteDriver("jdbc:sqlite::memory:", Properties())
+        WalletDB.Schema.create(driver)
+        val db = WalletDB(driver, accountBackingAdapter, accountContextAdapter, BTCVAccountBackingAdapter,
+                BTCVAddressStatusAdapter, BTCVContextAdapter,
+                BTCVOutgoingTxAdapter, BTCVPtxoAdapter, BTCVRefersPtxoAdapter, BTCVTransactionAdapter, BTCVUtxoAdapter,
+                erc20ContextAdapter, ethAccountBackingAdapter, ethContextAdapter, feeEstimatorAdapter,
+                fioAccountBackingAdapter, fioContextAdapter, fioKnownNamesAdapter, fioNameAccountMappingsAdapter,
+                fioOtherBlockchainTransactionsAdapter, fioReceivedRequestsAdapter, fioSentRequestsAdapter)
+        val store = SecureKeyValueStore(InMemoryBtcWalletManagerBacking(), mock(RandomSource::class.java))
+        val masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" ").toTypedArray(), "")
+        val keyManagers = BipDerivationType.values().associate { derivationType ->
+            derivationType to HDAccountKeyManager.createNew(HdKeyNode.fromSeed(masterSeed.bip32Seed, derivationType),
+                    BitcoinVaultTest, network, 0, store, AesKeyCipher.defaultKeyCipher(), derivationType,
+                    BtcvAddressFactory(BitcoinVaultTest, network))
+        }
+        val context = BitcoinVaultHDAccountContext(keyManagers.getValue(BipDerivationType.BIP44).accountId,
+                BitcoinVaultTest, 0, false, "Bitcoin Vault 1", Balance.getZeroBalance(BitcoinVaultTest), {})
+        val account = BitcoinVaultHdAccount(context, keyManagers, network, wapi,
+                BitcoinVaultHDAccountBacking(db, context.uuid), null, Reference(ChangeAddressMode.PRIVACY))
+        return account to keyManagers.getValue(BipDerivationType.BIP44)
+    }
+
+    companion object {
+        private const val MASTER_SEED_WORDS = "degree rain vendor coffee push math onion inside pyramid blush stick treat"
+    }
+}
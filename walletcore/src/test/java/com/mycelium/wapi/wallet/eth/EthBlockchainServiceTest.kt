@@ -0,0 +1,129 @@
+package com.mycelium.wapi.wallet.eth
+
+import com.mrd.bitlib.model.NetworkParameters
+import com.mycelium.net.HttpEndpoint
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.math.BigInteger
+import java.net.InetSocketAddress
+import java.util.concurrent.CopyOnWriteArrayList
+
+class EthBlockchainServiceTest {
+    // a stub of the Blockbook and Etherscan APIs, serving the pages set in the test
+    private val server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+    private val requests = CopyOnWriteArrayList<String>()
+    @Volatile
+    private var pages = listOf<List<String>>()
+    private val baseUrl: String
+    private val service: EthBlockchainService
+
+    init {
+        server.createContext("/") { exchange ->
+            val query = exchange.requestURI.query ?: ""
+            requests.add(exchange.requestURI.toString())
+            val body = if (exchange.requestURI.path.startsWith("/api/v2/address/")) {
+                val page = Regex("page=(\\d+)").find(query)?.groupValues?.get(1)?.toInt() ?: 1
+                """{"totalPages":${pages.size},"transactions":[${pages[page - 1].joinToString(",")}]}"""
+            } else if (exchange.requestURI.path.startsWith("/api/v2/sendtx/")) {
+                """{"result":"0x05"}"""
+            } else {
+                """{"status":1,"result":[]}"""
+            }
+            val bytes = body.toByteArray()
+            exchange.sendResponseHeaders(200, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.start()
+        baseUrl = "http://127.0.0.1:${server.address.port}"
+        service = EthBlockchainService(listOf(HttpEndpoint(baseUrl)), NetworkParameters.testNetwork, baseUrl)
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+
+    @Test
+    fun firstSyncFetchesAllPages() {
+        pages = listOf(listOf(tx("0x01", -1, 0), tx("0x02", 300, 1)), listOf(tx("0x03", 200, 101)),
+                listOf(tx("0x04", 100, 201)))
+
+        val txs = service.getTransactions(ADDRESS)
+
+        assertEquals(setOf("0x01", "0x02", "0x03", "0x04"), txs.map { it.txid }.toSet())
+        assertEquals(3, addressRequests().size)
+    }
+
+    @Test
+    fun accountsOfOneAddressShareTheFetch() {
+        pages = listOf(listOf(tx("0x01", 300, 1), tokenTx("0x02", 299, 2)))
+
+        assertEquals(listOf("0x01"), service.getTransactions(ADDRESS).map { it.txid })
+        assertEquals(listOf("0x02"), service.getTransactions(ADDRESS, TOKEN).map { it.txid })
+        assertEquals(1, addressRequests().size)
+    }
+
+    @Test
+    fun fetchesAreOnlySharedWithinASyncRound() {
+        pages = listOf(listOf(tx("0x01", 300, 1)))
+        service.getTransactions(ADDRESS)
+
+        pages = listOf(listOf(tx("0x02", 301, 1), tx("0x01", 300, 2)))
+        service.startSyncRound()
+        assertEquals(setOf("0x01", "0x02"), service.getTransactions(ADDRESS).map { it.txid }.toSet())
+        assertEquals(2, addressRequests().size)
+    }
+
+    @Test
+    fun broadcastsEndTheSharing() {
+        pages = listOf(listOf(tx("0x01", 300, 1)))
+        service.getTransactions(ADDRESS)
+
+        pages = listOf(listOf(tx("0x05", -1, 0), tx("0x01", 300, 1)))
+        assertTrue(service.sendTransaction("00").success)
+        assertEquals(setOf("0x01", "0x05"), service.getTransactions(ADDRESS).map { it.txid }.toSet())
+    }
+
+    @Test
+    fun laterSyncsOnlyFetchNewPages() {
+        pages = listOf(listOf(tx("0x01", -1, 0), tx("0x02", 300, 1)), listOf(tx("0x03", 200, 101)),
+                listOf(tx("0x04", 100, 201)))
+        val firstTxs = service.getTransactions(ADDRESS).associateBy { it.txid }
+        requests.clear()
+
+        // 0x01 was replaced by 0x05, and ten blocks came
+        pages = listOf(listOf(tx("0x05", 310, 1), tx("0x02", 300, 11)), listOf(tx("0x03", 200, 111)),
+                listOf(tx("0x04", 100, 211)))
+        service.startSyncRound()
+        val txs = service.getTransactions(ADDRESS).associateBy { it.txid }
+
+        // page 1 doesn't reach below the last tip, page 2 does, page 3 is old
+        assertEquals(2, addressRequests().size)
+        assertTrue(addressRequests().none { it.contains("page=3") })
+        assertEquals(setOf("0x02", "0x03", "0x04", "0x05"), txs.keys)
+        assertEquals(BigInteger.valueOf(211), txs.getValue("0x04").confirmations)
+        // the transactions handed out before don't change
+        assertEquals(BigInteger.valueOf(201), firstTxs.getValue("0x04").confirmations)
+    }
+
+    private fun addressRequests() = requests.filter { it.startsWith("/api/v2/address/") }
+
+    private fun tx(txid: String, blockHeight: Int, confirmations: Int, tokenTransfers: String = "") = """
+        {"txid":"$txid","vin":[{"addresses":["$ADDRESS"]}],"vout":[{"addresses":["$OTHER"]}],
+        "blockHeight":$blockHeight,"confirmations":$confirmations,"blockTime":1,"value":"1","fees":"1",
+        "ethereumSpecific":{"nonce":1,"gasLimit":21000,"gasUsed":21000,"gasPrice":1,"status":1},
+        "tokenTransfers":[$tokenTransfers]}"""
+
+    // a token transfer to the address, which is not an ETH transaction of the address
+    private fun tokenTx(txid: String, blockHeight: Int, confirmations: Int) = tx(txid, blockHeight, confirmations,
+            """{"from":"$OTHER","to":"$ADDRESS","token":"$TOKEN","name":"Token","value":"5"}""")
+
+    companion object {
+        private const val ADDRESS = "0x1111111111111111111111111111111111111111"
+        private const val OTHER = "0x2222222222222222222222222222222222222222"
+        private const val TOKEN = "0x3333333333333333333333333333333333333333"
+    }
+}
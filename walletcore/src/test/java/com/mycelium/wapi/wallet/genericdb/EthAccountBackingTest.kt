@@ -0,0 +1,221 @@
+package com.mycelium.wapi.wallet.genericdb
+
+import com.mycelium.generated.wallet.database.WalletDB
+import com.mycelium.wapi.wallet.coins.Value
+import com.mycelium.wapi.wallet.erc20.coins.ERC20Token
+import com.mycelium.wapi.wallet.eth.coins.EthTest
+import com.squareup.sqldelight.db.SqlDriver
+import com.squareup.sqldelight.sqlite.driver.JdbcSqliteDriver
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.math.BigInteger
+import java.util.*
+
+class EthAccountBackingTest {
+    private val driver: SqlDriver = JdbcSqliteDriver("jdbc:sqlite::memory:", Properties())
+    private val db = WalletDB.Schema.create(driver).let {
+        WalletDB(driver, accountBackingAdapter, accountContextAdapter, BTCVAccountBackingAdapter, BTCVAddressStatusAdapter,
+                BTCVContextAdapter,
+                BTCVOutgoingTxAdapter, BTCVPtxoAdapter, BTCVRefersPtxoAdapter, BTCVTransactionAdapter, BTCVUtxoAdapter,
+                erc20ContextAdapter, ethAccountBackingAdapter, ethContextAdapter, feeEstimatorAdapter,
+                fioAccountBackingAdapter, fioContextAdapter, fioKnownNamesAdapter, fioNameAccountMappingsAdapter,
+                fioOtherBlockchainTransactionsAdapter, fioReceivedRequestsAdapter, fioSentRequestsAdapter)
+    }
+    private val token = ERC20Token("Token", "TKN", 18, "0x00000000000000000000000000000000000000cc")
+    private val ethBacking = EthAccountBacking(db, UUID.randomUUID(), EthTest)
+    private val tokenBacking = EthAccountBacking(db, UUID.randomUUID(), EthTest, token)
+    private var txCount = 0
+
+    @Test
+    fun ethTotalsMatchTheSummaries() {
+        // asked for in another case than stored
+        val owner = OWNER.toUpperCase(Locale.US).replace("0X", "0x")
+        ethBacking.apply {
+            put(FOREIGN, OWNER, eth(1000), 5)
+            put(OWNER, FOREIGN, eth(300), 4)
+            put(OWNER, OWNER, eth(50), 3)
+            put(OWNER, FOREIGN, eth(200), 3, success = false)
+            put(FOREIGN, OWNER, eth(70), 3, success = false)
+            put(FOREIGN, CONTRACT, eth(0), 2, internalValue = eth(40))
+            put(OWNER, CONTRACT, eth(10), 2, internalValue = eth(25))
+            put(FOREIGN, OWNER, eth(80), 0)
+            put(OWNER, FOREIGN, eth(60), 0)
+            put(OWNER, OWNER, eth(5), 0)
+        }
+
+        val totals = ethBacking.getBalanceTotals(owner)!!
+
+        assertEquals(ethBacking.confirmed(OWNER), totals.confirmed)
+        assertEquals(ethBacking.ethPendingReceiving(OWNER), totals.pendingReceiving)
+        assertEquals(ethBacking.ethPendingSending(OWNER), totals.pendingSending)
+        assertEquals(eth(80).value, totals.pendingReceiving)
+    }
+
+    @Test
+    fun tokenTotalsMatchTheSummaries() {
+        tokenBacking.apply {
+            put(FOREIGN, OWNER, eth(1000), 5)
+            put(OWNER, FOREIGN, eth(300), 4)
+            put(OWNER, OWNER, eth(50), 3)
+            put(FOREIGN, OWNER, eth(80), 0)
+            put(OWNER, FOREIGN, eth(60), 0)
+        }
+
+        val totals = tokenBacking.getBalanceTotals(OWNER)!!
+
+        assertEquals(tokenBacking.confirmed(OWNER), totals.confirmed)
+        assertEquals(tokenBacking.tokenPendingReceiving(OWNER), totals.pendingReceiving)
+        assertEquals(tokenBacking.tokenPendingSending(OWNER), totals.pendingSending)
+        assertEquals(eth(700).value, totals.confirmed)
+    }
+
+    @Test
+    fun amountsTooLargeToSplitAreNotSummedUp() {
+        ethBacking.put(FOREIGN, OWNER, eth(1000), 5)
+        ethBacking.put(FOREIGN, OWNER, Value.valueOf(EthTest, BigInteger.ONE.shiftLeft(87)), 5)
+
+        assertNull(ethBacking.getBalanceTotals(OWNER))
+        assertEquals(eth(1000).value + BigInteger.ONE.shiftLeft(87), ethBacking.confirmed(OWNER))
+    }
+
+    @Test
+    fun transactionsStoredBeforeTheSplitAreNotSummedUp() {
+        ethBacking.put(FOREIGN, OWNER, eth(1000), 5)
+        // as the migration leaves the transactions it found
+        driver.execute(null, "UPDATE EthAccountBacking SET valueHigh = NULL, valueLow = NULL", 0)
+
+        assertNull(ethBacking.getBalanceTotals(OWNER))
+    }
+
+    @Test
+    fun migrationKeepsTheHistoryUntilTheNextSyncSplitsIt() {
+        // checksummed as some servers return them
+        val owner = OWNER.toUpperCase(Locale.US).replace("0X", "0x")
+        val sync = {
+            txCount = 0
+            ethBacking.put(FOREIGN, owner, eth(1000), 5)
+            ethBacking.put(owner, FOREIGN, eth(300), 4)
+            ethBacking.put(FOREIGN, owner, eth(80), 0)
+        }
+        sync()
+        val confirmed = ethBacking.confirmed(OWNER)
+        downgradeEthAccountBackingToVersion11()
+
+        WalletDB.Schema.migrate(driver, 11, 12)
+
+        assertEquals(confirmed, ethBacking.confirmed(OWNER))
+        assertNull(ethBacking.getBalanceTotals(OWNER))
+        assertEquals(3L, count("SELECT COUNT(*) FROM EthAccountBacking " +
+                "WHERE fromAddressLower = '$OWNER' OR toAddressLower = '$OWNER'"))
+        assertEquals(1L, count("SELECT COUNT(*) FROM sqlite_master " +
+                "WHERE type = 'index' AND name = 'EthAccountBackingUuidIndex'"))
+
+        sync()
+
+        val totals = ethBacking.getBalanceTotals(OWNER)!!
+        assertEquals(confirmed, totals.confirmed)
+        assertEquals(eth(80).value, totals.pendingReceiving)
+        assertEquals(BigInteger.ZERO, totals.pendingSending)
+    }
+
+    @Test
+    fun putTransactionsCountsWhatChanged() {
+        ethBacking.putTransactions(listOf(record("0x01", 3, 100), record("0x02", 0, 200)), setOf("0x01", "0x02"), 0)
+
+        // 0x02 confirmed, 0x03 is new
+        val result = ethBacking.putTransactions(listOf(record("0x02", 1, 200), record("0x03", 0, 300)),
+                setOf("0x01", "0x02", "0x03"), 0)
+
+        assertEquals(PutTransactionsResult(1, 1, 0), result)
+        assertEquals(1, ethBacking.getTransactionSummary("0x02", OWNER)!!.confirmations)
+        assertEquals(setOf("0x01", "0x02", "0x03"), ethBacking.txids())
+    }
+
+    @Test
+    fun onlyPendingTransactionsOlderThanTheGracePeriodAreRemoved() {
+        ethBacking.putTransactions(listOf(record("0x01", 3, 100), record("0x02", 0, 200), record("0x03", 0, 300)),
+                setOf("0x01", "0x02", "0x03"), 0)
+
+        // the server forgot all of them, but 0x01 is confirmed and 0x03 was stored within the grace period
+        val result = ethBacking.putTransactions(listOf(), setOf(), 300)
+
+        assertEquals(PutTransactionsResult(0, 0, 1), result)
+        assertEquals(setOf("0x01", "0x03"), ethBacking.txids())
+    }
+
+    // the table as it was before 11.sqm, keeping the rows stored so far
+    private fun downgradeEthAccountBackingToVersion11() {
+        driver.execute(null, "DROP INDEX EthAccountBackingUuidIndex", 0)
+        driver.execute(null, "ALTER TABLE EthAccountBacking RENAME TO EthAccountBackingNew", 0)
+        driver.execute(null, """
+            CREATE TABLE EthAccountBacking (
+                txid TEXT NOT NULL,
+                uuid TEXT NOT NULL,
+                fromAddress TEXT NOT NULL,
+                toAddress TEXT NOT NULL,
+                nonce TEXT,
+                gasLimit TEXT DEFAULT 21000 NOT NULL,
+                gasUsed TEXT DEFAULT 21000 NOT NULL,
+                success INTEGER NOT NULL DEFAULT 1,
+                internalValue TEXT,
+                PRIMARY KEY (txid, uuid),
+                FOREIGN KEY (txid, uuid)
+                        REFERENCES AccountBacking (txid, uuid)
+                        ON DELETE CASCADE
+            )""".trimIndent(), 0)
+        driver.execute(null, "INSERT INTO EthAccountBacking SELECT txid, uuid, fromAddress, toAddress, nonce, " +
+                "gasLimit, gasUsed, success, internalValue FROM EthAccountBackingNew", 0)
+        driver.execute(null, "DROP TABLE EthAccountBackingNew", 0)
+    }
+
+    private fun count(sql: String) = driver.executeQuery(null, sql, 0).use { it.next(); it.getLong(0)!! }
+
+    private fun record(txid: String, confirmations: Int, timestamp: Long) =
+            EthAccountBacking.TransactionRecord(if (confirmations == 0) -1 else 100 - confirmations, timestamp, txid,
+                    "", FOREIGN, OWNER, eth(1), Value.valueOf(EthTest, 21000L), confirmations, BigInteger.ONE)
+
+    private fun EthAccountBacking.txids() =
+            getTransactionSummaries(0, Long.MAX_VALUE, OWNER).map { "0x" + it.idHex }.toSet()
+
+    private fun EthAccountBacking.put(from: String, to: String, value: Value, confirmations: Int,
+                                      success: Boolean = true, internalValue: Value? = null) {
+        txCount++
+        putTransaction(if (confirmations == 0) -1 else 100 - confirmations, txCount.toLong(),
+                "0x" + "%064x".format(txCount), "", from, to, value, Value.valueOf(EthTest, 21000L * txCount),
+                confirmations, BigInteger.valueOf(txCount.toLong()), internalValue, success)
+    }
+
+    // the way the accounts fold the summaries when the database can't sum them up
+    private fun EthAccountBacking.confirmed(owner: String) = getTransactionSummaries(0, Long.MAX_VALUE, owner)
+            .filter { it.confirmations > 0 }
+            .map { it.transferred.value }
+            .fold(BigInteger.ZERO, BigInteger::add)
+
+    private fun EthAccountBacking.ethPendingReceiving(owner: String) = getUnconfirmedTransactions(owner)
+            .filter { !it.sender.addressString.equals(owner, true) && it.receiver.addressString.equals(owner, true) }
+            .map { it.value.value }
+            .fold(BigInteger.ZERO, BigInteger::add)
+
+    private fun EthAccountBacking.ethPendingSending(owner: String) = getUnconfirmedTransactions(owner)
+            .filter { it.sender.addressString.equals(owner, true) }
+            .map { tx ->
+                if (tx.receiver.addressString.equals(owner, true)) tx.fee!!.value else tx.value.value + tx.fee!!.value
+            }
+            .fold(BigInteger.ZERO, BigInteger::add)
+
+    private fun EthAccountBacking.tokenPendingReceiving(owner: String) = ethPendingReceiving(owner)
+
+    private fun EthAccountBacking.tokenPendingSending(owner: String) = getUnconfirmedTransactions(owner)
+            .filter { it.sender.addressString.equals(owner, true) && !it.receiver.addressString.equals(owner, true) }
+            .map { it.value.value }
+            .fold(BigInteger.ZERO, BigInteger::add)
+
+    private fun eth(finney: Int) = Value.valueOf(EthTest, BigInteger.TEN.pow(15) * finney.toBigInteger())
+
+    companion object {
+        private const val OWNER = "0xab5801a7d398351b8be11c439e05c5b3259aec9b"
+        private const val FOREIGN = "0x742d35cc6634c0532925a3b844bc454e4438f44e"
+        private const val CONTRACT = "0x00000000000000000000000000000000000000cc"
+    }
+}
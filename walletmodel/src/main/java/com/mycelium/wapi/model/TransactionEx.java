@@ -20,7 +20,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mrd.bitlib.model.OutPoint;
 import com.mrd.bitlib.model.BitcoinTransaction;
 import com.mrd.bitlib.model.BitcoinTransaction.TransactionParsingException;
-import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.model.BitcoinTransactionView;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.Sha256Hash;
 
@@ -89,20 +89,33 @@ public class TransactionEx implements Serializable, Comparable<TransactionEx> {
       }
    }
 
+   /**
+    * A view that decodes only the parts of the transaction that are used, for callers that don't need all of it
+    */
+   public static BitcoinTransactionView toTransactionView(TransactionEx tex) {
+      if (tex == null) {
+         return null;
+      }
+      try {
+         return BitcoinTransactionView.fromBytes(tex.binary);
+      } catch (TransactionParsingException e) {
+         return null;
+      }
+   }
+
    public static TransactionOutputEx getTransactionOutput(TransactionEx tex, int index) {
       if (index < 0) {
          return null;
       }
-      BitcoinTransaction t = toTransaction(tex);
+      BitcoinTransactionView t = toTransactionView(tex);
       if (t == null) {
          return null;
       }
-      if (index >= t.outputs.length) {
+      if (index >= t.getOutputCount()) {
          return null;
       }
-      TransactionOutput output = t.outputs[index];
-      return new TransactionOutputEx(new OutPoint(tex.txid, index), tex.height, output.value,
-            output.script.getScriptBytes(), t.isCoinbase());
+      return new TransactionOutputEx(new OutPoint(tex.txid, index), tex.height, t.getOutputValue(index),
+            t.getOutputScriptBytes(index), t.isCoinbase());
    }
 
    public int calculateConfirmations(int blockHeight) {
@@ -113,6 +113,12 @@ public interface Wapi {
    @Deprecated
    WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request);
 
+   /**
+    * Query the status hashes of a set of addresses and, unless the request says otherwise, subscribe to changes of
+    * them. Only supported by ElectrumX, where the status of an address is the hash of its transaction history.
+    */
+   WapiResponse<QueryAddressStatusesResponse> queryAddressStatuses(QueryAddressStatusesRequest request);
+
    /**
     * Check the status of a transaction.
     * <p/>
@@ -138,6 +144,14 @@ public interface Wapi {
     */
    WapiResponse<GetExchangeRatesResponse> getExchangeRates(GetExchangeRatesRequest request);
 
+   /**
+    * Get the exchange rates of many currency pairs
+    * <p/>
+    * The same as {@link #getExchangeRates} for every pair of a from currency and a to currency of the request, with
+    * the responses of all pairs. Fails if any of the pairs fails.
+    */
+   WapiResponse<GetExchangeRatesBatchResponse> getExchangeRatesBatch(GetExchangeRatesBatchRequest request);
+
    /**
     * Check if the wapi-service is running
     *
@@ -30,8 +30,14 @@ import com.squareup.okhttp.*;
 
 
 import java.io.IOException;
-import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +51,18 @@ public abstract class WapiClient implements Wapi, WapiClientLifecycle {
       SHORT_TIMEOUT_MS, MEDIUM_TIMEOUT_MS, LONG_TIMEOUT_MS, VERY_LONG_TIMEOUT_MS
    };
 
+   // the pairs of a batch of exchange rates are asked for in parallel, this many at a time
+   private static final int EXCHANGE_RATES_PARALLELISM = 4;
+   private static final ExecutorService EXCHANGE_RATES_EXECUTOR = Executors.newFixedThreadPool(EXCHANGE_RATES_PARALLELISM,
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "Wapi exchange rates");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+
    // the minimum timeout for the lifetime of this process(?). Restarting the app resets it to the minimum.
    private static int _minTimeout = 0;
 
@@ -53,10 +71,12 @@ public abstract class WapiClient implements Wapi, WapiClientLifecycle {
    private ServerEndpoints _serverEndpoints;
    private String versionCode;
    private Logger _logger = Logger.getLogger(WapiClient.class.getSimpleName());
+   private final HedgedRequestExecutor _requestExecutor;
 
    public WapiClient(ServerEndpoints serverEndpoints, String versionCode) {
       _serverEndpoints = serverEndpoints;
       this.versionCode = versionCode;
+      _requestExecutor = new HedgedRequestExecutor(serverEndpoints, _logger);
 
       // Choose a random endpoint to use
       _objectMapper = new ObjectMapper();
@@ -94,10 +114,8 @@ public abstract class WapiClient implements Wapi, WapiClientLifecycle {
    }
 
    /**
-    * Attempt to connect and send to a URL in our list of URLS, if it fails try
-    * the next until we have cycled through all URLs. If this fails with a short
-    * timeout, retry all servers with a medium timeout, followed by a retry with
-    * long timeout.
+    * Attempt to send the request to our servers, see {@link HedgedRequestExecutor}. If this fails with a short
+    * timeout, retry with a medium timeout, followed by a retry with long timeout.
     */
    private Response getConnectionAndSendRequest(String function, Object request) {
       for(int timeout: SHORT_TO_LONG_TIMEOUTS_MS) {
@@ -117,62 +135,24 @@ public abstract class WapiClient implements Wapi, WapiClientLifecycle {
    }
 
    /**
-    * Attempt to connect and send to a URL in our list of URLS, if it fails try
-    * the next until we have cycled through all URLs. timeout.
+    * Send the request to the healthiest server, and to the next ones if it is slow or fails.
     */
-   private Response getConnectionAndSendRequestWithTimeout(Object request, String function, int timeout) {
-      int originalConnectionIndex = _serverEndpoints.getCurrentEndpointIndex();
-      while (true) {
-         // currently active server-endpoint
-         HttpEndpoint serverEndpoint = _serverEndpoints.getCurrentEndpoint();
-         try {
-            OkHttpClient client = serverEndpoint.getClient();
-            _logger.log(Level.INFO, "Connecting to " + serverEndpoint.getBaseUrl() + " (" + _serverEndpoints.getCurrentEndpointIndex() + ")");
-
-            client.setConnectTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setReadTimeout(timeout, TimeUnit.MILLISECONDS);
-            client.setWriteTimeout(timeout, TimeUnit.MILLISECONDS);
-
-            long callStart = System.currentTimeMillis();
-            // build request
-            final String toSend = getPostBody(request);
-            Request rq = new Request.Builder()
+   private Response getConnectionAndSendRequestWithTimeout(Object request, final String function, int timeout) {
+      // build request
+      final String toSend = getPostBody(request);
+      HedgedRequestExecutor.RequestFactory factory = new HedgedRequestExecutor.RequestFactory() {
+         @Override
+         public Request createRequest(HttpEndpoint endpoint) {
+            return new Request.Builder()
                   .addHeader(MYCELIUM_VERSION_HEADER, versionCode)
                   .post(RequestBody.create(MediaType.parse("application/json"), toSend))
-                  .url(serverEndpoint.getUri(WapiConst.WAPI_BASE_PATH, function).toString())
+                  .url(endpoint.getUri(WapiConst.WAPI_BASE_PATH, function).toString())
                   .build();
-
-            // execute request
-            Response response = client.newCall(rq).execute();
-            _logger.log(Level.INFO, String.format(Locale.ENGLISH, "Wapi %s finished (%dms)", function, System.currentTimeMillis() - callStart));
-
-            // Check for status code 2XX
-            if (response.isSuccessful()) {
-               if (serverEndpoint instanceof FeedbackEndpoint){
-                  ((FeedbackEndpoint) serverEndpoint).onSuccess();
-               }
-               return response;
-            } else {
-               // If the status code is not 200 we cycle to the next server
-               logError(String.format(Locale.ENGLISH, "Http call to %s failed with %d %s", function, response.code(), response.message()));
-               // throw...
-            }
-         } catch (IOException e) {
-            logError("IOException when sending request " + function, e);
-            if (serverEndpoint instanceof FeedbackEndpoint){
-               _logger.log(Level.INFO, "Resetting tor");
-               ((FeedbackEndpoint) serverEndpoint).onError();
-            }
-         } catch (RuntimeException e) {
-            logError("Send request fail", e);
-         }
-         // Try the next server
-         _serverEndpoints.switchToNextEndpoint();
-         if (_serverEndpoints.getCurrentEndpointIndex() == originalConnectionIndex) {
-            // We have tried all URLs
-            return null;
          }
-      }
+      };
+      // error reports are not sent twice
+      boolean isIdempotent = !Function.COLLECT_ERROR.equals(function);
+      return _requestExecutor.execute("Wapi " + function, factory, timeout, isIdempotent);
    }
 
    private String getPostBody(Object request) {
@@ -193,6 +173,50 @@ public abstract class WapiClient implements Wapi, WapiClientLifecycle {
       return sendRequest(Function.GET_EXCHANGE_RATES, request, typeref);
    }
 
+   @Override
+   public WapiResponse<GetExchangeRatesBatchResponse> getExchangeRatesBatch(GetExchangeRatesBatchRequest request) {
+      // the server answers single pairs only, so all pairs are asked for at once
+      List<Future<WapiResponse<GetExchangeRatesResponse>>> futures = new ArrayList<>();
+      for (String fromCurrency : request.getFromCurrencies()) {
+         for (String toCurrency : request.getToCurrencies()) {
+            final GetExchangeRatesRequest pairRequest =
+                  new GetExchangeRatesRequest(request.getVersion(), fromCurrency, toCurrency);
+            futures.add(EXCHANGE_RATES_EXECUTOR.submit(new Callable<WapiResponse<GetExchangeRatesResponse>>() {
+               @Override
+               public WapiResponse<GetExchangeRatesResponse> call() {
+                  return getExchangeRates(pairRequest);
+               }
+            }));
+         }
+      }
+      List<GetExchangeRatesResponse> responses = new ArrayList<>(futures.size());
+      try {
+         for (Future<WapiResponse<GetExchangeRatesResponse>> future : futures) {
+            WapiResponse<GetExchangeRatesResponse> response = future.get();
+            if (response.getErrorCode() != ERROR_CODE_SUCCESS) {
+               cancelAll(futures);
+               return new WapiResponse<>(response.getErrorCode(), response.getErrorMessage(), null);
+            }
+            responses.add(response.getResult());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         cancelAll(futures);
+         return new WapiResponse<>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
+      } catch (ExecutionException | WapiException e) {
+         logError("getExchangeRatesBatch failed.", e);
+         cancelAll(futures);
+         return new WapiResponse<>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
+      }
+      return new WapiResponse<>(new GetExchangeRatesBatchResponse(responses));
+   }
+
+   private static void cancelAll(List<? extends Future<?>> futures) {
+      for (Future<?> future : futures) {
+         future.cancel(true);
+      }
+   }
+
    @Override
    public  WapiResponse<PingResponse> ping(){
       TypeReference<WapiResponse<PingResponse>> typeref = new TypeReference<WapiResponse<PingResponse>>() { };
@@ -3,9 +3,11 @@ package com.mycelium.wapi.api
 import com.google.gson.annotations.SerializedName
 import com.megiontechnologies.Bitcoins
 import com.mrd.bitlib.StandardTransactionBuilder
+import com.mrd.bitlib.model.BitcoinAddress
 import com.mrd.bitlib.model.OutPoint
 import com.mrd.bitlib.model.BitcoinTransaction
 import com.mrd.bitlib.model.TransactionInput
+import com.mrd.bitlib.util.HashUtils
 import com.mrd.bitlib.util.HexUtils
 import com.mrd.bitlib.util.Sha256Hash
 import com.mycelium.net.ServerEndpoints
@@ -19,7 +21,11 @@ import com.mycelium.wapi.api.response.*
 import com.mycelium.wapi.model.TransactionOutputEx
 import com.mycelium.wapi.model.TransactionStatus
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import java.util.logging.Level
 import java.util.logging.Logger
@@ -46,7 +52,29 @@ class WapiClientElectrumX(
             rpcResponse.getParams(Array<BlockHeader>::class.java)!![0].height
         }
     }
-    private var rpcClient = JsonRpcTcpClient(endpoints, androidApiVersion)
+    private var rpcClient = JsonRpcTcpClientPool(endpoints, androidApiVersion)
+    // The status of every address subscribed to on the current subscription connection, by script hash.
+    // Kept up to date by the notifications of the server, so it only has to be asked for new addresses
+    private val addressStatuses = ConcurrentHashMap<String, String>()
+    // the subscribed addresses by script hash, to tell the listener which address changed
+    private val subscribedAddresses = ConcurrentHashMap<String, BitcoinAddress>()
+    private var addressStatusesConnection = -1
+    private val addressStatusCallback = { response: AbstractResponse ->
+        val params = (response as RpcResponse).getParams(Array<String?>::class.java)
+        val address = params?.getOrNull(0)?.let { subscribedAddresses[it] }
+        // notifications for script hashes that were not subscribed to by queryAddressStatuses are dropped
+        if (address != null) {
+            addressStatuses[params[0]!!] = params.getOrNull(1) ?: QueryAddressStatusesResponse.NO_HISTORY
+            addressStatusListener?.addressStatusChanged(address)
+        }
+    }
+
+    /**
+     * Called on the connection thread whenever the status of an address changed, that is a transaction of
+     * one of the addresses of a previous subscribing [queryAddressStatuses] call was received or confirmed.
+     */
+    @Volatile
+    var addressStatusListener: AddressStatusListener? = null
 
     private fun updateClient() {
         rpcClient.setActive(isNetworkConnected)
@@ -63,6 +91,7 @@ class WapiClientElectrumX(
 
     init {
         rpcClient.addSubscription(Subscription(HEADRES_SUBSCRIBE_METHOD, RpcParams.listParams(), receiveHeaderCallback))
+        rpcClient.setNotificationHandler(SCRIPTHASH_SUBSCRIBE_METHOD, addressStatusCallback)
         rpcClient.start()
     }
 
@@ -130,6 +159,100 @@ class WapiClientElectrumX(
         }
     }
 
+    override fun queryAddressStatuses(request: QueryAddressStatusesRequest): WapiResponse<QueryAddressStatusesResponse> {
+        if (!isNetworkConnected) {
+            return WapiResponse<QueryAddressStatusesResponse>(Wapi.ERROR_CODE_NO_SERVER_CONNECTION, null)
+        }
+        return try {
+            val statuses = if (request.subscribe) {
+                getAddressStatuses(request.addresses)
+            } else {
+                lookUpAddressStatuses(request.addresses.map { it.scriptHash.toHex() })
+            }
+            val addressStatuses = HashMap<BitcoinAddress, String>()
+            request.addresses.forEach { address ->
+                statuses[address.scriptHash.toHex()]?.let { addressStatuses[address] = it }
+            }
+            WapiResponse(QueryAddressStatusesResponse(bestChainHeight, addressStatuses))
+        } catch (ex: RpcResponseException) {
+            WapiResponse<QueryAddressStatusesResponse>(Wapi.ERROR_CODE_NO_SERVER_CONNECTION, null)
+        }
+    }
+
+    /*
+        Returns the known statuses and subscribes to the script hashes that were not subscribed to on the current
+        connection yet. The server answers a subscription with the current status and sends a notification
+        whenever it changes, so once subscribed, statuses don't cost any requests. A new connection starts without
+        subscriptions, so all known statuses are dropped then.
+     */
+    @Synchronized
+    private fun getAddressStatuses(addresses: Collection<BitcoinAddress>): Map<String, String> {
+        val connection = rpcClient.subscriptionConnectionCount
+        if (connection != addressStatusesConnection) {
+            addressStatuses.clear()
+            subscribedAddresses.clear()
+            addressStatusesConnection = connection
+        }
+        val statuses = HashMap<String, String>()
+        val toSubscribe = ArrayList<String>()
+        addresses.forEach { address ->
+            val scriptHash = address.scriptHash.toHex()
+            val status = addressStatuses[scriptHash]
+            if (status != null) {
+                statuses[scriptHash] = status
+            } else {
+                toSubscribe.add(scriptHash)
+                // known before subscribing, as the server may notify before it answered the subscription
+                subscribedAddresses[scriptHash] = address
+            }
+        }
+        if (toSubscribe.isEmpty()) {
+            return statuses
+        }
+        val requests = toSubscribe.map { RpcRequestOut(SCRIPTHASH_SUBSCRIBE_METHOD, RpcParams.listParams(it)) }
+        val responses = rpcClient.writeSubscriptions(requests, MAX_RESPONSE_TIMEOUT).responses
+        val scriptHashById = requests.mapIndexed { i, request -> request.id.toString() to toSubscribe[i] }.toMap()
+        responses.filter { !it.hasError }.forEach { response ->
+            val scriptHash = scriptHashById[response.id.toString()] ?: return@forEach
+            val status = response.getResult(String::class.java) ?: QueryAddressStatusesResponse.NO_HISTORY
+            addressStatuses[scriptHash] = status
+            statuses[scriptHash] = status
+        }
+        val subscribedOn = rpcClient.subscriptionConnectionCount
+        if (subscribedOn != connection) {
+            // connected while subscribing, like on the first call, so only the new subscriptions are on this connection
+            addressStatuses.keys.retainAll(toSubscribe)
+            subscribedAddresses.keys.retainAll(toSubscribe)
+            addressStatusesConnection = subscribedOn
+        }
+        return statuses
+    }
+
+    /*
+        Returns the statuses without subscribing, so addresses that are only checked once, like the ones of an account
+        discovery, don't leave subscriptions that notify about them and keep their statuses cached. The statuses are
+        computed from the history the way the server computes them.
+     */
+    private fun lookUpAddressStatuses(scriptHashes: List<String>): Map<String, String> {
+        val requests = scriptHashes.map { RpcRequestOut(GET_HISTORY_METHOD, RpcParams.listParams(it)) }
+        val responses = rpcClient.write(requests, MAX_RESPONSE_TIMEOUT).responses
+        val scriptHashById = requests.mapIndexed { i, request -> request.id.toString() to scriptHashes[i] }.toMap()
+        val statuses = HashMap<String, String>()
+        responses.filter { it.hasResult }.forEach { response ->
+            val scriptHash = scriptHashById[response.id.toString()] ?: return@forEach
+            statuses[scriptHash] = historyStatus(response.getResult(Array<TransactionHistoryInfo>::class.java)!!)
+        }
+        return statuses
+    }
+
+    private fun historyStatus(history: Array<TransactionHistoryInfo>): String =
+            if (history.isEmpty()) {
+                QueryAddressStatusesResponse.NO_HISTORY
+            } else {
+                val concatenated = history.joinToString("") { "${it.tx_hash}:${it.height}:" }
+                HashUtils.sha256(concatenated.toByteArray()).toHex()
+            }
+
     override fun getTransactions(request: GetTransactionsRequest): WapiResponse<GetTransactionsResponse> {
         if (!isNetworkConnected) {
             return WapiResponse<GetTransactionsResponse>(Wapi.ERROR_CODE_NO_SERVER_CONNECTION, null)
@@ -159,7 +282,7 @@ class WapiClientElectrumX(
         }
         try {
             val txHex = HexUtils.toHex(request.rawTransaction)
-            val response = rpcClient.write(BROADCAST_METHOD, RpcParams.listParams(txHex), MAX_RESPONSE_TIMEOUT)
+            val response = rpcClient.write(BROADCAST_METHOD, RpcParams.listParams(txHex), MAX_RESPONSE_TIMEOUT, false)
 
             // TODO return back to a single RpcResponse object instead of list
             //  as we don't use several TCP clients anymore
@@ -263,6 +386,11 @@ class WapiClientElectrumX(
                 .map { it.outPoint.txid.toString() }
     }
 
+    /**
+     * Fetches the transactions in batches of [GET_TRANSACTION_BATCH_LIMIT]. All batches are sent at once and
+     * pipelined over the connection, so the total time is about one round trip instead of one per batch.
+     * Every response is converted as soon as it arrives, so the raw JSON of a batch is never held as a whole.
+     */
     private fun getTransactionXs(txids: Collection<String>): List<TransactionX> {
         if (txids.isEmpty()) {
             return emptyList()
@@ -274,29 +402,31 @@ class WapiClientElectrumX(
                             "verbose" to true))
         }.toList().chunked(GET_TRANSACTION_BATCH_LIMIT)
 
-        val resultList = ArrayList<TransactionX>()
-
-        for (batch in requestsList) {
-            val responses = rpcClient.write(batch, MAX_RESPONSE_TIMEOUT).responses
-
-            val txs = responses.mapNotNull {
-                if (it.hasError) {
-                    logger.log(Level.INFO, "Transactions retrieval  failed: ${it.error}")
-                    null
-                } else {
-                    it.getResult(TransactionX::class.java).apply {
-                        // Since our electrumX does not send vin's anymore, parse transaction hex
-                        // by ourselves and extract inputs information
-                        val tx = BitcoinTransaction.fromBytes(HexUtils.toBytes(this!!.hex))
-                        this.vin = tx.inputs
+        val resultList = Collections.synchronizedList(ArrayList<TransactionX>())
+        runBlocking {
+            requestsList.map { batch ->
+                async {
+                    rpcClient.writeAsync(batch, MAX_RESPONSE_TIMEOUT) { response ->
+                        toTransactionX(response)?.let { resultList.add(it) }
                     }
                 }
-            }
-            resultList.addAll(txs)
+            }.awaitAll()
         }
         return resultList
     }
 
+    private fun toTransactionX(response: RpcResponse): TransactionX? {
+        if (response.hasError) {
+            logger.log(Level.INFO, "Transactions retrieval  failed: ${response.error}")
+            return null
+        }
+        return response.getResult(TransactionX::class.java)?.apply {
+            // Since our electrumX does not send vin's anymore, parse transaction hex
+            // by ourselves and extract inputs information
+            vin = BitcoinTransaction.fromBytes(HexUtils.toBytes(hex)).inputs
+        }
+    }
+
     private fun isRbf(vin: Array<TransactionInput>) = vin.any { it.isMarkedForRbf }
 
     override fun getMinerFeeEstimations(): WapiResponse<MinerFeeEstimationResponse> {
@@ -342,6 +472,7 @@ class WapiClientElectrumX(
         private const val FEATURES_METHOD = "server.features"
         private const val HEADRES_SUBSCRIBE_METHOD = "blockchain.headers.subscribe"
         private const val GET_HISTORY_METHOD = "blockchain.scripthash.get_history"
+        private const val SCRIPTHASH_SUBSCRIBE_METHOD = "blockchain.scripthash.subscribe"
         private const val GET_TRANSACTION_BATCH_LIMIT = 10
         private val MAX_RESPONSE_TIMEOUT = TimeUnit.MINUTES.toMillis(1)
         private val errorRegex = Regex("the transaction was rejected by network rules.\\n\\n([0-9]*): (.*)\\n.*")
@@ -396,6 +527,10 @@ data class TransactionHistoryInfo(
     }
 }
 
+interface AddressStatusListener {
+    fun addressStatusChanged(address: BitcoinAddress)
+}
+
 interface ServerElectrumListChangedListener {
     fun serverListChanged(newEndpoints: Array<TcpEndpoint>)
 }
@@ -2,21 +2,21 @@ package com.mycelium.wapi.api.jsonrpc
 
 import com.mrd.bitlib.util.SslUtils
 import com.mycelium.wapi.api.exception.RpcResponseException
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withTimeoutOrNull
 import java.io.BufferedOutputStream
-import java.io.BufferedReader
-import java.io.InputStreamReader
 import java.lang.Thread.sleep
 import java.net.InetSocketAddress
 import java.net.Socket
 import java.util.*
+import java.util.concurrent.BlockingQueue
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import java.util.logging.Level
 import java.util.logging.Logger
 import javax.net.ssl.SSLSocketFactory
@@ -32,17 +32,25 @@ data class TcpEndpoint(val host: String, val port: Int, var useSsl: Boolean = tr
     JsonRpcTcpClient is intended for JSON RPC communication. Its key design features:
     - Has a separate thread for maintaining connectivity and processing messages
     - Able to handle network state change using setActive()
-    - Allows making write() calls from any thread
-    - Ping messages are sent continuously in a separate thread each 5 seconds. If there is no response
-      to ping message received, we consider it as a server slowdown and close the connection
+    - Allows making write() and writeAsync() calls from any thread. Requests are pipelined: any number of them
+      may be in flight on the connection at once, and responses are matched to their requests by id
+    - Outgoing messages are put into a queue that is drained by a writer thread per connection. Everything that
+      is queued by the time the writer wakes up goes out with a single flush
+    - Responses are parsed straight from the socket by RpcResponseReader. Every response, also every entry
+      of a batch, is matched to its request by id as soon as it is decoded
+    - Ping messages are sent continuously in a separate thread each 10 seconds
     - After a new connection is established, those requests who has not been processed by previous connection
-      will be resent using 'awaitingRequestsMap'
-    - If connection thread is no longer active, all write() calls are forced to stop by notifying them
-      by using 'waitingLatches' map
+      will be resent using 'pendingRequests'
+    - If connection thread is no longer active, all pending requests are cancelled
  */
-open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidApiVersion: Int) {
+open class JsonRpcTcpClient(
+        private var endpoints : Array<TcpEndpoint>,
+        androidApiVersion: Int,
+        // Clients of a JsonRpcTcpClientPool share the counter, so ids are unique across connections
+        private val nextRequestId: AtomicInteger = AtomicInteger(0),
+        firstEndpointIndex: Int = (Math.random() * endpoints.size).toInt()) {
     private val logger = Logger.getLogger(JsonRpcTcpClient::class.java.simpleName)
-    private var curEndpointIndex = (Math.random() * endpoints.size).toInt()
+    @Volatile private var curEndpointIndex = firstEndpointIndex
     private val ssf = if (androidApiVersion < 22) SslUtils.getSsLSocketFactory(ELECTRUMX_THUMBPRINT)
                         else SSLSocketFactory.getDefault() as SSLSocketFactory
     val isConnected = AtomicBoolean(false)
@@ -53,17 +61,60 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
     */
     @Volatile private var isConnectionThreadActive = true
     @Volatile private var socket: Socket? = null
-    @Volatile private var incoming : BufferedReader? = null
-    @Volatile private var outgoing : BufferedOutputStream? = null
-    private val nextRequestId = AtomicInteger(0)
+    // Messages waiting for the writer thread of the current connection
+    @Volatile private var outgoingQueue = LinkedBlockingQueue<String>()
     // Timer responsible for periodically executing ping requests
     private var pingTimer: Timer? = null
-    private var previousRequestsMap = mutableMapOf<String, String>()
-    // Stores requests waiting to be processed
-    private val awaitingRequestsMap = ConcurrentHashMap<String, String>()
-    private val awaitingLatches = ConcurrentHashMap<String, CountDownLatch>()
+    // Requests waiting for a response, by request id. A batch is in here once for each of its requests
+    private val pendingRequests = ConcurrentHashMap<String, PendingRequest>()
     private val callbacks = ConcurrentHashMap<String, Consumer<AbstractResponse>>()
     private val subscriptions = ConcurrentHashMap<String, Subscription>()
+    // Handlers of notifications for subscriptions that are made with regular requests, by method name
+    private val notificationHandlers = ConcurrentHashMap<String, Consumer<AbstractResponse>>()
+
+    // Counts the connections made so far. Subscriptions made with regular requests only last for one connection
+    @Volatile var connectionCount = 0
+        private set
+
+    // The endpoint this client is connected or connecting to
+    val currentEndpoint: TcpEndpoint
+        get() = endpoints.let { it[curEndpointIndex % it.size] }
+
+    private class PendingRequest(
+            val json: String,
+            val ids: List<String>,
+            private val isBatch: Boolean,
+            private val onResponse: ((RpcResponse) -> Unit)? = null) {
+        val response = CompletableDeferred<AbstractResponse>()
+        // The queue of the connection the request was last written to
+        val writtenTo = AtomicReference<BlockingQueue<String>>()
+        private val batchResponses = ArrayList<RpcResponse>()
+        private var remaining = ids.size
+
+        // Called on the connection thread only, once per id
+        fun responseReceived(rpcResponse: RpcResponse) {
+            if (!isBatch) {
+                response.complete(rpcResponse)
+                return
+            }
+            if (response.isCompleted) {
+                return
+            }
+            try {
+                if (onResponse != null) {
+                    onResponse.invoke(rpcResponse)
+                } else {
+                    batchResponses.add(rpcResponse)
+                }
+            } catch (ex: Exception) {
+                response.completeExceptionally(ex)
+                return
+            }
+            if (--remaining == 0) {
+                response.complete(BatchedRpcResponse(batchResponses.toTypedArray()))
+            }
+        }
+    }
 
     // Determines whether main connection thread execution should be paused or resumed
     fun setActive(isActive: Boolean) {
@@ -71,8 +122,8 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
 
         // Force all waiting write methods to stop
         if (!isConnectionThreadActive) {
-            for (latch in awaitingLatches.values) {
-                latch.countDown()
+            for (id in pendingRequests.keys) {
+                pendingRequests.remove(id)?.response?.completeExceptionally(RpcResponseException("Request was cancelled"))
             }
         }
     }
@@ -86,6 +137,11 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
         }
     }
 
+    // Drops the current connection. The connection thread goes on with the next endpoint
+    fun reconnect() {
+        closeConnection()
+    }
+
     // Starts the main connection thread
     @Throws(IllegalStateException::class)
     fun start() {
@@ -102,20 +158,23 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
                 try {
                     logger.log(Level.INFO, "Connecting to ${currentEndpoint.host}:${currentEndpoint.port}")
 
+                    val queue = LinkedBlockingQueue<String>()
                     socket = (if (currentEndpoint.useSsl) ssf.createSocket() else Socket()).apply {
                         soTimeout = MAX_READ_RESPONSE_TIMEOUT.toInt()
                         connect(InetSocketAddress(currentEndpoint.host, currentEndpoint.port))
                         keepAlive = true
-                        incoming = BufferedReader(InputStreamReader(getInputStream()))
-                        outgoing = BufferedOutputStream(getOutputStream())
+                        startWriter(this, queue)
                     }
+                    val reader = RpcResponseReader(socket!!.getInputStream())
+                    outgoingQueue = queue
+                    connectionCount++
                     isConnected.set(true)
                     logger.log(Level.INFO, "Connected to ${currentEndpoint.host}:${currentEndpoint.port}")
 
-                    resendRemainingRequests()
                     notify("server.version", RpcParams.mapParams(
                             "client_name" to "wapi",
                             "protocol_version" to "1.4"))
+                    resendRemainingRequests()
 
                     // Schedule periodic ping requests execution
                     pingTimer = Timer().apply {
@@ -130,11 +189,7 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
                     // Inner loop for reading data from socket. If the connection breaks, we should
                     // exit this loop and try creating new socket in order to restore connection
                     while (isConnected.get() && isConnectionThreadActive) {
-                        val line = incoming!!.readLine()
-                        if(line?.isEmpty() != false) {
-                            continue
-                        }
-                        messageReceived(line)
+                        reader.readMessage(::responseReceived)
                     }
                 } catch (exception: Exception) {
                     // Facing with the exception here means that connection is closed for any reason
@@ -154,9 +209,36 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
                 }
 
                 curEndpointIndex = (curEndpointIndex + 1) % endpoints.size
+            }
+        }
+    }
 
-                previousRequestsMap.clear()
-                previousRequestsMap.putAll(awaitingRequestsMap)
+    /*
+        Starts the writer thread of a connection. It blocks until a message is queued, then takes everything
+        else that is queued as well and writes it all with a single flush. The thread ends with its connection,
+        messages left in its queue are dropped as pending requests are resent on the next connection anyway.
+     */
+    private fun startWriter(connection: Socket, queue: BlockingQueue<String>) {
+        val outgoing = BufferedOutputStream(connection.getOutputStream())
+        thread(start = true, isDaemon = true) {
+            val messages = ArrayList<String>()
+            try {
+                while (!connection.isClosed) {
+                    val first = queue.poll(WRITER_POLL_INTERVAL, TimeUnit.MILLISECONDS) ?: continue
+                    messages.add(first)
+                    queue.drainTo(messages)
+                    for (message in messages) {
+                        outgoing.write(message.toByteArray())
+                        outgoing.write('\n'.toInt())
+                    }
+                    outgoing.flush()
+                    messages.clear()
+                }
+            } catch (ex: Exception) {
+                logger.log(Level.INFO, "Writer stopped. Reason: ${ex.message}")
+                if (socket === connection) {
+                    closeConnection()
+                }
             }
         }
     }
@@ -170,13 +252,12 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
 
 
     /*
-        Re-sends to the new server those requests that have not been processed by previous connection
-        Callbacks for these requests are still valid for new connection as well
-        until the responses for them are processed
+        Re-sends to the new server those requests that have not been processed by previous connection.
+        Their callers are still waiting for them until the responses are processed or they time out
     */
     private fun resendRemainingRequests() {
-        for (msg in previousRequestsMap.values) {
-            internalWrite(msg)
+        for (request in pendingRequests.values.distinct()) {
+            writePending(request)
         }
     }
 
@@ -191,6 +272,14 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
         subscriptions[subscription.methodName] = subscription
     }
 
+    /**
+     * Sets the handler for notifications of the method, for subscriptions that are not renewed on a new connection
+     * like those added with [addSubscription], but made by the caller with regular requests.
+     */
+    fun setNotificationHandler(methodName: String, handler: Consumer<AbstractResponse>) {
+        notificationHandlers[methodName] = handler
+    }
+
     private fun subscribe(subscription: Subscription) {
         val requestId = nextRequestId.getAndIncrement().toString()
         val request = RpcRequestOut(subscription.methodName, subscription.params).apply {
@@ -202,146 +291,103 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
     }
 
     /**
-     * Computes a "short" compound ID based on an array of IDs.
+     * Sends a batch of requests and suspends until the response to all of them arrived. Requests from any
+     * number of callers are in flight at the same time, so batches for different accounts don't queue behind
+     * each other.
      */
-    private fun compoundId(ids: Array<String>): String = ids.sortedArray().joinToString("")
-
     @Throws(RpcResponseException::class)
-    fun write(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse {
-        if (!waitForConnected(timeout)) {
-            throw RpcResponseException("Timeout")
-        }
-        var response: BatchedRpcResponse? = null
-        val latch = CountDownLatch(1)
-
+    suspend fun writeAsync(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse {
         requests.forEach {
             it.id = nextRequestId.getAndIncrement().toString()
         }
-
-        val compoundId = compoundId(requests.map {it.id.toString()}.toTypedArray())
-
-        callbacks[compoundId] = {
-            response = it as BatchedRpcResponse
-            latch.countDown()
-        }
-
-        val batchedRequest = '[' + requests.joinToString { it.toJson() } + ']'
-        if (!internalWrite(batchedRequest)) {
-            callbacks.remove(compoundId)
-            throw RpcResponseException("Write error")
-        }
-
-        awaitingRequestsMap[compoundId] = batchedRequest
-        awaitingLatches[compoundId] = latch
-
-        if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
-            logger.log(Level.INFO, "Couldn't get reply for $timeout milliseconds.")
-            // No need to keep request data anymore as we're done with it
-            removeCurrentRequestData(compoundId)
-
-            awaitingLatches.remove(compoundId)
-            throw RpcResponseException("Timeout")
-        }
-
-        awaitingLatches.remove(compoundId)
-
-        // The case with response as NULL typically happens when wait() method is forced to stop
-        // by calling latch.await() manually inside setActive(), not using callback
-        if (response == null) {
-            throw RpcResponseException("Request was cancelled")
-        }
-
-        return response!!
+        return writePrepared(requests, timeout)
     }
 
-    private fun waitForConnected(timeout: Long): Boolean = runBlocking {
-        withTimeoutOrNull(timeout) {
-            while (!isConnected.get()) {
-                delay(WAITING_FOR_CONNECTED_INTERVAL)
-            }
-            true
-        } ?: false
+    /**
+     * Sends a batch of requests and passes every response to the consumer as soon as it is decoded, without
+     * keeping the responses. Suspends until all of them arrived. The consumer is called on the connection thread.
+     */
+    @Throws(RpcResponseException::class)
+    suspend fun writeAsync(requests: List<RpcRequestOut>, timeout: Long, onResponse: (RpcResponse) -> Unit) {
+        requests.forEach {
+            it.id = nextRequestId.getAndIncrement().toString()
+        }
+        writePrepared(requests, timeout, onResponse)
     }
 
     @Throws(RpcResponseException::class)
-    fun write(methodName: String, params: RpcParams, timeout: Long): RpcResponse {
-        if (!waitForConnected(timeout)) {
-            throw RpcResponseException("Timeout")
-        }
-        var response: RpcResponse? = null
-        val latch = CountDownLatch(1)
+    suspend fun writeAsync(methodName: String, params: RpcParams, timeout: Long): RpcResponse {
         val request = RpcRequestOut(methodName, params).apply {
             id = nextRequestId.getAndIncrement().toString()
-            callbacks[id.toString()] = {
-                response = it as RpcResponse
-                latch.countDown()
-            }
-        }
-        val requestJson = request.toJson()
-        val requestId = request.id.toString()
-        if (!internalWrite(requestJson)) {
-            callbacks.remove(requestId)
-            throw RpcResponseException("Write error")
         }
+        return writePrepared(request, timeout)
+    }
 
-        awaitingRequestsMap[requestId] = requestJson
-        awaitingLatches[requestId] = latch
-
-        if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
-            logger.log(Level.INFO, "Couldn't get reply on $methodName for $timeout milliseconds.")
-            // No need to keep request data anymore as we're done with it
-            removeCurrentRequestData(requestId)
-            awaitingLatches.remove(requestId)
-            throw RpcResponseException("Timeout")
-        }
+    /**
+     * Sends requests whose ids were assigned by the caller from the shared id counter. The same requests may be
+     * in flight on several clients at once, which is how JsonRpcTcpClientPool hedges them.
+     */
+    @Throws(RpcResponseException::class)
+    internal suspend fun writePrepared(requests: List<RpcRequestOut>, timeout: Long,
+                                       onResponse: ((RpcResponse) -> Unit)? = null): BatchedRpcResponse {
+        val batchedRequest = '[' + requests.joinToString { it.toJson() } + ']'
+        val request = PendingRequest(batchedRequest, requests.map { it.id.toString() }, true, onResponse)
+        return send(request, timeout, "batch of ${requests.size}") as BatchedRpcResponse
+    }
 
-        awaitingLatches.remove(requestId)
+    @Throws(RpcResponseException::class)
+    internal suspend fun writePrepared(request: RpcRequestOut, timeout: Long): RpcResponse =
+            send(PendingRequest(request.toJson(), listOf(request.id.toString()), false), timeout,
+                    request.methodName) as RpcResponse
 
-        // The case with response as NULL typically happens when wait() method is forced to stop
-        // by calling latch.await() manually inside setActive(), not using callback
-        if (response == null) {
-            throw RpcResponseException("Request was cancelled")
-        }
+    @Throws(RpcResponseException::class)
+    fun write(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse = runBlocking {
+        writeAsync(requests, timeout)
+    }
 
-        return response!!
+    @Throws(RpcResponseException::class)
+    fun write(methodName: String, params: RpcParams, timeout: Long): RpcResponse = runBlocking {
+        writeAsync(methodName, params, timeout)
     }
 
-    private fun removeCurrentRequestData(requestId: String) {
-        callbacks.remove(requestId)
-        awaitingRequestsMap.remove(requestId)
+    /*
+        Registers the request as pending before queueing it, so a response can't arrive before anybody waits for
+        it. Requests sent while there is no connection wait in 'pendingRequests' and go out once it is restored.
+     */
+    private suspend fun send(request: PendingRequest, timeout: Long, description: String): AbstractResponse {
+        request.ids.forEach { pendingRequests[it] = request }
+        writePending(request)
+        try {
+            return withTimeoutOrNull(timeout) {
+                request.response.await()
+            } ?: run {
+                logger.log(Level.INFO, "Couldn't get reply on $description for $timeout milliseconds.")
+                throw RpcResponseException("Timeout")
+            }
+        } finally {
+            // No need to keep request data anymore as we're done with it, also if the caller was cancelled
+            request.ids.forEach { pendingRequests.remove(it, request) }
+        }
     }
 
     private fun closeConnection() {
-        if (isConnected.get()) {
-            isConnected.set(false)
+        if (isConnected.compareAndSet(true, false)) {
             socket?.close()
         }
     }
 
-    private fun messageReceived(message: String) {
-        if (message.contains("error")) {
-            logger.log(Level.SEVERE, message)
+    // Called for every single response and every entry of a batch, as soon as it was read
+    private fun responseReceived(response: RpcResponse) {
+        if (response.hasError) {
+            logger.log(Level.SEVERE, response.toString())
         }
-        val isBatched = message[0] == '['
-        if (isBatched) {
-            val response = BatchedRpcResponse.fromJson(message)
-            val compoundId = compoundId(response.responses.map {it.id.toString()}.toTypedArray())
-
-            callbacks.remove(compoundId)?.invoke(response)
-            awaitingRequestsMap.remove(compoundId)
+        val id = response.id.toString()
+        if (id != NO_ID.toString()) {
+            pendingRequests.remove(id)?.responseReceived(response)
+            callbacks.remove(id)?.invoke(response)
         } else {
-            val response = RpcResponse.fromJson(message)
-            val id = response.id.toString()
-            if (id != NO_ID.toString()) {
-                callbacks[id]?.also { callback ->
-                    callback.invoke(response)
-                }
-            } else {
-                subscriptions[response.method]?.apply {
-                    callback.invoke(response)
-                }
-            }
-            removeCurrentRequestData(id)
+            val callback = subscriptions[response.method]?.callback ?: notificationHandlers[response.method]
+            callback?.invoke(response)
         }
     }
 
@@ -357,31 +403,27 @@ open class JsonRpcTcpClient(private var endpoints : Array<TcpEndpoint>, androidA
         internalWrite(request.toJson())
     }
 
-
-    @Synchronized
-    private fun internalWrite(msg: String): Boolean {
-        var result = true
-
-        if (!isConnected.get()) {
-            return false
+    // Queues the message for the writer thread of the current connection. Never blocks
+    private fun internalWrite(msg: String) {
+        if (isConnected.get()) {
+            outgoingQueue.offer(msg)
         }
+    }
 
-        try {
-            val bytes = (msg + "\n").toByteArray()
-            outgoing!!.write(bytes)
-            outgoing!!.flush()
-        } catch (ex: Exception) {
-            result = false
-            closeConnection()
+    // Queues a pending request unless it already went out on the current connection, which happens when the
+    // request was added while the connection was being established and resendRemainingRequests() picked it up
+    private fun writePending(request: PendingRequest) {
+        val queue = outgoingQueue
+        if (isConnected.get() && request.writtenTo.getAndSet(queue) !== queue) {
+            queue.offer(request.json)
         }
-        return result
     }
 
     companion object {
         private val INTERVAL_BETWEEN_SOCKET_RECONNECTS = TimeUnit.SECONDS.toMillis(1)
         private val INTERVAL_BETWEEN_PING_REQUESTS = TimeUnit.SECONDS.toMillis(10)
         private val MAX_READ_RESPONSE_TIMEOUT = TimeUnit.SECONDS.toMillis(30)
-        private const val WAITING_FOR_CONNECTED_INTERVAL = 300L
+        private const val WRITER_POLL_INTERVAL = 1000L
         private const val ELECTRUMX_THUMBPRINT = "E7:4E:48:56:94:EF:A6:9E:2A:9A:30:BD:1B:9A:CF:59:31:FB:66:24"
     }
 }
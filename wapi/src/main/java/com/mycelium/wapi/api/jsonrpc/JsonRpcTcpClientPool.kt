@@ -0,0 +1,268 @@
+package com.mycelium.wapi.api.jsonrpc
+
+import com.mycelium.wapi.api.exception.RpcResponseException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.math.max
+import kotlin.math.min
+
+/*
+    JsonRpcTcpClientPool keeps connections to several ElectrumX servers at once, one JsonRpcTcpClient each.
+    - Every client starts at a different endpoint of the list, so the connections are spread over the servers
+    - Round trip time and error rate of every endpoint are tracked as exponentially weighted moving averages.
+      Requests go to the connection with the best score, large batches are split across the best connections
+    - A request that takes much longer than usual for its endpoint is sent again to the next best connection,
+      and whichever answers first wins. Failed requests are retried on the next connection the same way
+    - An endpoint that fails or is much slower than the others is dropped, its client moves on to the next endpoint
+    - Subscriptions live on the first client only, so their callbacks are not called once per connection
+ */
+class JsonRpcTcpClientPool(
+        endpoints: Array<TcpEndpoint>,
+        androidApiVersion: Int,
+        poolSize: Int = DEFAULT_POOL_SIZE) {
+    private val logger = Logger.getLogger(JsonRpcTcpClientPool::class.java.simpleName)
+    private val nextRequestId = AtomicInteger(0)
+    private val firstEndpointIndex = (Math.random() * endpoints.size).toInt()
+    private val clients = List(max(1, min(poolSize, endpoints.size))) { i ->
+        JsonRpcTcpClient(endpoints, androidApiVersion, nextRequestId, (firstEndpointIndex + i) % endpoints.size)
+    }
+    private val health = ConcurrentHashMap<TcpEndpoint, EndpointHealth>()
+
+    val isConnected: Boolean
+        get() = clients.any { it.isConnected.get() }
+
+    private class EndpointHealth {
+        var rttMillis = 0.0
+            private set
+        var errorRate = 0.0
+            private set
+        var samples = 0
+            private set
+
+        @Synchronized
+        fun success(rttMillis: Long) {
+            this.rttMillis = if (samples == 0) rttMillis.toDouble() else ewma(this.rttMillis, rttMillis.toDouble())
+            errorRate = ewma(errorRate, 0.0)
+            samples++
+        }
+
+        @Synchronized
+        fun failure() {
+            errorRate = ewma(errorRate, 1.0)
+            samples++
+        }
+
+        // Lower is better. Errors weigh heavily, as a failed request costs a whole timeout
+        val score: Double
+            get() = rttMillis * (1 + ERROR_PENALTY * errorRate)
+
+        private fun ewma(average: Double, sample: Double) = average + EWMA_ALPHA * (sample - average)
+    }
+
+    fun start() = clients.forEach { it.start() }
+
+    fun setActive(isActive: Boolean) = clients.forEach { it.setActive(isActive) }
+
+    fun endpointsChanged(newEndpoints: Array<TcpEndpoint>) {
+        health.keys.retainAll(newEndpoints)
+        // Every client keeps its own offset into the list, so they keep connecting to different servers
+        clients.forEachIndexed { i, client ->
+            client.endpointsChanged(Array(newEndpoints.size) { newEndpoints[(i + it) % newEndpoints.size] })
+        }
+    }
+
+    fun addSubscription(subscription: Subscription) = clients[0].addSubscription(subscription)
+
+    fun setNotificationHandler(methodName: String, handler: Consumer<AbstractResponse>) =
+            clients[0].setNotificationHandler(methodName, handler)
+
+    // Changes whenever the connection that keeps the subscriptions was replaced, see [writeSubscriptions]
+    val subscriptionConnectionCount: Int
+        get() = clients[0].connectionCount
+
+    /**
+     * Sends a batch of subscribe requests to the client that keeps the subscriptions. They are not split or hedged,
+     * so all notifications come in over that one connection.
+     */
+    @Throws(RpcResponseException::class)
+    fun writeSubscriptions(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse = runBlocking {
+        clients[0].writeAsync(requests, timeout)
+    }
+
+    /**
+     * Sends a batch and suspends until all responses arrived. Batches of at least 2 * [MIN_SPLIT_BATCH_SIZE]
+     * requests are split across the connected clients with the best scores and the responses merged again.
+     */
+    @Throws(RpcResponseException::class)
+    suspend fun writeAsync(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse {
+        val responses = writeBatch(requests, timeout, null)
+        return BatchedRpcResponse(responses.flatMap { it.responses.asList() }.toTypedArray())
+    }
+
+    /**
+     * Sends a batch like [writeAsync] but passes every response to the consumer as soon as it is decoded instead
+     * of collecting them. Each response is passed once, even if its request was hedged. The consumer is called on
+     * the connection threads and has to be thread safe.
+     */
+    @Throws(RpcResponseException::class)
+    suspend fun writeAsync(requests: List<RpcRequestOut>, timeout: Long, onResponse: (RpcResponse) -> Unit) {
+        val delivered = ConcurrentHashMap.newKeySet<String>()
+        writeBatch(requests, timeout) {
+            if (delivered.add(it.id.toString())) {
+                onResponse(it)
+            }
+        }
+    }
+
+    private suspend fun writeBatch(requests: List<RpcRequestOut>, timeout: Long,
+                                   onResponse: ((RpcResponse) -> Unit)?): List<BatchedRpcResponse> {
+        requests.forEach {
+            it.id = nextRequestId.getAndIncrement().toString()
+        }
+        val ranked = rankedClients()
+        val connected = ranked.count { it.isConnected.get() }
+        val parts = max(1, min(connected, requests.size / MIN_SPLIT_BATCH_SIZE))
+        if (parts == 1) {
+            return listOf(hedged(ranked, timeout) { it.writePrepared(requests, timeout, onResponse) })
+        }
+        val chunks = requests.chunked((requests.size + parts - 1) / parts)
+        return coroutineScope {
+            chunks.mapIndexed { i, chunk ->
+                // chunk i goes to the i-th best client first, the others are its fallbacks
+                val order = ranked.drop(i) + ranked.take(i)
+                async { hedged(order, timeout) { it.writePrepared(chunk, timeout, onResponse) } }
+            }.awaitAll()
+        }
+    }
+
+    /**
+     * @param isIdempotent whether the request may be sent to several servers. Broadcasts are not hedged, as a
+     * second server would answer with an error for the transaction the first one already accepted.
+     */
+    @Throws(RpcResponseException::class)
+    suspend fun writeAsync(methodName: String, params: RpcParams, timeout: Long, isIdempotent: Boolean = true): RpcResponse {
+        val request = RpcRequestOut(methodName, params).apply {
+            id = nextRequestId.getAndIncrement().toString()
+        }
+        val ranked = rankedClients()
+        return hedged(if (isIdempotent) ranked else ranked.take(1), timeout) { it.writePrepared(request, timeout) }
+    }
+
+    @Throws(RpcResponseException::class)
+    fun write(requests: List<RpcRequestOut>, timeout: Long): BatchedRpcResponse = runBlocking {
+        writeAsync(requests, timeout)
+    }
+
+    @Throws(RpcResponseException::class)
+    fun write(methodName: String, params: RpcParams, timeout: Long, isIdempotent: Boolean = true): RpcResponse = runBlocking {
+        writeAsync(methodName, params, timeout, isIdempotent)
+    }
+
+    // Connected clients first, then by the score of their endpoint. Unknown endpoints score best to get a chance
+    private fun rankedClients(): List<JsonRpcTcpClient> =
+            clients.sortedWith(compareBy({ !it.isConnected.get() }, { health[it.currentEndpoint]?.score ?: 0.0 }))
+
+    /*
+        Runs the call on the first client. If it fails, or takes longer than the hedge delay of that client's
+        endpoint, the call is also started on the next client, and so on. The first result wins and the other
+        attempts are cancelled. Fails if all attempts failed or the timeout passed.
+     */
+    private suspend fun <T> hedged(candidates: List<JsonRpcTcpClient>, timeout: Long,
+                                   call: suspend (JsonRpcTcpClient) -> T): T {
+        val attempts = candidates.take(MAX_ATTEMPTS)
+        val result = CompletableDeferred<T>()
+        val failed = List(attempts.size) { CompletableDeferred<Unit>() }
+        val failures = AtomicInteger()
+        return withTimeoutOrNull(timeout) {
+            coroutineScope {
+                attempts.forEachIndexed { i, client ->
+                    launch {
+                        if (i > 0) {
+                            withTimeoutOrNull(hedgeDelay(attempts[i - 1])) { failed[i - 1].await() }
+                        }
+                        try {
+                            result.complete(measured(client) { call(client) })
+                        } catch (ex: RpcResponseException) {
+                            failed[i].complete(Unit)
+                            if (failures.incrementAndGet() == attempts.size) {
+                                result.completeExceptionally(ex)
+                            }
+                        }
+                    }
+                }
+                try {
+                    result.await()
+                } finally {
+                    coroutineContext.cancelChildren()
+                }
+            }
+        } ?: throw RpcResponseException("Timeout")
+    }
+
+    private suspend fun <T> measured(client: JsonRpcTcpClient, call: suspend () -> T): T {
+        val endpoint = client.currentEndpoint
+        val endpointHealth = health.getOrPut(endpoint) { EndpointHealth() }
+        val start = System.currentTimeMillis()
+        try {
+            return call().also {
+                endpointHealth.success(System.currentTimeMillis() - start)
+            }
+        } catch (ex: RpcResponseException) {
+            endpointHealth.failure()
+            throw ex
+        } finally {
+            dropIfUnhealthy(client, endpoint, endpointHealth)
+        }
+    }
+
+    private fun hedgeDelay(client: JsonRpcTcpClient): Long {
+        val endpointHealth = health[client.currentEndpoint]
+        if (endpointHealth == null || endpointHealth.samples == 0) {
+            return DEFAULT_HEDGE_DELAY
+        }
+        return max(MIN_HEDGE_DELAY, (HEDGE_FACTOR * endpointHealth.rttMillis).toLong())
+    }
+
+    private fun dropIfUnhealthy(client: JsonRpcTcpClient, endpoint: TcpEndpoint, endpointHealth: EndpointHealth) {
+        if (endpointHealth.samples < MIN_SAMPLES_TO_DROP || client.currentEndpoint != endpoint) {
+            return
+        }
+        val best = health.filterKeys { it != endpoint }.values
+                .filter { it.samples >= MIN_SAMPLES_TO_DROP }
+                .map { it.score }
+                .min()
+        val isFailing = endpointHealth.errorRate > MAX_ERROR_RATE
+        val isSlow = best != null && endpointHealth.score > SLOW_FACTOR * max(best, MIN_HEDGE_DELAY.toDouble())
+        if ((isFailing || isSlow) && health.remove(endpoint, endpointHealth)) {
+            logger.log(Level.INFO, "Dropping ${endpoint.host}:${endpoint.port}, " +
+                    "rtt ${endpointHealth.rttMillis.toLong()}ms, error rate ${endpointHealth.errorRate}")
+            client.reconnect()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_POOL_SIZE = 3
+        // batches are only split if every part gets at least this many requests
+        private const val MIN_SPLIT_BATCH_SIZE = 20
+        private const val MAX_ATTEMPTS = 2
+        private const val EWMA_ALPHA = 0.2
+        private const val ERROR_PENALTY = 10
+        private const val HEDGE_FACTOR = 3
+        private const val MIN_HEDGE_DELAY = 200L
+        private val DEFAULT_HEDGE_DELAY = TimeUnit.SECONDS.toMillis(2)
+        private const val MIN_SAMPLES_TO_DROP = 10
+        private const val MAX_ERROR_RATE = 0.5
+        private const val SLOW_FACTOR = 5
+    }
+}
@@ -7,20 +7,19 @@ import java.io.BufferedReader
 
 open class AbstractResponse
 
-class RpcResponse : AbstractResponse() {
+class RpcResponse(
+        @SerializedName(JSON_RPC_IDENTIFIER)
+        val version: String? = null,
+        val id: Any = NO_ID,
+        val method: String? = null,
+        val error: RpcError? = null,
+        val result: JsonElement? = null,
+        val params: JsonElement? = null
+) : AbstractResponse() {
     companion object {
         fun fromJson(json: String): RpcResponse = RPC.fromJson(json, RpcResponse::class.java)
     }
 
-    @SerializedName(JSON_RPC_IDENTIFIER)
-    val version: String? = null
-
-    val id: Any = NO_ID
-    val method: String? = null
-    val error: RpcError? = null
-    val result: JsonElement? = null
-    val params: JsonElement? = null
-
     val isVoid: Boolean
         get() = hasResult && result == null
 
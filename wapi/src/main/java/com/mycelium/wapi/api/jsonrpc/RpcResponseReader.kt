@@ -0,0 +1,143 @@
+package com.mycelium.wapi.api.jsonrpc
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParseException
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.google.gson.JsonArray
+import com.google.gson.JsonElement
+import com.google.gson.JsonNull
+import com.google.gson.JsonObject
+import com.google.gson.JsonPrimitive
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads JSON RPC responses directly from the bytes of a stream. Messages are separated by newlines, which the
+ * parser takes as whitespace between root level values, so no line is ever collected into a String.
+ *
+ * Batches are not built as a whole: every response of a batch is handed to the consumer as soon as it is
+ * decoded, so only one response of a multi-megabyte batch is in memory at a time.
+ */
+internal class RpcResponseReader(input: InputStream) {
+    // Creating the parser already reads from the stream to detect the encoding, so it is done on the first read
+    private val parser by lazy { factory.createParser(input) }
+
+    /**
+     * Blocks until the next message was read and passes its responses to the consumer, one for a single
+     * response and one per entry for a batch.
+     *
+     * @return the number of responses in the message
+     * @throws EOFException if the stream ended
+     */
+    @Throws(IOException::class)
+    fun readMessage(consumer: (RpcResponse) -> Unit): Int {
+        return when (parser.nextToken()) {
+            null -> throw EOFException("Connection closed")
+            JsonToken.START_OBJECT -> {
+                consumer(readResponse())
+                1
+            }
+            JsonToken.START_ARRAY -> readBatch(consumer)
+            else -> throw JsonParseException(parser, "Unexpected ${parser.currentToken} at the start of a message")
+        }
+    }
+
+    // Reads the entries of a batch, the parser being at its START_ARRAY. An entry that is not an object is no
+    // response and is skipped, the entries after it are still read.
+    private fun readBatch(consumer: (RpcResponse) -> Unit): Int {
+        var count = 0
+        while (true) {
+            when (parser.nextToken()) {
+                JsonToken.END_ARRAY -> return count
+                JsonToken.START_OBJECT -> {
+                    consumer(readResponse())
+                    count++
+                }
+                null -> throw EOFException("Connection closed")
+                else -> parser.skipChildren()
+            }
+        }
+    }
+
+    // Reads the fields of a response object, the parser being at its START_OBJECT
+    private fun readResponse(): RpcResponse {
+        var version: String? = null
+        var id: Any = NO_ID
+        var method: String? = null
+        var error: RpcError? = null
+        var result: JsonElement? = null
+        var params: JsonElement? = null
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName
+            parser.nextToken()
+            when (name) {
+                JSON_RPC_IDENTIFIER -> version = parser.valueAsString
+                ID_KEY -> id = readId()
+                METHOD_KEY -> method = parser.valueAsString
+                ERROR_KEY -> error = readError()
+                RESULT_KEY -> result = readTree().takeUnless { it.isJsonNull }
+                PARAMS_KEY -> params = readTree().takeUnless { it.isJsonNull }
+                else -> parser.skipChildren()
+            }
+        }
+        return RpcResponse(version, id, method, error, result, params)
+    }
+
+    // Same types as Gson's deserialization to Any gave: strings stay strings, numbers become doubles
+    private fun readId(): Any = when (parser.currentToken) {
+        JsonToken.VALUE_STRING -> parser.text
+        JsonToken.VALUE_NUMBER_INT, JsonToken.VALUE_NUMBER_FLOAT -> parser.doubleValue
+        else -> {
+            parser.skipChildren()
+            NO_ID
+        }
+    }
+
+    private fun readError(): RpcError? {
+        if (parser.currentToken != JsonToken.START_OBJECT) {
+            parser.skipChildren()
+            return null
+        }
+        var code = 0
+        var message = ""
+        var data: Any? = null
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName
+            parser.nextToken()
+            when (name) {
+                CODE_KEY -> code = parser.valueAsInt
+                MESSAGE_KEY -> message = parser.valueAsString ?: ""
+                DATA_KEY -> data = readTree().takeUnless { it.isJsonNull }
+                else -> parser.skipChildren()
+            }
+        }
+        return RpcError(code, message, data)
+    }
+
+    // Builds the Gson tree of the current value, which RpcResponse.getResult() maps to the requested type
+    private fun readTree(): JsonElement = when (parser.currentToken) {
+        JsonToken.START_OBJECT -> JsonObject().apply {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val name = parser.currentName
+                parser.nextToken()
+                add(name, readTree())
+            }
+        }
+        JsonToken.START_ARRAY -> JsonArray().apply {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                add(readTree())
+            }
+        }
+        JsonToken.VALUE_STRING -> JsonPrimitive(parser.text)
+        JsonToken.VALUE_NUMBER_INT, JsonToken.VALUE_NUMBER_FLOAT -> JsonPrimitive(parser.numberValue)
+        JsonToken.VALUE_TRUE -> JsonPrimitive(true)
+        JsonToken.VALUE_FALSE -> JsonPrimitive(false)
+        else -> JsonNull.INSTANCE
+    }
+
+    companion object {
+        private val factory = JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+    }
+}
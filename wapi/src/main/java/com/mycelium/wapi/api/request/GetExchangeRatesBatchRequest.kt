@@ -0,0 +1,23 @@
+package com.mycelium.wapi.api.request
+
+import com.fasterxml.jackson.annotation.JsonProperty
+
+import java.io.Serializable
+
+/**
+ * Asks for the exchange rates of every currency of [fromCurrencies] to every currency of [toCurrencies]
+ */
+class GetExchangeRatesBatchRequest(
+        @param:JsonProperty @field:JsonProperty var version: Int,
+        @param:JsonProperty @field:JsonProperty var fromCurrencies: List<String>,
+        @param:JsonProperty @field:JsonProperty var toCurrencies: List<String>) : Serializable {
+    override fun toString() = "$fromCurrencies-$toCurrencies"
+
+    // For Jackson
+    @Suppress("unused")
+    constructor() : this(0, emptyList(), emptyList())
+
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+}
@@ -0,0 +1,37 @@
+package com.mycelium.wapi.api.request;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.mrd.bitlib.model.BitcoinAddress;
+
+public class QueryAddressStatusesRequest implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   @JsonProperty
+   public final int version;
+   /**
+    * The addresses to get the status of. Unless {@link #subscribe} is false, the server keeps notifying about changes
+    * of their status
+    */
+   @JsonProperty
+   public final Collection<BitcoinAddress> addresses;
+   /**
+    * False to only look the statuses up, for addresses that are not watched like the ones of an account discovery
+    */
+   @JsonProperty
+   public final boolean subscribe;
+
+   public QueryAddressStatusesRequest(int version, Collection<BitcoinAddress> addresses) {
+      this(version, addresses, true);
+   }
+
+   public QueryAddressStatusesRequest(@JsonProperty("version") int version,
+         @JsonProperty("addresses") Collection<BitcoinAddress> addresses,
+         @JsonProperty("subscribe") boolean subscribe) {
+      this.version = version;
+      this.addresses = addresses;
+      this.subscribe = subscribe;
+   }
+}
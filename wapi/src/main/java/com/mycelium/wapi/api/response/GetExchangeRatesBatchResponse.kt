@@ -0,0 +1,18 @@
+package com.mycelium.wapi.api.response
+
+import com.fasterxml.jackson.annotation.JsonProperty
+
+import java.io.Serializable
+
+class GetExchangeRatesBatchResponse(
+        @param:JsonProperty @field:JsonProperty val responses: List<GetExchangeRatesResponse>) : Serializable {
+    override fun toString() = "${responses.size} pairs"
+
+    // For Jackson
+    @Suppress("unused")
+    constructor() : this(emptyList())
+
+    companion object {
+        private const val serialVersionUID = 1L
+    }
+}
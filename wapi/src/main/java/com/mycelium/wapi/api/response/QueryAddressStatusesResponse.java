@@ -0,0 +1,32 @@
+package com.mycelium.wapi.api.response;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.mrd.bitlib.model.BitcoinAddress;
+
+public class QueryAddressStatusesResponse implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * The status of an address without any transactions
+    */
+   public static final String NO_HISTORY = "";
+
+   @JsonProperty
+   public final int height;
+   /**
+    * The status hash of every address, {@link #NO_HISTORY} for unused addresses. The status changes with every
+    * transaction of the address and whenever one of them confirms, so addresses whose status did not change since
+    * the last sync don't have to be synced again. Addresses whose status could not be determined are missing.
+    */
+   @JsonProperty
+   public final Map<BitcoinAddress, String> statuses;
+
+   public QueryAddressStatusesResponse(@JsonProperty("height") int height,
+                                       @JsonProperty("statuses") Map<BitcoinAddress, String> statuses) {
+      this.height = height;
+      this.statuses = statuses;
+   }
+}
@@ -1,13 +1,21 @@
 package com.mycelium.wapi.api
 
+import com.mrd.bitlib.model.BitcoinAddress
+import com.mrd.bitlib.util.HashUtils
 import com.mycelium.net.ServerEndpoints
+import com.mycelium.testhelper.FakeElectrumXServer
 import com.mycelium.wapi.api.jsonrpc.RpcResponse
 import com.mycelium.wapi.api.jsonrpc.TcpEndpoint
+import com.mycelium.wapi.api.request.QueryAddressStatusesRequest
+import com.mycelium.wapi.api.response.QueryAddressStatusesResponse
 import org.junit.Test
 
 import org.junit.Assert.*
 import org.junit.Before
 import org.mockito.Mockito.mock
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
 class WapiClientElectrumXTest {
     private val version = "testing"
@@ -39,4 +47,72 @@ class WapiClientElectrumXTest {
         val result = sut!!.handleBroadcastResponse(response)
         assertEquals("Unable to correctly handle unknown ElectrumX error", expectedWapiErrorCode, result.errorCode)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun addressStatusesAreLookedUpWithoutSubscribing() {
+        val used = BitcoinAddress.fromString("1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2")
+        val unused = BitcoinAddress.fromString("3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy")
+        val txid = "ab".repeat(32)
+        val methods = Collections.synchronizedList(ArrayList<String>())
+        val server = FakeElectrumXServer { method, params ->
+            methods.add(method)
+            when (method) {
+                "blockchain.headers.subscribe" -> """{"height": 100, "hex": ""}"""
+                "blockchain.scripthash.get_history" ->
+                    if (params!!.asJsonArray[0].asString == used.scriptHash.toHex()) {
+                        """[{"tx_hash": "$txid", "height": 90}]"""
+                    } else {
+                        "[]"
+                    }
+                else -> "null"
+            }
+        }
+        val client = WapiClientElectrumX(mock(ServerEndpoints::class.java), arrayOf(TcpEndpoint("localhost", server.port, false)), version, 29)
+        try {
+            val response = client.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, listOf(used, unused), false))
+
+            assertEquals(HashUtils.sha256("$txid:90:".toByteArray()).toHex(), response.result.statuses[used])
+            assertEquals(QueryAddressStatusesResponse.NO_HISTORY, response.result.statuses[unused])
+            assertFalse("nothing is subscribed", methods.contains("blockchain.scripthash.subscribe"))
+        } finally {
+            client.setNetworkConnected(false)
+            server.close()
+        }
+    }
+
+    @Test
+    fun statusNotificationsNameTheSubscribedAddress() {
+        val subscribed = BitcoinAddress.fromString("1BvBMSEYstWetqTFn5Au4m4GFg7xJaNVN2")
+        val foreign = BitcoinAddress.fromString("3J98t1WpEZ73CNmQviecrnyiWrnqRhWNLy")
+        // subscriptions are answered with null, the status of addresses without history
+        val server = FakeElectrumXServer { method, _ ->
+            if (method == "blockchain.headers.subscribe") """{"height": 100, "hex": ""}""" else "null"
+        }
+        val client = WapiClientElectrumX(mock(ServerEndpoints::class.java), arrayOf(TcpEndpoint("localhost", server.port, false)), version, 29)
+        val changed = Collections.synchronizedSet(HashSet<BitcoinAddress>())
+        val notified = CountDownLatch(1)
+        client.addressStatusListener = object : AddressStatusListener {
+            override fun addressStatusChanged(address: BitcoinAddress) {
+                changed.add(address)
+                notified.countDown()
+            }
+        }
+        try {
+            val response = client.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, listOf(subscribed)))
+            assertEquals(QueryAddressStatusesResponse.NO_HISTORY, response.result.statuses[subscribed])
+
+            // the notification of the address that is not subscribed to goes first, so it was handled when the other one is
+            server.notify("blockchain.scripthash.subscribe", """["${foreign.scriptHash.toHex()}", "aa"]""")
+            server.notify("blockchain.scripthash.subscribe", """["${subscribed.scriptHash.toHex()}", "bb"]""")
+
+            assertTrue(notified.await(10, TimeUnit.SECONDS))
+            assertEquals(setOf(subscribed), HashSet(changed))
+            // the new status is known without asking the server again
+            val updated = client.queryAddressStatuses(QueryAddressStatusesRequest(Wapi.VERSION, listOf(subscribed)))
+            assertEquals("bb", updated.result.statuses[subscribed])
+        } finally {
+            client.setNetworkConnected(false)
+            server.close()
+        }
+    }
+}
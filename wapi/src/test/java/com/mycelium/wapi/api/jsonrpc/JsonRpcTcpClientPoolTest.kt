@@ -0,0 +1,69 @@
+package com.mycelium.wapi.api.jsonrpc
+
+import com.mycelium.testhelper.FakeElectrumXServer
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class JsonRpcTcpClientPoolTest {
+    private val servers = ArrayList<FakeElectrumXServer>()
+    private lateinit var pool: JsonRpcTcpClientPool
+
+    private fun startPool(vararg serversToUse: FakeElectrumXServer) {
+        servers.addAll(serversToUse)
+        pool = JsonRpcTcpClientPool(servers.map { TcpEndpoint("localhost", it.port, false) }.toTypedArray(), 29, servers.size)
+        pool.start()
+        val deadline = System.currentTimeMillis() + TIMEOUT
+        while (pool.isConnected.not() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50)
+        }
+    }
+
+    @After
+    fun tearDown() {
+        pool.setActive(false)
+        servers.forEach { it.close() }
+    }
+
+    @Test
+    fun largeBatchIsSplitAcrossServers() {
+        startPool(FakeElectrumXServer(), FakeElectrumXServer())
+        // give the second connection time to come up as well
+        Thread.sleep(500)
+        val requests = (0 until 100).map { RpcRequestOut("test.echo", RpcParams.listParams(it)) }
+        val response = pool.write(requests, TIMEOUT)
+
+        assertEquals(requests.size, response.responses.size)
+        val resultsById = response.responses.associate { it.id to it.getResult(Int::class.java) }
+        requests.forEachIndexed { i, request -> assertEquals(i, resultsById[request.id]) }
+        servers.forEach { assertTrue("every server gets a part", it.requestCount.get() > 0) }
+        assertEquals(requests.size, servers.sumBy { it.requestCount.get() })
+    }
+
+    @Test
+    fun slowServerIsHedged() {
+        startPool(FakeElectrumXServer(responseDelay = 10_000), FakeElectrumXServer())
+        Thread.sleep(500)
+        val start = System.currentTimeMillis()
+        val response = pool.write("test.echo", RpcParams.listParams(42), TIMEOUT)
+        assertEquals(42, response.getResult(Int::class.java))
+        assertTrue("answered by the fast server", System.currentTimeMillis() - start < 5_000)
+    }
+
+    @Test
+    fun requestsPreferTheFasterServer() {
+        val slow = FakeElectrumXServer(responseDelay = 100)
+        val fast = FakeElectrumXServer()
+        startPool(slow, fast)
+        Thread.sleep(500)
+        repeat(30) {
+            pool.write("test.echo", RpcParams.listParams(it), TIMEOUT)
+        }
+        assertTrue("most requests go to the fast server", fast.requestCount.get() > slow.requestCount.get())
+    }
+
+    companion object {
+        private const val TIMEOUT = 20_000L
+    }
+}
@@ -0,0 +1,93 @@
+package com.mycelium.wapi.api.jsonrpc
+
+import com.google.gson.JsonParser
+import com.mycelium.wapi.api.exception.RpcResponseException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.PrintWriter
+import java.net.ServerSocket
+import kotlin.concurrent.thread
+
+class JsonRpcTcpClientTest {
+    private lateinit var server: ServerSocket
+    private lateinit var client: JsonRpcTcpClient
+
+    /**
+     * Answers "test.echo" requests only after [holdBack] of them arrived, in reverse order, so the responses
+     * can only be matched to their requests if the client pipelines them and correlates by id.
+     */
+    private fun startServer(holdBack: Int) {
+        server = ServerSocket(0)
+        thread(isDaemon = true) {
+            val socket = server.accept()
+            val out = PrintWriter(socket.getOutputStream(), true)
+            val held = ArrayList<Pair<String, String>>()
+            socket.getInputStream().bufferedReader().forEachLine { line ->
+                val request = JsonParser().parse(line)
+                if (request.isJsonArray) {
+                    val responses = request.asJsonArray.map {
+                        val obj = it.asJsonObject
+                        """{"jsonrpc": "2.0", "id": "${obj["id"].asString}", "result": ${obj["params"].asJsonArray[0]}}"""
+                    }
+                    out.println(responses.reversed().joinToString(",", "[", "]"))
+                    return@forEachLine
+                }
+                val obj = request.asJsonObject
+                if (obj["method"].asString != "test.echo") {
+                    return@forEachLine
+                }
+                held.add(obj["id"].asString to obj["params"].asJsonArray[0].toString())
+                if (held.size == holdBack) {
+                    held.reversed().forEach { (id, param) ->
+                        out.println("""{"jsonrpc": "2.0", "id": "$id", "result": $param}""")
+                    }
+                    held.clear()
+                }
+            }
+        }
+        client = JsonRpcTcpClient(arrayOf(TcpEndpoint("localhost", server.localPort, false)), 29)
+        client.start()
+    }
+
+    @After
+    fun tearDown() {
+        client.setActive(false)
+        server.close()
+    }
+
+    @Test
+    fun pipelinedRequestsAreCorrelatedById() {
+        val count = 20
+        startServer(count)
+        val results = runBlocking {
+            (0 until count).map { i ->
+                async { client.writeAsync("test.echo", RpcParams.listParams(i), TIMEOUT).getResult(Int::class.java) }
+            }.awaitAll()
+        }
+        assertEquals((0 until count).toList(), results)
+    }
+
+    @Test
+    fun batchResponseIsMatchedToItsRequest() {
+        startServer(1)
+        val requests = (0 until 5).map { RpcRequestOut("test.echo", RpcParams.listParams(it)) }
+        val response = client.write(requests, TIMEOUT)
+        val resultsById = response.responses.associate { it.id to it.getResult(Int::class.java) }
+        requests.forEachIndexed { i, request -> assertEquals(i, resultsById[request.id]) }
+    }
+
+    @Test(expected = RpcResponseException::class)
+    fun unansweredRequestTimesOut() {
+        startServer(2)
+        client.write("test.echo", RpcParams.listParams(1), 500)
+    }
+
+    companion object {
+        private const val TIMEOUT = 10_000L
+    }
+}
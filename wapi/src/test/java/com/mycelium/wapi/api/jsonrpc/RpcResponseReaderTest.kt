@@ -0,0 +1,71 @@
+package com.mycelium.wapi.api.jsonrpc
+
+import com.mycelium.wapi.api.BlockHeader
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+
+class RpcResponseReaderTest {
+    private fun reader(vararg lines: String) =
+            RpcResponseReader(ByteArrayInputStream(lines.joinToString("\n", postfix = "\n").toByteArray()))
+
+    @Test
+    fun readsSingleResponsesLineByLine() {
+        val reader = reader(
+                """{"jsonrpc": "2.0", "id": "1", "result": {"height": 5, "hex": "00"}}""",
+                """{"jsonrpc": "2.0", "method": "blockchain.headers.subscribe", "params": [{"height": 6, "hex": "01"}]}""")
+        val responses = ArrayList<RpcResponse>()
+        assertEquals(1, reader.readMessage { responses.add(it) })
+        assertEquals(1, reader.readMessage { responses.add(it) })
+
+        assertEquals("1", responses[0].id)
+        assertEquals(5, responses[0].getResult(BlockHeader::class.java)!!.height)
+        assertEquals(NO_ID, responses[1].id)
+        assertEquals("blockchain.headers.subscribe", responses[1].method)
+        assertEquals(6, responses[1].getParams(Array<BlockHeader>::class.java)!![0].height)
+    }
+
+    @Test
+    fun deliversEveryEntryOfABatch() {
+        val reader = reader("""[{"jsonrpc": "2.0", "id": "3", "result": [1, 2]}, {"jsonrpc": "2.0", "id": "4", "result": null}]""")
+        val ids = ArrayList<Any>()
+        assertEquals(2, reader.readMessage { ids.add(it.id) })
+        assertEquals(listOf<Any>("3", "4"), ids)
+    }
+
+    @Test
+    fun skipsBatchEntriesThatAreNoResponses() {
+        val reader = reader(
+                """[{"jsonrpc": "2.0", "id": "3", "result": 1}, null, [{"id": "x"}], 5, {"jsonrpc": "2.0", "id": "4", "result": 2}]""",
+                """{"jsonrpc": "2.0", "id": "5", "result": 3}""")
+        val ids = ArrayList<Any>()
+        assertEquals(2, reader.readMessage { ids.add(it.id) })
+        assertEquals(listOf<Any>("3", "4"), ids)
+        // the next message starts right after the batch
+        assertEquals(1, reader.readMessage { ids.add(it.id) })
+        assertEquals("5", ids[2])
+    }
+
+    @Test
+    fun readsErrors() {
+        val reader = reader("""{"jsonrpc": "2.0", "error": {"code": "1", "message": "rejected", "data": {"x": 1}}, "id": 7}""")
+        var response: RpcResponse? = null
+        reader.readMessage { response = it }
+
+        assertTrue(response!!.hasError)
+        assertNull(response!!.result)
+        assertEquals(1, response!!.error!!.code)
+        assertEquals("rejected", response!!.error!!.message)
+        assertEquals(7.0, response!!.id)
+    }
+
+    @Test(expected = EOFException::class)
+    fun endOfStream() {
+        val reader = reader("""{"jsonrpc": "2.0", "id": "1", "result": 1}""")
+        reader.readMessage { }
+        reader.readMessage { }
+    }
+}